@@ -0,0 +1,131 @@
+package org.msuo.lua2java;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Plumbing behind {@code deserializeAsync}: the default executor and a
+ * future whose {@link #cancel} interrupts the worker running the load.
+ */
+final class AsyncLoad {
+
+    private static final Logger LOG = LoggerFactory.getLogger(
+        AsyncLoad.class
+    );
+
+    private AsyncLoad() {}
+
+    /**
+     * Virtual thread per task on Java 21+, looked up reflectively since the
+     * library targets Java 11. Older JVMs get a cached pool of daemon threads.
+     */
+    static Executor defaultExecutor() {
+        return DefaultExecutor.INSTANCE;
+    }
+
+    static <T> CompletableFuture<T> submit(
+        Callable<T> work,
+        Executor executor
+    ) {
+        Task<T> task = new Task<>(work);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.completeExceptionally(e);
+        }
+        return task;
+    }
+
+    private static final class DefaultExecutor {
+
+        static final Executor INSTANCE = create();
+
+        private static Executor create() {
+            try {
+                Method m = Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor"
+                );
+                return (ExecutorService) m.invoke(null);
+            } catch (NoSuchMethodException e) {
+                // Pre-21 JVM
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOG.debug("Virtual threads unavailable", e);
+            }
+
+            AtomicInteger n = new AtomicInteger();
+            ThreadFactory threads = r -> {
+                Thread t = new Thread(
+                    r,
+                    "lua2java-async-" + n.incrementAndGet()
+                );
+                t.setDaemon(true);
+                return t;
+            };
+            return Executors.newCachedThreadPool(threads);
+        }
+    }
+
+    static final class Task<T>
+        extends CompletableFuture<T>
+        implements Runnable {
+
+        private final Callable<T> work;
+        private Thread runner;
+        // Whether cancel() interrupted the runner
+        private boolean interrupted;
+
+        Task(Callable<T> work) {
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (isDone()) return;
+                runner = Thread.currentThread();
+            }
+            try {
+                complete(work.call());
+            } catch (Throwable t) {
+                completeExceptionally(t);
+            } finally {
+                boolean ours;
+                synchronized (this) {
+                    runner = null;
+                    ours = interrupted;
+                }
+                // Drop the interrupt cancel() sent so it cannot leak into
+                // whatever the pooled thread runs next. Any other, such as
+                // the executor shutting down, stays for the pool to see.
+                if (ours) Thread.interrupted();
+            }
+        }
+
+        /**
+         * Also interrupts a running load regardless of
+         * {@code mayInterruptIfRunning}: its result is discarded anyway.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                synchronized (this) {
+                    if (runner != null) {
+                        interrupted = true;
+                        runner.interrupt();
+                    }
+                }
+            }
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.msuo.lua2java;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class BindStats {
+
+    // [instances, errors] per bound object type, in first-seen order
+    private final Map<Class<?>, int[]> counts = new LinkedHashMap<>();
+
+    void bound(Class<?> cls) {
+        slot(cls)[0]++;
+    }
+
+    void error(Class<?> cls) {
+        slot(cls)[1]++;
+    }
+
+    Map<Class<?>, int[]> counts() {
+        return counts;
+    }
+
+    private int[] slot(Class<?> cls) {
+        int[] s = counts.get(cls);
+        if (s == null) {
+            s = new int[2];
+            counts.put(cls, s);
+        }
+        return s;
+    }
+}
@@ -3,15 +3,38 @@ package org.msuo.lua2java;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.Objects;
 import org.luaj.vm2.LuaTable;
 import org.luaj.vm2.LuaValue;
 
 final class ClassAdapter implements TypeAdapter {
 
     private final Class<?> cls;
+    /** {@code cls} itself, or the parameterization it is bound as. */
+    private final Type type;
+    private final LeafReader.Target leaf;
 
-    ClassAdapter(Class<?> cls) {
+    private volatile ClassSchema schema;
+
+    ClassAdapter(Class<?> cls, Type type) {
         this.cls = cls;
+        this.type = type;
+        this.leaf = LeafReader.targetOf(cls);
+    }
+
+    /**
+     * Built on first use rather than in the constructor, so self-referencing
+     * types get their (cached) adapter before their fields are resolved.
+     */
+    private ClassSchema schema() {
+        ClassSchema s = schema;
+        if (s == null) {
+            s = ClassSchema.build(cls, type);
+            schema = s;
+        }
+        return s;
     }
 
     @Override
@@ -24,33 +47,184 @@ final class ClassAdapter implements TypeAdapter {
             return ObjectReader.readObject(
                 path,
                 cls,
+                schema(),
                 luaValue.checktable(),
                 errors
             );
         }
-        return LeafReader.readLeaf(path, cls, luaValue, errors);
+        return LeafReader.readLeaf(path, cls, leaf, luaValue, errors);
+    }
+
+    @Override
+    public ReadResult update(
+        Path path,
+        LuaValue luaValue,
+        Object current,
+        FieldChanges changes,
+        ErrorCollector errors
+    ) {
+        if (current == null || current.getClass() != cls) {
+            return TypeAdapter.super.update(
+                path,
+                luaValue,
+                current,
+                changes,
+                errors
+            );
+        }
+        if (!luaValue.istable()) {
+            if (LeafReader.holds(leaf, luaValue, current)) {
+                return ReadResult.ok(current);
+            }
+            return TypeAdapter.super.update(
+                path,
+                luaValue,
+                current,
+                changes,
+                errors
+            );
+        }
+        return ObjectReader.updateObject(
+            path,
+            cls,
+            schema(),
+            current,
+            luaValue.checktable(),
+            changes,
+            errors
+        );
+    }
+
+    @Override
+    public ReadResult overlay(
+        Path path,
+        LuaValue luaValue,
+        Object base,
+        ErrorCollector errors
+    ) {
+        if (base == null || base.getClass() != cls || !luaValue.istable()) {
+            return TypeAdapter.super.overlay(path, luaValue, base, errors);
+        }
+        return ObjectReader.overlayObject(
+            path,
+            cls,
+            schema(),
+            base,
+            luaValue.checktable(),
+            errors
+        );
     }
 
     private static final class ObjectReader {
 
-        private static final ClassValue<ClassSchema> SCHEMA_CACHE =
-            new ClassValue<>() {
-                @Override
-                protected ClassSchema computeValue(Class<?> type) {
-                    return ClassSchema.build(type);
+        /** Copies {@code base} on its first change; see {@code overlay}. */
+        static ReadResult overlayObject(
+            Path path,
+            Class<?> cls,
+            ClassSchema schema,
+            Object base,
+            LuaTable table,
+            ErrorCollector errors
+        ) {
+            Object copy = null;
+
+            Class<?> outer = errors.enterObject(cls);
+            for (int i = 0; i < schema.bindings.size(); i++) {
+                FieldBinding b = schema.bindings.get(i);
+                LuaValue v = table.get(b.luaKey);
+                if (v.isnil()) continue;
+
+                Path fieldPath = path.field(b.key);
+                Object old = getFieldValueQuiet(base, b.field);
+                ReadResult rr = b.adapter.overlay(fieldPath, v, old, errors);
+                if (!rr.ok || rr.value == old) continue;
+                if (copy == null) {
+                    copy = copyOf(path, cls, schema, base, errors);
+                    if (copy == null) break;
                 }
-            };
+                setFieldQuiet(copy, b.field, rr.value, fieldPath, errors);
+            }
+            errors.exitObject(outer);
+
+            return ReadResult.ok(copy != null ? copy : base);
+        }
+
+        /** Shallow copy: field values stay shared with {@code instance}. */
+        private static Object copyOf(
+            Path path,
+            Class<?> cls,
+            ClassSchema schema,
+            Object instance,
+            ErrorCollector errors
+        ) {
+            Object copy = instantiateNoArg(path, cls, schema, errors);
+            if (copy == null) return null;
+            for (int i = 0; i < schema.bindings.size(); i++) {
+                FieldBinding b = schema.bindings.get(i);
+                setFieldQuiet(
+                    copy,
+                    b.field,
+                    getFieldValueQuiet(instance, b.field),
+                    path.field(b.key),
+                    errors
+                );
+            }
+            return copy;
+        }
+
+        /** Binds into {@code instance}; see {@link TypeAdapter#update}. */
+        static ReadResult updateObject(
+            Path path,
+            Class<?> cls,
+            ClassSchema schema,
+            Object instance,
+            LuaTable table,
+            FieldChanges changes,
+            ErrorCollector errors
+        ) {
+            // A fresh instance, only to read defaults of missing keys from
+            Object defaults = null;
+
+            Class<?> outer = errors.enterObject(cls);
+            for (int i = 0; i < schema.bindings.size(); i++) {
+                FieldBinding b = schema.bindings.get(i);
+                Path fieldPath = path.field(b.key);
+                Object old = getFieldValueQuiet(instance, b.field);
+                LuaValue v = table.get(b.luaKey);
+
+                ReadResult rr;
+                if (!v.isnil()) {
+                    rr = b.adapter.update(fieldPath, v, old, changes, errors);
+                } else {
+                    if (defaults == null) {
+                        defaults = instantiateNoArg(path, cls, schema, errors);
+                        if (defaults == null) break;
+                    }
+                    Object d = getFieldValueQuiet(defaults, b.field);
+                    rr = d != null
+                        ? ReadResult.ok(d)
+                        : b.adapter.missing(fieldPath, errors);
+                }
+                if (rr.ok && !Objects.equals(rr.value, old)) {
+                    changes.set(instance, b.field, rr.value, fieldPath, errors);
+                }
+            }
+            errors.exitObject(outer);
+
+            return ReadResult.ok(instance);
+        }
 
         static ReadResult readObject(
             Path path,
             Class<?> cls,
+            ClassSchema schema,
             LuaTable table,
             ErrorCollector errors
         ) {
-            Object instance = instantiateNoArg(path, cls, errors);
+            Object instance = instantiateNoArg(path, cls, schema, errors);
             if (instance == null) return ReadResult.fail();
 
-            ClassSchema schema = SCHEMA_CACHE.get(cls);
+            Class<?> outer = errors.enterObject(cls);
             for (int i = 0; i < schema.bindings.size(); i++) {
                 bindField(
                     instance,
@@ -60,6 +234,7 @@ final class ClassAdapter implements TypeAdapter {
                     errors
                 );
             }
+            errors.exitObject(outer);
 
             return ReadResult.ok(instance);
         }
@@ -73,7 +248,7 @@ final class ClassAdapter implements TypeAdapter {
         ) {
             Path fieldPath = basePath.field(b.key);
 
-            LuaValue v = table.get(b.key);
+            LuaValue v = table.get(b.luaKey);
             boolean provided = !v.isnil();
 
             Object currentDefault = getFieldValueQuiet(instance, b.field);
@@ -103,22 +278,55 @@ final class ClassAdapter implements TypeAdapter {
         }
     }
 
+    @Override
+    public void validate(Path path, SchemaValidator validator) {
+        if (!validator.enter(type)) return;
+
+        // JDK types only ever bind from scalars; their fields are not ours
+        if (cls.getName().startsWith("java.")) {
+            if (!LeafReader.acceptsScalar(cls)) {
+                validator.error(path, ConfigErrorCode.UNSUPPORTED_TYPE, cls);
+            }
+            return;
+        }
+
+        ClassSchema schema = schema();
+        boolean instantiable =
+            schema.constructor != null &&
+            !cls.isInterface() &&
+            !Modifier.isAbstract(cls.getModifiers());
+        if (!instantiable) {
+            // Fine as long as scalars can still be converted
+            if (!LeafReader.acceptsScalar(cls)) {
+                validator.error(path, ConfigErrorCode.NO_NO_ARG_CTOR, cls);
+            }
+            return;
+        }
+
+        for (int i = 0; i < schema.bindings.size(); i++) {
+            FieldBinding b = schema.bindings.get(i);
+            b.adapter.validate(path.field(b.key), validator);
+        }
+    }
+
     private static Object instantiateNoArg(
         Path path,
         Class<?> cls,
+        ClassSchema schema,
         ErrorCollector errors
     ) {
+        Constructor<?> c = schema.constructor;
+        if (c == null) {
+            errors.add(path, ConfigErrorCode.NO_NO_ARG_CTOR, cls);
+            return null;
+        }
         try {
-            Constructor<?> c = cls.getDeclaredConstructor();
-            c.setAccessible(true);
             return c.newInstance();
-        } catch (NoSuchMethodException e) {
-            errors.add(path, Errors.noNoArgCtor(cls));
         } catch (InvocationTargetException e) {
             Throwable cause = (e.getCause() != null) ? e.getCause() : e;
-            errors.add(path, Errors.ctorFailed(cls, cause));
+            errors.add(path, ConfigErrorCode.CTOR_FAILED, cls, cause);
         } catch (ReflectiveOperationException e) {
-            errors.add(path, Errors.instantiateFailed(cls, e));
+            errors.add(path, ConfigErrorCode.INSTANTIATE_FAILED, cls, e);
         }
         return null;
     }
@@ -141,12 +349,9 @@ final class ClassAdapter implements TypeAdapter {
         try {
             f.set(instance, value);
         } catch (IllegalAccessException e) {
-            errors.add(path, "Failed to set field (access): " + e.getMessage());
+            errors.add(path, ConfigErrorCode.FIELD_SET_ACCESS, e);
         } catch (IllegalArgumentException e) {
-            errors.add(
-                path,
-                "Failed to set field (type mismatch): " + e.getMessage()
-            );
+            errors.add(path, ConfigErrorCode.FIELD_SET_TYPE_MISMATCH, e);
         }
     }
 }
@@ -1,21 +1,32 @@
 package org.msuo.lua2java;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 final class ClassSchema {
 
     final List<FieldBinding> bindings;
+    /** Accessible no-arg constructor, or {@code null} if there is none. */
+    final Constructor<?> constructor;
 
-    private ClassSchema(List<FieldBinding> bindings) {
+    private ClassSchema(List<FieldBinding> bindings, Constructor<?> ctor) {
         this.bindings = bindings;
+        this.constructor = ctor;
     }
 
-    static ClassSchema build(Class<?> cls) {
+    /**
+     * Field types are resolved against {@code context}: {@code cls} itself
+     * or a parameterization of it such as {@code Page<Item>}.
+     */
+    static ClassSchema build(Class<?> cls, Type context) {
+        Map<TypeVariable<?>, Type> vars = TypeUtils.bindings(context);
         List<Field> fields = allInstanceFields(cls);
         List<FieldBinding> bs = new ArrayList<>(fields.size());
 
@@ -24,13 +35,28 @@ final class ClassSchema {
             f.setAccessible(true);
 
             String key = f.getName();
-            Type t = f.getGenericType();
+            Type t = TypeUtils.resolve(f.getGenericType(), vars);
             TypeAdapter adapter = LuaDeserializer.adapterFor(t);
+            java.nio.file.Path mapped = MappedFields.directoryOf(f);
+            if (mapped != null) adapter = new MappedAdapter(f, t, mapped);
 
             bs.add(new FieldBinding(f, key, adapter));
         }
 
-        return new ClassSchema(Collections.unmodifiableList(bs));
+        return new ClassSchema(
+            Collections.unmodifiableList(bs),
+            noArgConstructor(cls)
+        );
+    }
+
+    private static Constructor<?> noArgConstructor(Class<?> cls) {
+        try {
+            Constructor<?> c = cls.getDeclaredConstructor();
+            c.setAccessible(true);
+            return c;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
     }
 
     private static List<Field> allInstanceFields(Class<?> cls) {
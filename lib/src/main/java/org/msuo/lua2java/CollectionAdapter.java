@@ -1,21 +1,27 @@
 package org.msuo.lua2java;
 
 import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import org.luaj.vm2.LuaTable;
 import org.luaj.vm2.LuaValue;
 
 final class CollectionAdapter implements TypeAdapter {
 
-    private final ParameterizedType pt;
     private final Class<?> raw;
+    private final Type elemType;
+    private final TypeAdapter elemAdapter;
 
     CollectionAdapter(ParameterizedType pt, Class<?> raw) {
-        this.pt = pt;
         this.raw = raw;
+        this.elemType = pt.getActualTypeArguments()[0];
+        this.elemAdapter = TypeUtils.isConcrete(elemType)
+            ? LuaDeserializer.adapterFor(elemType)
+            : null;
     }
 
     @Override
@@ -28,19 +34,19 @@ final class CollectionAdapter implements TypeAdapter {
             path,
             luaValue,
             errors,
-            Errors.collectionExpected(raw, luaValue)
+            ConfigErrorCode.COLLECTION_EXPECTED,
+            raw
         );
         if (t == null) return ReadResult.fail();
 
-        Class<?> elemCls = TypeUtils.requireConcreteClassArg(
-            pt.getActualTypeArguments()[0],
-            path,
-            Errors.collectionElementMustBeConcrete(
-                pt.getActualTypeArguments()[0]
-            ),
-            errors
-        );
-        if (elemCls == null) return ReadResult.fail();
+        if (elemAdapter == null) {
+            errors.add(
+                path,
+                ConfigErrorCode.COLLECTION_ELEMENT_NOT_CONCRETE,
+                elemType
+            );
+            return ReadResult.fail();
+        }
 
         final boolean wantSet = Set.class.isAssignableFrom(raw);
         final Collection<Object> out = wantSet
@@ -51,15 +57,75 @@ final class CollectionAdapter implements TypeAdapter {
         for (int i = 1; i <= n; i++) {
             LuaValue v = t.get(i);
             Path elemPath = path.index(i);
-            ReadResult rr = LuaDeserializer.readValue(
-                elemPath,
-                elemCls,
-                v,
-                errors
-            );
+            ReadResult rr = elemAdapter.read(elemPath, v, errors);
             if (rr.ok) out.add(rr.value);
         }
 
         return ReadResult.ok(out);
     }
+
+    /**
+     * Lists update their elements by position and are kept when every
+     * element is; sets compare as a whole, since updating an element in
+     * place could change its hash.
+     */
+    @Override
+    public ReadResult update(
+        Path path,
+        LuaValue luaValue,
+        Object current,
+        FieldChanges changes,
+        ErrorCollector errors
+    ) {
+        if (
+            !luaValue.istable() ||
+            elemAdapter == null ||
+            !(current instanceof List<?>) ||
+            Set.class.isAssignableFrom(raw)
+        ) {
+            return TypeAdapter.super.update(
+                path,
+                luaValue,
+                current,
+                changes,
+                errors
+            );
+        }
+
+        List<?> old = (List<?>) current;
+        LuaTable t = luaValue.checktable();
+        int n = t.length();
+        List<Object> out = new ArrayList<>(n);
+        boolean same = n == old.size();
+        for (int i = 1; i <= n; i++) {
+            Object prev = i <= old.size() ? old.get(i - 1) : null;
+            ReadResult rr = elemAdapter.update(
+                path.index(i),
+                t.get(i),
+                prev,
+                changes,
+                errors
+            );
+            if (!rr.ok) {
+                same = false;
+                continue;
+            }
+            out.add(rr.value);
+            if (rr.value != prev) same = false;
+        }
+        return ReadResult.ok(same ? current : out);
+    }
+
+    @Override
+    public void validate(Path path, SchemaValidator validator) {
+        if (elemAdapter == null) {
+            validator.error(
+                path,
+                ConfigErrorCode.COLLECTION_ELEMENT_NOT_CONCRETE,
+                elemType
+            );
+            return;
+        }
+        elemAdapter.validate(path.index(1), validator);
+    }
 }
@@ -0,0 +1,352 @@
+package org.msuo.lua2java;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of configs loaded from files, keyed by the file's path,
+ * size and modification time together with the target type. A hit costs
+ * one file stat: the file is neither read nor run. Entries whose file
+ * changed, or whose script read an outside input that changed since (see
+ * {@link EvaluationMemo}), are dropped on their next lookup.
+ *
+ * <p>A file written again within the timestamp granularity of its file
+ * system keeps its modification time, so entries stored shortly after a
+ * write also compare a content hash until the file is old enough.
+ *
+ * <p>The least recently used entries are evicted once the cache holds
+ * more than its maximum number of entries or its maximum total file size.
+ * Cached configs are returned as the same instance to every caller and
+ * must be treated as read-only. Thread-safe; share one cache across the
+ * components that load the same files.
+ */
+public final class ConfigCache {
+
+    // Modification times closer than this to the store time are not trusted
+    private static final long RACY_MILLIS = 2000;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(
+        16,
+        0.75f,
+        true
+    );
+    private long bytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private ConfigCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /** A cache of at most {@code maxEntries} configs. */
+    public static ConfigCache create(int maxEntries) {
+        return create(maxEntries, Long.MAX_VALUE);
+    }
+
+    /**
+     * A cache of at most {@code maxEntries} configs whose source files
+     * total at most {@code maxBytes}.
+     */
+    public static ConfigCache create(int maxEntries, long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException(
+                "Cache bounds must be positive: " + maxEntries + ", " + maxBytes
+            );
+        }
+        return new ConfigCache(maxEntries, maxBytes);
+    }
+
+    /** Loads answered from the cache. */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Loads that read and ran their file. */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Entries dropped to stay within the bounds. */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /** Entries dropped because their file or an input changed. */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Drops every entry for {@code file}, whatever its target type. */
+    public synchronized void invalidate(java.nio.file.Path file) {
+        java.nio.file.Path p = normalize(file);
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> e = it.next();
+            if (e.getKey().file.equals(p)) {
+                bytes -= e.getValue().size;
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    Key key(
+        java.nio.file.Path file,
+        Charset charset,
+        Selector selector,
+        Type type,
+        DeserializationOptions options
+    ) {
+        return new Key(
+            normalize(file),
+            charset,
+            type,
+            selector == null ? null : selector.expression(),
+            options.getLibraryProfile(),
+            options.getModuleLoader(),
+            options.getMaxInstructions(),
+            options.getTimeout(),
+            options.getMaxAllocatedBytes()
+        );
+    }
+
+    /** The cached result, or {@code null} on a miss. */
+    Object lookup(Key key) {
+        Entry e;
+        synchronized (this) {
+            e = entries.get(key);
+        }
+        if (e != null) {
+            if (e.isCurrent(key.file)) {
+                hits.incrementAndGet();
+                return e.result;
+            }
+            synchronized (this) {
+                if (entries.remove(key, e)) {
+                    bytes -= e.size;
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * The identity of {@code file} before it is read, so that a write
+     * racing the load leaves an entry that no longer matches.
+     */
+    static Stamp stamp(java.nio.file.Path file) throws IOException {
+        BasicFileAttributes a = Files.readAttributes(
+            file,
+            BasicFileAttributes.class
+        );
+        return new Stamp(a.size(), a.lastModifiedTime(), a.fileKey());
+    }
+
+    /** Caches {@code result} unless the run read something untracked. */
+    void store(
+        Key key,
+        Stamp stamp,
+        byte[] content,
+        InputRecorder inputs,
+        Object result
+    ) {
+        if (result == null || inputs.uncacheable() != null) return;
+        // Read the file that was stamped, or it changed in between
+        if (content.length != stamp.size) return;
+
+        boolean racy =
+            System.currentTimeMillis() - stamp.modified.toMillis() <
+            RACY_MILLIS;
+        Entry e = new Entry(
+            stamp,
+            racy ? digest(content) : null,
+            inputs.inputs().toArray(new InputRecorder.Input[0]),
+            result
+        );
+        synchronized (this) {
+            Entry prev = entries.put(key, e);
+            if (prev != null) bytes -= prev.size;
+            bytes += e.size;
+            Iterator<Entry> it = entries.values().iterator();
+            while (
+                (entries.size() > maxEntries || bytes > maxBytes) &&
+                it.hasNext()
+            ) {
+                Entry eldest = it.next();
+                if (eldest == e) break;
+                bytes -= eldest.size;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private static java.nio.file.Path normalize(java.nio.file.Path file) {
+        return file.toAbsolutePath().normalize();
+    }
+
+    private static byte[] digest(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-256
+            throw new AssertionError(e);
+        }
+    }
+
+    static final class Key {
+
+        private final java.nio.file.Path file;
+        private final Charset charset;
+        private final Type type;
+        private final String selector;
+        private final LuaLibraryProfile profile;
+        private final LuaModuleLoader modules;
+        // A run that fit one budget may not fit a smaller one
+        private final long maxInstructions;
+        private final Duration timeout;
+        private final long maxAllocatedBytes;
+        private final int hash;
+
+        private Key(
+            java.nio.file.Path file,
+            Charset charset,
+            Type type,
+            String selector,
+            LuaLibraryProfile profile,
+            LuaModuleLoader modules,
+            long maxInstructions,
+            Duration timeout,
+            long maxAllocatedBytes
+        ) {
+            this.file = file;
+            this.charset = charset;
+            this.type = type;
+            this.selector = selector;
+            this.profile = profile;
+            this.modules = modules;
+            this.maxInstructions = maxInstructions;
+            this.timeout = timeout;
+            this.maxAllocatedBytes = maxAllocatedBytes;
+            this.hash = file.hashCode() * 31 + type.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return (
+                file.equals(k.file) &&
+                charset.equals(k.charset) &&
+                type.equals(k.type) &&
+                Objects.equals(selector, k.selector) &&
+                profile == k.profile &&
+                modules == k.modules &&
+                maxInstructions == k.maxInstructions &&
+                Objects.equals(timeout, k.timeout) &&
+                maxAllocatedBytes == k.maxAllocatedBytes
+            );
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    static final class Stamp {
+
+        final long size;
+        final FileTime modified;
+        // Inode or similar where the file system has one, else null
+        final Object fileKey;
+
+        Stamp(long size, FileTime modified, Object fileKey) {
+            this.size = size;
+            this.modified = modified;
+            this.fileKey = fileKey;
+        }
+
+        boolean sameAs(Stamp o) {
+            return (
+                size == o.size &&
+                modified.equals(o.modified) &&
+                Objects.equals(fileKey, o.fileKey)
+            );
+        }
+    }
+
+    private static final class Entry {
+
+        final Stamp stamp;
+        // Set while the modification time is too recent to be trusted
+        private volatile byte[] digest;
+        final InputRecorder.Input[] inputs;
+        final Object result;
+        final long size;
+
+        Entry(
+            Stamp stamp,
+            byte[] digest,
+            InputRecorder.Input[] inputs,
+            Object result
+        ) {
+            this.stamp = stamp;
+            this.digest = digest;
+            this.inputs = inputs;
+            this.result = result;
+            this.size = stamp.size;
+        }
+
+        boolean isCurrent(java.nio.file.Path file) {
+            long checkedAt = System.currentTimeMillis();
+            try {
+                if (!stamp.sameAs(stamp(file))) return false;
+                byte[] d = digest;
+                if (d != null) {
+                    if (!Arrays.equals(d, digest(Files.readAllBytes(file)))) {
+                        return false;
+                    }
+                    // Any later write moves the modification time
+                    if (checkedAt - stamp.modified.toMillis() >= RACY_MILLIS) {
+                        digest = null;
+                    }
+                }
+            } catch (IOException e) {
+                return false;
+            }
+            for (InputRecorder.Input input : inputs) {
+                if (!input.unchanged()) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -1,25 +1,71 @@
 package org.msuo.lua2java;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 public final class ConfigDeserializationException extends RuntimeException {
 
     private final List<ConfigError> errors;
+    private final int omittedErrorCount;
+    private final boolean incomplete;
+    private volatile String message;
 
     public ConfigDeserializationException(List<ConfigError> errors) {
-        super(buildMessage(errors));
+        this(errors, 0, false);
+    }
+
+    ConfigDeserializationException(
+        List<ConfigError> errors,
+        int omittedErrorCount,
+        boolean incomplete
+    ) {
+        super((String) null);
         this.errors = Collections.unmodifiableList(
             new ArrayList<ConfigError>(errors)
         );
+        this.omittedErrorCount = omittedErrorCount;
+        this.incomplete = incomplete;
     }
 
     public List<ConfigError> getErrors() {
         return errors;
     }
 
-    private static String buildMessage(List<ConfigError> errors) {
+    /**
+     * Errors that were detected but not listed because of the error limit.
+     * A lower bound when {@link #isIncomplete()}: binding stopped at the
+     * first error over the limit.
+     */
+    public int getOmittedErrorCount() {
+        return omittedErrorCount;
+    }
+
+    /**
+     * Whether binding stopped early (fail-fast or error limit), so the config
+     * may contain more errors than were detected.
+     */
+    public boolean isIncomplete() {
+        return incomplete;
+    }
+
+    @Override
+    public String getMessage() {
+        // Rendered on first use; binding itself never formats messages
+        String m = message;
+        if (m == null) {
+            m = buildMessage(errors, omittedErrorCount, incomplete);
+            message = m;
+        }
+        return m;
+    }
+
+    private static String buildMessage(
+        List<ConfigError> errors,
+        int omitted,
+        boolean incomplete
+    ) {
         StringBuilder sb = new StringBuilder(
             "Config deserialization failed:\n"
         );
@@ -28,28 +74,127 @@ public final class ConfigDeserializationException extends RuntimeException {
                 .append(" - ")
                 .append(e.getPath())
                 .append(": ")
-                .append(e.getMessage())
-                .append("\n");
+                .append(e.getMessage());
+            if (e.getOccurrences() > 1) {
+                sb
+                    .append(" (")
+                    .append(e.getOccurrences())
+                    .append(" occurrences, e.g. ")
+                    .append(String.join(", ", e.getSamplePaths()))
+                    .append(")");
+            }
+            sb.append("\n");
+        }
+        if (omitted > 0) {
+            sb.append(" ... ").append(omitted).append(" more omitted\n");
+        }
+        if (incomplete) {
+            sb.append(" (binding stopped early; more errors may exist)\n");
         }
         return sb.toString();
     }
 
     public static final class ConfigError {
 
-        private final String path;
-        private final String message;
+        private final Object path;
+        private final ConfigErrorCode code;
+        private final Object[] args;
+        private final int occurrences;
+        private final List<String> samplePaths;
+
+        private String renderedPath;
+        private String message;
 
         public ConfigError(String path, String message) {
             this.path = path;
+            this.code = null;
+            this.args = null;
+            this.occurrences = 1;
+            this.samplePaths = List.of();
+            this.renderedPath = path;
             this.message = message;
         }
 
+        ConfigError(Path path, ConfigErrorCode code, Object[] args) {
+            this(path, code, args, 1, List.of());
+        }
+
+        ConfigError(String path, ConfigErrorCode code, Object[] args) {
+            this(path, code, args, 1, List.of());
+        }
+
+        private ConfigError(
+            Object path,
+            ConfigErrorCode code,
+            Object[] args,
+            int occurrences,
+            List<String> samplePaths
+        ) {
+            this.path = path;
+            this.code = code;
+            this.args = args;
+            this.occurrences = occurrences;
+            this.samplePaths = samplePaths;
+        }
+
+        /** This error standing for {@code occurrences} identical ones. */
+        ConfigError aggregated(
+            String pattern,
+            int occurrences,
+            List<String> samplePaths
+        ) {
+            ConfigError e = new ConfigError(
+                pattern,
+                code,
+                args,
+                occurrences,
+                Collections.unmodifiableList(samplePaths)
+            );
+            e.message = message;
+            return e;
+        }
+
         public String getPath() {
-            return path;
+            String p = renderedPath;
+            if (p == null) {
+                p = path.toString();
+                renderedPath = p;
+            }
+            return p;
         }
 
         public String getMessage() {
-            return message;
+            String m = message;
+            if (m == null) {
+                m = Errors.format(code, args);
+                message = m;
+            }
+            return m;
+        }
+
+        /** The error kind, or {@code null} if created from a plain message. */
+        public ConfigErrorCode getCode() {
+            return code;
+        }
+
+        /**
+         * How many errors this entry stands for. Above 1 when aggregation
+         * grouped identical messages; {@link #getPath()} is then a wildcard
+         * pattern such as {@code $.routes[*].port}.
+         */
+        public int getOccurrences() {
+            return occurrences;
+        }
+
+        /** A few concrete paths of an aggregated error; empty otherwise. */
+        public List<String> getSamplePaths() {
+            return samplePaths;
+        }
+
+        /** Raw arguments of {@link #getCode()}; empty for plain messages. */
+        public List<Object> getArguments() {
+            if (args == null) return List.of();
+            return Collections.unmodifiableList(Arrays.asList(args));
         }
     }
 }
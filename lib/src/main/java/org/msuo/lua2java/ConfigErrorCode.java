@@ -0,0 +1,41 @@
+package org.msuo.lua2java;
+
+/**
+ * Machine-readable kind of a
+ * {@link ConfigDeserializationException.ConfigError}. See {@code errors.md}
+ * for the message text and fixes of each code.
+ */
+public enum ConfigErrorCode {
+    UNSUPPORTED_TYPE,
+    UNSUPPORTED_PARAMETERIZED,
+    UNSUPPORTED_PARAMETERIZED_RAW,
+    PRIMITIVE_NOT_SUPPORTED,
+    ENUM_EXPECTED_STRING,
+    ENUM_UNKNOWN,
+    EXPECTED_SCALAR,
+    MAP_EXPECTED,
+    COLLECTION_EXPECTED,
+    OPTIONAL_INNER_NOT_CONCRETE,
+    COLLECTION_ELEMENT_NOT_CONCRETE,
+    MAP_KEY_NOT_CONCRETE,
+    MAP_VALUE_NOT_CONCRETE,
+    MISSING_REQUIRED_FIELD,
+    NO_ONE_ARG_CTOR,
+    CTOR_REJECTED,
+    CTOR_CALL_FAILED,
+    NO_NO_ARG_CTOR,
+    CTOR_FAILED,
+    INSTANTIATE_FAILED,
+    FIELD_SET_ACCESS,
+    FIELD_SET_TYPE_MISMATCH,
+    INSTRUCTION_LIMIT_EXCEEDED,
+    TIMEOUT_EXCEEDED,
+    ALLOCATION_LIMIT_EXCEEDED,
+    PATH_NOT_FOUND,
+    VIEW_EXPECTED_TABLE,
+    VALUE_OUT_OF_RANGE,
+    SUBTYPE_EXPECTED_TABLE,
+    SUBTYPE_DISCRIMINATOR_MISSING,
+    SUBTYPE_UNKNOWN,
+    MAPPED_FILE_FAILED,
+}
@@ -0,0 +1,324 @@
+package org.msuo.lua2java;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.luaj.vm2.LuaError;
+
+/**
+ * Command-line bulk validator: deserializes every matching Lua file into a
+ * config class and reports the failures.
+ *
+ * <pre>
+ * java -jar lua2java-cli.jar [--threads N] [--profile FULL|ENV_ONLY|MINIMAL]
+ *     com.example.AppConfig build/classes:lib/app.jar 'configs/**.lua'
+ * </pre>
+ *
+ * <p>The classpath lists directories and jars ({@code File.pathSeparator}
+ * separated, may be empty) that hold the config class. Each file argument
+ * is a file, a directory (all {@code .lua} files below it) or a glob.
+ * Files are validated in parallel, each one loaded exactly as
+ * {@link LuaDeserializer#deserialize(java.nio.file.Path, Class,
+ * DeserializationOptions)} would, in a Lua runtime of its own.
+ *
+ * <p>Exits with 0 when every file is valid, 1 when some file is not and 2
+ * on usage errors, a directory or glob argument that matches no file, or an
+ * unusable config class.
+ */
+public final class ConfigValidator {
+
+    static final int OK = 0;
+    static final int INVALID = 1;
+    static final int USAGE = 2;
+
+    private final Class<?> type;
+    private final DeserializationOptions options;
+
+    private ConfigValidator(Class<?> type, DeserializationOptions options) {
+        this.type = type;
+        this.options = options;
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        LuaLibraryProfile profile = LuaLibraryProfile.FULL;
+        List<String> positional = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                boolean hasValue = i + 1 < args.length;
+                if (args[i].equals("--threads") && hasValue) {
+                    threads = Integer.parseInt(args[++i]);
+                    if (threads < 1) throw new IllegalArgumentException();
+                } else if (args[i].equals("--profile") && hasValue) {
+                    profile = LuaLibraryProfile.valueOf(
+                        args[++i].toUpperCase(Locale.ROOT)
+                    );
+                } else if (args[i].startsWith("--")) {
+                    throw new IllegalArgumentException();
+                } else {
+                    positional.add(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            positional.clear();
+        }
+        if (positional.size() < 3) {
+            err.println(
+                "Usage: ConfigValidator [--threads N] " +
+                "[--profile FULL|ENV_ONLY|MINIMAL] " +
+                "<config class> <classpath> <file|dir|glob>..."
+            );
+            return USAGE;
+        }
+
+        Class<?> type;
+        List<java.nio.file.Path> files;
+        try {
+            type = Class.forName(
+                positional.get(0),
+                true,
+                classLoader(positional.get(1))
+            );
+            LuaDeserializer.prepare(type);
+            files = expand(positional.subList(2, positional.size()));
+        } catch (ClassNotFoundException e) {
+            err.println("Config class not found: " + e.getMessage());
+            return USAGE;
+        } catch (ConfigDeserializationException e) {
+            err.println("Unusable config class " + positional.get(0));
+            err.println(e.getMessage());
+            return USAGE;
+        } catch (IOException | UncheckedIOException e) {
+            err.println("Cannot list files: " + e.getMessage());
+            return USAGE;
+        } catch (IllegalArgumentException e) {
+            err.println("Bad classpath or file argument: " + e.getMessage());
+            return USAGE;
+        }
+
+        DeserializationOptions options = DeserializationOptions
+            .defaults()
+            .withLibraryProfile(profile);
+        Report report = new ConfigValidator(type, options)
+            .validate(files, threads);
+        report.print(out);
+        return report.failed == 0 ? OK : INVALID;
+    }
+
+    private static ClassLoader classLoader(String classpath) {
+        List<URL> urls = new ArrayList<>();
+        for (String entry : classpath.split(File.pathSeparator)) {
+            if (entry.isEmpty()) continue;
+            try {
+                urls.add(Paths.get(entry).toUri().toURL());
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException(entry, e);
+            }
+        }
+        return new URLClassLoader(
+            urls.toArray(new URL[0]),
+            ConfigValidator.class.getClassLoader()
+        );
+    }
+
+    /**
+     * Files named by the arguments, sorted and without duplicates.
+     *
+     * @throws IllegalArgumentException if a directory or glob argument
+     *     matches no file, so a mistyped path does not pass as valid
+     */
+    static List<java.nio.file.Path> expand(List<String> args)
+        throws IOException {
+        TreeSet<java.nio.file.Path> files = new TreeSet<>();
+        for (String arg : args) {
+            List<java.nio.file.Path> matched = matching(arg);
+            if (matched.isEmpty()) {
+                throw new IllegalArgumentException("no files match " + arg);
+            }
+            files.addAll(matched);
+        }
+        return new ArrayList<>(files);
+    }
+
+    private static List<java.nio.file.Path> matching(String arg)
+        throws IOException {
+        int glob = firstGlobChar(arg);
+        if (glob < 0) {
+            java.nio.file.Path p = Paths.get(arg);
+            // A missing file is reported as unreadable
+            if (!Files.isDirectory(p)) return List.of(p);
+            try (Stream<java.nio.file.Path> s = Files.walk(p)) {
+                return s
+                    .filter(f -> f.toString().endsWith(".lua"))
+                    .filter(Files::isRegularFile)
+                    .collect(Collectors.toList());
+            }
+        }
+
+        // Walk from the directory before the first glob character
+        int slash = Math.max(
+            arg.lastIndexOf('/', glob),
+            arg.lastIndexOf(File.separatorChar, glob)
+        );
+        java.nio.file.Path base = Paths.get(
+            slash < 0 ? "." : arg.substring(0, slash + 1)
+        );
+        PathMatcher matcher = FileSystems
+            .getDefault()
+            .getPathMatcher("glob:" + arg);
+        if (!Files.isDirectory(base)) return List.of();
+        boolean relative = slash < 0;
+        try (Stream<java.nio.file.Path> s = Files.walk(base)) {
+            return s
+                .filter(Files::isRegularFile)
+                .filter(f -> matcher.matches(relative ? base.relativize(f) : f))
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static int firstGlobChar(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if ("*?[{".indexOf(s.charAt(i)) >= 0) return i;
+        }
+        return -1;
+    }
+
+    Report validate(List<java.nio.file.Path> files, int threads) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "lua2java-validator");
+            t.setDaemon(true);
+            return t;
+        });
+        long start = System.nanoTime();
+        try {
+            List<Future<Result>> futures = new ArrayList<>(files.size());
+            for (java.nio.file.Path file : files) {
+                futures.add(pool.submit(() -> validate(file)));
+            }
+            List<Result> results = new ArrayList<>(files.size());
+            for (Future<Result> f : futures) results.add(f.get());
+            return new Report(results, System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Validation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Result validate(java.nio.file.Path file) {
+        long start = System.nanoTime();
+        String failure = null;
+        try {
+            LuaDeserializer.deserialize(file, type, options);
+        } catch (ConfigDeserializationException e) {
+            failure = e.getMessage();
+        } catch (LuaError e) {
+            failure = "Lua error: " + e.getMessage();
+        } catch (IOException e) {
+            failure = "Cannot read: " + e;
+        } catch (RuntimeException e) {
+            failure = e.toString();
+        }
+        return new Result(file, failure, System.nanoTime() - start);
+    }
+
+    static final class Result {
+
+        final java.nio.file.Path file;
+        // null when the file is valid
+        final String failure;
+        final long nanos;
+
+        Result(java.nio.file.Path file, String failure, long nanos) {
+            this.file = file;
+            this.failure = failure;
+            this.nanos = nanos;
+        }
+    }
+
+    static final class Report {
+
+        final List<Result> results;
+        final int failed;
+        final long nanos;
+
+        Report(List<Result> results, long nanos) {
+            this.results = results;
+            this.failed = (int) results
+                .stream()
+                .filter(r -> r.failure != null)
+                .count();
+            this.nanos = nanos;
+        }
+
+        /** Per-file latency at {@code percentile} (0-100), in ms. */
+        double latencyMillis(double percentile) {
+            if (results.isEmpty()) return 0;
+            long[] sorted = results
+                .stream()
+                .mapToLong(r -> r.nanos)
+                .toArray();
+            Arrays.sort(sorted);
+            int i = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, i)] / 1e6;
+        }
+
+        double filesPerSecond() {
+            return nanos == 0 ? 0 : results.size() * 1e9 / nanos;
+        }
+
+        void print(PrintStream out) {
+            for (Result r : results) {
+                if (r.failure == null) continue;
+                out.println("FAIL " + r.file);
+                out.println(indent(r.failure));
+            }
+            out.println(
+                String.format(
+                    Locale.ROOT,
+                    "%d files, %d failed in %.0f ms: %.0f files/s, " +
+                    "p50 %.2f ms, p99 %.2f ms",
+                    results.size(),
+                    failed,
+                    nanos / 1e6,
+                    filesPerSecond(),
+                    latencyMillis(50),
+                    latencyMillis(99)
+                )
+            );
+        }
+
+        private static String indent(String text) {
+            return Arrays
+                .stream(text.split("\n"))
+                .map(line -> "    " + line)
+                .collect(Collectors.joining("\n"));
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.msuo.lua2java;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Implemented by every view returned from {@code LuaDeserializer.view}.
+ * Getters bind on first access, so errors normally surface there; these
+ * methods check a whole view up front instead.
+ */
+public interface ConfigView {
+    /**
+     * Binds every property of this view and its sub-views without
+     * memoizing anything.
+     *
+     * @throws ConfigDeserializationException listing every error found
+     */
+    void validate();
+
+    /**
+     * Full validation on the async executor, started on first call or right
+     * away with {@link ViewValidation#BACKGROUND}. Fails with a
+     * {@link ConfigDeserializationException} if the view has errors.
+     */
+    CompletableFuture<Void> validation();
+}
@@ -0,0 +1,41 @@
+package org.msuo.lua2java;
+
+import java.util.List;
+
+/**
+ * Observes a single {@link LuaDeserializer} call. All callbacks run on the
+ * deserializing thread; timings are in nanoseconds. Exceptions thrown by a
+ * listener are logged and otherwise ignored.
+ */
+public interface DeserializationListener {
+    /** Lua source was parsed and compiled into a chunk. */
+    default void onCompile(Class<?> configClass, long nanos) {}
+
+    /** The compiled chunk ran and returned the root value. */
+    default void onExecute(Class<?> configClass, long nanos) {}
+
+    /** The root value was bound onto {@code configClass}. */
+    default void onBind(Class<?> configClass, long nanos) {}
+
+    /**
+     * Called once per object type bound during the bind phase.
+     * {@code errors} counts errors reported directly on fields of that type.
+     */
+    default void onClassBound(
+        Class<?> configClass,
+        Class<?> boundClass,
+        int instances,
+        int errors
+    ) {}
+
+    /**
+     * The call finished. {@code errors} is empty on success; it is also empty
+     * when the call failed before binding (for example on a Lua error).
+     */
+    default void onComplete(
+        Class<?> configClass,
+        long nanos,
+        boolean success,
+        List<ConfigDeserializationException.ConfigError> errors
+    ) {}
+}
@@ -0,0 +1,285 @@
+package org.msuo.lua2java;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable per-call settings for {@link LuaDeserializer}. Start from
+ * {@link #defaults()} and derive variants with the {@code with*} methods;
+ * every {@code with*} call returns a new instance.
+ */
+public final class DeserializationOptions implements Cloneable {
+
+    private static final DeserializationOptions DEFAULTS =
+        new DeserializationOptions();
+
+    private List<DeserializationListener> listeners = List.of();
+    private Duration slowLoadThreshold = Duration.ofSeconds(1);
+    private int maxErrors = 1000;
+    private boolean errorAggregation;
+    private boolean failFast;
+    private long maxInstructions;
+    private Duration timeout;
+    private long maxAllocatedBytes;
+    private LuaLibraryProfile libraryProfile = LuaLibraryProfile.FULL;
+    private LuaModuleLoader moduleLoader;
+    private EvaluationMemo evaluationMemo;
+    private ConfigCache configCache;
+    private ViewValidation viewValidation = ViewValidation.DEFERRED;
+    private boolean literalFastPath = true;
+
+    private DeserializationOptions() {}
+
+    public static DeserializationOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /** Adds a listener that is notified about phase timings and bind stats. */
+    public DeserializationOptions withListener(
+        DeserializationListener listener
+    ) {
+        Objects.requireNonNull(listener, "listener");
+        List<DeserializationListener> ls = new ArrayList<>(listeners);
+        ls.add(listener);
+
+        DeserializationOptions o = copy();
+        o.listeners = Collections.unmodifiableList(ls);
+        return o;
+    }
+
+    /**
+     * Loads slower than {@code threshold} are logged as a warning through
+     * SLF4J. {@link Duration#ZERO} disables the warning.
+     */
+    public DeserializationOptions withSlowLoadThreshold(Duration threshold) {
+        Objects.requireNonNull(threshold, "threshold");
+        if (threshold.isNegative()) {
+            throw new IllegalArgumentException(
+                "threshold must not be negative: " + threshold
+            );
+        }
+
+        DeserializationOptions o = copy();
+        o.slowLoadThreshold = threshold;
+        return o;
+    }
+
+    /**
+     * Caps the number of errors kept. Without aggregation, binding stops once
+     * the cap is exceeded; with aggregation the cap applies to distinct
+     * groups and binding continues so occurrence counts stay exact.
+     */
+    public DeserializationOptions withMaxErrors(int maxErrors) {
+        if (maxErrors < 1) {
+            throw new IllegalArgumentException(
+                "maxErrors must be positive: " + maxErrors
+            );
+        }
+
+        DeserializationOptions o = copy();
+        o.maxErrors = maxErrors;
+        return o;
+    }
+
+    /**
+     * Groups errors with the same message under a wildcard path such as
+     * {@code $.routes[*].port}, with an occurrence count and sample paths.
+     */
+    public DeserializationOptions withErrorAggregation(boolean aggregate) {
+        DeserializationOptions o = copy();
+        o.errorAggregation = aggregate;
+        return o;
+    }
+
+    /** Stops binding at the first error. */
+    public DeserializationOptions withFailFast(boolean failFast) {
+        DeserializationOptions o = copy();
+        o.failFast = failFast;
+        return o;
+    }
+
+    /**
+     * Fails the load once the script has run more than {@code max} Lua VM
+     * instructions. {@code 0} means unlimited.
+     */
+    public DeserializationOptions withMaxInstructions(long max) {
+        if (max < 0) {
+            throw new IllegalArgumentException(
+                "max must not be negative: " + max
+            );
+        }
+
+        DeserializationOptions o = copy();
+        o.maxInstructions = max;
+        return o;
+    }
+
+    /**
+     * Fails the load once the script has run longer than {@code timeout}
+     * (wall clock, checked periodically while Lua code executes).
+     * {@code null} means no deadline.
+     */
+    public DeserializationOptions withTimeout(Duration timeout) {
+        if (timeout != null && (timeout.isNegative() || timeout.isZero())) {
+            throw new IllegalArgumentException(
+                "timeout must be positive: " + timeout
+            );
+        }
+
+        DeserializationOptions o = copy();
+        o.timeout = timeout;
+        return o;
+    }
+
+    /**
+     * Fails the load once the script has allocated roughly more than
+     * {@code bytes} on the heap, which caps runaway table and string growth.
+     * {@code 0} means unlimited. Ignored on JVMs without per-thread
+     * allocation accounting.
+     */
+    public DeserializationOptions withMaxAllocatedBytes(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException(
+                "bytes must not be negative: " + bytes
+            );
+        }
+
+        DeserializationOptions o = copy();
+        o.maxAllocatedBytes = bytes;
+        return o;
+    }
+
+    /** Standard libraries visible to the script; defaults to FULL. */
+    public DeserializationOptions withLibraryProfile(
+        LuaLibraryProfile profile
+    ) {
+        Objects.requireNonNull(profile, "profile");
+
+        DeserializationOptions o = copy();
+        o.libraryProfile = profile;
+        return o;
+    }
+
+    /**
+     * Resolves {@code require} through {@code loader}, which caches shared
+     * modules across loads. {@code null} restores plain LuaJ {@code require}.
+     */
+    public DeserializationOptions withModuleLoader(LuaModuleLoader loader) {
+        DeserializationOptions o = copy();
+        o.moduleLoader = loader;
+        return o;
+    }
+
+    /**
+     * Reuses results from {@code memo} when a script and every outside
+     * input it read (environment variables, files, the clock, shared
+     * modules) are unchanged. {@code null} turns memoization off.
+     */
+    public DeserializationOptions withEvaluationMemo(EvaluationMemo memo) {
+        DeserializationOptions o = copy();
+        o.evaluationMemo = memo;
+        return o;
+    }
+
+    /**
+     * Answers file loads from {@code cache} while the file and the inputs
+     * its script read are unchanged. {@code null} turns caching off.
+     */
+    public DeserializationOptions withConfigCache(ConfigCache cache) {
+        DeserializationOptions o = copy();
+        o.configCache = cache;
+        return o;
+    }
+
+    /** How views from {@code LuaDeserializer.view} are validated. */
+    public DeserializationOptions withViewValidation(ViewValidation mode) {
+        Objects.requireNonNull(mode, "mode");
+
+        DeserializationOptions o = copy();
+        o.viewValidation = mode;
+        return o;
+    }
+
+    /**
+     * Chunks that only return literal data ({@code return { ... }} with
+     * strings, numbers, booleans and nested tables) are parsed directly
+     * instead of being compiled and run; on by default. Loads with an
+     * execution budget always run on the VM.
+     */
+    public DeserializationOptions withLiteralFastPath(boolean enabled) {
+        DeserializationOptions o = copy();
+        o.literalFastPath = enabled;
+        return o;
+    }
+
+    public List<DeserializationListener> getListeners() {
+        return listeners;
+    }
+
+    public Duration getSlowLoadThreshold() {
+        return slowLoadThreshold;
+    }
+
+    public int getMaxErrors() {
+        return maxErrors;
+    }
+
+    public boolean isErrorAggregation() {
+        return errorAggregation;
+    }
+
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    public long getMaxInstructions() {
+        return maxInstructions;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public long getMaxAllocatedBytes() {
+        return maxAllocatedBytes;
+    }
+
+    public LuaLibraryProfile getLibraryProfile() {
+        return libraryProfile;
+    }
+
+    public LuaModuleLoader getModuleLoader() {
+        return moduleLoader;
+    }
+
+    public EvaluationMemo getEvaluationMemo() {
+        return evaluationMemo;
+    }
+
+    public ConfigCache getConfigCache() {
+        return configCache;
+    }
+
+    public ViewValidation getViewValidation() {
+        return viewValidation;
+    }
+
+    public boolean isLiteralFastPath() {
+        return literalFastPath;
+    }
+
+    boolean hasExecutionBudget() {
+        return maxInstructions > 0 || timeout != null || maxAllocatedBytes > 0;
+    }
+
+    private DeserializationOptions copy() {
+        try {
+            return (DeserializationOptions) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
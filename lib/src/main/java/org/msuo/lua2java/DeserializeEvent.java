@@ -0,0 +1,23 @@
+package org.msuo.lua2java;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.msuo.lua2java.Deserialize")
+@Label("Lua Config Deserialization")
+@Description("One LuaDeserializer call, from source to bound object")
+@Category("Lua2Java")
+final class DeserializeEvent extends Event {
+
+    @Label("Config Class")
+    Class<?> configClass;
+
+    @Label("Success")
+    boolean success;
+
+    @Label("Error Count")
+    int errorCount;
+}
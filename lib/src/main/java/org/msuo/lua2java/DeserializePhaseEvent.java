@@ -0,0 +1,20 @@
+package org.msuo.lua2java;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.msuo.lua2java.DeserializePhase")
+@Label("Lua Config Deserialization Phase")
+@Description("Compile, execute or bind phase of a LuaDeserializer call")
+@Category("Lua2Java")
+final class DeserializePhaseEvent extends Event {
+
+    @Label("Config Class")
+    Class<?> configClass;
+
+    @Label("Phase")
+    String phase;
+}
@@ -0,0 +1,102 @@
+package org.msuo.lua2java;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import org.luaj.vm2.LuaValue;
+
+/**
+ * Binds the elements of the top-level table of a {@link LuaEventReader}
+ * one at a time: each element is read into a {@code LuaValue} of its own,
+ * bound through the cached adapters and dropped, so only one element is
+ * in memory at a time. Nil elements are skipped.
+ */
+final class ElementSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+
+    private final LuaEventReader reader;
+    private final Class<T> elementClass;
+    private final DeserializationOptions options;
+    private final TypeAdapter adapter;
+
+    private boolean started;
+    private boolean finished;
+
+    ElementSpliterator(
+        LuaEventReader reader,
+        Class<T> elementClass,
+        DeserializationOptions options
+    ) {
+        super(Long.MAX_VALUE, ORDERED | NONNULL);
+        this.reader = reader;
+        this.elementClass = elementClass;
+        this.options = options;
+        this.adapter = LuaDeserializer.adapterFor(elementClass);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        try {
+            if (!started) {
+                started = true;
+                start();
+            }
+            while (!finished) {
+                if (reader.next() == LuaEventReader.Event.END_TABLE) {
+                    finished = true;
+                    break;
+                }
+                LuaValue key = reader.getKey();
+                LuaValue v = reader.readValue();
+                if (v.isnil()) continue;
+
+                action.accept(bind(path(key), v));
+                return true;
+            }
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void start() throws IOException {
+        if (reader.next() == LuaEventReader.Event.START_TABLE) return;
+        finished = true;
+        throw new ConfigDeserializationException(
+            List.of(
+                new ConfigDeserializationException.ConfigError(
+                    Path.root(),
+                    ConfigErrorCode.COLLECTION_EXPECTED,
+                    new Object[] {
+                        List.class,
+                        reader.getValue().typename(),
+                    }
+                )
+            )
+        );
+    }
+
+    private static Path path(LuaValue key) {
+        if (key.isint()) return Path.root().index(key.toint());
+        return Path.root().mapKey(key.tojstring());
+    }
+
+    private T bind(Path path, LuaValue v) {
+        ErrorCollector errors = new ErrorCollector(options, null, elementClass);
+        ReadResult rr;
+        try {
+            rr = adapter.read(path, v, errors);
+        } catch (ErrorCollector.BindingStopped stopped) {
+            rr = ReadResult.fail();
+        }
+        if (errors.hasErrors()) {
+            throw new ConfigDeserializationException(
+                errors.asList(),
+                errors.omitted(),
+                errors.stopped()
+            );
+        }
+        return elementClass.cast(rr.value);
+    }
+}
@@ -17,7 +17,11 @@ final class EnumAdapter implements TypeAdapter {
         ErrorCollector errors
     ) {
         if (!luaValue.isstring()) {
-            errors.add(path, Errors.enumExpectedString(luaValue));
+            errors.add(
+                path,
+                ConfigErrorCode.ENUM_EXPECTED_STRING,
+                luaValue.typename()
+            );
             return ReadResult.fail();
         }
 
@@ -27,7 +31,7 @@ final class EnumAdapter implements TypeAdapter {
             Object e = Enum.valueOf((Class<? extends Enum>) enumClass, name);
             return ReadResult.ok(e);
         } catch (IllegalArgumentException ex) {
-            errors.add(path, Errors.enumUnknown(enumClass, name));
+            errors.add(path, ConfigErrorCode.ENUM_UNKNOWN, enumClass, name);
             return ReadResult.fail();
         }
     }
@@ -0,0 +1,28 @@
+package org.msuo.lua2java;
+
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.lib.OneArgFunction;
+import org.luaj.vm2.lib.TwoArgFunction;
+
+/** An {@code os} library that only offers {@code os.getenv}. */
+final class EnvLib extends TwoArgFunction {
+
+    @Override
+    public LuaValue call(LuaValue modname, LuaValue env) {
+        LuaTable os = new LuaTable();
+        os.set("getenv", new getenv());
+        env.set("os", os);
+        env.get("package").get("loaded").set("os", os);
+        return os;
+    }
+
+    static final class getenv extends OneArgFunction {
+
+        @Override
+        public LuaValue call(LuaValue name) {
+            String v = System.getenv(name.checkjstring());
+            return v == null ? NIL : valueOf(v);
+        }
+    }
+}
@@ -1,24 +1,215 @@
 package org.msuo.lua2java;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 final class ErrorCollector {
 
+    static final int MAX_SAMPLES = 5;
+
     private final List<ConfigDeserializationException.ConfigError> errors =
         new ArrayList<>();
 
-    void add(Path path, String msg) {
-        errors.add(
-            new ConfigDeserializationException.ConfigError(path.toString(), msg)
+    private final int maxErrors;
+    private final boolean failFast;
+    // (code, pattern, args) -> group; null unless aggregation is enabled
+    private final Map<GroupKey, Group> groups;
+
+    private final BindStats stats;
+    private Class<?> owner;
+
+    private int added;
+    private int omitted;
+    private boolean stopped;
+
+    ErrorCollector(
+        DeserializationOptions options,
+        BindStats stats,
+        Class<?> rootClass
+    ) {
+        this.maxErrors = options.getMaxErrors();
+        this.failFast = options.isFailFast();
+        this.groups = options.isErrorAggregation()
+            ? new LinkedHashMap<>()
+            : null;
+        this.stats = stats;
+        this.owner = rootClass;
+    }
+
+    /**
+     * Records an error. Throws {@link BindingStopped} when binding should not
+     * continue: in fail-fast mode, or once the error limit is reached without
+     * aggregation (nothing further could be reported anyway).
+     */
+    void add(Path path, ConfigErrorCode code, Object... args) {
+        added++;
+        if (stats != null) stats.error(owner);
+
+        if (groups != null) {
+            addGrouped(path, code, args);
+        } else if (errors.size() < maxErrors) {
+            errors.add(
+                new ConfigDeserializationException.ConfigError(path, code, args)
+            );
+        } else {
+            omitted++;
+            stop();
+        }
+
+        if (failFast) stop();
+    }
+
+    /**
+     * Groups errors whose messages would read the same under one wildcard
+     * path, comparing the message arguments instead of formatting them.
+     */
+    private void addGrouped(Path path, ConfigErrorCode code, Object[] args) {
+        GroupKey key = new GroupKey(code, path.pattern(), args);
+        Group g = groups.get(key);
+        if (g != null) {
+            g.count++;
+            if (g.samples.size() < MAX_SAMPLES) g.samples.add(path);
+            return;
+        }
+        if (groups.size() >= maxErrors) {
+            omitted++;
+            return;
+        }
+        g = new Group(
+            new ConfigDeserializationException.ConfigError(path, code, args),
+            path
         );
+        groups.put(key, g);
+    }
+
+    private void stop() {
+        stopped = true;
+        throw BindingStopped.INSTANCE;
+    }
+
+    /**
+     * Marks the start of binding fields onto an instance of {@code cls}.
+     * Returns the previous owner, to be handed back to {@link #exitObject}.
+     */
+    Class<?> enterObject(Class<?> cls) {
+        if (stats == null) return null;
+        stats.bound(cls);
+        Class<?> previous = owner;
+        owner = cls;
+        return previous;
+    }
+
+    void exitObject(Class<?> previous) {
+        if (stats != null) owner = previous;
     }
 
     boolean hasErrors() {
-        return !errors.isEmpty();
+        return groups != null ? !groups.isEmpty() : !errors.isEmpty();
+    }
+
+    /** Errors recorded so far, listed or not. */
+    int count() {
+        return added;
+    }
+
+    /**
+     * Errors detected but not listed because of the error limit. Without
+     * aggregation binding stops at the first of them, so this is a lower
+     * bound whenever {@link #stopped()}.
+     */
+    int omitted() {
+        return omitted;
+    }
+
+    /** Whether binding stopped before the whole config was checked. */
+    boolean stopped() {
+        return stopped;
     }
 
     List<ConfigDeserializationException.ConfigError> asList() {
-        return errors;
+        if (groups == null) return errors;
+
+        List<ConfigDeserializationException.ConfigError> out =
+            new ArrayList<>(groups.size());
+        for (Group g : groups.values()) {
+            out.add(g.toError());
+        }
+        return out;
+    }
+
+    private static final class GroupKey {
+
+        final ConfigErrorCode code;
+        final String pattern;
+        final Object[] args;
+
+        GroupKey(ConfigErrorCode code, String pattern, Object[] args) {
+            this.code = code;
+            this.pattern = pattern;
+            this.args = args;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof GroupKey)) return false;
+            GroupKey k = (GroupKey) o;
+            if (code != k.code || !pattern.equals(k.pattern)) return false;
+            if (args.length != k.args.length) return false;
+            for (int i = 0; i < args.length; i++) {
+                if (!Objects.equals(arg(args[i]), arg(k.args[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 31 * code.hashCode() + pattern.hashCode();
+            for (Object a : args) h = 31 * h + Objects.hashCode(arg(a));
+            return h;
+        }
+
+        /** Causes are rendered by their message, so compare that. */
+        private static Object arg(Object a) {
+            return a instanceof Throwable ? ((Throwable) a).getMessage() : a;
+        }
+    }
+
+    private static final class Group {
+
+        final ConfigDeserializationException.ConfigError first;
+        final List<Path> samples = new ArrayList<>(MAX_SAMPLES);
+        final Path firstPath;
+        int count = 1;
+
+        Group(ConfigDeserializationException.ConfigError first, Path path) {
+            this.first = first;
+            this.firstPath = path;
+            samples.add(path);
+        }
+
+        ConfigDeserializationException.ConfigError toError() {
+            if (count == 1) return first;
+
+            List<String> ps = new ArrayList<>(samples.size());
+            for (int i = 0; i < samples.size(); i++) {
+                ps.add(samples.get(i).toString());
+            }
+            return first.aggregated(firstPath.pattern(), count, ps);
+        }
+    }
+
+    /** Unwinds the bind phase; carries no stack trace. */
+    static final class BindingStopped extends RuntimeException {
+
+        static final BindingStopped INSTANCE = new BindingStopped();
+
+        private BindingStopped() {
+            super("binding stopped", null, false, false);
+        }
     }
 }
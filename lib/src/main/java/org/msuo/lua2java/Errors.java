@@ -1,133 +1,157 @@
 package org.msuo.lua2java;
 
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
-import org.luaj.vm2.LuaValue;
+import java.time.Duration;
 
+/**
+ * Message text for every {@link ConfigErrorCode}. Formatting only happens
+ * when an error is rendered, never while binding.
+ */
 final class Errors {
 
     private Errors() {}
 
-    static String unsupportedType(Type t) {
-        return "Unsupported Type: " + t;
-    }
-
-    static String unsupportedParameterized(ParameterizedType pt) {
-        return "Unsupported parameterized type: " + pt;
-    }
-
-    static String unsupportedParameterizedRaw(Type raw) {
-        return "Unsupported parameterized raw type: " + raw;
-    }
-
-    static String primitiveNotSupported(Class<?> prim) {
-        return "Primitive field types are not supported: " + prim.getName();
-    }
-
-    static String enumExpectedString(LuaValue got) {
-        return "Enum expects string name, got: " + got.typename();
-    }
-
-    static String enumUnknown(Class<?> enumClass, String name) {
-        return ("Unknown enum value '" + name + "' for " + enumClass.getName());
-    }
-
-    static String expectedScalar(LuaValue got) {
-        return (
-            "Expected primitive (string/number/bool), got: " + got.typename()
-        );
-    }
-
-    static String mapExpected(LuaValue got) {
-        return "Expected table for Map, got: " + got.typename();
-    }
-
-    static String collectionExpected(Class<?> raw, LuaValue got) {
-        return (
-            "Expected table/array for " +
-            raw.getSimpleName() +
-            ", got: " +
-            got.typename()
-        );
-    }
-
-    static String optionalInnerMustBeConcrete(Type inner) {
-        return (
-            "Optional inner type must be a concrete class (no nested generics). Got: " +
-            inner
-        );
-    }
-
-    static String collectionElementMustBeConcrete(Type elem) {
-        return (
-            "Collection element type must be a concrete class (no nested generics). Got: " +
-            elem
-        );
-    }
-
-    static String mapKeyMustBeConcrete(Type kType) {
-        return (
-            "Map key type must be a concrete class (no nested generics). Got: " +
-            kType
-        );
-    }
-
-    static String mapValueMustBeConcrete(Type vType) {
-        return (
-            "Map value type must be a concrete class (no nested generics). Got: " +
-            vType
-        );
-    }
-
-    static String missingRequiredField() {
-        return "Missing required field (no default value).";
-    }
-
-    static String noOneArgCtor(Class<?> target, Class<?> argType) {
-        return (
-            "No 1-arg constructor on " +
-            target.getName() +
-            " accepting " +
-            argType.getName()
-        );
-    }
-
-    static String ctorRejected(Class<?> target, Throwable cause) {
-        return (
-            "Value rejected by " +
-            target.getSimpleName() +
-            " constructor: " +
-            cause.getMessage()
-        );
-    }
-
-    static String ctorCallFailed(Class<?> target, Exception e) {
-        return (
-            "Failed calling constructor for " +
-            target.getName() +
-            ": " +
-            e.getMessage()
-        );
-    }
-
-    static String noNoArgCtor(Class<?> cls) {
+    static String format(ConfigErrorCode code, Object[] a) {
+        switch (code) {
+            case UNSUPPORTED_TYPE:
+                return "Unsupported Type: " + a[0];
+            case UNSUPPORTED_PARAMETERIZED:
+                return "Unsupported parameterized type: " + a[0];
+            case UNSUPPORTED_PARAMETERIZED_RAW:
+                return "Unsupported parameterized raw type: " + a[0];
+            case PRIMITIVE_NOT_SUPPORTED:
+                return (
+                    "Primitive field types are not supported: " + name(a[0])
+                );
+            case ENUM_EXPECTED_STRING:
+                return "Enum expects string name, got: " + a[0];
+            case ENUM_UNKNOWN:
+                return (
+                    "Unknown enum value '" + a[1] + "' for " + name(a[0])
+                );
+            case EXPECTED_SCALAR:
+                return "Expected primitive (string/number/bool), got: " + a[0];
+            case MAP_EXPECTED:
+                return "Expected table for Map, got: " + a[0];
+            case COLLECTION_EXPECTED:
+                return (
+                    "Expected table/array for " +
+                    ((Class<?>) a[0]).getSimpleName() +
+                    ", got: " +
+                    a[1]
+                );
+            case OPTIONAL_INNER_NOT_CONCRETE:
+                return notConcrete("Optional inner type", a[0]);
+            case COLLECTION_ELEMENT_NOT_CONCRETE:
+                return notConcrete("Collection element type", a[0]);
+            case MAP_KEY_NOT_CONCRETE:
+                return notConcrete("Map key type", a[0]);
+            case MAP_VALUE_NOT_CONCRETE:
+                return notConcrete("Map value type", a[0]);
+            case MISSING_REQUIRED_FIELD:
+                return "Missing required field (no default value).";
+            case NO_ONE_ARG_CTOR:
+                return (
+                    "No 1-arg constructor on " +
+                    name(a[0]) +
+                    " accepting " +
+                    name(a[1])
+                );
+            case CTOR_REJECTED:
+                return (
+                    "Value rejected by " +
+                    ((Class<?>) a[0]).getSimpleName() +
+                    " constructor: " +
+                    cause(a[1])
+                );
+            case CTOR_CALL_FAILED:
+                return (
+                    "Failed calling constructor for " +
+                    name(a[0]) +
+                    ": " +
+                    cause(a[1])
+                );
+            case NO_NO_ARG_CTOR:
+                return (
+                    "No no-arg constructor for nested object type: " +
+                    name(a[0])
+                );
+            case CTOR_FAILED:
+                return (
+                    "Constructor failed for " + name(a[0]) + ": " + cause(a[1])
+                );
+            case INSTANTIATE_FAILED:
+                return (
+                    "Failed to instantiate " + name(a[0]) + ": " + cause(a[1])
+                );
+            case FIELD_SET_ACCESS:
+                return "Failed to set field (access): " + cause(a[0]);
+            case FIELD_SET_TYPE_MISMATCH:
+                return "Failed to set field (type mismatch): " + cause(a[0]);
+            case INSTRUCTION_LIMIT_EXCEEDED:
+                return (
+                    "Config script exceeded the instruction limit of " +
+                    a[0] +
+                    " instructions"
+                );
+            case TIMEOUT_EXCEEDED:
+                return (
+                    "Config script exceeded the time limit of " +
+                    ((Duration) a[0]).toMillis() +
+                    " ms"
+                );
+            case ALLOCATION_LIMIT_EXCEEDED:
+                return (
+                    "Config script exceeded the allocation limit of about " +
+                    a[0] +
+                    " bytes"
+                );
+            case PATH_NOT_FOUND:
+                return (
+                    "Selected path " + a[0] + " not found (got " + a[1] + ")"
+                );
+            case VIEW_EXPECTED_TABLE:
+                return "Expected table for " + name(a[0]) + ", got: " + a[1];
+            case VALUE_OUT_OF_RANGE:
+                return "Value " + a[0] + " does not fit " + name(a[1]);
+            case SUBTYPE_EXPECTED_TABLE:
+                return (
+                    "Expected table with a subtype of " +
+                    name(a[0]) +
+                    ", got: " +
+                    a[1]
+                );
+            case SUBTYPE_DISCRIMINATOR_MISSING:
+                return "Missing discriminator selecting a " + name(a[0]);
+            case SUBTYPE_UNKNOWN:
+                return (
+                    "Unknown " +
+                    ((Class<?>) a[0]).getSimpleName() +
+                    " subtype '" +
+                    a[1] +
+                    "', expected one of " +
+                    a[2]
+                );
+            case MAPPED_FILE_FAILED:
+                return "Cannot write or open mapped file " + a[0] + ": " + a[1];
+            default:
+                throw new AssertionError(code);
+        }
+    }
+
+    private static String notConcrete(String what, Object type) {
         return (
-            "No no-arg constructor for nested object type: " + cls.getName()
+            what +
+            " must be a concrete type (no wildcards or unbound type " +
+            "variables). Got: " +
+            type
         );
     }
 
-    static String ctorFailed(Class<?> cls, Throwable cause) {
-        return (
-            "Constructor failed for " +
-            cls.getName() +
-            ": " +
-            cause.getMessage()
-        );
+    private static String name(Object cls) {
+        return ((Class<?>) cls).getName();
     }
 
-    static String instantiateFailed(Class<?> cls, Exception e) {
-        return (
-            "Failed to instantiate " + cls.getName() + ": " + e.getMessage()
-        );
+    private static String cause(Object t) {
+        return ((Throwable) t).getMessage();
     }
 }
@@ -0,0 +1,249 @@
+package org.msuo.lua2java;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers bound configs together with the outside inputs their script
+ * read: environment variables ({@code os.getenv}), files opened through
+ * {@code io.open}, {@code io.lines}, {@code dofile} and {@code loadfile},
+ * clock reads ({@code os.time()}, {@code os.date}) and modules of a
+ * {@link LuaModuleLoader}. A later load of the same script text to the
+ * same type and execution budgets returns the remembered config without
+ * running Lua if every one of those inputs still reads the same. Reads
+ * made by module code, including functions of a module that the script
+ * calls, count as the script's own.
+ *
+ * <p>Scripts that do anything whose outcome cannot be checked again, such
+ * as {@code math.random}, {@code os.clock}, writing files or calling Java,
+ * are never remembered; see {@link #getUncacheable()}. Failed loads are not
+ * remembered either. Module files are compared by the value the loader
+ * holds for them, so call {@link LuaModuleLoader#refresh()} as usual to
+ * pick up module changes.
+ *
+ * <p>The least recently used configs are evicted once the memo holds
+ * more than its maximum number of entries. Remembered configs are
+ * returned as the same instance to every caller and must be treated as
+ * read-only. Thread-safe; share one memo between the loads that should
+ * reuse each other's results.
+ */
+public final class EvaluationMemo {
+
+    private static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private final int maxEntries;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(
+        16,
+        0.75f,
+        true
+    );
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong uncacheable = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private EvaluationMemo(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /** A memo of at most 1024 configs. */
+    public static EvaluationMemo create() {
+        return create(DEFAULT_MAX_ENTRIES);
+    }
+
+    /** A memo of at most {@code maxEntries} configs. */
+    public static EvaluationMemo create(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException(
+                "Memo bound must be positive: " + maxEntries
+            );
+        }
+        return new EvaluationMemo(maxEntries);
+    }
+
+    /** Loads answered from the memo. */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Loads that ran their script: first seen or an input changed. */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Misses whose result could not be remembered. */
+    public long getUncacheable() {
+        return uncacheable.get();
+    }
+
+    /** Entries dropped to stay within the bound. */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /** Number of remembered configs. */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /** {@code content} is the script text or its bytecode. */
+    Key key(
+        Object content,
+        Selector selector,
+        Type type,
+        DeserializationOptions options
+    ) {
+        return new Key(
+            digest(content),
+            type,
+            selector == null ? null : selector.expression(),
+            options.getLibraryProfile(),
+            options.getModuleLoader(),
+            options.getMaxInstructions(),
+            options.getTimeout(),
+            options.getMaxAllocatedBytes()
+        );
+    }
+
+    /**
+     * The remembered result, or {@code null} on a miss. On a hit the
+     * inputs read by the run that produced it are added to {@code into},
+     * if not null, so that a {@link ConfigCache} entry checks them too.
+     */
+    Object lookup(Key key, InputRecorder into) {
+        Entry e;
+        synchronized (this) {
+            e = entries.get(key);
+        }
+        if (e != null && e.isCurrent()) {
+            hits.incrementAndGet();
+            if (into != null) into.inputs().addAll(Arrays.asList(e.inputs));
+            return e.result;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /** Remembers {@code result} unless the run read something untracked. */
+    void store(Key key, InputRecorder inputs, Object result) {
+        if (inputs.uncacheable() != null) {
+            uncacheable.incrementAndGet();
+            synchronized (this) {
+                entries.remove(key);
+            }
+            return;
+        }
+        if (result == null) return;
+        InputRecorder.Input[] read = inputs
+            .inputs()
+            .toArray(new InputRecorder.Input[0]);
+        Entry e = new Entry(read, result);
+        synchronized (this) {
+            entries.put(key, e);
+            Iterator<Entry> it = entries.values().iterator();
+            while (entries.size() > maxEntries && it.hasNext()) {
+                if (it.next() == e) break;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private static byte[] digest(Object content) {
+        byte[] bytes = content instanceof String
+            ? ((String) content).getBytes(StandardCharsets.UTF_8)
+            : (byte[]) content;
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-256
+            throw new AssertionError(e);
+        }
+    }
+
+    static final class Key {
+
+        private final byte[] digest;
+        private final Type type;
+        private final String selector;
+        private final LuaLibraryProfile profile;
+        private final LuaModuleLoader modules;
+        // A run that fit one budget may not fit a smaller one
+        private final long maxInstructions;
+        private final Duration timeout;
+        private final long maxAllocatedBytes;
+        private final int hash;
+
+        private Key(
+            byte[] digest,
+            Type type,
+            String selector,
+            LuaLibraryProfile profile,
+            LuaModuleLoader modules,
+            long maxInstructions,
+            Duration timeout,
+            long maxAllocatedBytes
+        ) {
+            this.digest = digest;
+            this.type = type;
+            this.selector = selector;
+            this.profile = profile;
+            this.modules = modules;
+            this.maxInstructions = maxInstructions;
+            this.timeout = timeout;
+            this.maxAllocatedBytes = maxAllocatedBytes;
+            this.hash = Arrays.hashCode(digest) * 31 + type.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return (
+                Arrays.equals(digest, k.digest) &&
+                type.equals(k.type) &&
+                Objects.equals(selector, k.selector) &&
+                profile == k.profile &&
+                modules == k.modules &&
+                maxInstructions == k.maxInstructions &&
+                Objects.equals(timeout, k.timeout) &&
+                maxAllocatedBytes == k.maxAllocatedBytes
+            );
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+
+        final InputRecorder.Input[] inputs;
+        final Object result;
+
+        Entry(InputRecorder.Input[] inputs, Object result) {
+            this.inputs = inputs;
+            this.result = result;
+        }
+
+        boolean isCurrent() {
+            for (InputRecorder.Input input : inputs) {
+                if (!input.unchanged()) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package org.msuo.lua2java;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.DebugLib;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Enforces the execution budget of one script run. LuaJ calls
+ * {@link #onInstruction} for every VM instruction once a {@link DebugLib} is
+ * installed, which is the only hook it offers; the {@code debug} table itself
+ * is removed again so scripts cannot use it.
+ *
+ * <p>The allocation cap is approximate: it is measured as bytes allocated by
+ * the executing thread, sampled every {@link #CHECK_INTERVAL} instructions.
+ * A single library call (say {@code string.rep}) is only noticed once it
+ * returns.
+ *
+ * <p>Interrupting the thread that started the run stops the script at the
+ * next check, which is how cancelled async loads are torn down.
+ *
+ * <p>Module runtimes, whose code runs on behalf of whichever script calls
+ * into it, get a {@link #installForwarding forwarding hook} that charges
+ * the guard of the run active on the thread instead of one of their own.
+ */
+final class ExecutionGuard extends DebugLib {
+
+    private static final Logger LOG = LoggerFactory.getLogger(
+        ExecutionGuard.class
+    );
+
+    static final int CHECK_INTERVAL = 1024;
+    private static final int CHECK_MASK = CHECK_INTERVAL - 1;
+
+    private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN =
+        allocationBean();
+
+    private static volatile boolean allocationWarningLogged;
+
+    // Inherited, as LuaJ runs each coroutine on a thread of its own
+    private static final ThreadLocal<ExecutionGuard> ACTIVE =
+        new InheritableThreadLocal<>();
+
+    private final long maxInstructions;
+    private final long timeoutNanos;
+    private final long maxAllocatedBytes;
+
+    private long instructions;
+    private long deadline;
+    private long allocationBaseline;
+    private long threadId;
+    private Thread owner;
+    private Error stopped;
+
+    private ExecutionGuard(DeserializationOptions options) {
+        this.maxInstructions = options.getMaxInstructions();
+        Duration timeout = options.getTimeout();
+        this.timeoutNanos = timeout == null ? 0 : timeout.toNanos();
+        if (options.getMaxAllocatedBytes() > 0 && ALLOCATION_BEAN == null) {
+            if (!allocationWarningLogged) {
+                allocationWarningLogged = true;
+                LOG.warn(
+                    "Thread allocation accounting is not supported by this " +
+                    "JVM; allocation limits for Lua configs are ignored"
+                );
+            }
+            this.maxAllocatedBytes = 0;
+        } else {
+            this.maxAllocatedBytes = options.getMaxAllocatedBytes();
+        }
+    }
+
+    /** Installs a guard into {@code g} if {@code options} set any budget. */
+    static ExecutionGuard installIfNeeded(
+        Globals g,
+        DeserializationOptions options
+    ) {
+        if (!options.hasExecutionBudget()) return null;
+
+        ExecutionGuard guard = new ExecutionGuard(options);
+        hook(g, guard);
+        return guard;
+    }
+
+    /**
+     * Installs a hook into {@code g} that charges the guard of the run
+     * active on the calling thread, if any, for code running in {@code g}.
+     */
+    static void installForwarding(Globals g) {
+        hook(g, new Forwarding());
+    }
+
+    private static void hook(Globals g, DebugLib lib) {
+        g.load(lib);
+        g.set("debug", LuaValue.NIL);
+        LuaValue loaded = g.get("package").get("loaded");
+        if (loaded.istable()) loaded.set("debug", LuaValue.NIL);
+    }
+
+    /**
+     * Makes {@code guard}, which may be {@code null}, the one charged by
+     * forwarding hooks on this thread. Returns the previous one, to pass
+     * to {@link #exit} once the run is over.
+     */
+    static ExecutionGuard enter(ExecutionGuard guard) {
+        ExecutionGuard outer = ACTIVE.get();
+        ACTIVE.set(guard);
+        return outer;
+    }
+
+    static void exit(ExecutionGuard outer) {
+        ACTIVE.set(outer);
+    }
+
+    /** Starts the clock; call on the thread that runs the chunk. */
+    void start() {
+        instructions = 0;
+        stopped = null;
+        owner = Thread.currentThread();
+        if (timeoutNanos > 0) deadline = System.nanoTime() + timeoutNanos;
+        if (maxAllocatedBytes > 0) {
+            threadId = owner.getId();
+            allocationBaseline = ALLOCATION_BEAN.getThreadAllocatedBytes(
+                threadId
+            );
+        }
+    }
+
+    @Override
+    public void onInstruction(int pc, Varargs v, int top) {
+        super.onInstruction(pc, v, top);
+        charge();
+    }
+
+    /** Counts one instruction against the budget. */
+    private void charge() {
+        // Once stopped, every further instruction fails, so a script that
+        // swallows the first failure (e.g. inside a coroutine) cannot go on
+        if (stopped != null) throw stopped;
+
+        long n = ++instructions;
+        if (maxInstructions > 0 && n > maxInstructions) {
+            fail(ConfigErrorCode.INSTRUCTION_LIMIT_EXCEEDED, maxInstructions);
+        }
+        if ((n & CHECK_MASK) != 0) return;
+
+        // The owner, not the current thread: coroutines run on their own
+        if (owner.isInterrupted()) {
+            stopped = new ExecutionInterrupted();
+            throw stopped;
+        }
+        if (timeoutNanos > 0 && System.nanoTime() - deadline > 0) {
+            fail(
+                ConfigErrorCode.TIMEOUT_EXCEEDED,
+                Duration.ofNanos(timeoutNanos)
+            );
+        }
+        if (
+            maxAllocatedBytes > 0 &&
+            ALLOCATION_BEAN.getThreadAllocatedBytes(threadId) -
+                allocationBaseline >
+            maxAllocatedBytes
+        ) {
+            fail(ConfigErrorCode.ALLOCATION_LIMIT_EXCEEDED, maxAllocatedBytes);
+        }
+    }
+
+    private void fail(ConfigErrorCode code, Object limit) {
+        stopped = new ExecutionBudgetExceeded(code, limit);
+        throw stopped;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        try {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean b =
+                    (com.sun.management.ThreadMXBean) bean;
+                if (b.isThreadAllocatedMemorySupported()) {
+                    if (!b.isThreadAllocatedMemoryEnabled()) {
+                        b.setThreadAllocatedMemoryEnabled(true);
+                    }
+                    return b;
+                }
+            }
+        } catch (LinkageError | RuntimeException e) {
+            LOG.debug("Thread allocation accounting unavailable", e);
+        }
+        return null;
+    }
+
+    /** Hook of a module runtime; see {@link #installForwarding}. */
+    private static final class Forwarding extends DebugLib {
+
+        @Override
+        public void onInstruction(int pc, Varargs v, int top) {
+            super.onInstruction(pc, v, top);
+            ExecutionGuard guard = ACTIVE.get();
+            if (guard != null) guard.charge();
+        }
+    }
+
+    /**
+     * Thrown from inside the VM when a budget is exhausted. An {@link Error},
+     * because LuaJ's {@code pcall} catches every {@link Exception}.
+     */
+    static final class ExecutionBudgetExceeded extends Error {
+
+        final ConfigErrorCode code;
+        final Object limit;
+
+        ExecutionBudgetExceeded(ConfigErrorCode code, Object limit) {
+            super(code.name(), null, false, false);
+            this.code = code;
+            this.limit = limit;
+        }
+    }
+
+    /** Thrown from inside the VM when the owning thread was interrupted. */
+    static final class ExecutionInterrupted extends Error {
+
+        ExecutionInterrupted() {
+            super("interrupted", null, false, false);
+        }
+    }
+}
@@ -1,16 +1,20 @@
 package org.msuo.lua2java;
 
 import java.lang.reflect.Field;
+import org.luaj.vm2.LuaString;
 
 final class FieldBinding {
 
     final Field field;
     final String key;
+    // Interned once; table lookups by String would convert it every time
+    final LuaString luaKey;
     final TypeAdapter adapter;
 
     FieldBinding(Field field, String key, TypeAdapter adapter) {
         this.field = field;
         this.key = key;
+        this.luaKey = LuaString.valueOf(key);
         this.adapter = adapter;
     }
 }
@@ -0,0 +1,58 @@
+package org.msuo.lua2java;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Field writes planned by {@code deserializeInto}. Nothing is written while
+ * binding; the writes are applied together once the whole config bound
+ * without errors, so a failed rebind leaves the existing instance as it was.
+ */
+final class FieldChanges {
+
+    private final List<Object> instances = new ArrayList<>();
+    private final List<Field> fields = new ArrayList<>();
+    private final List<Object> values = new ArrayList<>();
+    private final Set<String> touched = new LinkedHashSet<>();
+
+    void set(
+        Object instance,
+        Field field,
+        Object value,
+        Path path,
+        ErrorCollector errors
+    ) {
+        // Checked now, since applying must not fail halfway
+        if (value != null && !field.getType().isInstance(value)) {
+            errors.add(
+                path,
+                ConfigErrorCode.FIELD_SET_TYPE_MISMATCH,
+                new IllegalArgumentException(
+                    "Cannot set " + field + " to " + value.getClass().getName()
+                )
+            );
+            return;
+        }
+        instances.add(instance);
+        fields.add(field);
+        values.add(value);
+        touched.add(path.toString());
+    }
+
+    /** Paths of the written fields, in binding order. */
+    Set<String> apply() {
+        for (int i = 0; i < fields.size(); i++) {
+            try {
+                fields.get(i).set(instances.get(i), values.get(i));
+            } catch (IllegalAccessException e) {
+                // Schema fields are made accessible when they are resolved
+                throw new IllegalStateException(e);
+            }
+        }
+        return Collections.unmodifiableSet(touched);
+    }
+}
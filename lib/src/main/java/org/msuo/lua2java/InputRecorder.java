@@ -0,0 +1,325 @@
+package org.msuo.lua2java;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.PackageLib;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JseBaseLib;
+import org.luaj.vm2.lib.jse.JseOsLib;
+
+/**
+ * Records what a script reads from outside while it runs: environment
+ * variables, files, the clock and shared modules. Library functions are
+ * wrapped as they are installed. Anything whose result cannot be checked
+ * again later (random numbers, writes, stdin, process and Java access)
+ * marks the run as not memoizable instead.
+ *
+ * <p>Module runtimes, which outlive any one script, get a {@link #forwarding}
+ * recorder that records into the recorder of the run active on the thread.
+ * Used by one script run at a time.
+ */
+final class InputRecorder {
+
+    // Fresh clock readings for revalidation, independent of any runtime
+    private static final LuaValue CLOCK = clockLibrary();
+
+    // Coroutines run on threads of their own, started from the script's
+    private static final ThreadLocal<InputRecorder> ACTIVE =
+        new InheritableThreadLocal<>();
+
+    private final LuaModuleLoader modules;
+    private final boolean forwarding;
+    private final List<Input> inputs = new ArrayList<>();
+    private String uncacheable;
+
+    InputRecorder(LuaModuleLoader modules) {
+        this(modules, false);
+    }
+
+    private InputRecorder(LuaModuleLoader modules, boolean forwarding) {
+        this.modules = modules;
+        this.forwarding = forwarding;
+    }
+
+    /** For a module runtime: records what its code reads for the caller. */
+    static InputRecorder forwarding() {
+        return new InputRecorder(null, true);
+    }
+
+    /**
+     * Makes {@code recorder}, possibly null, the one module code records
+     * into on this thread. Returns the previous one for {@link #exit}.
+     */
+    static InputRecorder enter(InputRecorder recorder) {
+        InputRecorder outer = ACTIVE.get();
+        ACTIVE.set(recorder);
+        return outer;
+    }
+
+    static void exit(InputRecorder outer) {
+        ACTIVE.set(outer);
+    }
+
+    List<Input> inputs() {
+        return inputs;
+    }
+
+    /** Why the run cannot be memoized, or {@code null} if it can. */
+    String uncacheable() {
+        return uncacheable;
+    }
+
+    /** Wraps the functions of a library that reads the outside world. */
+    void instrument(String library, LuaValue table) {
+        switch (library) {
+            case "os":
+            case "io":
+            case "luajava":
+                break;
+            case "math":
+                wrap(table, "math", "random");
+                wrap(table, "math", "randomseed");
+                return;
+            default:
+                return;
+        }
+        if (!table.istable()) return;
+        LuaTable t = table.checktable();
+        for (LuaValue k : t.keys()) {
+            if (t.rawget(k).isfunction()) wrap(t, library, k.tojstring());
+        }
+    }
+
+    /**
+     * Wraps the base functions that read files and resolve modules; call
+     * again after replacing {@code require}.
+     */
+    void instrumentGlobals(Globals g) {
+        wrap(g, null, "dofile");
+        wrap(g, null, "loadfile");
+        wrap(g, null, "require");
+    }
+
+    private void wrap(LuaValue table, String library, String name) {
+        LuaValue f = table.rawget(name);
+        if (!f.isfunction() || f instanceof Tracked) return;
+        String qualified = library == null ? name : library + "." + name;
+        table.rawset(name, new Tracked(qualified, f));
+    }
+
+    private void record(String function, Varargs args, Varargs out) {
+        switch (function) {
+            case "os.getenv":
+                LuaValue v = out.arg1();
+                String value = v.isnil() ? null : v.tojstring();
+                inputs.add(new EnvVar(args.checkjstring(1), value));
+                return;
+            case "os.time":
+                // os.time(t) converts, only os.time() reads the clock
+                if (args.arg1().isnil()) {
+                    inputs.add(new Clock(null, out.arg1()));
+                }
+                return;
+            case "os.date":
+                if (args.arg(2).isnil()) {
+                    inputs.add(new Clock(args.optjstring(1, "%c"), out.arg1()));
+                }
+                return;
+            case "os.difftime":
+            case "io.type":
+                return;
+            case "io.open": {
+                String mode = args.optjstring(2, "r");
+                if (mode.indexOf('r') < 0 || mode.indexOf('+') >= 0) {
+                    notMemoizable(function + " for writing");
+                } else {
+                    file(args.checkjstring(1));
+                }
+                return;
+            }
+            case "io.lines":
+            case "dofile":
+            case "loadfile":
+                if (args.arg1().isnil()) {
+                    notMemoizable(function + " from stdin");
+                } else {
+                    file(args.checkjstring(1));
+                }
+                return;
+            case "require":
+                module(args.checkjstring(1), out.arg1());
+                return;
+            default:
+                notMemoizable(function);
+        }
+    }
+
+    private void file(String name) {
+        inputs.add(FileState.of(Paths.get(name).toAbsolutePath().normalize()));
+    }
+
+    private void module(String name, LuaValue value) {
+        if (modules != null && modules.cachedValue(name) == value) {
+            inputs.add(new ModuleValue(modules, name, value));
+        } else if (!isStandardLibrary(name)) {
+            // Plain LuaJ require searches package.path; not tracked
+            notMemoizable("require '" + name + "'");
+        }
+    }
+
+    private static boolean isStandardLibrary(String name) {
+        switch (name) {
+            case "string":
+            case "table":
+            case "math":
+            case "os":
+            case "io":
+            case "bit32":
+            case "coroutine":
+            case "package":
+            case "luajava":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void notMemoizable(String reason) {
+        if (uncacheable == null) uncacheable = reason;
+    }
+
+    private static LuaValue clockLibrary() {
+        Globals g = new Globals();
+        g.load(new JseBaseLib());
+        g.load(new PackageLib());
+        g.load(new JseOsLib());
+        return g.get("os");
+    }
+
+    /** Forwards to a library function and records the call. */
+    private final class Tracked extends VarArgFunction {
+
+        private final String function;
+        private final LuaValue target;
+
+        Tracked(String function, LuaValue target) {
+            this.function = function;
+            this.target = target;
+            this.name = function;
+        }
+
+        @Override
+        public Varargs invoke(Varargs args) {
+            Varargs out = target.invoke(args);
+            InputRecorder r = forwarding ? ACTIVE.get() : InputRecorder.this;
+            if (r != null) r.record(function, args, out);
+            return out;
+        }
+    }
+
+    /** One value a script read; checks whether reading it again agrees. */
+    interface Input {
+        boolean unchanged();
+    }
+
+    static final class EnvVar implements Input {
+
+        private final String name;
+        private final String value;
+
+        EnvVar(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public boolean unchanged() {
+            return Objects.equals(System.getenv(name), value);
+        }
+    }
+
+    /** {@code os.time()} when {@code format} is null, else os.date. */
+    static final class Clock implements Input {
+
+        private final String format;
+        private final LuaValue value;
+
+        Clock(String format, LuaValue value) {
+            this.format = format;
+            this.value = value;
+        }
+
+        @Override
+        public boolean unchanged() {
+            LuaValue now = format == null
+                ? CLOCK.get("time").call()
+                : CLOCK.get("date").call(LuaValue.valueOf(format));
+            return now.raweq(value);
+        }
+    }
+
+    static final class FileState implements Input {
+
+        private final java.nio.file.Path file;
+        // null when the file did not exist
+        private final FileTime modified;
+        private final long size;
+
+        private FileState(
+            java.nio.file.Path file,
+            FileTime modified,
+            long size
+        ) {
+            this.file = file;
+            this.modified = modified;
+            this.size = size;
+        }
+
+        static FileState of(java.nio.file.Path file) {
+            try {
+                BasicFileAttributes a = Files.readAttributes(
+                    file,
+                    BasicFileAttributes.class
+                );
+                return new FileState(file, a.lastModifiedTime(), a.size());
+            } catch (IOException e) {
+                return new FileState(file, null, -1);
+            }
+        }
+
+        @Override
+        public boolean unchanged() {
+            FileState now = of(file);
+            return Objects.equals(now.modified, modified) && now.size == size;
+        }
+    }
+
+    static final class ModuleValue implements Input {
+
+        private final LuaModuleLoader loader;
+        private final String name;
+        private final LuaValue value;
+
+        ModuleValue(LuaModuleLoader loader, String name, LuaValue value) {
+            this.loader = loader;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public boolean unchanged() {
+            // Refreshed or invalidated modules get a new value
+            return loader.cachedValue(name) == value;
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package org.msuo.lua2java;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+/**
+ * Binding for lazy views: user interfaces become {@link ViewHandler}
+ * proxies, {@code List}/{@code Collection} and {@code Map} become
+ * {@link LazyList}/{@link LazyMap} whose elements bind on access, and
+ * everything else goes through the regular cached adapters.
+ */
+final class LazyValues {
+
+    /** Memo placeholder for a bound {@code null}. */
+    static final Object NULL = new Object();
+
+    private LazyValues() {}
+
+    /** User interfaces (not JDK ones) are bound as views. */
+    static boolean isView(Class<?> raw) {
+        return raw.isInterface() && !raw.getName().startsWith("java.");
+    }
+
+    /**
+     * A private deep copy of {@code v} for a view to read from any thread:
+     * tables are copied raw, sharing and cycles kept, everything else is
+     * shared. Metatables are left behind, as their metamethods would run
+     * the script's runtime from whichever thread calls a getter.
+     */
+    static LuaValue snapshot(LuaValue v) {
+        return snapshot(v, new IdentityHashMap<>());
+    }
+
+    private static LuaValue snapshot(
+        LuaValue v,
+        Map<LuaValue, LuaTable> copies
+    ) {
+        if (!v.istable()) return v;
+        LuaTable copy = copies.get(v);
+        if (copy != null) return copy;
+
+        copy = new LuaTable(v.rawlen(), 0);
+        copies.put(v, copy);
+        LuaValue k = LuaValue.NIL;
+        while (true) {
+            Varargs n = v.next(k);
+            k = n.arg1();
+            if (k.isnil()) break;
+            copy.rawset(snapshot(k, copies), snapshot(n.arg(2), copies));
+        }
+        return copy;
+    }
+
+    /**
+     * Binds {@code v} as {@code type}.
+     *
+     * @throws ConfigDeserializationException if it does not fit
+     */
+    static Object bind(
+        Path path,
+        Type type,
+        LuaValue v,
+        DeserializationOptions options
+    ) {
+        type = boxed(type);
+        Class<?> raw = TypeUtils.rawClass(type);
+        ErrorCollector errors = new ErrorCollector(options, null, raw);
+        Object out = null;
+        try {
+            out = bind(path, type, raw, v, options, errors);
+        } catch (ErrorCollector.BindingStopped stopped) {
+            // Reported below
+        }
+        if (errors.hasErrors()) {
+            throw new ConfigDeserializationException(
+                errors.asList(),
+                errors.omitted(),
+                errors.stopped()
+            );
+        }
+        return out;
+    }
+
+    private static Object bind(
+        Path path,
+        Type type,
+        Class<?> raw,
+        LuaValue v,
+        DeserializationOptions options,
+        ErrorCollector errors
+    ) {
+        if (isLazy(type, raw)) {
+            if (v.isnil()) {
+                errors.add(path, ConfigErrorCode.MISSING_REQUIRED_FIELD);
+                return null;
+            }
+            LuaTable t = requireTable(path, raw, v, errors);
+            if (t == null) return null;
+            if (isView(raw)) return ViewHandler.create(raw, t, path, options);
+
+            Type[] args = ((ParameterizedType) type).getActualTypeArguments();
+            if (raw == Map.class) {
+                return new LazyMap(path, args[0], args[1], t, options);
+            }
+            return new LazyList(path, args[0], t, options);
+        }
+
+        TypeAdapter adapter = LuaDeserializer.adapterFor(type);
+        ReadResult rr = v.isnil()
+            ? adapter.missing(path, errors)
+            : adapter.read(path, v, errors);
+        return rr.ok ? rr.value : null;
+    }
+
+    /**
+     * Checks {@code v} as {@code type} the way {@link #bind} would, walking
+     * the whole subtree and recording every error instead of throwing.
+     */
+    static void validate(
+        Path path,
+        Type type,
+        LuaValue v,
+        DeserializationOptions options,
+        ErrorCollector errors
+    ) {
+        type = boxed(type);
+        Class<?> raw = TypeUtils.rawClass(type);
+        if (!isLazy(type, raw)) {
+            bind(path, type, raw, v, options, errors);
+            return;
+        }
+        if (v.isnil()) {
+            errors.add(path, ConfigErrorCode.MISSING_REQUIRED_FIELD);
+            return;
+        }
+        LuaTable t = requireTable(path, raw, v, errors);
+        if (t == null) return;
+
+        if (isView(raw)) {
+            ViewHandler.Schema schema = ViewHandler.schema(raw);
+            for (Method m : schema.getters) {
+                String key = schema.keys.get(m);
+                LuaValue child = t.get(key);
+                if (child.isnil() && m.isDefault()) continue;
+                validate(
+                    path.field(key),
+                    m.getGenericReturnType(),
+                    child,
+                    options,
+                    errors
+                );
+            }
+            return;
+        }
+
+        Type[] args = ((ParameterizedType) type).getActualTypeArguments();
+        if (raw == Map.class) {
+            TypeAdapter keys = LuaDeserializer.adapterFor(args[0]);
+            LuaValue k = LuaValue.NIL;
+            while (true) {
+                Varargs n = t.next(k);
+                k = n.arg1();
+                if (k.isnil()) break;
+                ReadResult key = keys.read(path.rawKey(k), k, errors);
+                if (!key.ok) continue;
+                validate(
+                    path.mapKey(key.value),
+                    args[1],
+                    n.arg(2),
+                    options,
+                    errors
+                );
+            }
+            return;
+        }
+        int size = t.length();
+        for (int i = 1; i <= size; i++) {
+            validate(path.index(i), args[0], t.get(i), options, errors);
+        }
+    }
+
+    private static boolean isLazy(Type type, Class<?> raw) {
+        if (isView(raw)) return true;
+        return (
+            type instanceof ParameterizedType &&
+            (raw == List.class || raw == Collection.class || raw == Map.class)
+        );
+    }
+
+    private static LuaTable requireTable(
+        Path path,
+        Class<?> raw,
+        LuaValue v,
+        ErrorCollector errors
+    ) {
+        if (isView(raw)) {
+            if (v.istable()) return v.checktable();
+            errors.add(
+                path,
+                ConfigErrorCode.VIEW_EXPECTED_TABLE,
+                raw,
+                v.typename()
+            );
+            return null;
+        }
+        if (raw == Map.class) {
+            return LuaCoerce.requireTable(
+                path,
+                v,
+                errors,
+                ConfigErrorCode.MAP_EXPECTED
+            );
+        }
+        return LuaCoerce.requireTable(
+            path,
+            v,
+            errors,
+            ConfigErrorCode.COLLECTION_EXPECTED,
+            raw
+        );
+    }
+
+    /** Views may declare primitive getters; they bind as the box type. */
+    private static Type boxed(Type type) {
+        if (!(type instanceof Class<?>) || !((Class<?>) type).isPrimitive()) {
+            return type;
+        }
+        if (type == int.class) return Integer.class;
+        if (type == long.class) return Long.class;
+        if (type == double.class) return Double.class;
+        if (type == boolean.class) return Boolean.class;
+        if (type == float.class) return Float.class;
+        if (type == short.class) return Short.class;
+        if (type == byte.class) return Byte.class;
+        if (type == char.class) return Character.class;
+        return type;
+    }
+
+    /** Read-only list over a Lua array; elements bind on first access. */
+    static final class LazyList extends AbstractList<Object>
+        implements RandomAccess {
+
+        private final Path path;
+        private final Type elemType;
+        private final LuaTable table;
+        private final DeserializationOptions options;
+        private final AtomicReferenceArray<Object> values;
+
+        LazyList(
+            Path path,
+            Type elemType,
+            LuaTable table,
+            DeserializationOptions options
+        ) {
+            this.path = path;
+            this.elemType = elemType;
+            this.table = table;
+            this.options = options;
+            this.values = new AtomicReferenceArray<>(table.length());
+        }
+
+        @Override
+        public Object get(int index) {
+            Objects.checkIndex(index, values.length());
+            Object v = values.get(index);
+            if (v == null) {
+                Object bound = bind(
+                    path.index(index + 1),
+                    elemType,
+                    table.get(index + 1),
+                    options
+                );
+                values.compareAndSet(index, null, bound == null ? NULL : bound);
+                v = values.get(index);
+            }
+            return v == NULL ? null : v;
+        }
+
+        @Override
+        public int size() {
+            return values.length();
+        }
+    }
+
+    /**
+     * Read-only map over a Lua table. Keys are bound together on first use
+     * (lookups need them all); values bind on first access.
+     */
+    static final class LazyMap extends AbstractMap<Object, Object> {
+
+        private final Path path;
+        private final Type keyType;
+        private final Type valueType;
+        private final LuaTable table;
+        private final DeserializationOptions options;
+        private final Map<Object, Object> values = new ConcurrentHashMap<>();
+
+        private volatile Map<Object, LuaValue> raw;
+
+        LazyMap(
+            Path path,
+            Type keyType,
+            Type valueType,
+            LuaTable table,
+            DeserializationOptions options
+        ) {
+            this.path = path;
+            this.keyType = keyType;
+            this.valueType = valueType;
+            this.table = table;
+            this.options = options;
+        }
+
+        private Map<Object, LuaValue> raw() {
+            Map<Object, LuaValue> r = raw;
+            if (r != null) return r;
+
+            r = new LinkedHashMap<>();
+            LuaValue k = LuaValue.NIL;
+            while (true) {
+                Varargs n = table.next(k);
+                k = n.arg1();
+                if (k.isnil()) break;
+                r.put(bind(path.rawKey(k), keyType, k, options), n.arg(2));
+            }
+            raw = r;
+            return r;
+        }
+
+        @Override
+        public Object get(Object key) {
+            LuaValue lv = raw().get(key);
+            if (lv == null) return null;
+            Object v = values.get(key);
+            if (v == null) {
+                Object bound = bind(path.mapKey(key), valueType, lv, options);
+                Object prev = values.putIfAbsent(
+                    key,
+                    bound == null ? NULL : bound
+                );
+                v = prev != null ? prev : bound;
+            }
+            return v == NULL ? null : v;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return raw().containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return raw().size();
+        }
+
+        @Override
+        public Set<Object> keySet() {
+            // Not via entrySet(), which would bind every value
+            return Collections.unmodifiableSet(raw().keySet());
+        }
+
+        @Override
+        public Set<Map.Entry<Object, Object>> entrySet() {
+            return new AbstractSet<Map.Entry<Object, Object>>() {
+                @Override
+                public Iterator<Map.Entry<Object, Object>> iterator() {
+                    Iterator<Object> keys = raw().keySet().iterator();
+                    return new Iterator<Map.Entry<Object, Object>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return keys.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<Object, Object> next() {
+                            Object k = keys.next();
+                            return new AbstractMap.SimpleImmutableEntry<>(
+                                k,
+                                get(k)
+                            );
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return raw().size();
+                }
+            };
+        }
+    }
+}
@@ -1,55 +1,413 @@
 package org.msuo.lua2java;
 
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import org.luaj.vm2.LuaString;
 import org.luaj.vm2.LuaValue;
 
+/**
+ * Binds Lua scalars to leaf types. JDK scalar targets are read straight
+ * from the {@link LuaValue} into their box, with range checks. Other types
+ * take the value's natural box ({@code String}, {@code Integer},
+ * {@code Double} or {@code Boolean}) or are built through a 1-arg
+ * constructor accepting it.
+ */
 final class LeafReader {
 
+    /** How a target class is read; resolved once per adapter. */
+    enum Target {
+        STRING,
+        INTEGER,
+        LONG,
+        DOUBLE,
+        FLOAT,
+        SHORT,
+        BYTE,
+        CHARACTER,
+        BOOLEAN,
+        OTHER,
+    }
+
+    // Lua numbers are doubles, integers beyond 2^53 are not exact
+    private static final double MAX_EXACT_LONG = 9007199254740992.0;
+
+    // Constructor slots: the natural boxes, then Long for integral numbers
+    private static final Class<?>[] PARAM_TYPES = {
+        String.class,
+        Integer.class,
+        Double.class,
+        Boolean.class,
+        Long.class,
+    };
+    private static final int DOUBLE_SLOT = 2;
+    private static final int LONG_SLOT = 4;
+
+    private static final ClassValue<Constructor<?>[]> CTORS =
+        new ClassValue<Constructor<?>[]>() {
+            @Override
+            protected Constructor<?>[] computeValue(Class<?> type) {
+                return oneArgCtors(type);
+            }
+        };
+
+    // The one field of a domain leaf such as NonEmptyString, else null
+    private static final ClassValue<Field> WRAPPED =
+        new ClassValue<Field>() {
+            @Override
+            protected Field computeValue(Class<?> type) {
+                return wrappedField(type);
+            }
+        };
+
     private LeafReader() {}
 
+    static Target targetOf(Class<?> cls) {
+        if (cls == String.class) return Target.STRING;
+        if (cls == Integer.class) return Target.INTEGER;
+        if (cls == Long.class) return Target.LONG;
+        if (cls == Double.class) return Target.DOUBLE;
+        if (cls == Float.class) return Target.FLOAT;
+        if (cls == Short.class) return Target.SHORT;
+        if (cls == Byte.class) return Target.BYTE;
+        if (cls == Character.class) return Target.CHARACTER;
+        if (cls == Boolean.class) return Target.BOOLEAN;
+        return Target.OTHER;
+    }
+
     static ReadResult readLeaf(
         Path path,
         Class<?> target,
+        Target kind,
         LuaValue luaValue,
         ErrorCollector errors
     ) {
-        LuaScalar scalar = LuaCoerce.scalarOrError(path, luaValue, errors);
-        if (scalar == null) return ReadResult.fail();
+        int type = luaValue.type();
+        if (
+            type != LuaValue.TSTRING &&
+            type != LuaValue.TNUMBER &&
+            type != LuaValue.TBOOLEAN
+        ) {
+            errors.add(
+                path,
+                ConfigErrorCode.EXPECTED_SCALAR,
+                luaValue.typename()
+            );
+            return ReadResult.fail();
+        }
+
+        switch (kind) {
+            case STRING:
+                if (type != LuaValue.TSTRING) break;
+                return ReadResult.ok(luaValue.tojstring());
+            case BOOLEAN:
+                if (type != LuaValue.TBOOLEAN) break;
+                return ReadResult.ok(Boolean.valueOf(luaValue.toboolean()));
+            case DOUBLE:
+                if (type != LuaValue.TNUMBER) break;
+                return ReadResult.ok(Double.valueOf(luaValue.todouble()));
+            case FLOAT:
+                if (type != LuaValue.TNUMBER) break;
+                return readFloat(path, target, luaValue, errors);
+            case INTEGER:
+            case LONG:
+            case SHORT:
+            case BYTE:
+                if (type != LuaValue.TNUMBER) break;
+                return readIntegral(path, target, kind, luaValue, errors);
+            case CHARACTER:
+                if (type != LuaValue.TSTRING) break;
+                return readCharacter(path, target, luaValue, errors);
+            default:
+                return readOther(path, target, luaValue, errors);
+        }
+        errors.add(
+            path,
+            ConfigErrorCode.NO_ONE_ARG_CTOR,
+            target,
+            naturalType(luaValue)
+        );
+        return ReadResult.fail();
+    }
+
+    private static ReadResult readIntegral(
+        Path path,
+        Class<?> target,
+        Target kind,
+        LuaValue v,
+        ErrorCollector errors
+    ) {
+        if (kind == Target.INTEGER && v.isinttype()) {
+            return ReadResult.ok(Integer.valueOf(v.toint()));
+        }
+
+        double d = v.todouble();
+        double min;
+        double max;
+        switch (kind) {
+            case INTEGER:
+                min = Integer.MIN_VALUE;
+                max = Integer.MAX_VALUE;
+                break;
+            case SHORT:
+                min = Short.MIN_VALUE;
+                max = Short.MAX_VALUE;
+                break;
+            case BYTE:
+                min = Byte.MIN_VALUE;
+                max = Byte.MAX_VALUE;
+                break;
+            default:
+                min = -MAX_EXACT_LONG;
+                max = MAX_EXACT_LONG;
+        }
+        // Also rejects fractions, NaN and infinities
+        if (d != Math.rint(d) || d < min || d > max) {
+            errors.add(path, ConfigErrorCode.VALUE_OUT_OF_RANGE, v, target);
+            return ReadResult.fail();
+        }
+
+        switch (kind) {
+            case INTEGER:
+                return ReadResult.ok(Integer.valueOf((int) d));
+            case SHORT:
+                return ReadResult.ok(Short.valueOf((short) d));
+            case BYTE:
+                return ReadResult.ok(Byte.valueOf((byte) d));
+            default:
+                return ReadResult.ok(Long.valueOf((long) d));
+        }
+    }
+
+    private static ReadResult readFloat(
+        Path path,
+        Class<?> target,
+        LuaValue v,
+        ErrorCollector errors
+    ) {
+        double d = v.todouble();
+        float f = (float) d;
+        if (Float.isInfinite(f) && !Double.isInfinite(d)) {
+            errors.add(path, ConfigErrorCode.VALUE_OUT_OF_RANGE, v, target);
+            return ReadResult.fail();
+        }
+        return ReadResult.ok(Float.valueOf(f));
+    }
+
+    private static ReadResult readCharacter(
+        Path path,
+        Class<?> target,
+        LuaValue v,
+        ErrorCollector errors
+    ) {
+        LuaString s = v.checkstring();
+        // ASCII needs no decoding, and its boxes are cached
+        if (s.rawlen() == 1 && s.luaByte(0) < 0x80) {
+            return ReadResult.ok(Character.valueOf((char) s.luaByte(0)));
+        }
+        String str = s.tojstring();
+        if (str.length() != 1) {
+            errors.add(path, ConfigErrorCode.VALUE_OUT_OF_RANGE, v, target);
+            return ReadResult.fail();
+        }
+        return ReadResult.ok(Character.valueOf(str.charAt(0)));
+    }
 
-        if (target.isAssignableFrom(scalar.boxedType)) {
-            return ReadResult.ok(scalar.value);
+    private static ReadResult readOther(
+        Path path,
+        Class<?> target,
+        LuaValue v,
+        ErrorCollector errors
+    ) {
+        Class<?> natural = naturalType(v);
+        if (target.isAssignableFrom(natural)) {
+            return ReadResult.ok(naturalValue(v));
         }
 
-        Constructor<?> ctor = findOneArgCtor(target, scalar.boxedType);
-        if (ctor == null) {
-            errors.add(path, Errors.noOneArgCtor(target, scalar.boxedType));
+        Constructor<?>[] ctors = CTORS.get(target);
+        Constructor<?> ctor = ctors[slotOf(natural)];
+        Object arg;
+        if (ctor != null) {
+            arg = naturalValue(v);
+        } else if (ctors[LONG_SLOT] != null && isExactLong(v)) {
+            ctor = ctors[LONG_SLOT];
+            arg = Long.valueOf((long) v.todouble());
+        } else if (ctors[DOUBLE_SLOT] != null && natural == Integer.class) {
+            // Widened, as an integral number may stand for a double
+            ctor = ctors[DOUBLE_SLOT];
+            arg = Double.valueOf(v.todouble());
+        } else {
+            errors.add(path, ConfigErrorCode.NO_ONE_ARG_CTOR, target, natural);
             return ReadResult.fail();
         }
 
         try {
-            ctor.setAccessible(true);
-            return ReadResult.ok(ctor.newInstance(scalar.value));
+            return ReadResult.ok(ctor.newInstance(arg));
         } catch (InvocationTargetException e) {
             Throwable cause = (e.getCause() != null) ? e.getCause() : e;
-            errors.add(path, Errors.ctorRejected(target, cause));
+            errors.add(path, ConfigErrorCode.CTOR_REJECTED, target, cause);
             return ReadResult.fail();
         } catch (ReflectiveOperationException e) {
-            errors.add(path, Errors.ctorCallFailed(target, e));
+            errors.add(path, ConfigErrorCode.CTOR_CALL_FAILED, target, e);
             return ReadResult.fail();
         }
     }
 
-    private static Constructor<?> findOneArgCtor(
-        Class<?> target,
-        Class<?> paramType
-    ) {
+    private static boolean isExactLong(LuaValue v) {
+        if (v.type() != LuaValue.TNUMBER) return false;
+        double d = v.todouble();
+        return d == Math.rint(d) && Math.abs(d) <= MAX_EXACT_LONG;
+    }
+
+    /** The box a scalar binds to when the target does not decide. */
+    private static Class<?> naturalType(LuaValue v) {
+        switch (v.type()) {
+            case LuaValue.TSTRING:
+                return String.class;
+            case LuaValue.TNUMBER:
+                return v.isint() ? Integer.class : Double.class;
+            default:
+                return Boolean.class;
+        }
+    }
+
+    private static Object naturalValue(LuaValue v) {
+        switch (v.type()) {
+            case LuaValue.TSTRING:
+                return v.tojstring();
+            case LuaValue.TNUMBER:
+                return v.isint()
+                    ? (Object) Integer.valueOf(v.toint())
+                    : (Object) Double.valueOf(v.todouble());
+            default:
+                return Boolean.valueOf(v.toboolean());
+        }
+    }
+
+    /**
+     * Whether reading {@code v} would give a value equal to {@code current},
+     * decided without building it; false when that cannot be told cheaply.
+     * A domain leaf holds {@code v} when its one field equals {@code v}:
+     * its constructor is assumed to accept the value it already holds.
+     */
+    static boolean holds(Target kind, LuaValue v, Object current) {
+        switch (kind) {
+            case STRING:
+                return (
+                    current instanceof String &&
+                    v.type() == LuaValue.TSTRING &&
+                    sameString(v.checkstring(), (String) current)
+                );
+            case INTEGER:
+                return (
+                    current instanceof Integer &&
+                    v.isinttype() &&
+                    v.toint() == (Integer) current
+                );
+            case LONG:
+                return (
+                    current instanceof Long &&
+                    isExactLong(v) &&
+                    (long) v.todouble() == (Long) current
+                );
+            case DOUBLE:
+                return (
+                    current instanceof Double &&
+                    v.type() == LuaValue.TNUMBER &&
+                    Double.doubleToLongBits(v.todouble()) ==
+                    Double.doubleToLongBits((Double) current)
+                );
+            case BOOLEAN:
+                return (
+                    current instanceof Boolean &&
+                    v.type() == LuaValue.TBOOLEAN &&
+                    v.toboolean() == (Boolean) current
+                );
+            case OTHER:
+                Field f = WRAPPED.get(current.getClass());
+                if (f == null) return false;
+                try {
+                    Object inner = f.get(current);
+                    return (
+                        inner != null &&
+                        holds(targetOf(f.getType()), v, inner)
+                    );
+                } catch (IllegalAccessException e) {
+                    return false;
+                }
+            default:
+                return false;
+        }
+    }
+
+    private static boolean sameString(LuaString s, String str) {
+        int n = s.rawlen();
+        if (n != str.length()) {
+            // Non-ASCII text may still be equal once decoded
+            return n > str.length() && s.tojstring().equals(str);
+        }
+        for (int i = 0; i < n; i++) {
+            int b = s.luaByte(i);
+            if (b >= 0x80) return s.tojstring().equals(str);
+            if (b != str.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static Field wrappedField(Class<?> type) {
+        Field found = null;
+        for (Field f : type.getDeclaredFields()) {
+            if (Modifier.isStatic(f.getModifiers()) || f.isSynthetic()) {
+                continue;
+            }
+            if (found != null) return null;
+            found = f;
+        }
+        if (
+            found == null ||
+            type.getSuperclass() != Object.class ||
+            slotOf(found.getType()) < 0 ||
+            CTORS.get(type)[slotOf(found.getType())] == null ||
+            !found.trySetAccessible()
+        ) {
+            return null;
+        }
+        return found;
+    }
+
+    private static int slotOf(Class<?> type) {
+        for (int i = 0; i < PARAM_TYPES.length; i++) {
+            if (PARAM_TYPES[i] == type) return i;
+        }
+        return -1;
+    }
+
+    /** Whether some Lua scalar can be converted to {@code target}. */
+    static boolean acceptsScalar(Class<?> target) {
+        if (targetOf(target) != Target.OTHER) return true;
+        Constructor<?>[] ctors = CTORS.get(target);
+        for (int i = 0; i < PARAM_TYPES.length; i++) {
+            if (target.isAssignableFrom(PARAM_TYPES[i])) return true;
+            if (ctors[i] != null) return true;
+        }
+        return false;
+    }
+
+    private static Constructor<?>[] oneArgCtors(Class<?> target) {
+        Constructor<?>[] out = new Constructor<?>[PARAM_TYPES.length];
         Constructor<?>[] ctors = target.getDeclaredConstructors();
         for (int i = 0; i < ctors.length; i++) {
             Constructor<?> c = ctors[i];
             if (c.getParameterCount() != 1) continue;
-            if (c.getParameterTypes()[0] == paramType) return c;
+            Class<?> p = c.getParameterTypes()[0];
+            for (int j = 0; j < PARAM_TYPES.length; j++) {
+                if (p != PARAM_TYPES[j]) continue;
+                // Left inaccessible (JDK internals), newInstance reports it
+                c.trySetAccessible();
+                out[j] = c;
+            }
         }
-        return null;
+        return out;
     }
 }
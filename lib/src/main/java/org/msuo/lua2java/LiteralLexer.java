@@ -0,0 +1,419 @@
+package org.msuo.lua2java;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaValue;
+
+/**
+ * Tokens of Lua literal data: punctuation, names, strings and unsigned
+ * numbers, with comments skipped. Strings and numbers come out exactly as
+ * LuaJ's lexer builds them. Input is a whole string or a reader consumed
+ * through a small window, so streaming needs no more than the current
+ * token in memory.
+ *
+ * <p>Anything the literal subset does not cover, such as hexadecimal
+ * fractions or malformed numerals, is reported as {@link Malformed}; a
+ * failing reader surfaces as {@link UncheckedIOException}.
+ */
+final class LiteralLexer {
+
+    static final int EOS = -1;
+    static final int NAME = -2;
+    static final int STRING = -3;
+    static final int NUMBER = -4;
+
+    private static final int WINDOW = 8192;
+
+    private final Reader in;
+    private char[] chars;
+    private int pos;
+    private int limit;
+    private boolean eof;
+    private int line = 1;
+
+    private byte[] bytes = new byte[64];
+    private int length;
+    private LuaValue number;
+
+    LiteralLexer(String src) {
+        this.in = null;
+        this.chars = src.toCharArray();
+        this.limit = chars.length;
+        this.eof = true;
+    }
+
+    LiteralLexer(Reader in) {
+        this.in = in;
+        this.chars = new char[WINDOW];
+    }
+
+    int line() {
+        return line;
+    }
+
+    /** Bytes of the last NAME or STRING token. */
+    LuaString text() {
+        return LuaString.valueOf(bytes, 0, length);
+    }
+
+    /** Whether the last NAME token is {@code word}. */
+    boolean isWord(String word) {
+        if (length != word.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /** Value of the last NUMBER token; never negative. */
+    LuaValue number() {
+        return number;
+    }
+
+    /**
+     * Reads the next token: {@link #EOS}, {@link #NAME}, {@link #STRING},
+     * {@link #NUMBER} or a single punctuation char such as {@code '{'}.
+     * Chars outside the subset are returned as themselves for the caller
+     * to reject.
+     */
+    int next() {
+        skipSpace();
+        if (atEnd()) return EOS;
+        char c = at(0);
+        if (isNameStart(c)) {
+            readName();
+            return NAME;
+        }
+        if (isDigit(c) || (c == '.' && isDigit(at(1)))) {
+            readNumber();
+            return NUMBER;
+        }
+        if (c == '"' || c == '\'') {
+            readQuoted(c);
+            return STRING;
+        }
+        if (c == '[') {
+            int level = bracketLevel('[', 0);
+            if (level >= 0) {
+                readLongString(level);
+                return STRING;
+            }
+            if (level < -1) {
+                throw new Malformed("invalid long string delimiter");
+            }
+        }
+        pos++;
+        return c;
+    }
+
+    private void readName() {
+        length = 0;
+        while (isNameChar(at(0))) putByte(chars[pos++]);
+    }
+
+    private void readNumber() {
+        if (at(0) == '0' && (at(1) == 'x' || at(1) == 'X')) {
+            pos += 2;
+            long m = 0;
+            int digits = 0;
+            for (int d; (d = hexDigit(at(0))) >= 0; pos++, digits++) {
+                m = m * 16 + d;
+            }
+            // Fractions, exponents and anything past double precision
+            if (digits == 0 || digits > 13) {
+                throw new Malformed("unsupported hexadecimal numeral");
+            }
+            endOfNumber();
+            number = LuaValue.valueOf((double) m);
+            return;
+        }
+
+        length = 0;
+        int digits = digits();
+        boolean integral = true;
+        if (at(0) == '.') {
+            putByte(chars[pos++]);
+            digits += digits();
+            integral = false;
+        }
+        if (at(0) == 'e' || at(0) == 'E') {
+            putByte(chars[pos++]);
+            if (at(0) == '+' || at(0) == '-') putByte(chars[pos++]);
+            if (digits() == 0) throw new Malformed("malformed number");
+            integral = false;
+        }
+        endOfNumber();
+
+        if (integral && digits <= 9) {
+            int n = 0;
+            for (int i = 0; i < length; i++) n = n * 10 + (bytes[i] - '0');
+            number = LuaValue.valueOf(n);
+        } else {
+            String s = new String(bytes, 0, length, StandardCharsets.US_ASCII);
+            number = LuaValue.valueOf(Double.parseDouble(s));
+        }
+    }
+
+    private int digits() {
+        int n = 0;
+        for (; isDigit(at(0)); n++) putByte(chars[pos++]);
+        return n;
+    }
+
+    /** LuaJ reads {@code 5f} or {@code 1.2.3} as one malformed numeral. */
+    private void endOfNumber() {
+        if (isNameChar(at(0)) || at(0) == '.') {
+            throw new Malformed("malformed number");
+        }
+    }
+
+    private void readQuoted(char quote) {
+        pos++;
+        length = 0;
+        while (true) {
+            if (atEnd()) throw new Malformed("unfinished string");
+            char c = chars[pos++];
+            if (c == quote) return;
+            if (c == '\n' || c == '\r') {
+                throw new Malformed("unfinished string");
+            }
+            if (c != '\\') {
+                put(c);
+                continue;
+            }
+
+            if (atEnd()) throw new Malformed("unfinished string");
+            c = chars[pos++];
+            switch (c) {
+                case 'a':
+                    put('\u0007');
+                    break;
+                case 'b':
+                    put('\b');
+                    break;
+                case 'f':
+                    put('\f');
+                    break;
+                case 'n':
+                    put('\n');
+                    break;
+                case 'r':
+                    put('\r');
+                    break;
+                case 't':
+                    put('\t');
+                    break;
+                case 'v':
+                    put('\u000B');
+                    break;
+                case 'x': {
+                    int hi = hexDigit(at(0));
+                    int lo = hexDigit(at(1));
+                    if (hi < 0 || lo < 0) {
+                        throw new Malformed("hexadecimal digit expected");
+                    }
+                    putByte((hi << 4) + lo);
+                    pos += 2;
+                    break;
+                }
+                case '\n':
+                case '\r':
+                    put('\n');
+                    newline(c);
+                    break;
+                case 'z':
+                    for (char s; (s = at(0)) <= ' ' && !atEnd(); pos++) {
+                        if (s == '\n') line++;
+                    }
+                    break;
+                default:
+                    if (!isDigit(c)) {
+                        // \\, \", \' and, leniently, anything else
+                        put(c);
+                        break;
+                    }
+                    // Up to three digits
+                    int b = c - '0';
+                    for (int i = 1; i < 3 && isDigit(at(0)); i++) {
+                        b = b * 10 + (chars[pos++] - '0');
+                    }
+                    if (b > 255) {
+                        throw new Malformed("escape sequence too large");
+                    }
+                    putByte(b);
+            }
+        }
+    }
+
+    /** Called with {@code pos} past the opening {@code [==[}. */
+    private void readLongString(int level) {
+        length = 0;
+        // A newline right after the opening bracket is skipped
+        char first = at(0);
+        if (first == '\r' || first == '\n') {
+            pos++;
+            newline(first);
+        }
+        while (true) {
+            if (atEnd()) throw new Malformed("unfinished long string");
+            char c = chars[pos];
+            if (c == ']' && bracketLevel(']', level) == level) return;
+            if (c == '[' && level == 0 && at(1) == '[') {
+                // "nesting of [[...]] is deprecated", an error in LuaJ
+                throw new Malformed("nesting of [[...]] is deprecated");
+            }
+            pos++;
+            if (c == '\n' || c == '\r') {
+                put('\n');
+                newline(c);
+            } else {
+                put(c);
+            }
+        }
+    }
+
+    /**
+     * Checks for {@code [==[} (or {@code ]==]}) at {@code pos}. If its
+     * level is {@code expected} or the bracket opens a long string, consumes
+     * it and returns the level; otherwise leaves {@code pos} alone and
+     * returns -1, or -2 for a single bracket followed by {@code =}.
+     */
+    private int bracketLevel(char bracket, int expected) {
+        int level = 0;
+        while (at(1 + level) == '=') level++;
+        if (at(1 + level) != bracket) return level == 0 ? -1 : -2;
+        if (bracket == ']' && level != expected) return -1;
+        pos += level + 2;
+        return level;
+    }
+
+    /** Counts a line break; {@code \r\n} and {@code \n\r} are one. */
+    private void newline(char first) {
+        char c = at(0);
+        if ((c == '\n' || c == '\r') && c != first) pos++;
+        line++;
+    }
+
+    private void skipSpace() {
+        while (true) {
+            char c = at(0);
+            if (c == 0 && atEnd()) return;
+            if (c == '\n' || c == '\r') {
+                pos++;
+                newline(c);
+            } else if (c <= ' ') {
+                pos++;
+            } else if (c == '-' && at(1) == '-') {
+                pos += 2;
+                int level = at(0) == '[' ? bracketLevel('[', 0) : -1;
+                if (level >= 0) {
+                    skipLongComment(level);
+                } else {
+                    while (!atEnd() && at(0) != '\n' && at(0) != '\r') pos++;
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void skipLongComment(int level) {
+        while (true) {
+            if (atEnd()) throw new Malformed("unfinished long comment");
+            char c = chars[pos];
+            if (c == ']' && bracketLevel(']', level) == level) return;
+            if (c == '[' && level == 0 && at(1) == '[') {
+                throw new Malformed("nesting of [[...]] is deprecated");
+            }
+            pos++;
+            if (c == '\n' || c == '\r') newline(c);
+        }
+    }
+
+    /** Appends {@code c} UTF-8 encoded, char by char as LuaJ does. */
+    private void put(char c) {
+        if (c < 0x80) {
+            putByte(c);
+        } else if (c < 0x800) {
+            putByte(0xC0 | ((c >> 6) & 0x1f));
+            putByte(0x80 | (c & 0x3f));
+        } else {
+            putByte(0xE0 | ((c >> 12) & 0x0f));
+            putByte(0x80 | ((c >> 6) & 0x3f));
+            putByte(0x80 | (c & 0x3f));
+        }
+    }
+
+    private void putByte(int b) {
+        if (length == bytes.length) bytes = Arrays.copyOf(bytes, length * 2);
+        bytes[length++] = (byte) b;
+    }
+
+    private boolean atEnd() {
+        return pos >= limit && !fill(1);
+    }
+
+    /** The char {@code offset} ahead of {@code pos}, or 0 past the end. */
+    private char at(int offset) {
+        int i = pos + offset;
+        if (i < limit || fill(offset + 1)) return chars[pos + offset];
+        return 0;
+    }
+
+    /** Makes {@code n} chars available from {@code pos} if there are. */
+    private boolean fill(int n) {
+        if (eof) return false;
+        if (pos > 0) {
+            System.arraycopy(chars, pos, chars, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (n > chars.length) chars = Arrays.copyOf(chars, n * 2);
+        try {
+            while (limit < n) {
+                int r = in.read(chars, limit, chars.length - limit);
+                if (r < 0) {
+                    eof = true;
+                    return false;
+                }
+                limit += r;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        return -1;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    static boolean isNameStart(char c) {
+        return (
+            (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_'
+        );
+    }
+
+    private static boolean isNameChar(char c) {
+        return isNameStart(c) || isDigit(c);
+    }
+
+    /** Input outside the literal subset, or not valid Lua at all. */
+    static final class Malformed extends RuntimeException {
+
+        Malformed(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
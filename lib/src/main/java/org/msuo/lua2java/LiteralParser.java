@@ -0,0 +1,209 @@
+package org.msuo.lua2java;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+
+/**
+ * Reads chunks that only {@code return} literal data (table constructors,
+ * strings, numbers, booleans, and {@code n/0} as LuaSerializer writes
+ * infinities and NaN) straight into LuaJ values, without compiling
+ * or running them. The values are the ones the VM would produce, down to
+ * table presizing and insertion order, so maps iterate identically.
+ *
+ * <p>Anything else (names, calls, operators, statements, and syntax errors)
+ * makes {@link #parse} return {@code null}; the caller then runs the chunk
+ * on the VM, which evaluates it or reports the error properly.
+ */
+final class LiteralParser {
+
+    // Well below LuaJ's nesting limit, deeper input goes to the VM
+    private static final int MAX_DEPTH = 100;
+
+    private static final Set<LuaString> RESERVED = luaStrings(
+        "and",
+        "break",
+        "do",
+        "else",
+        "elseif",
+        "end",
+        "false",
+        "for",
+        "function",
+        "goto",
+        "if",
+        "in",
+        "local",
+        "nil",
+        "not",
+        "or",
+        "repeat",
+        "return",
+        "then",
+        "true",
+        "until",
+        "while"
+    );
+
+    private static final NotLiteral NOT_LITERAL = new NotLiteral();
+
+    private final LiteralLexer lexer;
+    private int tok;
+    private int depth;
+
+    private final TableBuilder fields = new TableBuilder();
+
+    private LiteralParser(String src) {
+        this.lexer = new LiteralLexer(src);
+    }
+
+    /** The value the chunk returns, or {@code null} if it is not literal. */
+    static LuaValue parse(String src) {
+        try {
+            return new LiteralParser(src).chunk();
+        } catch (NotLiteral | LiteralLexer.Malformed e) {
+            return null;
+        }
+    }
+
+    private LuaValue chunk() {
+        next();
+        if (tok != LiteralLexer.NAME || !lexer.isWord("return")) {
+            throw NOT_LITERAL;
+        }
+        next();
+        if (tok == LiteralLexer.EOS || tok == ';') throw NOT_LITERAL;
+        LuaValue v = value();
+        if (tok == ';') next();
+        if (tok != LiteralLexer.EOS) throw NOT_LITERAL;
+        return v;
+    }
+
+    /** Reads the value starting at {@code tok} and the token after it. */
+    private LuaValue value() {
+        LuaValue v;
+        switch (tok) {
+            case '{':
+                return table();
+            case LiteralLexer.STRING:
+                v = lexer.text();
+                break;
+            case LiteralLexer.NUMBER:
+                return number(lexer.number());
+            case '-':
+                next();
+                if (tok != LiteralLexer.NUMBER) throw NOT_LITERAL;
+                return number(LuaValue.valueOf(-lexer.number().todouble()));
+            case LiteralLexer.NAME:
+                v = keyword();
+                if (v == null) throw NOT_LITERAL;
+                break;
+            default:
+                throw NOT_LITERAL;
+        }
+        next();
+        return v;
+    }
+
+    /**
+     * {@code n} and the token after it. {@code n/0}, as LuaSerializer writes
+     * infinities and NaN, is read as the quotient.
+     */
+    private LuaValue number(LuaValue n) {
+        next();
+        if (tok != '/') return n;
+        next();
+        if (tok != LiteralLexer.NUMBER || lexer.number().todouble() != 0) {
+            throw NOT_LITERAL;
+        }
+        next();
+        return LuaValue.valueOf(n.todouble() / 0.0);
+    }
+
+    /** {@code true}, {@code false} or {@code nil} as a value, else null. */
+    private LuaValue keyword() {
+        if (lexer.isWord("true")) return LuaValue.TRUE;
+        if (lexer.isWord("false")) return LuaValue.FALSE;
+        if (lexer.isWord("nil")) return LuaValue.NIL;
+        return null;
+    }
+
+    private LuaTable table() {
+        if (++depth > MAX_DEPTH) throw NOT_LITERAL;
+        next(); // '{'
+        int base = fields.mark();
+        int narray = 0;
+        int nhash = 0;
+        while (tok != '}') {
+            if (tok == '[') {
+                next();
+                LuaValue key = value();
+                // Numeric keys would interact with the array part
+                if (!(key instanceof LuaString) && !key.isboolean()) {
+                    throw NOT_LITERAL;
+                }
+                expect(']');
+                expect('=');
+                fields.push(key, value());
+                nhash++;
+            } else if (tok == LiteralLexer.NAME) {
+                LuaValue literal = keyword();
+                LuaString name = lexer.text();
+                next();
+                if (tok == '=') {
+                    if (RESERVED.contains(name)) throw NOT_LITERAL;
+                    next();
+                    fields.push(name, value());
+                    nhash++;
+                } else {
+                    // A variable, or nil which would leave a hole
+                    if (literal == null || literal.isnil()) throw NOT_LITERAL;
+                    fields.push(null, literal);
+                    narray++;
+                }
+            } else {
+                LuaValue v = value();
+                // A nil hole makes the array part differ from the VM's
+                if (v.isnil()) throw NOT_LITERAL;
+                fields.push(null, v);
+                narray++;
+            }
+
+            if (tok == ',' || tok == ';') {
+                next();
+            } else if (tok != '}') {
+                throw NOT_LITERAL;
+            }
+        }
+        next(); // '}'
+        depth--;
+
+        return fields.build(base, narray, nhash);
+    }
+
+    private void next() {
+        tok = lexer.next();
+    }
+
+    private void expect(char c) {
+        if (tok != c) throw NOT_LITERAL;
+        next();
+    }
+
+    private static Set<LuaString> luaStrings(String... words) {
+        Set<LuaString> set = new HashSet<>();
+        for (String w : words) set.add(LuaString.valueOf(w));
+        return Collections.unmodifiableSet(set);
+    }
+
+    /** Bail-out signal; preallocated and stackless. */
+    private static final class NotLiteral extends RuntimeException {
+
+        NotLiteral() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.msuo.lua2java;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Timing and reporting for one deserialize call: listener callbacks, JFR
+ * events and the slow-load warning. Phases run strictly one after another.
+ */
+final class LoadTrace {
+
+    private static final Logger LOG = LoggerFactory.getLogger(
+        LuaDeserializer.class
+    );
+
+    private final Class<?> configClass;
+    private final List<DeserializationListener> listeners;
+    private final long slowLoadNanos;
+    private final BindStats stats;
+    private final DeserializeEvent event;
+    private final long start;
+
+    private DeserializePhaseEvent phaseEvent;
+    private long phaseStart;
+    private long compileNanos = -1;
+    private long executeNanos = -1;
+    private long bindNanos = -1;
+    private List<ConfigDeserializationException.ConfigError> errors = List.of();
+
+    private LoadTrace(Class<?> configClass, DeserializationOptions options) {
+        this.configClass = configClass;
+        this.listeners = options.getListeners();
+        this.slowLoadNanos = options.getSlowLoadThreshold().toNanos();
+        // Per-class counting is only worth its cost when someone listens
+        this.stats = listeners.isEmpty() ? null : new BindStats();
+        this.event = new DeserializeEvent();
+        this.event.begin();
+        this.start = System.nanoTime();
+    }
+
+    static LoadTrace begin(
+        Class<?> configClass,
+        DeserializationOptions options
+    ) {
+        return new LoadTrace(configClass, options);
+    }
+
+    BindStats stats() {
+        return stats;
+    }
+
+    void beginPhase() {
+        phaseEvent = new DeserializePhaseEvent();
+        phaseEvent.begin();
+        phaseStart = System.nanoTime();
+    }
+
+    void endCompile() {
+        final long nanos = endPhase("compile");
+        compileNanos = nanos;
+        notifyListeners(l -> l.onCompile(configClass, nanos));
+    }
+
+    void endExecute() {
+        final long nanos = endPhase("execute");
+        executeNanos = nanos;
+        notifyListeners(l -> l.onExecute(configClass, nanos));
+    }
+
+    void endBind(List<ConfigDeserializationException.ConfigError> errors) {
+        final long nanos = endPhase("bind");
+        bindNanos = nanos;
+        this.errors = errors;
+        notifyListeners(l -> l.onBind(configClass, nanos));
+
+        if (stats == null) return;
+        for (Map.Entry<Class<?>, int[]> e : stats.counts().entrySet()) {
+            final Class<?> bound = e.getKey();
+            final int[] c = e.getValue();
+            notifyListeners(l ->
+                l.onClassBound(configClass, bound, c[0], c[1])
+            );
+        }
+    }
+
+    void finish(final boolean success) {
+        final long total = System.nanoTime() - start;
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.configClass = configClass;
+            event.success = success;
+            event.errorCount = errors.size();
+            event.commit();
+        }
+
+        notifyListeners(l ->
+            l.onComplete(configClass, total, success, errors)
+        );
+
+        if (slowLoadNanos > 0 && total > slowLoadNanos) {
+            LOG.warn(
+                "Slow config load for {}: {} ms (compile {} ms, execute {} ms, bind {} ms; threshold {} ms)",
+                configClass.getName(),
+                millis(total),
+                millis(compileNanos),
+                millis(executeNanos),
+                millis(bindNanos),
+                millis(slowLoadNanos)
+            );
+        }
+    }
+
+    private long endPhase(String phase) {
+        long nanos = System.nanoTime() - phaseStart;
+        phaseEvent.end();
+        if (phaseEvent.shouldCommit()) {
+            phaseEvent.configClass = configClass;
+            phaseEvent.phase = phase;
+            phaseEvent.commit();
+        }
+        phaseEvent = null;
+        return nanos;
+    }
+
+    private void notifyListeners(Consumer<DeserializationListener> call) {
+        for (int i = 0; i < listeners.size(); i++) {
+            DeserializationListener l = listeners.get(i);
+            try {
+                call.accept(l);
+            } catch (RuntimeException e) {
+                LOG.warn("DeserializationListener {} failed", l, e);
+            }
+        }
+    }
+
+    private static long millis(long nanos) {
+        // -1 marks a phase that did not run
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
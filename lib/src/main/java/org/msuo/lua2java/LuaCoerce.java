@@ -9,22 +9,26 @@ final class LuaCoerce {
         Path path,
         LuaValue luaValue,
         ErrorCollector errors,
-        String errorMessage
+        ConfigErrorCode code
     ) {
         if (!luaValue.istable()) {
-            errors.add(path, errorMessage);
+            errors.add(path, code, luaValue.typename());
             return null;
         }
         return luaValue.checktable();
     }
 
-    static LuaScalar scalarOrError(
+    static LuaTable requireTable(
         Path path,
         LuaValue luaValue,
-        ErrorCollector errors
+        ErrorCollector errors,
+        ConfigErrorCode code,
+        Object subject
     ) {
-        LuaScalar s = LuaScalar.from(luaValue);
-        if (s == null) errors.add(path, Errors.expectedScalar(luaValue));
-        return s;
+        if (!luaValue.istable()) {
+            errors.add(path, code, subject, luaValue.typename());
+            return null;
+        }
+        return luaValue.checktable();
     }
 }
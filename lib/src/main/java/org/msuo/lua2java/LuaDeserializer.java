@@ -1,18 +1,54 @@
 package org.msuo.lua2java;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.lang.reflect.*;
+import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.luaj.vm2.Globals;
+import org.luaj.vm2.LoadState;
 import org.luaj.vm2.LuaValue;
-import org.luaj.vm2.lib.jse.JsePlatform;
 
 public final class LuaDeserializer {
 
+    // Adapters hold their element adapters, so each class is resolved once
+    private static final ClassValue<TypeAdapter> CLASS_ADAPTERS =
+        new ClassValue<>() {
+            @Override
+            protected TypeAdapter computeValue(Class<?> type) {
+                return adapterForClass(type);
+            }
+        };
+
+    // Parameterized types by the class that can see all their classes, so
+    // the adapters go away with it instead of pinning its class loader
+    private static final ClassValue<
+        ConcurrentMap<Type, TypeAdapter>
+    > GENERIC_ADAPTERS = new ClassValue<>() {
+        @Override
+        protected ConcurrentMap<Type, TypeAdapter> computeValue(
+            Class<?> type
+        ) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
     private LuaDeserializer() {}
 
     public static <T> T deserialize(File luaFile, Class<T> configClass)
@@ -32,29 +68,1125 @@ public final class LuaDeserializer {
         Charset charset,
         Class<T> configClass
     ) throws IOException {
-        String lua = Files.readString(luaFile, charset);
-        return deserialize(lua, configClass);
+        return deserialize(
+            luaFile,
+            charset,
+            configClass,
+            DeserializationOptions.defaults()
+        );
+    }
+
+    public static <T> T deserialize(
+        java.nio.file.Path luaFile,
+        Class<T> configClass,
+        DeserializationOptions options
+    ) throws IOException {
+        return deserialize(
+            luaFile,
+            StandardCharsets.UTF_8,
+            configClass,
+            options
+        );
+    }
+
+    public static <T> T deserialize(
+        java.nio.file.Path luaFile,
+        Charset charset,
+        Class<T> configClass,
+        DeserializationOptions options
+    ) throws IOException {
+        return loadFile(luaFile, charset, null, configClass, options);
+    }
+
+    /** For generic roots such as {@code new TypeRef<List<Item>>() {}}. */
+    public static <T> T deserialize(
+        java.nio.file.Path luaFile,
+        TypeRef<T> type,
+        DeserializationOptions options
+    ) throws IOException {
+        return loadFile(
+            luaFile,
+            StandardCharsets.UTF_8,
+            null,
+            type.getType(),
+            options
+        );
     }
 
     public static <T> T deserialize(String lua, Class<T> configClass) {
-        Globals g = JsePlatform.standardGlobals();
-        LuaValue root = g.load(lua).call();
-        return deserialize(root, configClass);
+        return deserialize(lua, configClass, DeserializationOptions.defaults());
+    }
+
+    public static <T> T deserialize(
+        String lua,
+        Class<T> configClass,
+        DeserializationOptions options
+    ) {
+        return loadSource(lua, null, configClass, options);
+    }
+
+    public static <T> T deserialize(String lua, TypeRef<T> type) {
+        return deserialize(lua, type, DeserializationOptions.defaults());
+    }
+
+    public static <T> T deserialize(
+        String lua,
+        TypeRef<T> type,
+        DeserializationOptions options
+    ) {
+        return loadSource(lua, null, type.getType(), options);
+    }
+
+    /**
+     * Loads a chunk from a stream holding either Lua source (UTF-8) or
+     * precompiled bytecode as written by {@code luac} or the
+     * {@code compileLua} Gradle task. The format is detected from the
+     * content; {@code chunkName} shows up in Lua error messages.
+     */
+    public static <T> T deserialize(
+        InputStream in,
+        String chunkName,
+        Class<T> configClass,
+        DeserializationOptions options
+    ) throws IOException {
+        byte[] bytes = in.readAllBytes();
+        if (isBytecode(bytes)) {
+            return loadBytecode(
+                bytes,
+                "@" + chunkName,
+                null,
+                configClass,
+                options,
+                null
+            );
+        }
+        String lua = new String(bytes, StandardCharsets.UTF_8);
+        String name = "@" + chunkName;
+        return load(
+            lua,
+            g -> g.load(lua, name),
+            null,
+            configClass,
+            options,
+            null
+        );
+    }
+
+    public static <T> T deserializeResource(
+        String resource,
+        Class<T> configClass
+    ) throws IOException {
+        return deserializeResource(
+            resource,
+            configClass,
+            DeserializationOptions.defaults()
+        );
+    }
+
+    public static <T> T deserializeResource(
+        String resource,
+        Class<T> configClass,
+        DeserializationOptions options
+    ) throws IOException {
+        return deserializeResource(
+            configClass.getClassLoader(),
+            resource,
+            configClass,
+            options
+        );
+    }
+
+    /**
+     * Loads a classpath resource. For a {@code .lua} name a precompiled
+     * {@code .luac} sibling is preferred when present, so jars built with
+     * the {@code compileLua} task skip parsing at startup. A {@code null}
+     * {@code loader}, as bootstrap classes have, means the system class
+     * loader.
+     */
+    public static <T> T deserializeResource(
+        ClassLoader loader,
+        String resource,
+        Class<T> configClass,
+        DeserializationOptions options
+    ) throws IOException {
+        if (loader == null) loader = ClassLoader.getSystemClassLoader();
+        String name = resource;
+        URL url = null;
+        if (resource.endsWith(".lua")) {
+            url = loader.getResource(resource + "c");
+            if (url != null) name = resource + "c";
+        }
+        if (url == null) url = loader.getResource(resource);
+        if (url == null) {
+            throw new FileNotFoundException(
+                "Classpath resource not found: " + resource
+            );
+        }
+
+        try (InputStream in = url.openStream()) {
+            return deserialize(in, name, configClass, options);
+        }
+    }
+
+    static boolean isBytecode(byte[] bytes) {
+        byte[] sig = LoadState.LUA_SIGNATURE;
+        if (bytes.length < sig.length) return false;
+        for (int i = 0; i < sig.length; i++) {
+            if (bytes[i] != sig[i]) return false;
+        }
+        return true;
+    }
+
+    private static <T> T loadFile(
+        java.nio.file.Path luaFile,
+        Charset charset,
+        Selector selector,
+        Type type,
+        DeserializationOptions options
+    ) throws IOException {
+        ConfigCache cache = options.getConfigCache();
+        if (cache == null) {
+            return loadBytes(
+                Files.readAllBytes(luaFile),
+                luaFile,
+                charset,
+                selector,
+                type,
+                options,
+                null
+            );
+        }
+
+        ConfigCache.Key key = cache.key(
+            luaFile,
+            charset,
+            selector,
+            type,
+            options
+        );
+        @SuppressWarnings("unchecked")
+        T cached = (T) cache.lookup(key);
+        if (cached != null) {
+            LoadTrace.begin(TypeUtils.rawClass(type), options).finish(true);
+            return cached;
+        }
+        ConfigCache.Stamp stamp = ConfigCache.stamp(luaFile);
+        byte[] bytes = Files.readAllBytes(luaFile);
+        InputRecorder inputs = new InputRecorder(options.getModuleLoader());
+        T result = loadBytes(
+            bytes,
+            luaFile,
+            charset,
+            selector,
+            type,
+            options,
+            inputs
+        );
+        cache.store(key, stamp, bytes, inputs, result);
+        return result;
+    }
+
+    private static <T> T loadBytes(
+        byte[] bytes,
+        java.nio.file.Path luaFile,
+        Charset charset,
+        Selector selector,
+        Type type,
+        DeserializationOptions options,
+        InputRecorder inputs
+    ) {
+        String chunkName = "@" + luaFile.getFileName();
+        if (isBytecode(bytes)) {
+            return loadBytecode(
+                bytes,
+                chunkName,
+                selector,
+                type,
+                options,
+                inputs
+            );
+        }
+        String lua = new String(bytes, charset);
+        return load(
+            lua,
+            g -> g.load(lua, chunkName),
+            selector,
+            type,
+            options,
+            inputs
+        );
+    }
+
+    private static <T> T loadBytecode(
+        byte[] bytes,
+        String chunkName,
+        Selector selector,
+        Type type,
+        DeserializationOptions options,
+        InputRecorder inputs
+    ) {
+        return load(
+            bytes,
+            g -> g.load(new ByteArrayInputStream(bytes), chunkName, "b", g),
+            selector,
+            type,
+            options,
+            inputs
+        );
+    }
+
+    private static <T> T loadSource(
+        String lua,
+        Selector selector,
+        Type type,
+        DeserializationOptions options
+    ) {
+        return load(lua, g -> g.load(lua), selector, type, options, null);
+    }
+
+    /**
+     * {@code content} is the Lua text or bytecode that {@code compile}
+     * loads; text enables the fast path. {@code inputs}, if not null,
+     * records what the script reads.
+     */
+    private static <T> T load(
+        Object content,
+        Function<Globals, LuaValue> compile,
+        Selector selector,
+        Type type,
+        DeserializationOptions options,
+        InputRecorder inputs
+    ) {
+        String source = content instanceof String ? (String) content : null;
+        EvaluationMemo memo = options.getEvaluationMemo();
+        LoadTrace trace = LoadTrace.begin(TypeUtils.rawClass(type), options);
+        boolean ok = false;
+        try {
+            if (memo == null) {
+                T result = run(
+                    source,
+                    compile,
+                    selector,
+                    type,
+                    options,
+                    trace,
+                    inputs
+                );
+                ok = true;
+                return result;
+            }
+
+            EvaluationMemo.Key key = memo.key(content, selector, type, options);
+            @SuppressWarnings("unchecked")
+            T cached = (T) memo.lookup(key, inputs);
+            if (cached != null) {
+                ok = true;
+                return cached;
+            }
+            if (inputs == null) {
+                inputs = new InputRecorder(options.getModuleLoader());
+            }
+            T result = run(
+                source,
+                compile,
+                selector,
+                type,
+                options,
+                trace,
+                inputs
+            );
+            memo.store(key, inputs, result);
+            ok = true;
+            return result;
+        } finally {
+            trace.finish(ok);
+        }
+    }
+
+    /**
+     * Evaluates and binds with {@code inputs} also recording what module
+     * code reads, whether the script or its bound tables call into it.
+     */
+    private static <T> T run(
+        String source,
+        Function<Globals, LuaValue> compile,
+        Selector selector,
+        Type type,
+        DeserializationOptions options,
+        LoadTrace trace,
+        InputRecorder inputs
+    ) {
+        InputRecorder outer = InputRecorder.enter(inputs);
+        try {
+            LuaValue root = evaluate(source, compile, options, trace, inputs);
+            return bind(root, selector, type, options, trace);
+        } finally {
+            InputRecorder.exit(outer);
+        }
+    }
+
+    /** {@code inputs}, if not null, records what the script reads. */
+    private static LuaValue evaluate(
+        String source,
+        Function<Globals, LuaValue> compile,
+        DeserializationOptions options,
+        LoadTrace trace,
+        InputRecorder inputs
+    ) {
+        if (
+            source != null &&
+            options.isLiteralFastPath() &&
+            !options.hasExecutionBudget()
+        ) {
+            trace.beginPhase();
+            LuaValue root = LiteralParser.parse(source);
+            if (root != null) {
+                // Parsing is the compile phase, there is nothing to run
+                trace.endCompile();
+                trace.beginPhase();
+                trace.endExecute();
+                return root;
+            }
+        }
+
+        LuaRuntime runtime = LuaRuntime.create(options, inputs);
+
+        trace.beginPhase();
+        LuaValue chunk = compile.apply(runtime.globals);
+        trace.endCompile();
+
+        trace.beginPhase();
+        LuaValue root = execute(chunk, runtime.guard);
+        trace.endExecute();
+        return root;
+    }
+
+    /**
+     * Binds only the subtree at {@code path}, e.g. {@code $.services.billing},
+     * to {@code configClass}. The script still runs in full, but nothing
+     * outside the subtree is bound. Error paths stay relative to the whole
+     * document ({@code $.services.billing.port}); a missing subtree is
+     * reported as {@link ConfigErrorCode#PATH_NOT_FOUND}.
+     *
+     * @throws IllegalArgumentException if {@code path} is malformed
+     */
+    public static <T> T deserializeAt(
+        String lua,
+        String path,
+        Class<T> configClass
+    ) {
+        return deserializeAt(
+            lua,
+            path,
+            configClass,
+            DeserializationOptions.defaults()
+        );
+    }
+
+    public static <T> T deserializeAt(
+        String lua,
+        String path,
+        Class<T> configClass,
+        DeserializationOptions options
+    ) {
+        return loadSource(lua, Selector.parse(path), configClass, options);
+    }
+
+    public static <T> T deserializeAt(
+        java.nio.file.Path luaFile,
+        String path,
+        Class<T> configClass,
+        DeserializationOptions options
+    ) throws IOException {
+        Selector selector = Selector.parse(path);
+        return loadFile(
+            luaFile,
+            StandardCharsets.UTF_8,
+            selector,
+            configClass,
+            options
+        );
+    }
+
+    public static <T> T deserializeAt(
+        LuaValue lua,
+        String path,
+        Class<T> configClass,
+        DeserializationOptions options
+    ) {
+        return bindOnly(lua, Selector.parse(path), configClass, options);
+    }
+
+    public static <T> T view(String lua, Class<T> viewInterface) {
+        return view(lua, viewInterface, DeserializationOptions.defaults());
+    }
+
+    /**
+     * Runs the script and returns a lazy view of its result instead of
+     * binding it: an implementation of {@code viewInterface} whose getters
+     * bind their key on first call and memoize it. Getter names map to keys
+     * like bean properties ({@code getPort()} and {@code port()} both read
+     * {@code port}); a default method supplies the value of a missing key.
+     * Interface-typed getters return nested views, {@code List} and
+     * {@code Map} getters lists and maps that bind elements on access.
+     *
+     * <p>Errors surface from the getter that touches them, as a
+     * {@link ConfigDeserializationException}. Every view also implements
+     * {@link ConfigView} to validate everything at once; see
+     * {@link DeserializationOptions#withViewValidation}. Views read a raw
+     * snapshot of the result taken when they are created: metatables are
+     * not copied, so no Lua code runs in a getter. Views are read-only and
+     * thread-safe.
+     */
+    public static <T> T view(
+        String lua,
+        Class<T> viewInterface,
+        DeserializationOptions options
+    ) {
+        return view(
+            t -> evaluate(lua, g -> g.load(lua), options, t, null),
+            viewInterface,
+            options
+        );
+    }
+
+    public static <T> T view(
+        java.nio.file.Path luaFile,
+        Class<T> viewInterface
+    ) throws IOException {
+        return view(luaFile, viewInterface, DeserializationOptions.defaults());
+    }
+
+    /** As {@link #view(String, Class, DeserializationOptions)}, for a file. */
+    public static <T> T view(
+        java.nio.file.Path luaFile,
+        Class<T> viewInterface,
+        DeserializationOptions options
+    ) throws IOException {
+        byte[] bytes = Files.readAllBytes(luaFile);
+        String chunkName = "@" + luaFile.getFileName();
+        if (isBytecode(bytes)) {
+            Function<Globals, LuaValue> compile = g ->
+                g.load(new ByteArrayInputStream(bytes), chunkName, "b", g);
+            return view(
+                t -> evaluate(null, compile, options, t, null),
+                viewInterface,
+                options
+            );
+        }
+        String lua = new String(bytes, StandardCharsets.UTF_8);
+        return view(
+            t -> evaluate(lua, g -> g.load(lua, chunkName), options, t, null),
+            viewInterface,
+            options
+        );
+    }
+
+    public static <T> T view(LuaValue lua, Class<T> viewInterface) {
+        return view(lua, viewInterface, DeserializationOptions.defaults());
+    }
+
+    /**
+     * A view of an already evaluated value. The snapshot is taken here, so
+     * later writes to {@code lua} do not show through.
+     */
+    public static <T> T view(
+        LuaValue lua,
+        Class<T> viewInterface,
+        DeserializationOptions options
+    ) {
+        return view(t -> lua, viewInterface, options);
+    }
+
+    private static <T> T view(
+        Function<LoadTrace, LuaValue> evaluate,
+        Class<T> viewInterface,
+        DeserializationOptions options
+    ) {
+        if (!LazyValues.isView(viewInterface)) {
+            throw new IllegalArgumentException(
+                "Not a view interface: " + viewInterface.getName()
+            );
+        }
+        LoadTrace trace = LoadTrace.begin(viewInterface, options);
+        boolean ok = false;
+        try {
+            LuaValue root = evaluate.apply(trace);
+            T view = viewInterface.cast(
+                LazyValues.bind(
+                    Path.root(),
+                    viewInterface,
+                    LazyValues.snapshot(root),
+                    options
+                )
+            );
+            ok = true;
+            return view;
+        } finally {
+            trace.finish(ok);
+        }
+    }
+
+    public static <T> CompletableFuture<T> deserializeAsync(
+        String lua,
+        Class<T> configClass
+    ) {
+        return deserializeAsync(
+            lua,
+            configClass,
+            DeserializationOptions.defaults()
+        );
+    }
+
+    public static <T> CompletableFuture<T> deserializeAsync(
+        String lua,
+        Class<T> configClass,
+        DeserializationOptions options
+    ) {
+        return deserializeAsync(
+            lua,
+            configClass,
+            options,
+            AsyncLoad.defaultExecutor()
+        );
+    }
+
+    /**
+     * Runs {@link #deserialize(String, Class, DeserializationOptions)} on
+     * {@code executor}. Cancelling the returned future stops a running script
+     * at its next instruction check if {@code options} set an execution
+     * budget; without one no checks run and the script runs to its end.
+     * Futures derived from it via {@code thenApply} and friends do not
+     * propagate cancellation back.
+     */
+    public static <T> CompletableFuture<T> deserializeAsync(
+        String lua,
+        Class<T> configClass,
+        DeserializationOptions options,
+        Executor executor
+    ) {
+        return AsyncLoad.submit(
+            () -> deserialize(lua, configClass, options),
+            executor
+        );
+    }
+
+    public static <T> CompletableFuture<T> deserializeAsync(
+        java.nio.file.Path luaFile,
+        Class<T> configClass,
+        DeserializationOptions options
+    ) {
+        return deserializeAsync(
+            luaFile,
+            configClass,
+            options,
+            AsyncLoad.defaultExecutor()
+        );
+    }
+
+    /** Like the String variant; an IOException fails the future. */
+    public static <T> CompletableFuture<T> deserializeAsync(
+        java.nio.file.Path luaFile,
+        Class<T> configClass,
+        DeserializationOptions options,
+        Executor executor
+    ) {
+        return AsyncLoad.submit(
+            () -> deserialize(luaFile, configClass, options),
+            executor
+        );
+    }
+
+    /**
+     * Streams the elements of the table a large data file returns, bound to
+     * {@code elementClass} one at a time: peak memory depends on the size of
+     * an element, not of the file. The file must be literal data (see
+     * {@link LuaEventReader}); the script is never run. An element that
+     * fails to bind throws a {@link ConfigDeserializationException} with
+     * paths such as {@code $[1234].name} when the stream reaches it.
+     * Close the stream to close the file.
+     */
+    public static <T> Stream<T> deserializeEach(
+        java.nio.file.Path luaFile,
+        Class<T> elementClass,
+        DeserializationOptions options
+    ) throws IOException {
+        LuaEventReader reader = LuaEventReader.open(luaFile);
+        try {
+            return deserializeEach(reader, elementClass, options).onClose(
+                () -> {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            );
+        } catch (RuntimeException | Error e) {
+            // No stream to close it
+            try {
+                reader.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /** Like the Path variant; closing the stream leaves the reader open. */
+    public static <T> Stream<T> deserializeEach(
+        LuaEventReader reader,
+        Class<T> elementClass,
+        DeserializationOptions options
+    ) {
+        return StreamSupport.stream(
+            new ElementSpliterator<>(reader, elementClass, options),
+            false
+        );
     }
 
     public static <T> T deserialize(LuaValue lua, Class<T> configClass) {
-        ErrorCollector errors = new ErrorCollector();
-        ReadResult rr = readValue(Path.root(), configClass, lua, errors);
+        return deserialize(lua, configClass, DeserializationOptions.defaults());
+    }
+
+    public static <T> T deserialize(
+        LuaValue lua,
+        Class<T> configClass,
+        DeserializationOptions options
+    ) {
+        return bindOnly(lua, null, configClass, options);
+    }
+
+    public static <T> T deserialize(
+        LuaValue lua,
+        TypeRef<T> type,
+        DeserializationOptions options
+    ) {
+        return bindOnly(lua, null, type.getType(), options);
+    }
+
+    private static <T> T bindOnly(
+        LuaValue lua,
+        Selector selector,
+        Type type,
+        DeserializationOptions options
+    ) {
+        LoadTrace trace = LoadTrace.begin(TypeUtils.rawClass(type), options);
+        boolean ok = false;
+        try {
+            T result = bind(lua, selector, type, options, trace);
+            ok = true;
+            return result;
+        } finally {
+            trace.finish(ok);
+        }
+    }
+
+    public static Set<String> deserializeInto(String lua, Object existing) {
+        return deserializeInto(
+            lua,
+            existing,
+            DeserializationOptions.defaults()
+        );
+    }
+
+    /**
+     * Runs the script and binds its result into {@code existing}, a config
+     * object bound before, instead of building a new graph. Nested objects
+     * of the same class are updated in place, and lists, maps and
+     * optionals are kept when all their elements are; fields whose value
+     * is unchanged (by {@code equals}) are not written. A missing key
+     * resets its field to the class default, as a fresh load would.
+     *
+     * <p>Nothing is written unless the whole config binds: on a
+     * {@link ConfigDeserializationException} {@code existing} is left as
+     * it was. Fields are written one by one afterwards, so readers on other
+     * threads need their own synchronization.
+     *
+     * @return paths of the fields that were written, e.g.
+     *     {@code $.db.port} or {@code $.routes[2].host}, in binding order
+     */
+    public static Set<String> deserializeInto(
+        String lua,
+        Object existing,
+        DeserializationOptions options
+    ) {
+        LoadTrace trace = LoadTrace.begin(existing.getClass(), options);
+        boolean ok = false;
+        try {
+            LuaValue root = evaluate(
+                lua,
+                g -> g.load(lua),
+                options,
+                trace,
+                null
+            );
+            Set<String> touched = rebind(root, existing, options, trace);
+            ok = true;
+            return touched;
+        } finally {
+            trace.finish(ok);
+        }
+    }
+
+    public static Set<String> deserializeInto(LuaValue lua, Object existing) {
+        return deserializeInto(
+            lua,
+            existing,
+            DeserializationOptions.defaults()
+        );
+    }
+
+    public static Set<String> deserializeInto(
+        LuaValue lua,
+        Object existing,
+        DeserializationOptions options
+    ) {
+        LoadTrace trace = LoadTrace.begin(existing.getClass(), options);
+        boolean ok = false;
+        try {
+            Set<String> touched = rebind(lua, existing, options, trace);
+            ok = true;
+            return touched;
+        } finally {
+            trace.finish(ok);
+        }
+    }
+
+    public static <T> T overlay(T base, String lua) {
+        return overlay(base, lua, DeserializationOptions.defaults());
+    }
+
+    /**
+     * Binds {@code lua}, a partial config such as a tenant's overrides, on
+     * top of {@code base}, a config bound before, and returns the result as
+     * a new config; {@code base} itself is never modified.
+     *
+     * <p>Keys the override leaves out keep the base's values, nested
+     * objects and map entries are overlaid key by key, and other values,
+     * lists included, are replaced. Every object or map the override does
+     * not change is the base's own instance, so many overlays of one base
+     * hold little more than their overrides. The result shares state with
+     * {@code base}; treat both as read-only.
+     */
+    public static <T> T overlay(
+        T base,
+        String lua,
+        DeserializationOptions options
+    ) {
+        LoadTrace trace = LoadTrace.begin(base.getClass(), options);
+        boolean ok = false;
+        try {
+            LuaValue root = evaluate(
+                lua,
+                g -> g.load(lua),
+                options,
+                trace,
+                null
+            );
+            T result = layer(root, base, options, trace);
+            ok = true;
+            return result;
+        } finally {
+            trace.finish(ok);
+        }
+    }
+
+    public static <T> T overlay(T base, LuaValue lua) {
+        return overlay(base, lua, DeserializationOptions.defaults());
+    }
+
+    public static <T> T overlay(
+        T base,
+        LuaValue lua,
+        DeserializationOptions options
+    ) {
+        LoadTrace trace = LoadTrace.begin(base.getClass(), options);
+        boolean ok = false;
+        try {
+            T result = layer(lua, base, options, trace);
+            ok = true;
+            return result;
+        } finally {
+            trace.finish(ok);
+        }
+    }
+
+    /**
+     * Lets values of {@code base}, typically an interface or abstract class,
+     * be any of {@code subtypes}: the string under {@code discriminator} in
+     * the config table selects the subtype, which is then bound like any
+     * config class. A subtype may declare a field for the discriminator
+     * itself. For example, with {@code Map.of("http", HttpSink.class)}
+     * and discriminator {@code type}, {@code { type = "http", url = "..." }}
+     * binds to an {@code HttpSink}.
+     *
+     * <p>Register before the first load, {@link #prepare} or
+     * serialization involving {@code base} or the subtypes; adapters are
+     * cached once built. Registering the same subtypes again has no
+     * effect.
+     *
+     * @throws IllegalStateException if {@code base} has other subtypes
+     *     registered already, or an adapter for {@code base} or a subtype
+     *     was built already
+     * @throws IllegalArgumentException if a subtype is abstract or not a
+     *     proper subtype of {@code base}
+     */
+    public static <T> void registerSubtypes(
+        Class<T> base,
+        String discriminator,
+        Map<String, ? extends Class<? extends T>> subtypes
+    ) {
+        Subtypes.register(base, discriminator, subtypes);
+    }
+
+    /**
+     * Keeps the {@code List} or {@code Map} field {@code field} of
+     * {@code owner} off the heap. Its entries are bound once as usual to
+     * report errors, then written to a memory-mapped file in
+     * {@code directory}, and the field is set to a read-only view that
+     * binds each entry from the file when it is accessed. A later load of
+     * the same entries to the same classes, also in a later process,
+     * opens the existing file instead of writing it again; a change to
+     * the classes the entries bind to, including their validation, has
+     * them bound and written again.
+     *
+     * <p>Meant for lookup tables with millions of entries, where the heap
+     * then holds little more than the view. Each access binds a new
+     * instance, so keep entries that are used often. Reloads and overlays
+     * replace a mapped field as a whole. Register before the first load or
+     * {@link #prepare} involving {@code owner}; adapters are cached once
+     * built.
+     *
+     * @throws IllegalArgumentException if {@code owner} has no such field
+     *     or it is not declared as {@code List<E>} or {@code Map<K, V>}
+     * @throws IllegalStateException if the field is mapped to another
+     *     directory already, or a schema involving {@code owner} was built
+     *     already
+     */
+    public static void registerMappedField(
+        Class<?> owner,
+        String field,
+        java.nio.file.Path directory
+    ) {
+        MappedFields.register(owner, field, directory);
+    }
 
-        if (errors.hasErrors()) {
-            throw new ConfigDeserializationException(errors.asList());
+    /**
+     * Builds and checks the adapters and schemas of {@code rootTypes} and
+     * everything reachable from them, so the first load does no reflection.
+     * Problems that would only show during a load (primitives, unsupported
+     * generics, missing constructors) are reported together.
+     *
+     * @throws ConfigDeserializationException listing every problem found
+     */
+    public static void prepare(Class<?>... rootTypes) {
+        prepare(Arrays.asList(rootTypes), false);
+    }
+
+    /** {@code parallel} validates roots on the common fork-join pool. */
+    public static void prepare(
+        Collection<? extends Class<?>> rootTypes,
+        boolean parallel
+    ) {
+        List<ConfigDeserializationException.ConfigError> errors =
+            SchemaValidator.validateAll(rootTypes, parallel);
+        if (!errors.isEmpty()) {
+            throw new ConfigDeserializationException(errors);
+        }
+    }
+
+    /**
+     * Prepares every class in {@code packageName} (not its subpackages)
+     * accepted by {@code filter}, loaded through the context class loader.
+     * Returns the prepared classes.
+     */
+    public static List<Class<?>> preparePackage(
+        String packageName,
+        Predicate<? super Class<?>> filter,
+        boolean parallel
+    ) throws IOException {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) loader = LuaDeserializer.class.getClassLoader();
+
+        List<Class<?>> roots = new ArrayList<>();
+        for (Class<?> cls : PackageScanner.scan(packageName, loader)) {
+            if (filter.test(cls)) roots.add(cls);
         }
+        prepare(roots, parallel);
+        return Collections.unmodifiableList(roots);
+    }
+
+    static LuaValue execute(LuaValue chunk, ExecutionGuard guard) {
+        if (guard != null) guard.start();
+        // Module code the chunk calls into is charged to its guard too
+        ExecutionGuard outer = ExecutionGuard.enter(guard);
+        try {
+            return chunk.call();
+        } catch (ExecutionGuard.ExecutionBudgetExceeded e) {
+            throw budgetExceeded(e);
+        } catch (ExecutionGuard.ExecutionInterrupted e) {
+            throw interrupted();
+        } finally {
+            ExecutionGuard.exit(outer);
+        }
+    }
 
+    /**
+     * A budget exhausted by the script, or by its metamethods while binding:
+     * the guard stays armed until the load is over.
+     */
+    private static ConfigDeserializationException budgetExceeded(
+        ExecutionGuard.ExecutionBudgetExceeded e
+    ) {
+        return new ConfigDeserializationException(
+            List.of(
+                new ConfigDeserializationException.ConfigError(
+                    Path.root(),
+                    e.code,
+                    new Object[] { e.limit }
+                )
+            )
+        );
+    }
+
+    private static CancellationException interrupted() {
+        // The interrupt flag stays set for the caller to see
+        return new CancellationException("Config script was interrupted");
+    }
+
+    static <T> T bind(
+        LuaValue lua,
+        Selector selector,
+        Type type,
+        DeserializationOptions options,
+        LoadTrace trace
+    ) {
+        Object value = bindPhase(
+            TypeUtils.rawClass(type),
+            options,
+            trace,
+            errors ->
+                (
+                    selector == null
+                        ? readValue(Path.root(), type, lua, errors)
+                        : readSelected(lua, selector, type, errors)
+                ).value
+        );
         @SuppressWarnings("unchecked")
-        T cast = (T) rr.value;
+        T cast = (T) value;
         return cast;
     }
 
+    private static Set<String> rebind(
+        LuaValue lua,
+        Object existing,
+        DeserializationOptions options,
+        LoadTrace trace
+    ) {
+        Class<?> cls = existing.getClass();
+        TypeAdapter adapter = adapterFor(cls);
+        if (!(adapter instanceof ClassAdapter) || !lua.istable()) {
+            throw new IllegalArgumentException(
+                "Can only bind a table into a config object, got " +
+                lua.typename() +
+                " for " +
+                cls.getName()
+            );
+        }
+
+        FieldChanges changes = new FieldChanges();
+        bindPhase(
+            cls,
+            options,
+            trace,
+            errors ->
+                adapter.update(Path.root(), lua, existing, changes, errors)
+        );
+        return changes.apply();
+    }
+
+    private static <T> T layer(
+        LuaValue lua,
+        T base,
+        DeserializationOptions options,
+        LoadTrace trace
+    ) {
+        Class<?> cls = base.getClass();
+        TypeAdapter adapter = adapterFor(cls);
+        if (!(adapter instanceof ClassAdapter) || !lua.istable()) {
+            throw new IllegalArgumentException(
+                "Can only overlay a table on a config object, got " +
+                lua.typename() +
+                " for " +
+                cls.getName()
+            );
+        }
+
+        Object value = bindPhase(
+            cls,
+            options,
+            trace,
+            errors -> adapter.overlay(Path.root(), lua, base, errors).value
+        );
+        @SuppressWarnings("unchecked")
+        T result = (T) value;
+        return result;
+    }
+
+    /**
+     * Runs {@code binding} as one bind phase of {@code trace} and returns
+     * its result. The errors it collects, or a budget its metamethods
+     * exhaust, are thrown as a {@link ConfigDeserializationException}.
+     */
+    private static <R> R bindPhase(
+        Class<?> rootClass,
+        DeserializationOptions options,
+        LoadTrace trace,
+        Function<ErrorCollector, R> binding
+    ) {
+        trace.beginPhase();
+        ErrorCollector errors = new ErrorCollector(
+            options,
+            trace.stats(),
+            rootClass
+        );
+        R result = null;
+        try {
+            result = binding.apply(errors);
+        } catch (ErrorCollector.BindingStopped stopped) {
+            // Reported below
+        } catch (ExecutionGuard.ExecutionBudgetExceeded e) {
+            throw budgetExceeded(e);
+        } catch (ExecutionGuard.ExecutionInterrupted e) {
+            throw interrupted();
+        }
+        List<ConfigDeserializationException.ConfigError> list =
+            errors.asList();
+        trace.endBind(list);
+
+        if (!list.isEmpty()) {
+            throw new ConfigDeserializationException(
+                list,
+                errors.omitted(),
+                errors.stopped()
+            );
+        }
+        return result;
+    }
+
+    private static ReadResult readSelected(
+        LuaValue root,
+        Selector selector,
+        Type type,
+        ErrorCollector errors
+    ) {
+        Path[] at = new Path[1];
+        LuaValue v = selector.select(root, at, errors);
+        if (v == null) return ReadResult.fail();
+        return readValue(at[0], type, v, errors);
+    }
+
     protected static ReadResult readValue(
         Path path,
         Type targetType,
@@ -65,20 +1197,40 @@ public final class LuaDeserializer {
     }
 
     static TypeAdapter adapterFor(Type targetType) {
-        if (targetType instanceof ParameterizedType) {
-            return adapterForParameterized((ParameterizedType) targetType);
-        }
         if (targetType instanceof Class<?>) {
-            return adapterForClass((Class<?>) targetType);
+            return CLASS_ADAPTERS.get((Class<?>) targetType);
         }
-        return new UnsupportedAdapter(Errors.unsupportedType(targetType));
+        if (targetType instanceof ParameterizedType) {
+            // Keys are resolved types; the JDK's and our ParameterizedType
+            // implementations are equal to each other
+            ParameterizedType pt = (ParameterizedType) targetType;
+            Class<?> anchor = TypeUtils.anchor(pt);
+            // Classes from unrelated loaders: built again each time
+            if (anchor == null) return adapterForParameterized(pt);
+            ConcurrentMap<Type, TypeAdapter> adapters =
+                GENERIC_ADAPTERS.get(anchor);
+            TypeAdapter a = adapters.get(pt);
+            if (a == null) {
+                // Not computeIfAbsent: building an adapter builds its
+                // element adapters, which may recurse into this map
+                a = adapterForParameterized(pt);
+                TypeAdapter prev = adapters.putIfAbsent(pt, a);
+                if (prev != null) a = prev;
+            }
+            return a;
+        }
+        return new UnsupportedAdapter(
+            ConfigErrorCode.UNSUPPORTED_TYPE,
+            targetType
+        );
     }
 
     private static TypeAdapter adapterForParameterized(ParameterizedType pt) {
         Type raw = pt.getRawType();
         if (!(raw instanceof Class<?>)) {
             return new UnsupportedAdapter(
-                Errors.unsupportedParameterizedRaw(raw)
+                ConfigErrorCode.UNSUPPORTED_PARAMETERIZED_RAW,
+                raw
             );
         }
 
@@ -89,13 +1241,26 @@ public final class LuaDeserializer {
         if (Collection.class.isAssignableFrom(rawClass)) {
             return new CollectionAdapter(pt, rawClass);
         }
+        // A generic config class such as Page<Item>
+        if (
+            !rawClass.getName().startsWith("java.") &&
+            !rawClass.isInterface() &&
+            !rawClass.isEnum()
+        ) {
+            return new ClassAdapter(rawClass, pt);
+        }
 
-        return new UnsupportedAdapter(Errors.unsupportedParameterized(pt));
+        return new UnsupportedAdapter(
+            ConfigErrorCode.UNSUPPORTED_PARAMETERIZED,
+            pt
+        );
     }
 
     private static TypeAdapter adapterForClass(Class<?> cls) {
         if (cls.isPrimitive()) return new PrimitiveRejectedAdapter(cls);
         if (cls.isEnum()) return new EnumAdapter(cls);
-        return new ClassAdapter(cls);
+        Subtypes subtypes = Subtypes.of(cls);
+        if (subtypes != null) return new PolymorphicAdapter(subtypes);
+        return new ClassAdapter(cls, cls);
     }
 }
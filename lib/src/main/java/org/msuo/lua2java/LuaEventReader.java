@@ -0,0 +1,333 @@
+package org.msuo.lua2java;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaValue;
+
+/**
+ * Pull reader over Lua data files: an optional {@code return} followed by
+ * one literal value (nested tables, strings, numbers, booleans, nil, and
+ * {@code n/0} for infinities and NaN, as LuaSerializer writes them). The
+ * file is never held in memory as a whole; the reader keeps a small window
+ * of text and the nesting depth, so arbitrarily large files read in
+ * constant memory.
+ *
+ * <p>Every table field produces a {@link Event#KEY} followed by its value.
+ * Positional items get their 1-based index as key. For
+ * {@code return { a = 1, { true } }} the events are {@code START_TABLE,
+ * KEY(a), VALUE(1), KEY(1), START_TABLE, KEY(1), VALUE(true), END_TABLE,
+ * END_TABLE, END_DOCUMENT}.
+ *
+ * <p>Code of any kind, and tables nested more than 100 deep, are rejected
+ * with a {@link LuaError} naming the line. Not thread-safe.
+ */
+public final class LuaEventReader implements Closeable {
+
+    // As LiteralParser and LuaSerializer
+    private static final int MAX_DEPTH = 100;
+
+    public enum Event {
+        START_TABLE,
+        KEY,
+        VALUE,
+        END_TABLE,
+        END_DOCUMENT,
+    }
+
+    private enum State {
+        START,
+        VALUE,
+        FIELD,
+        AFTER_VALUE,
+        PENDING_VALUE,
+        DONE,
+    }
+
+    private final Reader reader;
+    private final String chunkName;
+    private final LiteralLexer lexer;
+    private int tok;
+
+    private State state = State.START;
+    private Event event;
+    private LuaValue key;
+    // Whether key is a positional item's index
+    private boolean positional;
+    private LuaValue value;
+    // Positional item count of each open table
+    private int[] counts = new int[16];
+    private int depth;
+    // For readValue
+    private TableBuilder fields;
+
+    public LuaEventReader(Reader reader, String chunkName) {
+        this.reader = reader;
+        this.chunkName = chunkName;
+        this.lexer = new LiteralLexer(reader);
+    }
+
+    /** Opens {@code file} as UTF-8; the caller closes the reader. */
+    public static LuaEventReader open(java.nio.file.Path file)
+        throws IOException {
+        return new LuaEventReader(
+            Files.newBufferedReader(file, StandardCharsets.UTF_8),
+            String.valueOf(file.getFileName())
+        );
+    }
+
+    /** Whether {@link #next()} has more events to return. */
+    public boolean hasNext() {
+        return state != State.DONE;
+    }
+
+    /**
+     * Advances to the next event.
+     *
+     * @throws LuaError if the input is not literal data
+     * @throws IllegalStateException after {@link Event#END_DOCUMENT}
+     */
+    public Event next() throws IOException {
+        try {
+            return advance();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (LiteralLexer.Malformed e) {
+            throw error(e.getMessage());
+        }
+    }
+
+    public Event getEvent() {
+        return event;
+    }
+
+    /** Key of the current {@link Event#KEY} event. */
+    public LuaValue getKey() {
+        return key;
+    }
+
+    /** Value of the current {@link Event#VALUE} event. */
+    public LuaValue getValue() {
+        return value;
+    }
+
+    /** Number of tables currently open. */
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getLine() {
+        return lexer.line();
+    }
+
+    /**
+     * Reads the next value as a whole: a scalar, or a table with everything
+     * nested in it, built as the VM would build it from the same text. Call
+     * it at the start or after a {@link Event#KEY}.
+     */
+    public LuaValue readValue() throws IOException {
+        Event e = next();
+        if (e == Event.VALUE) return value;
+        if (e != Event.START_TABLE) {
+            throw new IllegalStateException("No value ahead, got " + e);
+        }
+        if (fields == null) fields = new TableBuilder();
+        int base = fields.mark();
+        int narray = 0;
+        int nhash = 0;
+        while (next() != Event.END_TABLE) {
+            LuaValue k = positional ? null : key;
+            fields.push(k, readValue());
+            if (k == null) {
+                narray++;
+            } else {
+                nhash++;
+            }
+        }
+        return fields.build(base, narray, nhash);
+    }
+
+    /** Skips the next value, at the start or after a {@link Event#KEY}. */
+    public void skipValue() throws IOException {
+        if (next() != Event.START_TABLE) return;
+        int until = depth - 1;
+        while (next() != Event.END_TABLE || depth > until) {
+            // Nested events
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private Event advance() {
+        switch (state) {
+            case START:
+                tok = lexer.next();
+                if (tok == LiteralLexer.NAME && lexer.isWord("return")) {
+                    tok = lexer.next();
+                }
+                return startValue();
+            case VALUE:
+                return startValue();
+            case PENDING_VALUE:
+                state = State.AFTER_VALUE;
+                return event = Event.VALUE;
+            case FIELD:
+                return field();
+            case AFTER_VALUE:
+                return afterValue();
+            default:
+                throw new IllegalStateException("Document already ended");
+        }
+    }
+
+    private Event startValue() {
+        if (tok == '{') {
+            if (depth == MAX_DEPTH) {
+                throw error("tables nested deeper than " + MAX_DEPTH);
+            }
+            tok = lexer.next();
+            if (depth == counts.length) {
+                counts = Arrays.copyOf(counts, depth * 2);
+            }
+            counts[depth++] = 0;
+            state = State.FIELD;
+            return event = Event.START_TABLE;
+        }
+        value = scalar();
+        state = State.AFTER_VALUE;
+        return event = Event.VALUE;
+    }
+
+    private Event field() {
+        if (tok == '}') {
+            tok = lexer.next();
+            depth--;
+            state = State.AFTER_VALUE;
+            return event = Event.END_TABLE;
+        }
+
+        if (tok == '[') {
+            tok = lexer.next();
+            if (tok == '{') throw error("table keys are not supported");
+            key = scalar();
+            positional = false;
+            if (key.isnil()) throw error("table index is nil");
+            expect(']');
+            expect('=');
+            state = State.VALUE;
+        } else if (tok == LiteralLexer.NAME) {
+            LuaValue literal = keyword();
+            LuaValue name = lexer.text();
+            tok = lexer.next();
+            if (tok == '=') {
+                tok = lexer.next();
+                key = name;
+                positional = false;
+                state = State.VALUE;
+            } else {
+                if (literal == null) throw notLiteral(name.tojstring());
+                key = LuaValue.valueOf(++counts[depth - 1]);
+                positional = true;
+                value = literal;
+                state = State.PENDING_VALUE;
+            }
+        } else {
+            key = LuaValue.valueOf(++counts[depth - 1]);
+            positional = true;
+            state = State.VALUE;
+        }
+        return event = Event.KEY;
+    }
+
+    private Event afterValue() {
+        if (depth == 0) {
+            if (tok == ';') tok = lexer.next();
+            if (tok != LiteralLexer.EOS) throw unexpected();
+            state = State.DONE;
+            return event = Event.END_DOCUMENT;
+        }
+        if (tok == ',' || tok == ';') {
+            tok = lexer.next();
+        } else if (tok != '}') {
+            throw error("'}' expected");
+        }
+        return field();
+    }
+
+    private LuaValue scalar() {
+        LuaValue v;
+        switch (tok) {
+            case LiteralLexer.STRING:
+                v = lexer.text();
+                break;
+            case LiteralLexer.NUMBER:
+                return number(lexer.number());
+            case '-':
+                tok = lexer.next();
+                if (tok != LiteralLexer.NUMBER) throw unexpected();
+                return number(LuaValue.valueOf(-lexer.number().todouble()));
+            case LiteralLexer.NAME:
+                v = keyword();
+                if (v == null) throw unexpected();
+                break;
+            default:
+                throw unexpected();
+        }
+        tok = lexer.next();
+        return v;
+    }
+
+    /** {@code n}, or {@code n/0} as LuaSerializer writes non-finite ones. */
+    private LuaValue number(LuaValue n) {
+        tok = lexer.next();
+        if (tok != '/') return n;
+        tok = lexer.next();
+        if (tok != LiteralLexer.NUMBER || lexer.number().todouble() != 0) {
+            throw error("only n/0 is supported as an expression");
+        }
+        tok = lexer.next();
+        return LuaValue.valueOf(n.todouble() / 0.0);
+    }
+
+    private LuaValue keyword() {
+        if (lexer.isWord("true")) return LuaValue.TRUE;
+        if (lexer.isWord("false")) return LuaValue.FALSE;
+        if (lexer.isWord("nil")) return LuaValue.NIL;
+        return null;
+    }
+
+    private void expect(char c) {
+        if (tok != c) throw error("'" + c + "' expected");
+        tok = lexer.next();
+    }
+
+    private LuaError unexpected() {
+        switch (tok) {
+            case LiteralLexer.EOS:
+                return error("unexpected end of input");
+            case LiteralLexer.NAME:
+                return notLiteral(lexer.text().tojstring());
+            case LiteralLexer.STRING:
+            case LiteralLexer.NUMBER:
+                return error("unexpected literal");
+            default:
+                return error("unexpected symbol '" + (char) tok + "'");
+        }
+    }
+
+    private LuaError notLiteral(String name) {
+        return error("only literal data is supported, got '" + name + "'");
+    }
+
+    private LuaError error(String message) {
+        return new LuaError(chunkName + ":" + lexer.line() + ": " + message);
+    }
+}
@@ -0,0 +1,28 @@
+package org.msuo.lua2java;
+
+/**
+ * Which Lua standard libraries a config script can see. The base functions,
+ * {@code package}/{@code require} and {@code string} are always present;
+ * every other library table is installed on first access. A library not
+ * used yet is missing from {@code rawget(_G, name)} and {@code pairs(_G)};
+ * reading {@code _G.name} or {@code require}ing it installs it.
+ */
+public enum LuaLibraryProfile {
+    /**
+     * Base functions plus {@code string}, {@code table} and {@code math}.
+     * Nothing reads files: no {@code dofile} or {@code loadfile}, and
+     * {@code require} finds only the libraries and modules of a
+     * {@link LuaModuleLoader}, not {@code package.path}.
+     */
+    MINIMAL,
+
+    /** {@link #MINIMAL} plus an {@code os} table with only {@code getenv}. */
+    ENV_ONLY,
+
+    /**
+     * Every library of {@code JsePlatform.standardGlobals()}: adds
+     * {@code bit32}, {@code coroutine}, {@code io}, the full {@code os},
+     * {@code luajava} and the file functions.
+     */
+    FULL,
+}
@@ -0,0 +1,331 @@
+package org.msuo.lua2java;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaClosure;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Prototype;
+import org.luaj.vm2.lib.OneArgFunction;
+
+/**
+ * Resolves {@code require("a.b")} to {@code a/b.lua} (or {@code a/b/init.lua})
+ * under a directory and caches both the compiled chunk and the value the
+ * module returned. Modules are evaluated once per loader, each in a runtime
+ * of its own, and the dependency graph between them is recorded while they
+ * run. Module code is charged to the execution budget of the config that
+ * calls it, and stops when that config's load is cancelled.
+ *
+ * <p>{@link #refresh()} checks the cached files for changes; a changed
+ * module is recompiled and it and every module depending on it are
+ * re-evaluated on their next {@code require}. Unchanged modules keep their
+ * value.
+ *
+ * <p>Module values are shared by every config that requires them, so tables
+ * in them are handed out as read-only views: writing one is a Lua error.
+ * Install a loader with {@link DeserializationOptions#withModuleLoader}; it
+ * is thread-safe, and modules are evaluated without holding its lock. Two
+ * configs requiring a module at the same time may both evaluate it; the
+ * value of the first to finish is kept.
+ */
+public final class LuaModuleLoader {
+
+    private final java.nio.file.Path root;
+    private final DeserializationOptions moduleOptions;
+    private final Map<String, Module> modules = new HashMap<>();
+    // Modules the current thread is evaluating, innermost first
+    private final ThreadLocal<Deque<Module>> evaluating =
+        ThreadLocal.withInitial(ArrayDeque::new);
+
+    private LuaModuleLoader(
+        java.nio.file.Path root,
+        DeserializationOptions moduleOptions
+    ) {
+        this.root = root.toAbsolutePath().normalize();
+        // Budgets are the calling config's, see ExecutionGuard
+        this.moduleOptions = moduleOptions
+            .withModuleLoader(null)
+            .withMaxInstructions(0)
+            .withTimeout(null)
+            .withMaxAllocatedBytes(0);
+    }
+
+    public static LuaModuleLoader forDirectory(java.nio.file.Path root) {
+        return forDirectory(root, DeserializationOptions.defaults());
+    }
+
+    /**
+     * {@code moduleOptions} controls the library profile modules are
+     * evaluated with. Its execution budget is not used: module code counts
+     * against the budget of the config calling it.
+     */
+    public static LuaModuleLoader forDirectory(
+        java.nio.file.Path root,
+        DeserializationOptions moduleOptions
+    ) {
+        return new LuaModuleLoader(root, moduleOptions);
+    }
+
+    /**
+     * Recompiles modules whose file changed since it was read and drops the
+     * cached value of those and of everything that depends on them. Returns
+     * the names of all modules that will be re-evaluated.
+     */
+    public synchronized Set<String> refresh() {
+        Set<String> changed = new LinkedHashSet<>();
+        for (Module m : modules.values()) {
+            if (m.isStale()) changed.add(m.name);
+        }
+
+        Set<String> invalidated = new TreeSet<>();
+        for (String name : changed) {
+            Module m = modules.get(name);
+            m.proto = null;
+            invalidateValues(m, invalidated);
+        }
+        return invalidated;
+    }
+
+    /**
+     * Drops the cached value of {@code name} and of everything depending on
+     * it, without checking files. Returns the affected module names.
+     */
+    public synchronized Set<String> invalidate(String name) {
+        Set<String> invalidated = new TreeSet<>();
+        Module m = modules.get(name);
+        if (m != null) invalidateValues(m, invalidated);
+        return invalidated;
+    }
+
+    /** Modules {@code name} required directly during its last evaluation. */
+    public synchronized Set<String> dependencies(String name) {
+        Module m = modules.get(name);
+        if (m == null) return Set.of();
+        return Collections.unmodifiableSet(new TreeSet<>(m.dependencies));
+    }
+
+    /** Modules that required {@code name} directly. */
+    public synchronized Set<String> dependents(String name) {
+        Module m = modules.get(name);
+        if (m == null) return Set.of();
+        return Collections.unmodifiableSet(new TreeSet<>(m.dependents));
+    }
+
+    /** Names of modules with a cached value. */
+    public synchronized Set<String> loadedModules() {
+        Set<String> names = new TreeSet<>();
+        for (Module m : modules.values()) {
+            if (m.value != null) names.add(m.name);
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    /** The cached value of {@code name}, or {@code null} if there is none. */
+    synchronized LuaValue cachedValue(String name) {
+        Module m = modules.get(name);
+        return m == null ? null : m.value;
+    }
+
+    /**
+     * Routes {@code require} of {@code g} through this loader. Standard
+     * libraries (anything in {@code package.preload}) and names without a
+     * module file still go to the original {@code require}.
+     */
+    void install(Globals g) {
+        LuaValue preload = g.get("package").get("preload");
+        LuaValue fallback = g.get("require");
+        g.set("require", new Require(preload, fallback));
+    }
+
+    private LuaValue require(String name) {
+        Deque<Module> stack = evaluating.get();
+        Module m;
+        int generation;
+        Prototype proto;
+        synchronized (this) {
+            m = modules.get(name);
+            if (m == null) {
+                java.nio.file.Path file = resolve(name);
+                if (file == null) return null;
+                m = new Module(name, file);
+                modules.put(name, m);
+            }
+
+            Module parent = stack.peek();
+            if (parent != null) {
+                parent.dependencies.add(m.name);
+                m.dependents.add(parent.name);
+            }
+
+            if (m.value != null) return m.value;
+            if (stack.contains(m)) {
+                throw new LuaError("loop requiring module '" + m.name + "'");
+            }
+            generation = m.generation;
+            proto = m.proto;
+
+            // Edges are re-recorded on every run, dependencies may have
+            // changed
+            for (String dep : m.dependencies) {
+                Module d = modules.get(dep);
+                if (d != null) d.dependents.remove(m.name);
+            }
+            m.dependencies.clear();
+        }
+
+        InputRecorder inputs = InputRecorder.forwarding();
+        LuaRuntime runtime = LuaRuntime.create(moduleOptions, inputs);
+        install(runtime.globals);
+        inputs.instrumentGlobals(runtime.globals);
+        ExecutionGuard.installForwarding(runtime.globals);
+        if (proto == null) proto = compile(m, runtime, generation);
+
+        stack.push(m);
+        LuaValue v;
+        try {
+            v = new LuaClosure(proto, runtime.globals).call(
+                LuaValue.valueOf(m.name)
+            );
+        } finally {
+            stack.pop();
+        }
+        v = v.isnil()
+            ? LuaValue.TRUE
+            : ReadOnlyTable.view(v, ReadOnlyTable.cache());
+
+        synchronized (this) {
+            // Unless invalidated meanwhile or evaluated by another thread
+            if (m.generation != generation) return v;
+            if (m.value == null) m.value = v;
+            return m.value;
+        }
+    }
+
+    private Prototype compile(Module m, LuaRuntime runtime, int generation) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(
+                m.file,
+                BasicFileAttributes.class
+            );
+            byte[] bytes = Files.readAllBytes(m.file);
+            Prototype p = runtime.globals.loadPrototype(
+                new ByteArrayInputStream(bytes),
+                "@" + root.relativize(m.file),
+                "bt"
+            );
+            synchronized (this) {
+                if (m.generation == generation) {
+                    m.proto = p;
+                    m.modified = attrs.lastModifiedTime();
+                    m.size = bytes.length;
+                }
+            }
+            return p;
+        } catch (IOException e) {
+            throw new LuaError(
+                "cannot read module '" + m.name + "': " + e.getMessage()
+            );
+        }
+    }
+
+    private java.nio.file.Path resolve(String name) {
+        if (name.isEmpty()) return null;
+        java.nio.file.Path dir = root;
+        String[] parts = name.split("\\.", -1);
+        for (int i = 0; i < parts.length - 1; i++) {
+            if (!isSegment(parts[i])) return null;
+            dir = dir.resolve(parts[i]);
+        }
+        String last = parts[parts.length - 1];
+        if (!isSegment(last)) return null;
+
+        java.nio.file.Path file = dir.resolve(last + ".lua");
+        if (Files.isRegularFile(file)) return file;
+        file = dir.resolve(last).resolve("init.lua");
+        if (Files.isRegularFile(file)) return file;
+        return null;
+    }
+
+    private static boolean isSegment(String s) {
+        return !s.isEmpty() && s.indexOf('/') < 0 && s.indexOf('\\') < 0;
+    }
+
+    private void invalidateValues(Module m, Set<String> invalidated) {
+        if (!invalidated.add(m.name)) return;
+        m.value = null;
+        m.generation++;
+        for (String dependent : m.dependents) {
+            invalidateValues(modules.get(dependent), invalidated);
+        }
+    }
+
+    private static final class Module {
+
+        final String name;
+        final java.nio.file.Path file;
+        final Set<String> dependencies = new LinkedHashSet<>();
+        final Set<String> dependents = new LinkedHashSet<>();
+
+        Prototype proto;
+        LuaValue value;
+        // Bumped when the value is dropped, so older evaluations keep theirs
+        int generation;
+        FileTime modified;
+        long size;
+
+        Module(String name, java.nio.file.Path file) {
+            this.name = name;
+            this.file = file;
+        }
+
+        boolean isStale() {
+            if (proto == null) return false;
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(
+                    file,
+                    BasicFileAttributes.class
+                );
+                return (
+                    !attrs.lastModifiedTime().equals(modified) ||
+                    attrs.size() != size
+                );
+            } catch (IOException e) {
+                // Deleted or unreadable: the next require reports it
+                return true;
+            }
+        }
+    }
+
+    private final class Require extends OneArgFunction {
+
+        private final LuaValue preload;
+        private final LuaValue fallback;
+
+        Require(LuaValue preload, LuaValue fallback) {
+            this.preload = preload;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public LuaValue call(LuaValue arg) {
+            String name = arg.checkjstring();
+            if (preload.istable() && !preload.get(arg).isnil()) {
+                return fallback.call(arg);
+            }
+            LuaValue v = require(name);
+            return v != null ? v : fallback.call(arg);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package org.msuo.lua2java;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LoadState;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.compiler.LuaC;
+import org.luaj.vm2.lib.Bit32Lib;
+import org.luaj.vm2.lib.CoroutineLib;
+import org.luaj.vm2.lib.PackageLib;
+import org.luaj.vm2.lib.StringLib;
+import org.luaj.vm2.lib.TableLib;
+import org.luaj.vm2.lib.ThreeArgFunction;
+import org.luaj.vm2.lib.TwoArgFunction;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JseBaseLib;
+import org.luaj.vm2.lib.jse.JseIoLib;
+import org.luaj.vm2.lib.jse.JseMathLib;
+import org.luaj.vm2.lib.jse.JseOsLib;
+import org.luaj.vm2.lib.jse.LuajavaLib;
+
+/** The Globals a config script runs in, plus its execution guard if any. */
+final class LuaRuntime {
+
+    private static final LuaValue G = LuaValue.valueOf("_G");
+
+    private static final LuaValue LOAD = LuaValue.valueOf("load");
+    private static final LuaValue LOADFILE = LuaValue.valueOf("loadfile");
+    private static final LuaValue DOFILE = LuaValue.valueOf("dofile");
+    private static final LuaValue READ_ONLY = new ReadOnly();
+
+    final Globals globals;
+    final ExecutionGuard guard;
+    private final LazyLibraries libraries;
+    // Falls back from fresh globals to the shared libraries
+    private final LuaTable inherit = new LuaTable();
+    private final ConcurrentMap<LuaValue, ReadOnlyTable> views =
+        ReadOnlyTable.cache();
+
+    private LuaRuntime(
+        Globals globals,
+        ExecutionGuard guard,
+        LazyLibraries libraries
+    ) {
+        this.globals = globals;
+        this.guard = guard;
+        this.libraries = libraries;
+        inherit.rawset(LuaValue.INDEX, globals);
+    }
+
+    /**
+     * Empty globals for one script run on top of this runtime's libraries,
+     * so runs that reuse the runtime never see each other's globals.
+     * {@code load}, {@code loadfile} and {@code dofile} default to them
+     * rather than to the shared globals. Globals rather than a plain
+     * table: LuaJ only runs debug hooks, and so the execution guard, for
+     * closures created over Globals. Call {@link #seal} first so that
+     * runs cannot change the libraries either.
+     */
+    Globals fresh() {
+        Globals g = new Globals();
+        g.running = globals.running;
+        g.debuglib = globals.debuglib;
+        g.setmetatable(inherit);
+        g.rawset(G, g);
+        g.rawset(LOAD, new DefaultEnv(globals.get(LOAD), 4, g));
+        // Profiles other than FULL have no file functions
+        if (!globals.get(LOADFILE).isnil()) {
+            g.rawset(LOADFILE, new DefaultEnv(globals.get(LOADFILE), 3, g));
+            g.rawset(DOFILE, new DoFile(globals.get(DOFILE), g));
+        }
+        return g;
+    }
+
+    /**
+     * Makes the state that runs of {@link #fresh} globals share read-only:
+     * installs every library now, then replaces each table in the globals
+     * and in {@code package.loaded} by a {@link ReadOnlyTable} view.
+     * Assigning a global of the shared globals, as a chunk loaded with
+     * them does, fails too.
+     */
+    void seal() {
+        libraries.installAll();
+        LuaTable loaded = globals.get("package").get("loaded").checktable();
+        for (LuaValue k : loaded.keys()) {
+            LuaValue v = loaded.rawget(k);
+            loaded.rawset(k, ReadOnlyTable.view(v, views));
+        }
+        for (LuaValue k : globals.keys()) {
+            LuaValue v = globals.rawget(k);
+            if (v != globals) globals.rawset(k, ReadOnlyTable.view(v, views));
+        }
+        globals.getmetatable().rawset(LuaValue.NEWINDEX, READ_ONLY);
+        inherit.rawset(LuaValue.METATABLE, LuaValue.FALSE);
+    }
+
+    /** {@code __newindex} of sealed globals. */
+    private static final class ReadOnly extends ThreeArgFunction {
+
+        @Override
+        public LuaValue call(LuaValue table, LuaValue key, LuaValue value) {
+            throw ReadOnlyTable.modified(key);
+        }
+    }
+
+    /** A load function whose env argument defaults to a run's globals. */
+    private static final class DefaultEnv extends VarArgFunction {
+
+        private final LuaValue target;
+        private final int envArg;
+        private final LuaValue env;
+
+        DefaultEnv(LuaValue target, int envArg, LuaValue env) {
+            this.target = target;
+            this.envArg = envArg;
+            this.env = env;
+        }
+
+        @Override
+        public Varargs invoke(Varargs args) {
+            if (!args.arg(envArg).isnil()) return target.invoke(args);
+            LuaValue[] a = new LuaValue[envArg];
+            for (int i = 0; i < envArg - 1; i++) a[i] = args.arg(i + 1);
+            a[envArg - 1] = env;
+            return target.invoke(LuaValue.varargsOf(a));
+        }
+    }
+
+    /** {@code dofile} running the file in a run's globals. */
+    private static final class DoFile extends VarArgFunction {
+
+        private final LuaValue target;
+        private final LuaValue env;
+
+        DoFile(LuaValue target, LuaValue env) {
+            this.target = target;
+            this.env = env;
+        }
+
+        @Override
+        public Varargs invoke(Varargs args) {
+            // From stdin: nothing to give an env to
+            if (args.arg1().isnil()) return target.invoke(args);
+            Varargs v = env
+                .get(LOADFILE)
+                .invoke(LuaValue.varargsOf(args.arg1(), LuaValue.NIL, env));
+            if (v.isnil(1)) throw new LuaError(v.tojstring(2));
+            return v.arg1().invoke();
+        }
+    }
+
+    static LuaRuntime create(DeserializationOptions options) {
+        return create(options, null);
+    }
+
+    /** {@code inputs}, if not null, records what the script reads. */
+    static LuaRuntime create(
+        DeserializationOptions options,
+        InputRecorder inputs
+    ) {
+        Globals g = new Globals();
+        // Base and package first, as in JsePlatform: every other library
+        // registers itself in package.loaded while installing. String is
+        // eager because it also installs the metatable behind s:method().
+        g.load(new JseBaseLib());
+        g.load(new PackageLib());
+        g.load(new StringLib());
+        LoadState.install(g);
+        LuaC.install(g);
+
+        ExecutionGuard guard = ExecutionGuard.installIfNeeded(g, options);
+        if (options.getLibraryProfile() != LuaLibraryProfile.FULL) {
+            withoutFileAccess(g);
+        }
+
+        Map<LuaValue, LuaValue> lazy = new LinkedHashMap<>();
+        lazy.put(LuaValue.valueOf("table"), new TableLib());
+        lazy.put(LuaValue.valueOf("math"), new JseMathLib());
+        switch (options.getLibraryProfile()) {
+            case MINIMAL:
+                break;
+            case ENV_ONLY:
+                lazy.put(LuaValue.valueOf("os"), new EnvLib());
+                break;
+            case FULL:
+                lazy.put(LuaValue.valueOf("bit32"), new Bit32Lib());
+                lazy.put(LuaValue.valueOf("coroutine"), new CoroutineLib());
+                lazy.put(LuaValue.valueOf("io"), new JseIoLib());
+                lazy.put(LuaValue.valueOf("os"), new JseOsLib());
+                lazy.put(LuaValue.valueOf("luajava"), new LuajavaLib());
+                break;
+            default:
+                throw new AssertionError(options.getLibraryProfile());
+        }
+        LazyLibraries libraries = LazyLibraries.install(g, lazy, inputs);
+
+        LuaModuleLoader modules = options.getModuleLoader();
+        if (modules != null) modules.install(g);
+        if (inputs != null) inputs.instrumentGlobals(g);
+
+        return new LuaRuntime(g, guard, libraries);
+    }
+
+    /**
+     * Drops {@code dofile}, {@code loadfile} and the searchers through which
+     * {@code require} reads {@code package.path} and the classpath, leaving
+     * the preloaded libraries and a module loader, if any.
+     */
+    private static void withoutFileAccess(Globals g) {
+        g.rawset(DOFILE, LuaValue.NIL);
+        g.rawset(LOADFILE, LuaValue.NIL);
+        LuaTable searchers = g
+            .get("package")
+            .get("searchers")
+            .checktable();
+        for (int i = searchers.length(); i > 1; i--) {
+            searchers.rawset(i, LuaValue.NIL);
+        }
+    }
+
+    /**
+     * {@code __index} of the globals table: installs a library the first time
+     * its global is read, or when it is {@code require}d. Its metatable is
+     * protected, so scripts can neither reach the loader nor replace it.
+     * Until then a library is missing from {@code rawget(_G, name)} and
+     * {@code pairs(_G)}.
+     */
+    private static final class LazyLibraries extends TwoArgFunction {
+
+        private final Globals globals;
+        private final Map<LuaValue, LuaValue> pending;
+        private final InputRecorder inputs;
+
+        private LazyLibraries(
+            Globals globals,
+            Map<LuaValue, LuaValue> pending,
+            InputRecorder inputs
+        ) {
+            this.globals = globals;
+            this.pending = pending;
+            this.inputs = inputs;
+        }
+
+        static LazyLibraries install(
+            Globals g,
+            Map<LuaValue, LuaValue> pending,
+            InputRecorder inputs
+        ) {
+            LazyLibraries libs = new LazyLibraries(g, pending, inputs);
+
+            LuaTable preload = g.get("package").get("preload").checktable();
+            for (LuaValue name : pending.keySet()) {
+                preload.set(name, libs.new Loader());
+            }
+
+            LuaTable mt = new LuaTable();
+            mt.set(INDEX, libs);
+            mt.set(METATABLE, FALSE);
+            g.setmetatable(mt);
+            return libs;
+        }
+
+        void installAll() {
+            for (LuaValue name : pending.keySet().toArray(new LuaValue[0])) {
+                installPending(name);
+            }
+        }
+
+        @Override
+        public LuaValue call(LuaValue table, LuaValue key) {
+            if (!(key instanceof LuaString)) return NIL;
+            return installPending(key);
+        }
+
+        private LuaValue installPending(LuaValue name) {
+            LuaValue lib = pending.remove(name);
+            if (lib == null) return NIL;
+            globals.load(lib);
+            LuaValue table = globals.rawget(name);
+            if (inputs != null) inputs.instrument(name.tojstring(), table);
+            return table;
+        }
+
+        /** {@code package.preload} entry, so {@code require} works too. */
+        private final class Loader extends VarArgFunction {
+
+            @Override
+            public Varargs invoke(Varargs args) {
+                LuaValue name = args.arg1();
+                LuaValue lib = installPending(name);
+                return lib.isnil() ? globals.rawget(name) : lib;
+            }
+        }
+    }
+}
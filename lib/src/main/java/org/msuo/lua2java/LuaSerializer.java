@@ -0,0 +1,814 @@
+package org.msuo.lua2java;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Writes Java objects as Lua configs that {@link LuaDeserializer} reads back
+ * into equal objects: the inverse of {@code deserialize}.
+ *
+ * <p>Objects are walked with the same field list the deserializer binds.
+ * {@code null} fields and empty {@code Optional}s are left out, enums are
+ * written by name, collections as arrays and maps as tables. Domain types
+ * (no no-arg constructor, one scalar field and a constructor taking it) are
+ * written as that scalar. Map keys are sorted and everything else keeps its
+ * iteration order, so equal inputs give identical text.
+ *
+ * <p>Values Lua cannot hold, such as {@code null} list elements or map
+ * values, cyclic graphs, or types the deserializer cannot build, are
+ * rejected with an {@link IllegalArgumentException} naming the path.
+ */
+public final class LuaSerializer {
+
+    // LiteralParser's limit, well below what LuaJ's parser accepts
+    private static final int MAX_DEPTH = 100;
+    // Lua numbers are doubles
+    private static final long MAX_EXACT_LONG = 1L << 53;
+
+    private static final Set<String> RESERVED = new HashSet<>(
+        Arrays.asList(
+            "and",
+            "break",
+            "do",
+            "else",
+            "elseif",
+            "end",
+            "false",
+            "for",
+            "function",
+            "goto",
+            "if",
+            "in",
+            "local",
+            "nil",
+            "not",
+            "or",
+            "repeat",
+            "return",
+            "then",
+            "true",
+            "until",
+            "while"
+        )
+    );
+
+    private static final ClassValue<Shape> SHAPES = new ClassValue<Shape>() {
+        @Override
+        protected Shape computeValue(Class<?> type) {
+            return Shape.of(type);
+        }
+    };
+
+    private LuaSerializer() {}
+
+    public static String serialize(Object value) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            serialize(value, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Streams {@code value} as a {@code return { ... }} chunk into
+     * {@code out}, a few kilobytes at a time.
+     */
+    public static void serialize(Object value, Appendable out)
+        throws IOException {
+        if (value == null) throw new Failure("null value");
+        Emitter e = new Emitter(out);
+        e.raw("return ");
+        e.value(value, 0);
+        e.put('\n');
+        e.flush();
+    }
+
+    /** Writes UTF-8; {@code out} is flushed but left open. */
+    public static void serialize(Object value, OutputStream out)
+        throws IOException {
+        Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        serialize(value, (Appendable) w);
+        w.flush();
+    }
+
+    public static void serialize(Object value, java.nio.file.Path file)
+        throws IOException {
+        try (
+            BufferedWriter w = Files.newBufferedWriter(
+                file,
+                StandardCharsets.UTF_8
+            )
+        ) {
+            serialize(value, w);
+        }
+    }
+
+    private enum Kind {
+        STRING,
+        INTEGRAL,
+        FLOATING,
+        BOOLEAN,
+        CHARACTER,
+        ENUM,
+        OPTIONAL,
+        COLLECTION,
+        MAP,
+        OBJECT,
+        LEAF,
+        UNSUPPORTED,
+    }
+
+    /** How values of one runtime class are written; cached per class. */
+    private static final class Shape {
+
+        final Kind kind;
+        // OBJECT: fields with their key text ("name = " or ["end"] = )
+        final Field[] fields;
+        final String[] keys;
+        // OBJECT: whether the class default of each field is a value, which
+        // a missing key would bring back in place of null
+        final boolean[] defaulted;
+        // LEAF: the wrapped scalar
+        final Field leaf;
+        // UNSUPPORTED: why
+        final String reason;
+        // OBJECT of a registered subtype: "type = \"http\"", else null
+        final String tag;
+
+        private Shape(
+            Kind kind,
+            Field[] fields,
+            String[] keys,
+            boolean[] defaulted,
+            Field leaf,
+            String reason,
+            String tag
+        ) {
+            this.kind = kind;
+            this.fields = fields;
+            this.keys = keys;
+            this.defaulted = defaulted;
+            this.leaf = leaf;
+            this.reason = reason;
+            this.tag = tag;
+        }
+
+        private static Shape simple(Kind kind) {
+            return new Shape(kind, null, null, null, null, null, null);
+        }
+
+        private static Shape unsupported(String reason) {
+            return new Shape(
+                Kind.UNSUPPORTED,
+                null,
+                null,
+                null,
+                null,
+                reason,
+                null
+            );
+        }
+
+        static Shape of(Class<?> cls) {
+            if (cls == String.class) return simple(Kind.STRING);
+            if (
+                cls == Integer.class ||
+                cls == Long.class ||
+                cls == Short.class ||
+                cls == Byte.class
+            ) {
+                return simple(Kind.INTEGRAL);
+            }
+            if (cls == Double.class || cls == Float.class) {
+                return simple(Kind.FLOATING);
+            }
+            if (cls == Boolean.class) return simple(Kind.BOOLEAN);
+            if (cls == Character.class) return simple(Kind.CHARACTER);
+            if (cls.isEnum() || Enum.class.isAssignableFrom(cls)) {
+                return simple(Kind.ENUM);
+            }
+            if (cls == Optional.class) return simple(Kind.OPTIONAL);
+            if (Collection.class.isAssignableFrom(cls)) {
+                return simple(Kind.COLLECTION);
+            }
+            if (Map.class.isAssignableFrom(cls)) return simple(Kind.MAP);
+            if (cls.isArray()) return unsupported("arrays are not supported");
+            if (cls.getName().startsWith("java.")) {
+                return unsupported("unsupported type " + cls.getName());
+            }
+
+            ClassSchema schema = ClassSchema.build(cls, cls);
+            List<Field> fields = new ArrayList<>();
+            for (FieldBinding b : schema.bindings) {
+                if (!b.field.isSynthetic()) fields.add(b.field);
+            }
+            if (schema.constructor != null) {
+                String[] keys = new String[fields.size()];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = keyText(fields.get(i).getName());
+                }
+                return new Shape(
+                    Kind.OBJECT,
+                    fields.toArray(new Field[0]),
+                    keys,
+                    defaulted(schema.constructor, fields),
+                    null,
+                    null,
+                    tag(cls, fields)
+                );
+            }
+
+            // Domain type: built from the scalar in its only field
+            if (fields.size() == 1) {
+                Field f = fields.get(0);
+                Class<?> t = f.getType();
+                boolean scalar =
+                    t == String.class ||
+                    t == Integer.class ||
+                    t == Long.class ||
+                    t == Double.class ||
+                    t == Boolean.class;
+                if (scalar && hasOneArgCtor(cls, t)) {
+                    return new Shape(
+                        Kind.LEAF,
+                        null,
+                        null,
+                        null,
+                        f,
+                        null,
+                        null
+                    );
+                }
+            }
+            return unsupported(
+                "no no-arg constructor for " +
+                cls.getName() +
+                ", and not a single-value domain type"
+            );
+        }
+
+        /**
+         * Which fields a fresh instance already sets to a value. Nothing is
+         * if it cannot be built, as it could not be read back either.
+         */
+        private static boolean[] defaulted(
+            Constructor<?> ctor,
+            List<Field> fields
+        ) {
+            boolean[] out = new boolean[fields.size()];
+            Object fresh;
+            try {
+                fresh = ctor.newInstance();
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return out;
+            }
+            for (int i = 0; i < out.length; i++) {
+                Object v = Emitter.get(fields.get(i), fresh);
+                out[i] =
+                    v != null &&
+                    !(v instanceof Optional && !((Optional<?>) v).isPresent());
+            }
+            return out;
+        }
+
+        /**
+         * The discriminator of a registered subtype, unless the class has a
+         * field of that name and writes it anyway.
+         */
+        private static String tag(Class<?> cls, List<Field> fields) {
+            Subtypes subtypes = Subtypes.containing(cls);
+            if (subtypes == null) return null;
+            for (Field f : fields) {
+                if (f.getName().equals(subtypes.discriminator)) return null;
+            }
+            return (
+                keyText(subtypes.discriminator) +
+                quoted(subtypes.nameOf(cls))
+            );
+        }
+
+        private static boolean hasOneArgCtor(Class<?> cls, Class<?> param) {
+            for (Constructor<?> c : cls.getDeclaredConstructors()) {
+                if (
+                    c.getParameterCount() == 1 &&
+                    c.getParameterTypes()[0] == param
+                ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String keyText(String name) {
+            return isName(name)
+                ? name + " = "
+                : "[" + quoted(name) + "] = ";
+        }
+    }
+
+    /** Buffers output and writes it to the sink in large chunks. */
+    private static final class Emitter {
+
+        private static final int BUFFER = 8192;
+        private static final String INDENT = "  ";
+
+        private final Appendable out;
+        private final char[] buf = new char[BUFFER];
+        private int len;
+
+        Emitter(Appendable out) {
+            this.out = out;
+        }
+
+        void value(Object v, int depth) throws IOException {
+            Shape shape = SHAPES.get(v.getClass());
+            switch (shape.kind) {
+                case STRING:
+                    string((String) v);
+                    return;
+                case INTEGRAL: {
+                    integer(exact(((Number) v).longValue()));
+                    return;
+                }
+                case FLOATING:
+                    floating(((Number) v).doubleValue());
+                    return;
+                case BOOLEAN:
+                    raw((Boolean) v ? "true" : "false");
+                    return;
+                case CHARACTER:
+                    string(v.toString());
+                    return;
+                case ENUM:
+                    string(((Enum<?>) v).name());
+                    return;
+                case OPTIONAL: {
+                    Optional<?> o = (Optional<?>) v;
+                    if (!o.isPresent()) {
+                        throw new Failure("empty Optional outside a field");
+                    }
+                    value(o.get(), depth);
+                    return;
+                }
+                case COLLECTION:
+                    collection((Collection<?>) v, depth);
+                    return;
+                case MAP:
+                    map((Map<?, ?>) v, depth);
+                    return;
+                case OBJECT:
+                    object(shape, v, depth);
+                    return;
+                case LEAF:
+                    leaf(shape, v);
+                    return;
+                default:
+                    throw new Failure(shape.reason);
+            }
+        }
+
+        private void object(Shape shape, Object v, int depth)
+            throws IOException {
+            Field[] fields = shape.fields;
+            int inner = open(depth);
+            boolean empty = shape.tag == null;
+            if (!empty) {
+                line(inner);
+                raw(shape.tag);
+                put(',');
+            }
+            for (int i = 0; i < fields.length; i++) {
+                Object fv = get(fields[i], v);
+                if (fv instanceof Optional && !((Optional<?>) fv).isPresent()) {
+                    fv = null;
+                }
+                // Missing keys read back as the class default
+                if (fv == null) {
+                    if (!shape.defaulted[i]) continue;
+                    throw new Failure(
+                        "empty, but a missing key reads back as the " +
+                        "field's default"
+                    ).at("." + fields[i].getName());
+                }
+                empty = false;
+                line(inner);
+                raw(shape.keys[i]);
+                try {
+                    value(fv, inner);
+                } catch (Failure f) {
+                    throw f.at("." + fields[i].getName());
+                }
+                put(',');
+            }
+            close(depth, empty);
+        }
+
+        private void collection(Collection<?> c, int depth)
+            throws IOException {
+            if (c instanceof Set) c = sorted((Set<?>) c);
+            int inner = open(depth);
+            int i = 0;
+            for (Object e : c) {
+                i++;
+                line(inner);
+                try {
+                    if (e == null) throw new Failure("null element");
+                    value(e, inner);
+                } catch (Failure f) {
+                    throw f.at("[" + i + "]");
+                }
+                put(',');
+            }
+            close(depth, i == 0);
+        }
+
+        private void map(Map<?, ?> m, int depth) throws IOException {
+            int inner = open(depth);
+            List<Entry> entries = new ArrayList<>(m.size());
+            for (Map.Entry<?, ?> e : m.entrySet()) {
+                Object k;
+                try {
+                    k = keyScalar(e.getKey());
+                } catch (Failure f) {
+                    throw f.at("{" + e.getKey() + "}");
+                }
+                entries.add(new Entry(k, e.getValue()));
+            }
+            Collections.sort(entries);
+
+            for (int i = 0; i < entries.size(); i++) {
+                Entry e = entries.get(i);
+                try {
+                    if (i > 0 && entries.get(i - 1).compareTo(e) == 0) {
+                        throw new Failure("two keys write as the same key");
+                    }
+                    if (e.value == null) throw new Failure("null value");
+                    line(inner);
+                    key(e.key);
+                    value(e.value, inner);
+                } catch (Failure f) {
+                    throw f.at("[" + e.key + "]");
+                }
+                put(',');
+            }
+            close(depth, entries.isEmpty());
+        }
+
+        private void key(Object k) throws IOException {
+            if (k instanceof String && isName((String) k)) {
+                raw((String) k);
+            } else {
+                put('[');
+                if (k instanceof String) {
+                    string((String) k);
+                } else if (k instanceof Boolean) {
+                    raw((Boolean) k ? "true" : "false");
+                } else if (k instanceof Double) {
+                    floating((Double) k);
+                } else {
+                    integer((Long) k);
+                }
+                put(']');
+            }
+            raw(" = ");
+        }
+
+        private void leaf(Shape shape, Object v) throws IOException {
+            Object scalar = get(shape.leaf, v);
+            if (scalar == null) throw new Failure("null in domain type");
+            // An integral Double reads back through the Double constructor
+            value(scalar, 0);
+        }
+
+        private int open(int depth) throws IOException {
+            if (depth >= MAX_DEPTH) {
+                throw new Failure(
+                    "nested deeper than " +
+                    MAX_DEPTH +
+                    " tables (cyclic object graph?)"
+                );
+            }
+            put('{');
+            return depth + 1;
+        }
+
+        private void close(int depth, boolean empty) throws IOException {
+            if (!empty) line(depth);
+            put('}');
+        }
+
+        private void line(int depth) throws IOException {
+            put('\n');
+            for (int i = 0; i < depth; i++) raw(INDENT);
+        }
+
+        private void string(String s) throws IOException {
+            put('"');
+            for (int i = 0, n = s.length(); i < n; i++) {
+                char c = s.charAt(i);
+                if (c >= ' ' && c != '"' && c != '\\' && c != 0x7f) {
+                    if (Character.isSurrogate(c) && !pairAt(s, i)) {
+                        loneSurrogate(c);
+                    } else {
+                        put(c);
+                        if (Character.isHighSurrogate(c)) put(s.charAt(++i));
+                    }
+                    continue;
+                }
+                switch (c) {
+                    case '"':
+                        raw("\\\"");
+                        break;
+                    case '\\':
+                        raw("\\\\");
+                        break;
+                    case '\n':
+                        raw("\\n");
+                        break;
+                    case '\r':
+                        raw("\\r");
+                        break;
+                    case '\t':
+                        raw("\\t");
+                        break;
+                    default:
+                        escapedByte(c);
+                }
+            }
+            put('"');
+        }
+
+        private static boolean pairAt(String s, int i) {
+            char c = s.charAt(i);
+            if (Character.isHighSurrogate(c)) {
+                return (
+                    i + 1 < s.length() &&
+                    Character.isLowSurrogate(s.charAt(i + 1))
+                );
+            }
+            // A low surrogate reached here has no high one before it
+            return false;
+        }
+
+        /**
+         * A lone surrogate would not survive UTF-8 encoding, but LuaJ
+         * decodes its 3-byte form back to the same char.
+         */
+        private void loneSurrogate(char c) throws IOException {
+            escapedByte(0xE0 | ((c >> 12) & 0x0f));
+            escapedByte(0x80 | ((c >> 6) & 0x3f));
+            escapedByte(0x80 | (c & 0x3f));
+        }
+
+        /** Always three digits, so a digit after it is not absorbed. */
+        private void escapedByte(int b) throws IOException {
+            put('\\');
+            put((char) ('0' + b / 100));
+            put((char) ('0' + b / 10 % 10));
+            put((char) ('0' + b % 10));
+        }
+
+        private void integer(long n) throws IOException {
+            if (len + 20 > buf.length) flush();
+            if (n < 0) {
+                buf[len++] = '-';
+                n = -n;
+            }
+            int end = len + digitCount(n);
+            for (int i = end - 1; i >= len; i--) {
+                buf[i] = (char) ('0' + n % 10);
+                n /= 10;
+            }
+            len = end;
+        }
+
+        private static int digitCount(long n) {
+            int d = 1;
+            while (n >= 10) {
+                n /= 10;
+                d++;
+            }
+            return d;
+        }
+
+        private void floating(double d) throws IOException {
+            if (Double.isNaN(d)) {
+                raw("0/0");
+            } else if (Double.isInfinite(d)) {
+                raw(d > 0 ? "1/0" : "-1/0");
+            } else {
+                // Shortest text that parses back to the same double
+                raw(Double.toString(d));
+            }
+        }
+
+        void raw(String s) throws IOException {
+            int n = s.length();
+            if (len + n > buf.length) {
+                flush();
+                if (n > buf.length) {
+                    out.append(s);
+                    return;
+                }
+            }
+            s.getChars(0, n, buf, len);
+            len += n;
+        }
+
+        void put(char c) throws IOException {
+            if (len == buf.length) flush();
+            buf[len++] = c;
+        }
+
+        void flush() throws IOException {
+            if (len == 0) return;
+            if (out instanceof Writer) {
+                ((Writer) out).write(buf, 0, len);
+            } else if (out instanceof StringBuilder) {
+                ((StringBuilder) out).append(buf, 0, len);
+            } else {
+                out.append(CharBuffer.wrap(buf, 0, len));
+            }
+            len = 0;
+        }
+
+        private static Object get(Field f, Object owner) {
+            try {
+                return f.get(owner);
+            } catch (IllegalAccessException e) {
+                throw new Failure("cannot read field: " + e.getMessage());
+            }
+        }
+    }
+
+    /** {@code n}, if Lua holds it exactly. */
+    private static long exact(long n) {
+        // Not Math.abs, which leaves Long.MIN_VALUE negative
+        if (n < -MAX_EXACT_LONG || n > MAX_EXACT_LONG) {
+            throw new Failure(
+                n + " is beyond 2^53, which Lua cannot hold exactly"
+            );
+        }
+        return n;
+    }
+
+    /**
+     * The scalar a map key is written as: a String, Boolean, Long or
+     * Double, as the deserializer's key adapters read it back.
+     */
+    private static Object keyScalar(Object k) {
+        if (k == null) throw new Failure("null key");
+        Shape shape = SHAPES.get(k.getClass());
+        switch (shape.kind) {
+            case STRING:
+            case BOOLEAN:
+                return k;
+            case INTEGRAL:
+                return exact(((Number) k).longValue());
+            case FLOATING: {
+                double d = ((Number) k).doubleValue();
+                if (Double.isNaN(d)) throw new Failure("NaN key");
+                // Integral doubles are the same Lua key as the integer
+                return d == (long) d ? (Object) (long) d : (Object) d;
+            }
+            case CHARACTER:
+                return k.toString();
+            case ENUM:
+                return ((Enum<?>) k).name();
+            case LEAF:
+                return keyScalar(Emitter.get(shape.leaf, k));
+            default:
+                throw new Failure(
+                    shape.reason != null
+                        ? shape.reason
+                        : "unsupported map key " + k.getClass().getName()
+                );
+        }
+    }
+
+    /**
+     * The elements of {@code set} in the order map keys are written, or by
+     * their text if some are not scalars, so equal sets write the same
+     * text. As they are if an element cannot be written at all, for
+     * {@code collection} to report it at its index.
+     */
+    private static Collection<?> sorted(Set<?> set) {
+        List<Entry> entries = new ArrayList<>(set.size());
+        try {
+            for (Object e : set) entries.add(new Entry(keyScalar(e), e));
+        } catch (Failure notScalar) {
+            entries.clear();
+            try {
+                for (Object e : set) entries.add(new Entry(serialize(e), e));
+            } catch (Failure f) {
+                return set;
+            }
+        }
+        Collections.sort(entries);
+        List<Object> out = new ArrayList<>(entries.size());
+        for (Entry e : entries) out.add(e.value);
+        return out;
+    }
+
+    /** Map entries order as booleans, then numbers, then strings. */
+    private static final class Entry implements Comparable<Entry> {
+
+        final Object key;
+        final Object value;
+
+        Entry(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            int r = Integer.compare(rank(key), rank(o.key));
+            if (r != 0) return r;
+            if (key instanceof Boolean) {
+                return Boolean.compare((Boolean) key, (Boolean) o.key);
+            }
+            if (key instanceof String) {
+                return ((String) key).compareTo((String) o.key);
+            }
+            if (key instanceof Long && o.key instanceof Long) {
+                return Long.compare((Long) key, (Long) o.key);
+            }
+            return Double.compare(
+                ((Number) key).doubleValue(),
+                ((Number) o.key).doubleValue()
+            );
+        }
+
+        private static int rank(Object k) {
+            if (k instanceof Boolean) return 0;
+            if (k instanceof Number) return 1;
+            return 2;
+        }
+    }
+
+    private static boolean isName(String s) {
+        if (s.isEmpty() || RESERVED.contains(s)) return false;
+        if (!LiteralLexer.isNameStart(s.charAt(0))) return false;
+        for (int i = 1; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!LiteralLexer.isNameStart(c) && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String quoted(String s) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            Emitter e = new Emitter(sb);
+            e.string(s);
+            e.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /** A value that cannot be written; collects its path while unwinding. */
+    private static final class Failure extends IllegalArgumentException {
+
+        private final String reason;
+        private String path = "";
+
+        Failure(String reason) {
+            this.reason = reason;
+        }
+
+        Failure at(String segment) {
+            path = segment + path;
+            return this;
+        }
+
+        @Override
+        public String getMessage() {
+            return "Cannot serialize $" + path + ": " + reason;
+        }
+    }
+}
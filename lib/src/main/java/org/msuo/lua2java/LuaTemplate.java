@@ -0,0 +1,307 @@
+package org.msuo.lua2java;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaClosure;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Prototype;
+
+/**
+ * A config script compiled once and rendered for many parameter sets, such
+ * as one render per tenant. The script reads its parameters from the global
+ * {@code params}:
+ *
+ * <pre>{@code
+ * return { host = params.tenant .. ".example.com", port = 8000 + params.n }
+ * }</pre>
+ *
+ * <p>Each render runs in a fresh global environment on top of the standard
+ * libraries, so globals one render assigns are never seen by another;
+ * {@code load}, {@code loadfile} and {@code dofile} run chunks in that
+ * environment too. The result is bound to the target type as
+ * {@code deserialize} would.
+ *
+ * <p>Thread-safe. Renders borrow a runtime from a pool, so library setup is
+ * paid once per concurrently rendering thread rather than once per render.
+ * What the renders of a runtime share, the library tables ({@code string},
+ * {@code math}, ...) and {@code package.loaded}, is read-only: a script
+ * that assigns to them fails.
+ */
+public final class LuaTemplate<T> {
+
+    private static final LuaValue PARAMS = LuaValue.valueOf("params");
+    // Idle runtimes kept; a burst of renders beyond it creates and drops
+    private static final int MAX_POOLED =
+        Runtime.getRuntime().availableProcessors();
+
+    private final Prototype proto;
+    private final Type type;
+    private final DeserializationOptions options;
+    private final ConcurrentLinkedQueue<Env> pool =
+        new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    private LuaTemplate(
+        Prototype proto,
+        Type type,
+        DeserializationOptions options
+    ) {
+        this.proto = proto;
+        this.type = type;
+        this.options = options;
+    }
+
+    public static <T> LuaTemplate<T> compile(String lua, Class<T> type) {
+        return compile(lua, type, DeserializationOptions.defaults());
+    }
+
+    /**
+     * Compiles {@code lua}; {@code options} apply to every render.
+     *
+     * @throws org.luaj.vm2.LuaError if the script does not compile
+     */
+    public static <T> LuaTemplate<T> compile(
+        String lua,
+        Class<T> type,
+        DeserializationOptions options
+    ) {
+        return compile(lua, (Type) type, options);
+    }
+
+    public static <T> LuaTemplate<T> compile(
+        String lua,
+        TypeRef<T> type,
+        DeserializationOptions options
+    ) {
+        return compile(lua, type.getType(), options);
+    }
+
+    private static <T> LuaTemplate<T> compile(
+        String lua,
+        Type type,
+        DeserializationOptions options
+    ) {
+        Env env = new Env(LuaRuntime.create(options));
+        Prototype proto;
+        try {
+            proto = env.runtime.globals.compilePrototype(
+                new StringReader(lua),
+                "template"
+            );
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        LuaTemplate<T> template = new LuaTemplate<>(proto, type, options);
+        template.release(env);
+        return template;
+    }
+
+    /**
+     * Runs the script with {@code params} as its {@code params} table and
+     * binds the result. Values may be strings, numbers, booleans, enums,
+     * {@code Optional}s, collections and maps of those, or
+     * {@link LuaValue}s.
+     *
+     * @throws ConfigDeserializationException if the result does not bind
+     * @throws org.luaj.vm2.LuaError if the script fails
+     */
+    public T render(Map<String, ?> params) {
+        LoadTrace trace = LoadTrace.begin(TypeUtils.rawClass(type), options);
+        boolean ok = false;
+        Env env = acquire();
+        try {
+            LuaValue root = execute(env, params, trace);
+            // Binding can run the script's metamethods, so the runtime is
+            // not handed on before it is done
+            T result = LuaDeserializer.bind(root, null, type, options, trace);
+            ok = true;
+            return result;
+        } finally {
+            release(env);
+            trace.finish(ok);
+        }
+    }
+
+    private LuaValue execute(
+        Env env,
+        Map<String, ?> params,
+        LoadTrace trace
+    ) {
+        // The script is compiled already; setting up its environment
+        // takes the place of the compile phase
+        trace.beginPhase();
+        Globals globals = env.fresh(toLua(params));
+        LuaValue chunk = new LuaClosure(proto, globals);
+        trace.endCompile();
+
+        trace.beginPhase();
+        LuaValue root = LuaDeserializer.execute(chunk, env.runtime.guard);
+        trace.endExecute();
+        return root;
+    }
+
+    private Env acquire() {
+        Env env = pool.poll();
+        if (env == null) return new Env(LuaRuntime.create(options));
+        pooled.decrementAndGet();
+        return env;
+    }
+
+    private void release(Env env) {
+        if (pooled.incrementAndGet() <= MAX_POOLED) {
+            pool.add(env);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * Renders every parameter set; {@code parallel} spreads them over the
+     * common fork-join pool. A failing render does not stop the others.
+     */
+    public Batch<T> renderAll(
+        List<? extends Map<String, ?>> params,
+        boolean parallel
+    ) {
+        int n = params.size();
+        Object[] results = new Object[n];
+        SortedMap<Integer, RuntimeException> failures =
+            new ConcurrentSkipListMap<>();
+
+        long start = System.nanoTime();
+        IntStream indices = IntStream.range(0, n);
+        if (parallel) indices = indices.parallel();
+        indices.forEach(i -> {
+            try {
+                results[i] = render(params.get(i));
+            } catch (RuntimeException e) {
+                failures.put(i, e);
+            }
+        });
+        long nanos = System.nanoTime() - start;
+
+        @SuppressWarnings("unchecked")
+        List<T> list = (List<T>) Arrays.asList(results);
+        return new Batch<>(
+            Collections.unmodifiableList(list),
+            Collections.unmodifiableSortedMap(failures),
+            nanos
+        );
+    }
+
+    /** Results of {@link #renderAll}, in input order. */
+    public static final class Batch<T> {
+
+        private final List<T> results;
+        private final SortedMap<Integer, RuntimeException> failures;
+        private final long nanos;
+
+        private Batch(
+            List<T> results,
+            SortedMap<Integer, RuntimeException> failures,
+            long nanos
+        ) {
+            this.results = results;
+            this.failures = failures;
+            this.nanos = nanos;
+        }
+
+        /** One entry per parameter set, {@code null} where it failed. */
+        public List<T> getResults() {
+            return results;
+        }
+
+        /** Why renders failed, by index into the parameter list. */
+        public SortedMap<Integer, RuntimeException> getFailures() {
+            return failures;
+        }
+
+        public Duration getElapsed() {
+            return Duration.ofNanos(nanos);
+        }
+
+        /** Renders completed per second of wall-clock time, failed ones too. */
+        public double getRendersPerSecond() {
+            return nanos == 0 ? 0 : results.size() * 1e9 / nanos;
+        }
+    }
+
+    /** A pooled runtime; used by one render at a time. */
+    private static final class Env {
+
+        final LuaRuntime runtime;
+
+        Env(LuaRuntime runtime) {
+            this.runtime = runtime;
+            runtime.seal();
+        }
+
+        Globals fresh(LuaValue params) {
+            Globals g = runtime.fresh();
+            g.rawset(PARAMS, params);
+            return g;
+        }
+    }
+
+    private static LuaValue toLua(Object v) {
+        if (v == null) return LuaValue.NIL;
+        if (v instanceof LuaValue) return (LuaValue) v;
+        if (v instanceof String) return LuaValue.valueOf((String) v);
+        if (v instanceof Boolean) return LuaValue.valueOf((Boolean) v);
+        if (
+            v instanceof Integer ||
+            v instanceof Short ||
+            v instanceof Byte
+        ) {
+            return LuaValue.valueOf(((Number) v).intValue());
+        }
+        if (v instanceof Number) {
+            return LuaValue.valueOf(((Number) v).doubleValue());
+        }
+        if (v instanceof Character) return LuaValue.valueOf(v.toString());
+        if (v instanceof Enum<?>) {
+            return LuaValue.valueOf(((Enum<?>) v).name());
+        }
+        if (v instanceof Optional<?>) {
+            return toLua(((Optional<?>) v).orElse(null));
+        }
+        if (v instanceof Map<?, ?>) {
+            Map<?, ?> m = (Map<?, ?>) v;
+            LuaTable t = new LuaTable(0, m.size());
+            for (Map.Entry<?, ?> e : m.entrySet()) {
+                LuaValue key = toLua(e.getKey());
+                if (key.isnil()) {
+                    throw new IllegalArgumentException("null parameter key");
+                }
+                t.rawset(key, toLua(e.getValue()));
+            }
+            return t;
+        }
+        if (v instanceof Collection<?>) {
+            Collection<?> c = (Collection<?>) v;
+            LuaTable t = new LuaTable(c.size(), 0);
+            int i = 0;
+            for (Object e : c) t.rawset(++i, toLua(e));
+            return t;
+        }
+        throw new IllegalArgumentException(
+            "Unsupported parameter type: " + v.getClass().getName()
+        );
+    }
+}
@@ -10,10 +10,16 @@ import org.luaj.vm2.Varargs;
 
 final class MapAdapter implements TypeAdapter {
 
-    private final ParameterizedType pt;
+    private final Type kType;
+    private final Type vType;
+    private final TypeAdapter kAdapter;
+    private final TypeAdapter vAdapter;
 
     MapAdapter(ParameterizedType pt) {
-        this.pt = pt;
+        this.kType = pt.getActualTypeArguments()[0];
+        this.vType = pt.getActualTypeArguments()[1];
+        this.kAdapter = concreteAdapterOrNull(kType);
+        this.vAdapter = concreteAdapterOrNull(vType);
     }
 
     @Override
@@ -26,26 +32,17 @@ final class MapAdapter implements TypeAdapter {
             path,
             luaValue,
             errors,
-            Errors.mapExpected(luaValue)
+            ConfigErrorCode.MAP_EXPECTED
         );
         if (t == null) return ReadResult.fail();
 
-        Type kType = pt.getActualTypeArguments()[0];
-        Type vType = pt.getActualTypeArguments()[1];
-
-        Class<?> kCls = TypeUtils.requireConcreteClassArg(
-            kType,
-            path,
-            Errors.mapKeyMustBeConcrete(kType),
-            errors
-        );
-        Class<?> vCls = TypeUtils.requireConcreteClassArg(
-            vType,
-            path,
-            Errors.mapValueMustBeConcrete(vType),
-            errors
-        );
-        if (kCls == null || vCls == null) return ReadResult.fail();
+        if (kAdapter == null) {
+            errors.add(path, ConfigErrorCode.MAP_KEY_NOT_CONCRETE, kType);
+        }
+        if (vAdapter == null) {
+            errors.add(path, ConfigErrorCode.MAP_VALUE_NOT_CONCRETE, vType);
+        }
+        if (kAdapter == null || vAdapter == null) return ReadResult.fail();
 
         Map<Object, Object> out = new LinkedHashMap<>();
 
@@ -57,24 +54,14 @@ final class MapAdapter implements TypeAdapter {
 
             LuaValue v = nxt.arg(2);
 
-            Path keyPath = path.rawKey(k.tojstring());
-            ReadResult keyRes = LuaDeserializer.readValue(
-                keyPath,
-                kCls,
-                k,
-                errors
-            );
+            Path keyPath = path.rawKey(k);
+            ReadResult keyRes = kAdapter.read(keyPath, k, errors);
             if (!keyRes.ok) continue;
 
             Object keyObj = keyRes.value;
 
             Path valPath = path.mapKey(keyObj);
-            ReadResult valRes = LuaDeserializer.readValue(
-                valPath,
-                vCls,
-                v,
-                errors
-            );
+            ReadResult valRes = vAdapter.read(valPath, v, errors);
             if (!valRes.ok) continue;
 
             out.put(keyObj, valRes.value);
@@ -82,4 +69,134 @@ final class MapAdapter implements TypeAdapter {
 
         return ReadResult.ok(out);
     }
+
+    /** Values update under their key; the map is kept if every value is. */
+    @Override
+    public ReadResult update(
+        Path path,
+        LuaValue luaValue,
+        Object current,
+        FieldChanges changes,
+        ErrorCollector errors
+    ) {
+        if (
+            !luaValue.istable() ||
+            kAdapter == null ||
+            vAdapter == null ||
+            !(current instanceof Map<?, ?>)
+        ) {
+            return TypeAdapter.super.update(
+                path,
+                luaValue,
+                current,
+                changes,
+                errors
+            );
+        }
+
+        Map<?, ?> old = (Map<?, ?>) current;
+        LuaTable t = luaValue.checktable();
+        Map<Object, Object> out = new LinkedHashMap<>();
+        boolean same = true;
+
+        LuaValue k = LuaValue.NIL;
+        while (true) {
+            Varargs nxt = t.next(k);
+            k = nxt.arg1();
+            if (k.isnil()) break;
+
+            ReadResult keyRes = kAdapter.read(path.rawKey(k), k, errors);
+            if (!keyRes.ok) {
+                same = false;
+                continue;
+            }
+            Object keyObj = keyRes.value;
+            Object prev = old.get(keyObj);
+
+            ReadResult valRes = vAdapter.update(
+                path.mapKey(keyObj),
+                nxt.arg(2),
+                prev,
+                changes,
+                errors
+            );
+            if (!valRes.ok) {
+                same = false;
+                continue;
+            }
+            out.put(keyObj, valRes.value);
+            if (valRes.value != prev) same = false;
+        }
+        return ReadResult.ok(same && out.size() == old.size() ? current : out);
+    }
+
+    /**
+     * Entries overlay the base value under their key, other base entries
+     * are kept; a changed map is a copy holding the same value instances.
+     */
+    @Override
+    public ReadResult overlay(
+        Path path,
+        LuaValue luaValue,
+        Object base,
+        ErrorCollector errors
+    ) {
+        if (
+            !luaValue.istable() ||
+            kAdapter == null ||
+            vAdapter == null ||
+            !(base instanceof Map<?, ?>)
+        ) {
+            return TypeAdapter.super.overlay(path, luaValue, base, errors);
+        }
+
+        Map<?, ?> old = (Map<?, ?>) base;
+        LuaTable t = luaValue.checktable();
+        Map<Object, Object> out = null;
+
+        LuaValue k = LuaValue.NIL;
+        while (true) {
+            Varargs nxt = t.next(k);
+            k = nxt.arg1();
+            if (k.isnil()) break;
+
+            ReadResult keyRes = kAdapter.read(path.rawKey(k), k, errors);
+            if (!keyRes.ok) continue;
+            Object keyObj = keyRes.value;
+            Object prev = old.get(keyObj);
+
+            ReadResult valRes = vAdapter.overlay(
+                path.mapKey(keyObj),
+                nxt.arg(2),
+                prev,
+                errors
+            );
+            if (!valRes.ok || valRes.value == prev) continue;
+            if (out == null) out = new LinkedHashMap<>(old);
+            out.put(keyObj, valRes.value);
+        }
+        return ReadResult.ok(out != null ? out : base);
+    }
+
+    @Override
+    public void validate(Path path, SchemaValidator validator) {
+        if (kAdapter == null) {
+            validator.error(path, ConfigErrorCode.MAP_KEY_NOT_CONCRETE, kType);
+        } else {
+            kAdapter.validate(path.rawKey(null), validator);
+        }
+        if (vAdapter == null) {
+            validator.error(
+                path,
+                ConfigErrorCode.MAP_VALUE_NOT_CONCRETE,
+                vType
+            );
+        } else {
+            vAdapter.validate(path.mapKey(null), validator);
+        }
+    }
+
+    private static TypeAdapter concreteAdapterOrNull(Type t) {
+        return TypeUtils.isConcrete(t) ? LuaDeserializer.adapterFor(t) : null;
+    }
 }
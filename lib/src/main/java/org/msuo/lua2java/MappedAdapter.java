@@ -0,0 +1,517 @@
+package org.msuo.lua2java;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.file.DirectoryStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+
+/**
+ * Binds a field registered with {@code registerMappedField}: every entry
+ * is bound once to report errors, then the entries are written to a
+ * {@link MappedStore} file and the field gets a read-only
+ * {@link MappedList} or {@link MappedMap} that binds entries from the file
+ * on access. Files are named by their digest, so a file with the same
+ * digest is opened instead of rewritten and loads of different entries
+ * never replace each other's file.
+ */
+final class MappedAdapter implements TypeAdapter {
+
+    private final java.nio.file.Path dir;
+    // Files are <prefix>.<digest>.l2jm
+    private final String prefix;
+    private final byte[] schema;
+    private final int kind;
+    // Null for lists
+    private final TypeAdapter keys;
+    private final TypeAdapter values;
+    // For values that are not tables and for validation
+    private final TypeAdapter regular;
+
+    MappedAdapter(Field field, Type type, java.nio.file.Path dir) {
+        this.dir = dir;
+        this.prefix =
+            field.getDeclaringClass().getName() + "." + field.getName();
+        this.schema = schemaOf(type);
+        this.kind = field.getType() == Map.class
+            ? MappedStore.MAP
+            : MappedStore.LIST;
+        Type[] args = ((ParameterizedType) type).getActualTypeArguments();
+        this.keys = kind == MappedStore.MAP ? concreteOrNull(args[0]) : null;
+        this.values = concreteOrNull(args[args.length - 1]);
+        this.regular = LuaDeserializer.adapterFor(type);
+    }
+
+    @Override
+    public ReadResult read(
+        Path path,
+        LuaValue luaValue,
+        ErrorCollector errors
+    ) {
+        boolean usable =
+            luaValue.istable() &&
+            values != null &&
+            (kind == MappedStore.LIST || keys != null);
+        // The regular adapter reports why, without binding any entry
+        if (!usable) return regular.read(path, luaValue, errors);
+
+        LuaTable t = luaValue.checktable();
+        if (t.getmetatable() != null) {
+            errors.add(
+                path,
+                ConfigErrorCode.MAPPED_FILE_FAILED,
+                dir,
+                "the table has a metatable"
+            );
+            return ReadResult.fail();
+        }
+        byte[] digest = MappedStore.digest(t, kind, schema);
+        java.nio.file.Path file = dir.resolve(
+            prefix + "." + hex(digest) + ".l2jm"
+        );
+        try {
+            MappedStore store = MappedStore.open(file, kind, digest);
+            if (store != null && !stableHashes(path, store)) store = null;
+            if (store == null) {
+                int before = errors.count();
+                store = MappedStore.write(
+                    file,
+                    t,
+                    kind,
+                    digest,
+                    new MappedStore.Binder() {
+                        @Override
+                        public Integer bind(int i, LuaValue k, LuaValue v) {
+                            return bindEntry(path, i, k, v, errors);
+                        }
+
+                        @Override
+                        public void unstorable(
+                            int i,
+                            LuaValue k,
+                            String what
+                        ) {
+                            errors.add(
+                                entryPath(path, i, k),
+                                ConfigErrorCode.MAPPED_FILE_FAILED,
+                                file,
+                                "the entry holds " + what
+                            );
+                        }
+                    }
+                );
+                if (store == null) {
+                    if (errors.count() == before) {
+                        errors.add(
+                            path,
+                            ConfigErrorCode.MAPPED_FILE_FAILED,
+                            file,
+                            "an entry did not bind"
+                        );
+                    }
+                    return ReadResult.fail();
+                }
+                prune(file);
+            }
+            return ReadResult.ok(
+                kind == MappedStore.MAP
+                    ? new MappedMap(path, store, keys, values)
+                    : new MappedList(path, store, values)
+            );
+        } catch (IOException e) {
+            errors.add(path, ConfigErrorCode.MAPPED_FILE_FAILED, file, e);
+            return ReadResult.fail();
+        }
+    }
+
+    /** A mapped field is kept while its entries are, else replaced whole. */
+    @Override
+    public ReadResult update(
+        Path path,
+        LuaValue luaValue,
+        Object current,
+        FieldChanges changes,
+        ErrorCollector errors
+    ) {
+        return keep(current, read(path, luaValue, errors));
+    }
+
+    @Override
+    public ReadResult overlay(
+        Path path,
+        LuaValue luaValue,
+        Object base,
+        ErrorCollector errors
+    ) {
+        return keep(base, read(path, luaValue, errors));
+    }
+
+    @Override
+    public void validate(Path path, SchemaValidator validator) {
+        regular.validate(path, validator);
+    }
+
+    private static ReadResult keep(Object current, ReadResult rr) {
+        MappedStore was = storeOf(current);
+        MappedStore now = rr.ok ? storeOf(rr.value) : null;
+        if (
+            was != null &&
+            now != null &&
+            Arrays.equals(was.digest, now.digest)
+        ) {
+            return ReadResult.ok(current);
+        }
+        return rr;
+    }
+
+    private static MappedStore storeOf(Object value) {
+        if (value instanceof MappedList) return ((MappedList) value).store;
+        if (value instanceof MappedMap) return ((MappedMap) value).store;
+        return null;
+    }
+
+    private Integer bindEntry(
+        Path path,
+        int i,
+        LuaValue k,
+        LuaValue v,
+        ErrorCollector errors
+    ) {
+        if (kind == MappedStore.LIST) {
+            return values.read(path.index(i), v, errors).ok ? 0 : null;
+        }
+        ReadResult key = keys.read(path.rawKey(k), k, errors);
+        if (!key.ok) return null;
+        if (!values.read(path.mapKey(key.value), v, errors).ok) return null;
+        return hash(key.value);
+    }
+
+    private Path entryPath(Path path, int i, LuaValue k) {
+        return kind == MappedStore.LIST ? path.index(i) : path.rawKey(k);
+    }
+
+    /**
+     * Key hashes are stored, so a reused file needs keys that hash the
+     * same in every process; a few samples catch those that do not.
+     */
+    private boolean stableHashes(Path path, MappedStore store) {
+        if (kind == MappedStore.LIST || store.count == 0) return true;
+        for (int i : new int[] { 0, store.count / 2, store.count - 1 }) {
+            try {
+                Object key = bind(path, keys, store.key(i));
+                if (hash(key) != store.hash(i)) return false;
+            } catch (ConfigDeserializationException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Enum hash codes differ between runs; their names do not. */
+    private static int hash(Object key) {
+        return key instanceof Enum<?>
+            ? ((Enum<?>) key).name().hashCode()
+            : key.hashCode();
+    }
+
+    /** Binds an entry read back from the file. */
+    private static Object bind(Path path, TypeAdapter adapter, LuaValue v) {
+        ErrorCollector errors = new ErrorCollector(
+            DeserializationOptions.defaults(),
+            null,
+            null
+        );
+        ReadResult rr = null;
+        try {
+            rr = adapter.read(path, v, errors);
+        } catch (ErrorCollector.BindingStopped stopped) {
+            // Reported below
+        }
+        if (errors.hasErrors()) {
+            throw new ConfigDeserializationException(
+                errors.asList(),
+                errors.omitted(),
+                errors.stopped()
+            );
+        }
+        return rr.value;
+    }
+
+    /**
+     * Fingerprint of everything binding an entry depends on: the field
+     * type and, recursively, the classes it binds, with their fields,
+     * registered subtypes and class files, which hold the validation in
+     * their constructors. Files written before any of it changed are not
+     * reused, so their entries are bound and checked again.
+     */
+    static byte[] schemaOf(Type type) {
+        MessageDigest md = MappedStore.sha256();
+        fingerprint(type, md, new HashSet<>());
+        return md.digest();
+    }
+
+    private static void fingerprint(
+        Type t,
+        MessageDigest md,
+        Set<Class<?>> seen
+    ) {
+        md.update(t.getTypeName().getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        if (t instanceof ParameterizedType) {
+            ParameterizedType p = (ParameterizedType) t;
+            fingerprint(p.getRawType(), md, seen);
+            for (Type a : p.getActualTypeArguments()) {
+                fingerprint(a, md, seen);
+            }
+            return;
+        }
+        if (!(t instanceof Class<?>)) return;
+
+        Class<?> c = (Class<?>) t;
+        if (c.isArray()) c = c.getComponentType();
+        // JDK types only change with the JDK, which the file name ignores
+        if (
+            c.isPrimitive() ||
+            c.getName().startsWith("java.") ||
+            !seen.add(c)
+        ) {
+            return;
+        }
+        md.update(classFile(c));
+        for (Field f : c.getDeclaredFields()) {
+            if (Modifier.isStatic(f.getModifiers())) continue;
+            md.update(f.getName().getBytes(StandardCharsets.UTF_8));
+            fingerprint(f.getGenericType(), md, seen);
+        }
+        if (c.getSuperclass() != null) fingerprint(c.getSuperclass(), md, seen);
+        Subtypes subtypes = Subtypes.of(c);
+        if (subtypes != null) {
+            md.update(subtypes.discriminator.getBytes(StandardCharsets.UTF_8));
+            for (Map.Entry<String, Class<?>> e : subtypes.classes.entrySet()) {
+                md.update(e.getKey().getBytes(StandardCharsets.UTF_8));
+                fingerprint(e.getValue(), md, seen);
+            }
+        }
+    }
+
+    /** The bytes of {@code c}'s class file, or none if unavailable. */
+    private static byte[] classFile(Class<?> c) {
+        String name = c.getName();
+        String file = name.substring(name.lastIndexOf('.') + 1) + ".class";
+        try (InputStream in = c.getResourceAsStream(file)) {
+            return in == null ? new byte[0] : in.readAllBytes();
+        } catch (IOException e) {
+            return new byte[0];
+        }
+    }
+
+    /**
+     * Deletes the files this field was written to for other entries.
+     * Views already open keep their mapping; a file that is still mapped
+     * where deleting it is refused is left for a later load.
+     */
+    private void prune(java.nio.file.Path keep) {
+        String pattern = java.util.regex.Pattern.quote(prefix) +
+            "\\.[0-9a-f]{32}\\.l2jm";
+        try (
+            DirectoryStream<java.nio.file.Path> files =
+                Files.newDirectoryStream(dir, prefix + ".*.l2jm")
+        ) {
+            for (java.nio.file.Path f : files) {
+                if (
+                    !f.equals(keep) &&
+                    f.getFileName().toString().matches(pattern)
+                ) {
+                    try {
+                        Files.deleteIfExists(f);
+                    } catch (IOException e) {
+                        // Still in use
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Only housekeeping
+        }
+    }
+
+    /** The first 16 bytes of {@code digest} in hex. */
+    private static String hex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(32);
+        for (int i = 0; i < 16; i++) {
+            sb.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(digest[i] & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static TypeAdapter concreteOrNull(Type t) {
+        return TypeUtils.isConcrete(t) ? LuaDeserializer.adapterFor(t) : null;
+    }
+
+    /** Read-only list over a mapped file; elements bind on each access. */
+    static final class MappedList extends AbstractList<Object>
+        implements RandomAccess {
+
+        private final Path path;
+        final MappedStore store;
+        private final TypeAdapter elements;
+
+        MappedList(Path path, MappedStore store, TypeAdapter elements) {
+            this.path = path;
+            this.store = store;
+            this.elements = elements;
+        }
+
+        @Override
+        public Object get(int index) {
+            Objects.checkIndex(index, store.count);
+            return bind(path.index(index + 1), elements, store.element(index));
+        }
+
+        @Override
+        public int size() {
+            return store.count;
+        }
+    }
+
+    /**
+     * Read-only map over a mapped file. Lookups go through the file's hash
+     * index; keys and values bind on each access.
+     */
+    static final class MappedMap extends AbstractMap<Object, Object> {
+
+        private final Path path;
+        final MappedStore store;
+        private final TypeAdapter keys;
+        private final TypeAdapter values;
+
+        MappedMap(
+            Path path,
+            MappedStore store,
+            TypeAdapter keys,
+            TypeAdapter values
+        ) {
+            this.path = path;
+            this.store = store;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        public Object get(Object key) {
+            int i = find(key);
+            return i < 0 ? null : value(key, i);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return find(key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return store.count;
+        }
+
+        @Override
+        public Set<Object> keySet() {
+            // Not via entrySet(), which would bind every value
+            return new AbstractSet<Object>() {
+                @Override
+                public Iterator<Object> iterator() {
+                    return new Records<Object>() {
+                        @Override
+                        Object at(int i) {
+                            return key(i);
+                        }
+                    };
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return containsKey(o);
+                }
+
+                @Override
+                public int size() {
+                    return store.count;
+                }
+            };
+        }
+
+        @Override
+        public Set<Map.Entry<Object, Object>> entrySet() {
+            return new AbstractSet<Map.Entry<Object, Object>>() {
+                @Override
+                public Iterator<Map.Entry<Object, Object>> iterator() {
+                    return new Records<Map.Entry<Object, Object>>() {
+                        @Override
+                        Map.Entry<Object, Object> at(int i) {
+                            Object k = key(i);
+                            return new AbstractMap.SimpleImmutableEntry<>(
+                                k,
+                                value(k, i)
+                            );
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return store.count;
+                }
+            };
+        }
+
+        private int find(Object key) {
+            if (key == null) return -1;
+            return store.find(hash(key), i -> key.equals(key(i)));
+        }
+
+        private Object key(int i) {
+            LuaValue k = store.key(i);
+            return bind(path.rawKey(k), keys, k);
+        }
+
+        private Object value(Object key, int i) {
+            return bind(path.mapKey(key), values, store.value(i));
+        }
+
+        /** Iterates the records in source order. */
+        private abstract class Records<E> implements Iterator<E> {
+
+            private int next;
+
+            abstract E at(int i);
+
+            @Override
+            public boolean hasNext() {
+                return next < store.count;
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return at(next++);
+            }
+        }
+    }
+}
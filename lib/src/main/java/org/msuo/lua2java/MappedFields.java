@@ -0,0 +1,98 @@
+package org.msuo.lua2java;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@code List} and {@code Map} fields registered to be stored in mapped
+ * files instead of on the heap, with the directory holding their files.
+ */
+final class MappedFields {
+
+    // Per declaring class, so a registration goes away with its class
+    private static final ClassValue<Entry> ENTRIES = new ClassValue<>() {
+        @Override
+        protected Entry computeValue(Class<?> type) {
+            return new Entry();
+        }
+    };
+
+    private static final class Entry {
+
+        /** Field name to the directory of its files. */
+        final Map<String, java.nio.file.Path> dirs = new ConcurrentHashMap<>();
+        /** Looked up by a schema, which caches the result. */
+        volatile boolean resolved;
+    }
+
+    private MappedFields() {}
+
+    static void register(
+        Class<?> owner,
+        String name,
+        java.nio.file.Path directory
+    ) {
+        Field f = find(owner, name);
+        if (
+            !(f.getGenericType() instanceof ParameterizedType) ||
+            (f.getType() != List.class && f.getType() != Map.class)
+        ) {
+            throw new IllegalArgumentException(
+                "Only List<E> and Map<K, V> fields can be mapped: " + f
+            );
+        }
+        java.nio.file.Path dir = directory.toAbsolutePath().normalize();
+        synchronized (ENTRIES) {
+            Entry entry = ENTRIES.get(f.getDeclaringClass());
+            java.nio.file.Path prev = entry.dirs.get(f.getName());
+            if (prev != null) {
+                if (prev.equals(dir)) return;
+                throw new IllegalStateException(
+                    f + " is already mapped to " + prev
+                );
+            }
+            if (entry.resolved) {
+                throw new IllegalStateException(
+                    "Register mapped fields before the first load involving " +
+                    f.getDeclaringClass().getName() +
+                    "; its schema is built already"
+                );
+            }
+            entry.dirs.put(f.getName(), dir);
+        }
+    }
+
+    /**
+     * The directory for {@code field}'s file, or {@code null}. Mapping
+     * another field of its class fails afterwards.
+     */
+    static java.nio.file.Path directoryOf(Field field) {
+        Entry entry = ENTRIES.get(field.getDeclaringClass());
+        if (!entry.resolved) {
+            synchronized (ENTRIES) {
+                entry.resolved = true;
+            }
+        }
+        return entry.dirs.get(field.getName());
+    }
+
+    private static Field find(Class<?> owner, String name) {
+        for (Class<?> c = owner; c != null; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                if (
+                    f.getName().equals(name) &&
+                    !Modifier.isStatic(f.getModifiers())
+                ) {
+                    return f;
+                }
+            }
+        }
+        throw new IllegalArgumentException(
+            "No field " + name + " in " + owner.getName()
+        );
+    }
+}
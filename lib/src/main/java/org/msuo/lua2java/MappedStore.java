@@ -0,0 +1,548 @@
+package org.msuo.lua2java;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+/**
+ * Memory-mapped file of the entries of one mapped field, as encoded Lua
+ * values: list elements, or map keys each followed by its value. Only the
+ * header is read onto the heap.
+ *
+ * <pre>
+ * header   magic, version, kind, count, slot count, data length, digest
+ * offsets  count + 1 longs; record i spans [offsets[i], offsets[i + 1])
+ * hashes   count ints, the bound key's hash of each map record
+ * slots    open addressing table of record index + 1, by key hash
+ * data     the records
+ * </pre>
+ *
+ * <p>The digest covers the encoded records and a fingerprint of the
+ * schema they bind to, so a file written for the same source and schema
+ * can be opened again instead of rewritten.
+ */
+final class MappedStore {
+
+    static final int LIST = 0;
+    static final int MAP = 1;
+
+    private static final int MAGIC = 0x4c324a4d; // "L2JM"
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    private static final int DIGEST = 32;
+    // Data is mapped in segments; one mapping is limited to 2 GiB
+    private static final long SEGMENT = 1L << 30;
+    // Deeper tables are encoded as OTHER, like functions
+    private static final int MAX_DEPTH = 200;
+
+    private static final byte FALSE = 0;
+    private static final byte TRUE = 1;
+    private static final byte INT = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte STRING = 4;
+    private static final byte TABLE = 5;
+    private static final byte END = 6;
+    // Digested only: a record holding it is never written
+    private static final byte OTHER = 7;
+
+    final int count;
+    final byte[] digest;
+    private final int slotMask;
+    private final ByteBuffer index;
+    private final ByteBuffer[] data;
+
+    private MappedStore(
+        int count,
+        int slots,
+        byte[] digest,
+        ByteBuffer index,
+        ByteBuffer[] data
+    ) {
+        this.count = count;
+        this.slotMask = slots - 1;
+        this.digest = digest;
+        this.index = index;
+        this.data = data;
+    }
+
+    /** Binds one entry while it is written; see {@link #write}. */
+    interface Binder {
+        /**
+         * The bound key's hash (any value for lists), or {@code null} if
+         * the entry does not bind. {@code key} is {@code null} for lists,
+         * whose {@code index} starts at 1.
+         */
+        Integer bind(int index, LuaValue key, LuaValue value);
+
+        /**
+         * Reports an entry that binds but would not read back the same
+         * from the file: {@code what} it holds, such as a function or a
+         * table with a metatable.
+         */
+        void unstorable(int index, LuaValue key, String what);
+    }
+
+    /** {@code schema} fingerprints the types the entries bind to. */
+    static byte[] digest(LuaTable t, int kind, byte[] schema) {
+        MessageDigest md = sha256();
+        String header = VERSION + ":" + kind + ":";
+        md.update(header.getBytes(StandardCharsets.UTF_8));
+        md.update(schema);
+        Encoder enc = new Encoder();
+        Entries e = new Entries(t, kind);
+        while (e.next()) {
+            enc.record(e);
+            md.update(enc.buf, 0, enc.len);
+        }
+        return md.digest();
+    }
+
+    /** The file written for {@code digest}, or {@code null} if none is. */
+    static MappedStore open(java.nio.file.Path file, int kind, byte[] digest)
+        throws IOException {
+        FileChannel ch;
+        try {
+            ch = FileChannel.open(file, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try (ch) {
+            return map(ch, kind, digest);
+        }
+    }
+
+    private static MappedStore map(FileChannel ch, int kind, byte[] digest)
+        throws IOException {
+        ByteBuffer h = ByteBuffer.allocate(HEADER);
+        while (h.hasRemaining() && ch.read(h, h.position()) > 0) {
+            // Reads until full or end of file
+        }
+        h.flip();
+        if (
+            h.remaining() < HEADER ||
+            h.getInt() != MAGIC ||
+            h.getInt() != VERSION ||
+            h.getInt() != kind
+        ) {
+            return null;
+        }
+        int count = h.getInt();
+        int slots = h.getInt();
+        h.getInt();
+        long dataLength = h.getLong();
+        byte[] d = new byte[DIGEST];
+        h.get(d);
+        long indexBytes = indexBytes(kind, count, slots);
+        if (
+            !Arrays.equals(d, digest) ||
+            ch.size() != HEADER + indexBytes + dataLength
+        ) {
+            return null;
+        }
+
+        ByteBuffer index = ch.map(
+            FileChannel.MapMode.READ_ONLY,
+            HEADER,
+            indexBytes
+        );
+        int segments = (int) ((dataLength + SEGMENT - 1) / SEGMENT);
+        ByteBuffer[] data = new ByteBuffer[segments];
+        for (int s = 0; s < data.length; s++) {
+            data[s] = ch.map(
+                FileChannel.MapMode.READ_ONLY,
+                HEADER + indexBytes + s * SEGMENT,
+                Math.min(SEGMENT, dataLength - s * SEGMENT)
+            );
+        }
+        return new MappedStore(count, slots, digest, index, data);
+    }
+
+    /**
+     * Writes the entries of {@code t} to {@code file}, replacing it
+     * atomically, and opens it. Every entry goes through {@code binder};
+     * returns {@code null} and leaves {@code file} alone if any does not
+     * bind or holds a value the file cannot store. The file is mapped
+     * before it is moved into place, so the result never reads another
+     * writer's file.
+     */
+    static MappedStore write(
+        java.nio.file.Path file,
+        LuaTable t,
+        int kind,
+        byte[] digest,
+        Binder binder
+    ) throws IOException {
+        Files.createDirectories(file.getParent());
+        java.nio.file.Path tmp = Files.createTempFile(
+            file.getParent(),
+            file.getFileName().toString(),
+            ".tmp"
+        );
+        try {
+            if (!writeTo(tmp, t, kind, digest, binder)) return null;
+            MappedStore store = open(tmp, kind, digest);
+            if (store == null) {
+                throw new IOException("Not written completely: " + tmp);
+            }
+            // A mapping stays valid when its file is moved or replaced
+            Files.move(
+                tmp,
+                file,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE
+            );
+            return store;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static boolean writeTo(
+        java.nio.file.Path tmp,
+        LuaTable t,
+        int kind,
+        byte[] digest,
+        Binder binder
+    ) throws IOException {
+        int count = Entries.count(t, kind);
+        int slots = kind == MAP ? slotCount(count) : 0;
+        long indexBytes = indexBytes(kind, count, slots);
+        if (HEADER + indexBytes > Integer.MAX_VALUE) {
+            throw new IOException("Too many entries to map: " + count);
+        }
+        int hashesAt = (count + 1) * 8;
+        int slotsAt = hashesAt + count * 4;
+        boolean ok = true;
+
+        try (
+            FileChannel ch = FileChannel.open(
+                tmp,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+            )
+        ) {
+            MappedByteBuffer index = ch.map(
+                FileChannel.MapMode.READ_WRITE,
+                HEADER,
+                indexBytes
+            );
+            ch.position(HEADER + indexBytes);
+            // Not closed: that would close the channel before the header
+            OutputStream out = new BufferedOutputStream(
+                Channels.newOutputStream(ch),
+                1 << 16
+            );
+            Encoder enc = new Encoder();
+            Entries e = new Entries(t, kind);
+            long pos = 0;
+            for (int i = 0; e.next(); i++) {
+                Integer hash = binder.bind(e.index, e.key, e.value);
+                if (hash == null) {
+                    ok = false;
+                    continue;
+                }
+                enc.record(e);
+                if (enc.unstorable != null) {
+                    binder.unstorable(e.index, e.key, enc.unstorable);
+                    ok = false;
+                }
+                if (!ok) continue;
+
+                out.write(enc.buf, 0, enc.len);
+                index.putLong(i * 8, pos);
+                pos += enc.len;
+                if (kind == MAP) {
+                    index.putInt(hashesAt + i * 4, hash);
+                    int s = mix(hash) & (slots - 1);
+                    while (index.getInt(slotsAt + s * 4) != 0) {
+                        s = (s + 1) & (slots - 1);
+                    }
+                    index.putInt(slotsAt + s * 4, i + 1);
+                }
+            }
+            if (!ok) return false;
+            out.flush();
+            index.putLong(count * 8, pos);
+            index.force();
+
+            ByteBuffer h = ByteBuffer.allocate(HEADER);
+            h.putInt(MAGIC).putInt(VERSION).putInt(kind).putInt(count);
+            h.putInt(slots).putInt(0).putLong(pos).put(digest);
+            h.rewind();
+            while (h.hasRemaining()) ch.write(h, h.position());
+            ch.force(true);
+        }
+        return true;
+    }
+
+    /** List element {@code i}, counted from 0. */
+    LuaValue element(int i) {
+        return decode(record(i));
+    }
+
+    LuaValue key(int i) {
+        return decode(record(i));
+    }
+
+    LuaValue value(int i) {
+        ByteBuffer b = record(i);
+        decode(b);
+        return decode(b);
+    }
+
+    /** Hash of the bound key of map record {@code i}. */
+    int hash(int i) {
+        return index.getInt((count + 1) * 8 + i * 4);
+    }
+
+    /** The map record with {@code hash} that {@code matches}, or -1. */
+    int find(int hash, IntPredicate matches) {
+        if (count == 0) return -1;
+        int slotsAt = (count + 1) * 8 + count * 4;
+        int s = mix(hash) & slotMask;
+        while (true) {
+            int e = index.getInt(slotsAt + s * 4);
+            if (e == 0) return -1;
+            if (hash(e - 1) == hash && matches.test(e - 1)) return e - 1;
+            s = (s + 1) & slotMask;
+        }
+    }
+
+    private ByteBuffer record(int i) {
+        long start = index.getLong(i * 8);
+        int len = (int) (index.getLong((i + 1) * 8) - start);
+        int seg = (int) (start / SEGMENT);
+        int off = (int) (start % SEGMENT);
+        if (off + len <= data[seg].capacity()) {
+            ByteBuffer b = data[seg].duplicate();
+            b.limit(off + len).position(off);
+            return b;
+        }
+        // Spans segments
+        byte[] copy = new byte[len];
+        for (int done = 0; done < len; seg++, off = 0) {
+            ByteBuffer b = data[seg].duplicate();
+            int n = Math.min(len - done, b.capacity() - off);
+            b.position(off);
+            b.get(copy, done, n);
+            done += n;
+        }
+        return ByteBuffer.wrap(copy);
+    }
+
+    private static LuaValue decode(ByteBuffer b) {
+        byte tag = b.get();
+        switch (tag) {
+            case FALSE:
+                return LuaValue.FALSE;
+            case TRUE:
+                return LuaValue.TRUE;
+            case INT:
+                return LuaValue.valueOf(b.getInt());
+            case DOUBLE:
+                return LuaValue.valueOf(Double.longBitsToDouble(b.getLong()));
+            case STRING:
+                byte[] s = new byte[b.getInt()];
+                b.get(s);
+                return LuaString.valueUsing(s);
+            case TABLE:
+                int narray = b.getInt();
+                LuaTable t = new LuaTable(narray, b.getInt());
+                while (b.get(b.position()) != END) {
+                    LuaValue k = decode(b);
+                    t.rawset(k, decode(b));
+                }
+                b.get();
+                return t;
+            default:
+                throw new IllegalStateException("Corrupt mapped file");
+        }
+    }
+
+    private static long indexBytes(int kind, int count, int slots) {
+        long bytes = (count + 1L) * 8;
+        return kind == MAP ? bytes + count * 4L + slots * 4L : bytes;
+    }
+
+    /** A power of two with at most half of the slots used. */
+    private static int slotCount(int count) {
+        return Integer.highestOneBit(Math.max(1, count) * 2 - 1) * 2;
+    }
+
+    /** Spreads hash codes that differ only in their high bits. */
+    private static int mix(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-256
+            throw new AssertionError(e);
+        }
+    }
+
+    /** Walks a source table: array elements, or all pairs for maps. */
+    private static final class Entries {
+
+        private final LuaTable table;
+        private final int kind;
+        private final int length;
+        int index;
+        LuaValue key = LuaValue.NIL;
+        LuaValue value;
+
+        Entries(LuaTable table, int kind) {
+            this.table = table;
+            this.kind = kind;
+            this.length = kind == LIST ? table.length() : 0;
+        }
+
+        static int count(LuaTable t, int kind) {
+            if (kind == LIST) return t.length();
+            Entries e = new Entries(t, kind);
+            int n = 0;
+            while (e.next()) n++;
+            return n;
+        }
+
+        boolean next() {
+            if (kind == LIST) {
+                if (index >= length) return false;
+                index++;
+                key = null;
+                value = table.get(index);
+                return true;
+            }
+            Varargs n = table.next(key);
+            key = n.arg1();
+            if (key.isnil()) return false;
+            index++;
+            value = n.arg(2);
+            return true;
+        }
+    }
+
+    /** Encodes one record at a time into a reused buffer. */
+    private static final class Encoder {
+
+        byte[] buf = new byte[256];
+        int len;
+        // What the record holds that cannot be stored, or null
+        String unstorable;
+
+        void record(Entries e) {
+            len = 0;
+            unstorable = null;
+            if (e.kind == MAP) value(e.key, 0);
+            value(e.value, 0);
+        }
+
+        private void value(LuaValue v, int depth) {
+            switch (v.type()) {
+                case LuaValue.TBOOLEAN:
+                    put(v.toboolean() ? TRUE : FALSE);
+                    break;
+                case LuaValue.TNUMBER:
+                    if (v.isinttype()) {
+                        put(INT);
+                        putInt(v.toint());
+                    } else {
+                        put(DOUBLE);
+                        long bits = Double.doubleToRawLongBits(v.todouble());
+                        putInt((int) (bits >>> 32));
+                        putInt((int) bits);
+                    }
+                    break;
+                case LuaValue.TSTRING:
+                    LuaString s = v.checkstring();
+                    put(STRING);
+                    putInt(s.m_length);
+                    ensure(s.m_length);
+                    System.arraycopy(
+                        s.m_bytes,
+                        s.m_offset,
+                        buf,
+                        len,
+                        s.m_length
+                    );
+                    len += s.m_length;
+                    break;
+                case LuaValue.TTABLE:
+                    // Binding reads through metatables, the file would not
+                    if (v.getmetatable() != null) {
+                        other("a table with a metatable");
+                    } else if (depth >= MAX_DEPTH) {
+                        other("tables nested deeper than " + MAX_DEPTH);
+                    } else {
+                        table(v.checktable(), depth);
+                    }
+                    break;
+                default:
+                    other("a " + v.typename());
+            }
+        }
+
+        private void other(String what) {
+            put(OTHER);
+            if (unstorable == null) unstorable = what;
+        }
+
+        private void table(LuaTable t, int depth) {
+            int narray = t.rawlen();
+            int pairs = 0;
+            LuaValue k = LuaValue.NIL;
+            while (!(k = t.next(k).arg1()).isnil()) pairs++;
+
+            put(TABLE);
+            putInt(narray);
+            putInt(Math.max(0, pairs - narray));
+            k = LuaValue.NIL;
+            while (true) {
+                Varargs n = t.next(k);
+                k = n.arg1();
+                if (k.isnil()) break;
+                value(k, depth + 1);
+                value(n.arg(2), depth + 1);
+            }
+            put(END);
+        }
+
+        private void put(byte b) {
+            ensure(1);
+            buf[len++] = b;
+        }
+
+        private void putInt(int v) {
+            ensure(4);
+            buf[len++] = (byte) (v >>> 24);
+            buf[len++] = (byte) (v >>> 16);
+            buf[len++] = (byte) (v >>> 8);
+            buf[len++] = (byte) v;
+        }
+
+        private void ensure(int n) {
+            if (len + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+            }
+        }
+    }
+}
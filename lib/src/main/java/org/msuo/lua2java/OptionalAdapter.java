@@ -1,15 +1,20 @@
 package org.msuo.lua2java;
 
 import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.Optional;
 import org.luaj.vm2.LuaValue;
 
 final class OptionalAdapter implements TypeAdapter {
 
-    private final ParameterizedType pt;
+    private final Type innerType;
+    private final TypeAdapter inner;
 
     OptionalAdapter(ParameterizedType pt) {
-        this.pt = pt;
+        this.innerType = pt.getActualTypeArguments()[0];
+        this.inner = TypeUtils.isConcrete(innerType)
+            ? LuaDeserializer.adapterFor(innerType)
+            : null;
     }
 
     @Override
@@ -27,21 +32,83 @@ final class OptionalAdapter implements TypeAdapter {
         // Provided key with nil-like value => Optional.empty()
         if (luaValue.isnil()) return ReadResult.ok(Optional.empty());
 
-        Class<?> inner = TypeUtils.requireConcreteClassArg(
-            pt.getActualTypeArguments()[0],
-            path,
-            Errors.optionalInnerMustBeConcrete(pt.getActualTypeArguments()[0]),
-            errors
-        );
-        if (inner == null) return ReadResult.ok(Optional.empty());
+        if (inner == null) {
+            errors.add(
+                path,
+                ConfigErrorCode.OPTIONAL_INNER_NOT_CONCRETE,
+                innerType
+            );
+            return ReadResult.ok(Optional.empty());
+        }
+
+        ReadResult innerRes = inner.read(path, luaValue, errors);
+        if (!innerRes.ok) return ReadResult.fail();
+        return ReadResult.ok(Optional.of(innerRes.value));
+    }
 
-        ReadResult innerRes = LuaDeserializer.readValue(
+    @Override
+    public ReadResult update(
+        Path path,
+        LuaValue luaValue,
+        Object current,
+        FieldChanges changes,
+        ErrorCollector errors
+    ) {
+        Object prev = current instanceof Optional<?>
+            ? ((Optional<?>) current).orElse(null)
+            : null;
+        if (luaValue.isnil() || inner == null || prev == null) {
+            return TypeAdapter.super.update(
+                path,
+                luaValue,
+                current,
+                changes,
+                errors
+            );
+        }
+        ReadResult innerRes = inner.update(
             path,
-            inner,
             luaValue,
+            prev,
+            changes,
             errors
         );
         if (!innerRes.ok) return ReadResult.fail();
-        return ReadResult.ok(Optional.of(innerRes.value));
+        return ReadResult.ok(
+            innerRes.value == prev ? current : Optional.of(innerRes.value)
+        );
+    }
+
+    @Override
+    public ReadResult overlay(
+        Path path,
+        LuaValue luaValue,
+        Object base,
+        ErrorCollector errors
+    ) {
+        Object prev = base instanceof Optional<?>
+            ? ((Optional<?>) base).orElse(null)
+            : null;
+        if (luaValue.isnil() || inner == null || prev == null) {
+            return TypeAdapter.super.overlay(path, luaValue, base, errors);
+        }
+        ReadResult innerRes = inner.overlay(path, luaValue, prev, errors);
+        if (!innerRes.ok) return ReadResult.fail();
+        return ReadResult.ok(
+            innerRes.value == prev ? base : Optional.of(innerRes.value)
+        );
+    }
+
+    @Override
+    public void validate(Path path, SchemaValidator validator) {
+        if (inner == null) {
+            validator.error(
+                path,
+                ConfigErrorCode.OPTIONAL_INNER_NOT_CONCRETE,
+                innerType
+            );
+            return;
+        }
+        inner.validate(path, validator);
     }
 }
@@ -0,0 +1,118 @@
+package org.msuo.lua2java;
+
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/** Lists the classes of one package from directories and jars. */
+final class PackageScanner {
+
+    private PackageScanner() {}
+
+    /**
+     * Top-level and member classes directly in {@code packageName}
+     * (subpackages excluded), sorted by name. Classes are not initialized.
+     */
+    static List<Class<?>> scan(String packageName, ClassLoader loader)
+        throws IOException {
+        String dir = packageName.replace('.', '/');
+        TreeSet<String> names = new TreeSet<>();
+
+        Enumeration<URL> urls = loader.getResources(dir);
+        while (urls.hasMoreElements()) {
+            URL url = urls.nextElement();
+            if ("file".equals(url.getProtocol())) {
+                scanDirectory(url, packageName, names);
+            } else {
+                URLConnection c = url.openConnection();
+                if (c instanceof JarURLConnection) {
+                    scanJar((JarURLConnection) c, dir, packageName, names);
+                }
+            }
+        }
+
+        List<Class<?>> out = new ArrayList<>(names.size());
+        for (String name : names) {
+            try {
+                out.add(Class.forName(name, false, loader));
+            } catch (ClassNotFoundException | LinkageError e) {
+                // Unloadable (e.g. missing optional dependency): not a config
+            }
+        }
+        return out;
+    }
+
+    private static void scanDirectory(
+        URL url,
+        String packageName,
+        TreeSet<String> names
+    ) throws IOException {
+        java.nio.file.Path dir;
+        try {
+            dir = java.nio.file.Paths.get(url.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        try (Stream<java.nio.file.Path> files = Files.list(dir)) {
+            files.forEach(f ->
+                addClass(packageName, f.getFileName().toString(), names)
+            );
+        }
+    }
+
+    private static void scanJar(
+        JarURLConnection c,
+        String dir,
+        String packageName,
+        TreeSet<String> names
+    ) throws IOException {
+        c.setUseCaches(false);
+        try (JarFile jar = c.getJarFile()) {
+            Enumeration<JarEntry> entries = jar.entries();
+            String prefix = dir + "/";
+            while (entries.hasMoreElements()) {
+                String entry = entries.nextElement().getName();
+                if (!entry.startsWith(prefix)) continue;
+                String file = entry.substring(prefix.length());
+                if (file.indexOf('/') >= 0) continue;
+                addClass(packageName, file, names);
+            }
+        }
+    }
+
+    private static void addClass(
+        String packageName,
+        String file,
+        TreeSet<String> names
+    ) {
+        if (!file.endsWith(".class")) return;
+        String simple = file.substring(0, file.length() - ".class".length());
+        if (simple.equals("package-info") || simple.equals("module-info")) {
+            return;
+        }
+        // Anonymous and local classes ($1, $1Local) cannot be config types
+        int dollar = simple.indexOf('$');
+        while (dollar >= 0) {
+            if (
+                dollar + 1 < simple.length() &&
+                Character.isDigit(simple.charAt(dollar + 1))
+            ) {
+                return;
+            }
+            dollar = simple.indexOf('$', dollar + 1);
+        }
+        names.add(
+            packageName.isEmpty() ? simple : packageName + "." + simple
+        );
+    }
+}
@@ -1,35 +1,91 @@
 package org.msuo.lua2java;
 
+/**
+ * Location inside the config, e.g. {@code $.db.port}, {@code $.tags[1]}.
+ * Paths are linked segments and are only rendered to text when an error is
+ * reported, so binding a valid config never concatenates path strings.
+ */
 final class Path {
 
-    private final String value;
+    private static final byte ROOT = 0;
+    private static final byte FIELD = 1;
+    private static final byte INDEX = 2;
+    private static final byte MAP_KEY = 3;
+    private static final byte RAW_KEY = 4;
 
-    private Path(String value) {
-        this.value = value;
+    private static final Path ROOT_PATH = new Path(null, ROOT, null, 0);
+
+    private final Path parent;
+    private final byte kind;
+    private final Object segment;
+    private final int index;
+
+    private Path(Path parent, byte kind, Object segment, int index) {
+        this.parent = parent;
+        this.kind = kind;
+        this.segment = segment;
+        this.index = index;
     }
 
     static Path root() {
-        return new Path("$");
+        return ROOT_PATH;
     }
 
     Path field(String name) {
-        return new Path(value + "." + name);
+        return new Path(this, FIELD, name, 0);
     }
 
     Path index(int i) {
-        return new Path(value + "[" + i + "]");
+        return new Path(this, INDEX, null, i);
     }
 
     Path mapKey(Object key) {
-        return new Path(value + "[" + String.valueOf(key) + "]");
+        return new Path(this, MAP_KEY, key, 0);
     }
 
     Path rawKey(Object rawKey) {
-        return new Path(value + "{" + String.valueOf(rawKey) + "}");
+        return new Path(this, RAW_KEY, rawKey, 0);
     }
 
     @Override
     public String toString() {
-        return value;
+        StringBuilder sb = new StringBuilder();
+        appendTo(sb, false);
+        return sb.toString();
+    }
+
+    /**
+     * This path with every list index and map key replaced by a wildcard,
+     * e.g. {@code $.routes[*].port}. Used to group repeated errors.
+     */
+    String pattern() {
+        StringBuilder sb = new StringBuilder();
+        appendTo(sb, true);
+        return sb.toString();
+    }
+
+    private void appendTo(StringBuilder sb, boolean wildcards) {
+        if (parent != null) parent.appendTo(sb, wildcards);
+        if (wildcards && kind > FIELD) {
+            sb.append(kind == RAW_KEY ? "{*}" : "[*]");
+            return;
+        }
+        switch (kind) {
+            case ROOT:
+                sb.append('$');
+                break;
+            case FIELD:
+                sb.append('.').append(segment);
+                break;
+            case INDEX:
+                sb.append('[').append(index).append(']');
+                break;
+            case MAP_KEY:
+                sb.append('[').append(String.valueOf(segment)).append(']');
+                break;
+            default:
+                sb.append('{').append(String.valueOf(segment)).append('}');
+                break;
+        }
     }
 }
@@ -0,0 +1,145 @@
+package org.msuo.lua2java;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+
+/**
+ * Binds a base type with registered {@link Subtypes}: the discriminator
+ * value picks the subtype's own adapter with one hash lookup on the raw
+ * {@link LuaString}, without decoding it.
+ */
+final class PolymorphicAdapter implements TypeAdapter {
+
+    private final Subtypes subtypes;
+    private final LuaString key;
+    private final Map<LuaString, Choice> choices = new HashMap<>();
+
+    PolymorphicAdapter(Subtypes subtypes) {
+        this.subtypes = subtypes;
+        this.key = LuaString.valueOf(subtypes.discriminator);
+        for (Map.Entry<String, Class<?>> e : subtypes.classes.entrySet()) {
+            Class<?> cls = e.getValue();
+            choices.put(
+                LuaString.valueOf(e.getKey()),
+                new Choice(cls, LuaDeserializer.adapterFor(cls))
+            );
+        }
+    }
+
+    @Override
+    public ReadResult read(
+        Path path,
+        LuaValue luaValue,
+        ErrorCollector errors
+    ) {
+        LuaTable t = LuaCoerce.requireTable(
+            path,
+            luaValue,
+            errors,
+            ConfigErrorCode.SUBTYPE_EXPECTED_TABLE,
+            subtypes.base
+        );
+        if (t == null) return ReadResult.fail();
+
+        Choice c = choose(path, t, errors);
+        if (c == null) return ReadResult.fail();
+        return c.adapter.read(path, t, errors);
+    }
+
+    @Override
+    public ReadResult update(
+        Path path,
+        LuaValue luaValue,
+        Object current,
+        FieldChanges changes,
+        ErrorCollector errors
+    ) {
+        if (!luaValue.istable()) return read(path, luaValue, errors);
+
+        LuaTable t = luaValue.checktable();
+        Choice c = choose(path, t, errors);
+        if (c == null) return ReadResult.fail();
+        // A changed discriminator builds the new subtype from scratch
+        if (current == null || current.getClass() != c.cls) {
+            return c.adapter.read(path, t, errors);
+        }
+        return c.adapter.update(path, t, current, changes, errors);
+    }
+
+    /** Without a discriminator the override keeps the base's subtype. */
+    @Override
+    public ReadResult overlay(
+        Path path,
+        LuaValue luaValue,
+        Object base,
+        ErrorCollector errors
+    ) {
+        if (!luaValue.istable() || base == null) {
+            return TypeAdapter.super.overlay(path, luaValue, base, errors);
+        }
+
+        LuaTable t = luaValue.checktable();
+        Choice c;
+        if (t.get(key).isnil()) {
+            c = choiceFor(base.getClass());
+            // Reported like any table without a discriminator
+            if (c == null) return read(path, t, errors);
+        } else {
+            c = choose(path, t, errors);
+            if (c == null) return ReadResult.fail();
+        }
+        if (base.getClass() != c.cls) return c.adapter.read(path, t, errors);
+        return c.adapter.overlay(path, t, base, errors);
+    }
+
+    private Choice choiceFor(Class<?> cls) {
+        for (Choice c : choices.values()) {
+            if (c.cls == cls) return c;
+        }
+        return null;
+    }
+
+    private Choice choose(Path path, LuaTable t, ErrorCollector errors) {
+        LuaValue tag = t.get(key);
+        if (tag.isnil()) {
+            errors.add(
+                path.field(subtypes.discriminator),
+                ConfigErrorCode.SUBTYPE_DISCRIMINATOR_MISSING,
+                subtypes.base
+            );
+            return null;
+        }
+        Choice c = tag.type() == LuaValue.TSTRING
+            ? choices.get(tag.checkstring())
+            : null;
+        if (c == null) {
+            errors.add(
+                path.field(subtypes.discriminator),
+                ConfigErrorCode.SUBTYPE_UNKNOWN,
+                subtypes.base,
+                tag,
+                subtypes.classes.keySet()
+            );
+        }
+        return c;
+    }
+
+    @Override
+    public void validate(Path path, SchemaValidator validator) {
+        for (Choice c : choices.values()) c.adapter.validate(path, validator);
+    }
+
+    private static final class Choice {
+
+        final Class<?> cls;
+        final TypeAdapter adapter;
+
+        Choice(Class<?> cls, TypeAdapter adapter) {
+            this.cls = cls;
+            this.adapter = adapter;
+        }
+    }
+}
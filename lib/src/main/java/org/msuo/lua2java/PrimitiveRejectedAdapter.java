@@ -16,7 +16,16 @@ final class PrimitiveRejectedAdapter implements TypeAdapter {
         LuaValue luaValue,
         ErrorCollector errors
     ) {
-        errors.add(path, Errors.primitiveNotSupported(primitive));
+        errors.add(path, ConfigErrorCode.PRIMITIVE_NOT_SUPPORTED, primitive);
         return ReadResult.fail();
     }
+
+    @Override
+    public void validate(Path path, SchemaValidator validator) {
+        validator.error(
+            path,
+            ConfigErrorCode.PRIMITIVE_NOT_SUPPORTED,
+            primitive
+        );
+    }
 }
@@ -0,0 +1,211 @@
+package org.msuo.lua2java;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+/**
+ * A view of a table shared between script runs that refuses writes. Reads
+ * go through to the table, metamethods included, and tables read through a
+ * view are views themselves, so the whole graph is protected. Unlike a
+ * proxy with an {@code __index} metamethod it iterates: {@code pairs},
+ * {@code ipairs}, {@code #} and binding see the table's contents.
+ *
+ * <p>Views of one graph share a cache, so each table has one view and
+ * views compare equal whenever their tables do. Thread-safe as long as
+ * nothing writes the underlying tables.
+ */
+final class ReadOnlyTable extends LuaTable {
+
+    private final LuaTable table;
+    private final ConcurrentMap<LuaValue, ReadOnlyTable> views;
+
+    private ReadOnlyTable(
+        LuaTable table,
+        ConcurrentMap<LuaValue, ReadOnlyTable> views
+    ) {
+        this.table = table;
+        this.views = views;
+    }
+
+    /** A new cache of views, for {@link #view}. */
+    static ConcurrentMap<LuaValue, ReadOnlyTable> cache() {
+        return new ConcurrentHashMap<>();
+    }
+
+    /** {@code v} itself unless it is a table, which gets its view. */
+    static LuaValue view(
+        LuaValue v,
+        ConcurrentMap<LuaValue, ReadOnlyTable> views
+    ) {
+        if (!(v instanceof LuaTable) || v instanceof ReadOnlyTable) return v;
+        ReadOnlyTable view = views.get(v);
+        if (view != null) return view;
+        return views.computeIfAbsent(
+            v,
+            t -> new ReadOnlyTable((LuaTable) t, views)
+        );
+    }
+
+    /** The error for writing {@code key} of a shared table. */
+    static LuaError modified(LuaValue key) {
+        return new LuaError(
+            "attempt to modify a shared table (key '" + key + "')"
+        );
+    }
+
+    private LuaValue view(LuaValue v) {
+        return view(v, views);
+    }
+
+    private static LuaValue unwrap(LuaValue key) {
+        return key instanceof ReadOnlyTable
+            ? ((ReadOnlyTable) key).table
+            : key;
+    }
+
+    @Override
+    public LuaValue get(int key) {
+        return view(table.get(key));
+    }
+
+    @Override
+    public LuaValue get(LuaValue key) {
+        return view(table.get(unwrap(key)));
+    }
+
+    @Override
+    public LuaValue rawget(int key) {
+        return view(table.rawget(key));
+    }
+
+    @Override
+    public LuaValue rawget(LuaValue key) {
+        return view(table.rawget(unwrap(key)));
+    }
+
+    @Override
+    public Varargs next(LuaValue key) {
+        Varargs n = table.next(unwrap(key));
+        if (n.arg1().isnil()) return NIL;
+        return varargsOf(view(n.arg1()), view(n.arg(2)));
+    }
+
+    @Override
+    public Varargs inext(LuaValue key) {
+        Varargs n = table.inext(key);
+        if (n.arg1().isnil()) return NONE;
+        return varargsOf(n.arg1(), view(n.arg(2)));
+    }
+
+    @Override
+    public LuaValue[] keys() {
+        LuaValue[] keys = table.keys();
+        for (int i = 0; i < keys.length; i++) keys[i] = view(keys[i]);
+        return keys;
+    }
+
+    @Override
+    public int keyCount() {
+        return table.keyCount();
+    }
+
+    @Override
+    public int length() {
+        return table.length();
+    }
+
+    @Override
+    public LuaValue len() {
+        return table.len();
+    }
+
+    @Override
+    public int rawlen() {
+        return table.rawlen();
+    }
+
+    @Override
+    public LuaValue concat(LuaString sep, int i, int j) {
+        return table.concat(sep, i, j);
+    }
+
+    @Override
+    public Varargs unpack() {
+        return unpack(1, length());
+    }
+
+    @Override
+    public Varargs unpack(int i) {
+        return unpack(i, length());
+    }
+
+    @Override
+    public Varargs unpack(int i, int j) {
+        if (j < i) return NONE;
+        LuaValue[] values = new LuaValue[j - i + 1];
+        for (int n = i; n <= j; n++) values[n - i] = get(n);
+        return varargsOf(values);
+    }
+
+    @Override
+    public LuaValue getmetatable() {
+        LuaValue mt = table.getmetatable();
+        return mt == null ? null : view(mt);
+    }
+
+    @Override
+    public LuaValue setmetatable(LuaValue metatable) {
+        throw new LuaError("cannot change the metatable of a shared table");
+    }
+
+    @Override
+    public void set(int key, LuaValue value) {
+        throw modified(valueOf(key));
+    }
+
+    @Override
+    public void set(LuaValue key, LuaValue value) {
+        throw modified(key);
+    }
+
+    @Override
+    public void rawset(int key, LuaValue value) {
+        throw modified(valueOf(key));
+    }
+
+    @Override
+    public void rawset(LuaValue key, LuaValue value) {
+        throw modified(key);
+    }
+
+    @Override
+    public void hashset(LuaValue key, LuaValue value) {
+        throw modified(key);
+    }
+
+    @Override
+    public void insert(int pos, LuaValue value) {
+        throw modified(valueOf(pos));
+    }
+
+    @Override
+    public LuaValue remove(int pos) {
+        throw modified(valueOf(pos));
+    }
+
+    @Override
+    public void sort(LuaValue comparator) {
+        throw new LuaError("attempt to modify a shared table");
+    }
+
+    @Override
+    public void presize(int narray) {}
+
+    @Override
+    public void presize(int narray, int nhash) {}
+}
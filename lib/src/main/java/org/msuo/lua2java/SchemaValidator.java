@@ -0,0 +1,77 @@
+package org.msuo.lua2java;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Walks the adapter tree of root types ahead of any input, building every
+ * {@link ClassSchema} on the way and collecting what would fail at load
+ * time. Errors are keyed by wildcard paths below the root class name, e.g.
+ * {@code AppConfig.routes[*].port}; a problem in a type several roots
+ * reach is reported under each of them.
+ */
+final class SchemaValidator {
+
+    private final String rootName;
+    private final Set<Type> visited;
+    private final List<ConfigDeserializationException.ConfigError> errors =
+        new ArrayList<>();
+
+    private SchemaValidator(String rootName, Set<Type> visited) {
+        this.rootName = rootName;
+        this.visited = visited;
+    }
+
+    static List<ConfigDeserializationException.ConfigError> validateAll(
+        Collection<? extends Class<?>> roots,
+        boolean parallel
+    ) {
+        // Each root walks its own types, so what a root reports does not
+        // depend on which roots ran before it
+        Stream<? extends Class<?>> s = parallel
+            ? roots.parallelStream()
+            : roots.stream();
+        return s
+            .flatMap(root -> validate(root).stream())
+            .sorted(
+                Comparator.comparing(
+                    ConfigDeserializationException.ConfigError::getPath
+                )
+            )
+            .collect(Collectors.toList());
+    }
+
+    private static List<ConfigDeserializationException.ConfigError> validate(
+        Class<?> root
+    ) {
+        SchemaValidator v = new SchemaValidator(
+            root.getSimpleName(),
+            new HashSet<>()
+        );
+        LuaDeserializer.adapterFor(root).validate(Path.root(), v);
+        return v.errors;
+    }
+
+    /** {@code false} if {@code type} was already validated. */
+    boolean enter(Type type) {
+        return visited.add(type);
+    }
+
+    void error(Path path, ConfigErrorCode code, Object... args) {
+        // pattern() starts with "$"
+        errors.add(
+            new ConfigDeserializationException.ConfigError(
+                rootName + path.pattern().substring(1),
+                code,
+                args
+            )
+        );
+    }
+}
@@ -0,0 +1,142 @@
+package org.msuo.lua2java;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.luaj.vm2.LuaValue;
+
+/**
+ * A parsed path expression selecting a subtree, in the notation errors are
+ * reported in: {@code $.services.billing}, {@code $.routes[2]},
+ * {@code $.limits[eu-west]} or {@code $.limits["a.b"]}. The leading
+ * {@code $} is optional; list indexes are 1-based like Lua's.
+ */
+final class Selector {
+
+    private final String expression;
+    private final List<Object> steps;
+
+    private Selector(String expression, List<Object> steps) {
+        this.expression = expression;
+        this.steps = steps;
+    }
+
+    String expression() {
+        return expression;
+    }
+
+    /** @throws IllegalArgumentException if the expression is malformed */
+    static Selector parse(String expression) {
+        List<Object> steps = new ArrayList<>();
+        String e = expression.trim();
+        if (!e.isEmpty() && !e.startsWith("$")) {
+            // "services.billing" reads as "$.services.billing"
+            e = e.startsWith("[") || e.startsWith(".") ? "$" + e : "$." + e;
+        }
+        int i = 1;
+
+        while (i < e.length()) {
+            char c = e.charAt(i);
+            if (c == '.') {
+                int end = i + 1;
+                while (
+                    end < e.length() &&
+                    e.charAt(end) != '.' &&
+                    e.charAt(end) != '['
+                ) {
+                    end++;
+                }
+                if (end == i + 1) throw malformed(expression);
+                steps.add(new Field(e.substring(i + 1, end)));
+                i = end;
+            } else if (c == '[') {
+                if (
+                    i + 1 < e.length() &&
+                    (e.charAt(i + 1) == '"' || e.charAt(i + 1) == '\'')
+                ) {
+                    char quote = e.charAt(i + 1);
+                    int close = e.indexOf(quote, i + 2);
+                    if (
+                        close < 0 ||
+                        close + 1 >= e.length() ||
+                        e.charAt(close + 1) != ']'
+                    ) {
+                        throw malformed(expression);
+                    }
+                    steps.add(e.substring(i + 2, close));
+                    i = close + 2;
+                    continue;
+                }
+                int end = e.indexOf(']', i);
+                if (end < 0 || end == i + 1) throw malformed(expression);
+                String key = e.substring(i + 1, end);
+                steps.add(isIndex(key) ? (Object) Integer.valueOf(key) : key);
+                i = end + 1;
+            } else {
+                throw malformed(expression);
+            }
+        }
+        return new Selector(expression, steps);
+    }
+
+    /**
+     * The value at this selector below {@code root}, with {@code at[0]} set
+     * to its path. If some step finds no table, reports
+     * {@link ConfigErrorCode#PATH_NOT_FOUND} there and returns {@code null}.
+     */
+    LuaValue select(LuaValue root, Path[] at, ErrorCollector errors) {
+        LuaValue v = root;
+        Path path = Path.root();
+        for (int i = 0; i < steps.size(); i++) {
+            if (!v.istable()) {
+                errors.add(
+                    path,
+                    ConfigErrorCode.PATH_NOT_FOUND,
+                    expression,
+                    v.typename()
+                );
+                return null;
+            }
+            Object step = steps.get(i);
+            if (step instanceof Field) {
+                String name = ((Field) step).name;
+                v = v.get(name);
+                path = path.field(name);
+            } else if (step instanceof Integer) {
+                int index = (Integer) step;
+                v = v.get(index);
+                path = path.index(index);
+            } else {
+                v = v.get((String) step);
+                path = path.mapKey(step);
+            }
+        }
+        if (v.isnil()) {
+            errors.add(path, ConfigErrorCode.PATH_NOT_FOUND, expression, "nil");
+            return null;
+        }
+        at[0] = path;
+        return v;
+    }
+
+    private static boolean isIndex(String key) {
+        if (key.isEmpty() || key.length() > 9) return false;
+        for (int i = 0; i < key.length(); i++) {
+            if (!Character.isDigit(key.charAt(i))) return false;
+        }
+        return key.charAt(0) != '0';
+    }
+
+    private static IllegalArgumentException malformed(String e) {
+        return new IllegalArgumentException("Malformed path expression: " + e);
+    }
+
+    /** {@code .name}, rendered as a field rather than a map key. */
+    private static final class Field {
+
+        final String name;
+
+        Field(String name) {
+            this.name = name;
+        }
+    }
+}
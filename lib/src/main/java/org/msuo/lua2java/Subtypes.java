@@ -0,0 +1,150 @@
+package org.msuo.lua2java;
+
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Registered subtypes of a base type, selected by the string value of a
+ * discriminator key, e.g. {@code type = "http"}.
+ */
+final class Subtypes {
+
+    // Per class, so a registration goes away with the classes it names
+    private static final ClassValue<Entry> ENTRIES = new ClassValue<>() {
+        @Override
+        protected Entry computeValue(Class<?> type) {
+            return new Entry();
+        }
+    };
+
+    private static final class Entry {
+
+        /** The registration with this class as base type. */
+        volatile Subtypes registered;
+        /** The registration this class is a subtype in. */
+        volatile Subtypes containing;
+        /** Looked up by an adapter or serializer, which cache the result. */
+        volatile boolean resolved;
+    }
+
+    final Class<?> base;
+    final String discriminator;
+    /** Discriminator value to subtype, in registration order. */
+    final Map<String, Class<?>> classes;
+
+    private Subtypes(
+        Class<?> base,
+        String discriminator,
+        Map<String, Class<?>> classes
+    ) {
+        this.base = base;
+        this.discriminator = discriminator;
+        this.classes = classes;
+    }
+
+    static void register(
+        Class<?> base,
+        String discriminator,
+        Map<String, ? extends Class<?>> subtypes
+    ) {
+        if (discriminator.isEmpty()) {
+            throw new IllegalArgumentException("Empty discriminator key");
+        }
+        if (subtypes.isEmpty()) {
+            throw new IllegalArgumentException("No subtypes for " + base);
+        }
+        Map<String, Class<?>> classes = new LinkedHashMap<>();
+        for (Map.Entry<String, ? extends Class<?>> e : subtypes.entrySet()) {
+            Class<?> sub = e.getValue();
+            if (
+                sub == base ||
+                !base.isAssignableFrom(sub) ||
+                sub.isInterface() ||
+                Modifier.isAbstract(sub.getModifiers())
+            ) {
+                throw new IllegalArgumentException(
+                    "Not a concrete subtype of " +
+                    base.getName() +
+                    ": " +
+                    sub.getName()
+                );
+            }
+            classes.put(e.getKey(), sub);
+        }
+
+        Subtypes s = new Subtypes(
+            base,
+            discriminator,
+            Collections.unmodifiableMap(classes)
+        );
+        synchronized (ENTRIES) {
+            Entry entry = ENTRIES.get(base);
+            Subtypes prev = entry.registered;
+            if (prev != null) {
+                if (prev.sameAs(s)) return;
+                throw new IllegalStateException(
+                    "Subtypes of " + base.getName() + " are already registered"
+                );
+            }
+            checkUnresolved(base);
+            for (Class<?> sub : classes.values()) checkUnresolved(sub);
+            entry.registered = s;
+            for (Class<?> sub : classes.values()) {
+                Entry e = ENTRIES.get(sub);
+                if (e.containing == null) e.containing = s;
+            }
+        }
+    }
+
+    private static void checkUnresolved(Class<?> cls) {
+        if (ENTRIES.get(cls).resolved) {
+            throw new IllegalStateException(
+                "Register subtypes before the first load involving " +
+                cls.getName() +
+                "; its adapter is built already"
+            );
+        }
+    }
+
+    /**
+     * The registration with {@code base} as base type, or {@code null}.
+     * Registering subtypes of {@code base} fails afterwards.
+     */
+    static Subtypes of(Class<?> base) {
+        return resolve(base).registered;
+    }
+
+    /**
+     * The registration {@code subtype} is part of, or {@code null}.
+     * Registering {@code subtype} fails afterwards.
+     */
+    static Subtypes containing(Class<?> subtype) {
+        return resolve(subtype).containing;
+    }
+
+    private static Entry resolve(Class<?> cls) {
+        Entry entry = ENTRIES.get(cls);
+        if (!entry.resolved) {
+            synchronized (ENTRIES) {
+                entry.resolved = true;
+            }
+        }
+        return entry;
+    }
+
+    /** The discriminator value selecting {@code subtype}. */
+    String nameOf(Class<?> subtype) {
+        for (Map.Entry<String, Class<?>> e : classes.entrySet()) {
+            if (e.getValue() == subtype) return e.getKey();
+        }
+        return null;
+    }
+
+    private boolean sameAs(Subtypes o) {
+        return (
+            discriminator.equals(o.discriminator) && classes.equals(o.classes)
+        );
+    }
+}
@@ -0,0 +1,91 @@
+package org.msuo.lua2java;
+
+import java.util.Arrays;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+
+/**
+ * Builds tables from their constructor's fields the way compiled code
+ * does, so that literal readers produce the tables the VM would, down to
+ * presizing and insertion order, and maps iterate identically. Fields of
+ * nested constructors stack up; {@link #build} takes those from a mark.
+ */
+final class TableBuilder {
+
+    // Lua.LFIELDS_PER_FLUSH: positional items are stored in batches of this
+    private static final int FIELDS_PER_FLUSH = 50;
+
+    // Fields of the constructors being read, innermost last; a null key
+    // marks a positional item
+    private LuaValue[] keys = new LuaValue[64];
+    private LuaValue[] values = new LuaValue[64];
+    private int top;
+
+    /** Where the fields of a constructor about to be read start. */
+    int mark() {
+        return top;
+    }
+
+    /** Adds a field; {@code key} is {@code null} for a positional item. */
+    void push(LuaValue key, LuaValue value) {
+        if (top == keys.length) {
+            keys = Arrays.copyOf(keys, top * 2);
+            values = Arrays.copyOf(values, top * 2);
+        }
+        keys[top] = key;
+        values[top] = value;
+        top++;
+    }
+
+    /**
+     * Replays the fields pushed since {@code base}: record fields are set
+     * in order, positional items are stored in batches once
+     * {@link #FIELDS_PER_FLUSH} are pending and at the end. {@code narray}
+     * and {@code nhash} count the positional and record fields.
+     */
+    LuaTable build(int base, int narray, int nhash) {
+        // NEWTABLE passes the encoded size hints to LuaTable unchanged
+        LuaTable t = new LuaTable(int2fb(narray), int2fb(nhash));
+        int stored = 0;
+        int pending = 0;
+        int pendingFrom = base;
+        for (int i = base; i < top; i++) {
+            boolean full = pending == FIELDS_PER_FLUSH;
+            if (full && keys[i - 1] == null) {
+                stored = flush(t, pendingFrom, i, stored, pending);
+                pending = 0;
+                pendingFrom = i;
+            }
+            if (keys[i] == null) {
+                pending++;
+            } else {
+                t.rawset(keys[i], values[i]);
+            }
+        }
+        if (pending > 0) flush(t, pendingFrom, top, stored, pending);
+
+        Arrays.fill(keys, base, top, null);
+        Arrays.fill(values, base, top, null);
+        top = base;
+        return t;
+    }
+
+    private int flush(LuaTable t, int from, int to, int stored, int count) {
+        t.presize(stored + count);
+        for (int i = from; i < to; i++) {
+            if (keys[i] == null) t.rawset(++stored, values[i]);
+        }
+        return stored;
+    }
+
+    // LexState.luaO_int2fb
+    private static int int2fb(int x) {
+        int e = 0;
+        while (x >= 16) {
+            x = (x + 1) >> 1;
+            e++;
+        }
+        if (x < 8) return x;
+        return ((e + 1) << 3) | (x - 8);
+    }
+}
@@ -1,12 +1,54 @@
 package org.msuo.lua2java;
 
+import java.util.Objects;
 import org.luaj.vm2.LuaValue;
 
 interface TypeAdapter {
     ReadResult read(Path path, LuaValue luaValue, ErrorCollector errors);
 
     default ReadResult missing(Path path, ErrorCollector errors) {
-        errors.add(path, Errors.missingRequiredField());
+        errors.add(path, ConfigErrorCode.MISSING_REQUIRED_FIELD);
         return ReadResult.fail();
     }
+
+    /**
+     * Like {@link #read}, but may keep {@code current}, the value bound
+     * before, when it already holds the value, or update it by planning
+     * writes in {@code changes}. Returns {@code current} itself if so.
+     */
+    default ReadResult update(
+        Path path,
+        LuaValue luaValue,
+        Object current,
+        FieldChanges changes,
+        ErrorCollector errors
+    ) {
+        ReadResult rr = read(path, luaValue, errors);
+        if (rr.ok && Objects.equals(rr.value, current)) {
+            return ReadResult.ok(current);
+        }
+        return rr;
+    }
+
+    /**
+     * Binds {@code luaValue}, a partial config, on top of {@code base}:
+     * what it leaves out keeps the base's value. Returns {@code base}
+     * itself when nothing differs, otherwise a new value that shares every
+     * untouched part of {@code base}, which is never modified.
+     */
+    default ReadResult overlay(
+        Path path,
+        LuaValue luaValue,
+        Object base,
+        ErrorCollector errors
+    ) {
+        ReadResult rr = read(path, luaValue, errors);
+        if (rr.ok && Objects.equals(rr.value, base)) {
+            return ReadResult.ok(base);
+        }
+        return rr;
+    }
+
+    /** Reports problems that show without any input; used by prepare(). */
+    default void validate(Path path, SchemaValidator validator) {}
 }
@@ -0,0 +1,40 @@
+package org.msuo.lua2java;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+/**
+ * Captures a generic root type, which a {@code Class} cannot express:
+ *
+ * <pre>{@code
+ * List<Route> routes = LuaDeserializer.deserialize(
+ *     lua,
+ *     new TypeRef<List<Route>>() {}
+ * );
+ * }</pre>
+ */
+public abstract class TypeRef<T> {
+
+    private final Type type;
+
+    protected TypeRef() {
+        Type sup = getClass().getGenericSuperclass();
+        if (!(sup instanceof ParameterizedType)) {
+            throw new IllegalStateException(
+                "TypeRef needs a type argument, e.g. new TypeRef<List<X>>() {}"
+            );
+        }
+        Type captured = ((ParameterizedType) sup).getActualTypeArguments()[0];
+        this.type = TypeUtils.resolve(captured, Map.of());
+    }
+
+    public final Type getType() {
+        return type;
+    }
+
+    @Override
+    public String toString() {
+        return "TypeRef<" + type.getTypeName() + ">";
+    }
+}
@@ -1,17 +1,234 @@
 package org.msuo.lua2java;
 
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.GenericDeclaration;
+import java.lang.reflect.Member;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 final class TypeUtils {
 
-    static Class<?> requireConcreteClassArg(
-        Type t,
-        Path path,
-        String errorMessage,
-        ErrorCollector errors
-    ) {
+    private TypeUtils() {}
+
+    /**
+     * Whether an adapter can be built for {@code t}: a class or a
+     * parameterized type. Wildcards and type variables left over after
+     * {@link #resolve} are not.
+     */
+    static boolean isConcrete(Type t) {
+        return t instanceof Class<?> || t instanceof ParameterizedType;
+    }
+
+    /** The class behind {@code t}, or {@code Object} if there is none. */
+    static Class<?> rawClass(Type t) {
         if (t instanceof Class<?>) return (Class<?>) t;
-        errors.add(path, errorMessage);
+        if (t instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) t).getRawType();
+        }
+        return Object.class;
+    }
+
+    /**
+     * The class in {@code t} whose class loader can see the classes of all
+     * the others, or {@code null} if their loaders are unrelated. Whatever
+     * is cached for {@code t} can be kept as long as that class is.
+     */
+    static Class<?> anchor(Type t) {
+        List<Class<?>> classes = new ArrayList<>();
+        collectClasses(t, classes);
+        for (Class<?> c : classes) {
+            boolean seesAll = true;
+            for (Class<?> other : classes) {
+                if (!sees(c.getClassLoader(), other.getClassLoader())) {
+                    seesAll = false;
+                    break;
+                }
+            }
+            if (seesAll) return c;
+        }
         return null;
     }
+
+    private static boolean sees(ClassLoader from, ClassLoader of) {
+        if (of == null) return true;
+        for (ClassLoader l = from; l != null; l = l.getParent()) {
+            if (l == of) return true;
+        }
+        return false;
+    }
+
+    private static void collectClasses(Type t, List<Class<?>> out) {
+        if (t instanceof Class<?>) {
+            Class<?> c = (Class<?>) t;
+            while (c.isArray()) c = c.getComponentType();
+            out.add(c);
+        } else if (t instanceof ParameterizedType) {
+            ParameterizedType pt = (ParameterizedType) t;
+            collectClasses(pt.getRawType(), out);
+            if (pt.getOwnerType() != null) {
+                collectClasses(pt.getOwnerType(), out);
+            }
+            for (Type a : pt.getActualTypeArguments()) {
+                collectClasses(a, out);
+            }
+        } else if (t instanceof WildcardType) {
+            WildcardType w = (WildcardType) t;
+            for (Type b : w.getUpperBounds()) collectClasses(b, out);
+            for (Type b : w.getLowerBounds()) collectClasses(b, out);
+        } else if (t instanceof GenericArrayType) {
+            collectClasses(
+                ((GenericArrayType) t).getGenericComponentType(),
+                out
+            );
+        } else if (t instanceof TypeVariable<?>) {
+            // Refers to the class or member declaring it
+            GenericDeclaration d =
+                ((TypeVariable<?>) t).getGenericDeclaration();
+            if (d instanceof Class<?>) {
+                out.add((Class<?>) d);
+            } else if (d instanceof Member) {
+                out.add(((Member) d).getDeclaringClass());
+            }
+        }
+    }
+
+    /**
+     * Type variables of {@code context} (a class or parameterization of one)
+     * and of its superclasses, bound to their arguments.
+     */
+    static Map<TypeVariable<?>, Type> bindings(Type context) {
+        Map<TypeVariable<?>, Type> out = new HashMap<>();
+        Type t = context;
+        while (t != null) {
+            Class<?> raw;
+            if (t instanceof ParameterizedType) {
+                ParameterizedType pt = (ParameterizedType) t;
+                raw = (Class<?>) pt.getRawType();
+                TypeVariable<?>[] vars = raw.getTypeParameters();
+                Type[] args = pt.getActualTypeArguments();
+                for (int i = 0; i < vars.length; i++) {
+                    out.put(vars[i], resolve(args[i], out));
+                }
+            } else if (t instanceof Class<?>) {
+                raw = (Class<?>) t;
+            } else {
+                break;
+            }
+            t = raw.getGenericSuperclass();
+        }
+        return out;
+    }
+
+    /**
+     * {@code t} with bound type variables substituted, recursively. Upper
+     * bounded wildcards ({@code ? extends X}) become {@code X}; parameterized
+     * results are always {@link ParameterizedTypeImpl}, so equal types are
+     * equal map keys whatever produced them.
+     */
+    static Type resolve(Type t, Map<TypeVariable<?>, Type> bindings) {
+        if (t instanceof Class<?>) return t;
+        if (t instanceof TypeVariable<?>) {
+            Type bound = bindings.get(t);
+            return bound != null ? bound : t;
+        }
+        if (t instanceof WildcardType) {
+            WildcardType w = (WildcardType) t;
+            Type[] upper = w.getUpperBounds();
+            if (
+                w.getLowerBounds().length == 0 &&
+                upper.length == 1 &&
+                upper[0] != Object.class
+            ) {
+                return resolve(upper[0], bindings);
+            }
+            return t;
+        }
+        if (t instanceof ParameterizedType) {
+            ParameterizedType pt = (ParameterizedType) t;
+            Type[] args = pt.getActualTypeArguments().clone();
+            for (int i = 0; i < args.length; i++) {
+                args[i] = resolve(args[i], bindings);
+            }
+            Type owner = pt.getOwnerType();
+            return new ParameterizedTypeImpl(
+                owner == null ? null : resolve(owner, bindings),
+                (Class<?>) pt.getRawType(),
+                args
+            );
+        }
+        // Generic arrays are not supported; left as they are
+        return t;
+    }
+
+    /**
+     * Equal to (and hashing like) the JDK's own implementation, so either can
+     * be used to look up the other.
+     */
+    static final class ParameterizedTypeImpl implements ParameterizedType {
+
+        private final Type owner;
+        private final Class<?> raw;
+        private final Type[] args;
+
+        ParameterizedTypeImpl(Type owner, Class<?> raw, Type[] args) {
+            this.owner = owner;
+            this.raw = raw;
+            this.args = args;
+        }
+
+        @Override
+        public Type[] getActualTypeArguments() {
+            return args.clone();
+        }
+
+        @Override
+        public Type getRawType() {
+            return raw;
+        }
+
+        @Override
+        public Type getOwnerType() {
+            return owner;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ParameterizedType)) return false;
+            ParameterizedType that = (ParameterizedType) o;
+            return (
+                raw.equals(that.getRawType()) &&
+                Objects.equals(owner, that.getOwnerType()) &&
+                Arrays.equals(args, that.getActualTypeArguments())
+            );
+        }
+
+        @Override
+        public int hashCode() {
+            return (
+                Arrays.hashCode(args) ^
+                Objects.hashCode(owner) ^
+                raw.hashCode()
+            );
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(raw.getName());
+            sb.append('<');
+            for (int i = 0; i < args.length; i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(args[i].getTypeName());
+            }
+            return sb.append('>').toString();
+        }
+    }
 }
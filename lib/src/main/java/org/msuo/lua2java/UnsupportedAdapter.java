@@ -4,10 +4,12 @@ import org.luaj.vm2.LuaValue;
 
 final class UnsupportedAdapter implements TypeAdapter {
 
-    private final String message;
+    private final ConfigErrorCode code;
+    private final Object type;
 
-    UnsupportedAdapter(String message) {
-        this.message = message;
+    UnsupportedAdapter(ConfigErrorCode code, Object type) {
+        this.code = code;
+        this.type = type;
     }
 
     @Override
@@ -16,7 +18,12 @@ final class UnsupportedAdapter implements TypeAdapter {
         LuaValue luaValue,
         ErrorCollector errors
     ) {
-        errors.add(path, message);
+        errors.add(path, code, type);
         return ReadResult.fail();
     }
+
+    @Override
+    public void validate(Path path, SchemaValidator validator) {
+        validator.error(path, code, type);
+    }
 }
@@ -0,0 +1,214 @@
+package org.msuo.lua2java;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+
+/**
+ * Backs a view proxy: each getter reads its key from the Lua table, binds it
+ * on first call and memoizes the result. A missing key falls back to the
+ * getter's default method if it has one.
+ */
+final class ViewHandler implements InvocationHandler {
+
+    private static final ClassValue<Schema> SCHEMAS = new ClassValue<>() {
+        @Override
+        protected Schema computeValue(Class<?> type) {
+            return new Schema(type);
+        }
+    };
+
+    private final Class<?> iface;
+    private final LuaTable table;
+    private final Path path;
+    private final DeserializationOptions options;
+    private final Map<Method, Object> values = new ConcurrentHashMap<>();
+
+    private CompletableFuture<Void> validation;
+
+    private ViewHandler(
+        Class<?> iface,
+        LuaTable table,
+        Path path,
+        DeserializationOptions options
+    ) {
+        this.iface = iface;
+        this.table = table;
+        this.path = path;
+        this.options = options;
+    }
+
+    static Object create(
+        Class<?> iface,
+        LuaTable table,
+        Path path,
+        DeserializationOptions options
+    ) {
+        ViewHandler h = new ViewHandler(iface, table, path, options);
+        Object proxy = Proxy.newProxyInstance(
+            iface.getClassLoader(),
+            new Class<?>[] { iface, ConfigView.class },
+            h
+        );
+        if (
+            path == Path.root() &&
+            options.getViewValidation() == ViewValidation.BACKGROUND
+        ) {
+            h.validation();
+        }
+        return proxy;
+    }
+
+    static Schema schema(Class<?> iface) {
+        return SCHEMAS.get(iface);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+        Class<?> declaring = method.getDeclaringClass();
+        if (declaring == Object.class) return objectMethod(proxy, method, args);
+        if (declaring == ConfigView.class) {
+            if (method.getName().equals("validate")) {
+                validate();
+                return null;
+            }
+            return validation();
+        }
+
+        String key = schema(iface).keys.get(method);
+        if (key == null) {
+            throw new UnsupportedOperationException(
+                "Not a config getter: " + method
+            );
+        }
+
+        Object v = values.get(method);
+        if (v == null) {
+            Object bound = bindProperty(proxy, method, key);
+            Object prev = values.putIfAbsent(
+                method,
+                bound == null ? LazyValues.NULL : bound
+            );
+            v = prev != null ? prev : bound;
+        }
+        return v == LazyValues.NULL ? null : v;
+    }
+
+    private Object bindProperty(Object proxy, Method method, String key)
+        throws Throwable {
+        LuaValue v = table.get(key);
+        if (v.isnil() && method.isDefault()) {
+            return MethodHandles
+                .privateLookupIn(iface, MethodHandles.lookup())
+                .unreflectSpecial(method, iface)
+                .bindTo(proxy)
+                .invokeWithArguments();
+        }
+        return LazyValues.bind(
+            path.field(key),
+            method.getGenericReturnType(),
+            v,
+            options
+        );
+    }
+
+    private void validate() {
+        ErrorCollector errors = new ErrorCollector(options, null, iface);
+        try {
+            LazyValues.validate(path, iface, table, options, errors);
+        } catch (ErrorCollector.BindingStopped stopped) {
+            // Reported below
+        }
+        if (errors.hasErrors()) {
+            throw new ConfigDeserializationException(
+                errors.asList(),
+                errors.omitted(),
+                errors.stopped()
+            );
+        }
+    }
+
+    private synchronized CompletableFuture<Void> validation() {
+        if (validation == null) {
+            validation = AsyncLoad.submit(
+                () -> {
+                    validate();
+                    return null;
+                },
+                AsyncLoad.defaultExecutor()
+            );
+        }
+        return validation;
+    }
+
+    private Object objectMethod(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return iface.getSimpleName() + "View(" + path + ")";
+        }
+    }
+
+    /** Getters of a view interface and the Lua key each one reads. */
+    static final class Schema {
+
+        final List<Method> getters;
+        final Map<Method, String> keys;
+
+        Schema(Class<?> iface) {
+            List<Method> gs = new ArrayList<>();
+            Map<Method, String> ks = new HashMap<>();
+            for (Method m : iface.getMethods()) {
+                if (Modifier.isStatic(m.getModifiers())) continue;
+                if (m.getParameterCount() != 0) continue;
+                if (m.getReturnType() == void.class) continue;
+                if (m.getDeclaringClass() == ConfigView.class) continue;
+                gs.add(m);
+                ks.put(m, propertyName(m));
+            }
+            gs.sort((a, b) -> a.getName().compareTo(b.getName()));
+            this.getters = Collections.unmodifiableList(gs);
+            this.keys = ks;
+        }
+
+        /** {@code getPort()} reads {@code port}, {@code isOn()} {@code on}. */
+        private static String propertyName(Method m) {
+            String n = m.getName();
+            Class<?> r = m.getReturnType();
+            if (n.length() > 3 && n.startsWith("get")) {
+                return decapitalize(n.substring(3));
+            }
+            if (
+                n.length() > 2 &&
+                n.startsWith("is") &&
+                (r == boolean.class || r == Boolean.class)
+            ) {
+                return decapitalize(n.substring(2));
+            }
+            return n;
+        }
+
+        private static String decapitalize(String s) {
+            // As java.beans does: "URL" stays "URL"
+            if (s.length() > 1 && Character.isUpperCase(s.charAt(1))) {
+                return s;
+            }
+            return Character.toLowerCase(s.charAt(0)) + s.substring(1);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package org.msuo.lua2java;
+
+/** When a lazy view is checked as a whole. */
+public enum ViewValidation {
+    /** Only what getters touch, until {@link ConfigView#validate()}. */
+    DEFERRED,
+
+    /** A full pass starts on the async executor when the view is created. */
+    BACKGROUND,
+}
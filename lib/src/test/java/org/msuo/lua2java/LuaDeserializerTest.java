@@ -2,9 +2,36 @@ package org.msuo.lua2java;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Prototype;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.compiler.DumpState;
+import org.luaj.vm2.compiler.LuaC;
+import org.luaj.vm2.lib.jse.JsePlatform;
 
 public class LuaDeserializerTest {
 
@@ -280,7 +307,7 @@ public class LuaDeserializerTest {
         public Map<NonEmptyString, PositiveInteger> limits;
     }
 
-    static final class CfgNestedGenericsBadInMap {
+    static final class CfgNestedGenericsInMap {
 
         public Map<NonEmptyString, List<NonEmptyString>> bad;
     }
@@ -366,6 +393,26 @@ public class LuaDeserializerTest {
         }
     }
 
+    /** Compiles {@code sources} (simple name to source) into a new loader. */
+    private static ClassLoader compile(Map<String, String> sources)
+        throws IOException {
+        java.nio.file.Path dir = Files.createTempDirectory("classes");
+        List<String> args = new ArrayList<>(List.of("-d", dir.toString()));
+        for (Map.Entry<String, String> e : sources.entrySet()) {
+            java.nio.file.Path f = dir.resolve(e.getKey() + ".java");
+            Files.writeString(f, e.getValue());
+            args.add(f.toString());
+        }
+        int rc = javax.tools.ToolProvider
+            .getSystemJavaCompiler()
+            .run(null, null, null, args.toArray(new String[0]));
+        assertEquals(0, rc);
+        return new java.net.URLClassLoader(
+            new java.net.URL[] { dir.toUri().toURL() },
+            LuaDeserializerTest.class.getClassLoader()
+        );
+    }
+
     @Nested
     class LeafParsing {
 
@@ -409,12 +456,14 @@ public class LuaDeserializerTest {
         }
 
         @Test
-        void integerProvidedToDoubleLeaf_isNotAutoCoerced() {
+        void integerProvidedToDoubleLeaf_widensToDouble() {
+            CfgDoubleLeaf cfg = ok("return { x = 2 }", CfgDoubleLeaf.class);
+            assertEquals(Double.valueOf(2.0), cfg.x.value);
             ConfigDeserializationException ex = fails(
-                "return { x = 1 }",
+                "return { x = 'one' }",
                 CfgDoubleLeaf.class
             );
-            assertSingleError(ex, "$.x", "accepting java.lang.Integer");
+            assertSingleError(ex, "$.x", "accepting java.lang.String");
         }
 
         @Test
@@ -687,12 +736,12 @@ public class LuaDeserializerTest {
         }
 
         @Test
-        void nestedGenericsInMap_areRejected() {
+        void nestedGenericsInMap_bindElementErrorsWithFullPath() {
             ConfigDeserializationException ex = fails(
-                "return { bad = { foo = { 'a' } } }",
-                CfgNestedGenericsBadInMap.class
+                "return { bad = { foo = { 'a', '' } } }",
+                CfgNestedGenericsInMap.class
             );
-            assertSingleError(ex, "$.bad", "no nested generics");
+            assertSingleError(ex, "$.bad[foo][2]", "must be non-empty");
         }
     }
 
@@ -709,6 +758,128 @@ public class LuaDeserializerTest {
             assertEquals(2, ex.getErrors().size());
             assertErrorPaths(ex, "$.a", "$.b");
         }
+
+        private String itemsWithEmptyNames(int n) {
+            StringBuilder sb = new StringBuilder("return { items = {");
+            for (int i = 0; i < n; i++) sb.append(" { name = '' },");
+            return sb.append(" } }").toString();
+        }
+
+        @Test
+        void aggregation_groupsIdenticalErrorsUnderWildcardPath() {
+            ConfigDeserializationException ex = assertThrows(
+                ConfigDeserializationException.class,
+                () ->
+                    LuaDeserializer.deserialize(
+                        itemsWithEmptyNames(1000),
+                        CfgListOfComplex.class,
+                        DeserializationOptions.defaults()
+                            .withErrorAggregation(true)
+                    )
+            );
+
+            assertEquals(1, ex.getErrors().size());
+            ConfigDeserializationException.ConfigError e = ex
+                .getErrors()
+                .get(0);
+            assertEquals("$.items[*].name", e.getPath());
+            assertEquals(1000, e.getOccurrences());
+            assertEquals(
+                List.of(
+                    "$.items[1].name",
+                    "$.items[2].name",
+                    "$.items[3].name",
+                    "$.items[4].name",
+                    "$.items[5].name"
+                ),
+                e.getSamplePaths()
+            );
+            assertFalse(ex.isIncomplete());
+        }
+
+        @Test
+        void aggregation_keepsDifferentMessagesApart() {
+            StringBuilder lua = new StringBuilder("return { items = {");
+            lua.append(" { name = true },");
+            for (int i = 0; i < 499; i++) lua.append(" { name = 1.5 },");
+            ConfigDeserializationException ex = assertThrows(
+                ConfigDeserializationException.class,
+                () ->
+                    LuaDeserializer.deserialize(
+                        lua.append(" } }").toString(),
+                        CfgListOfComplex.class,
+                        DeserializationOptions.defaults()
+                            .withErrorAggregation(true)
+                    )
+            );
+
+            assertEquals(2, ex.getErrors().size());
+            ConfigDeserializationException.ConfigError first = ex
+                .getErrors()
+                .get(0);
+            ConfigDeserializationException.ConfigError rest = ex
+                .getErrors()
+                .get(1);
+            assertEquals(first.getCode(), rest.getCode());
+            assertEquals("$.items[*].name", rest.getPath());
+            assertEquals(1, first.getOccurrences());
+            assertEquals(499, rest.getOccurrences());
+            assertNotEquals(first.getMessage(), rest.getMessage());
+        }
+
+        @Test
+        void maxErrors_withoutAggregation_stopsBinding() {
+            ConfigDeserializationException ex = assertThrows(
+                ConfigDeserializationException.class,
+                () ->
+                    LuaDeserializer.deserialize(
+                        itemsWithEmptyNames(50),
+                        CfgListOfComplex.class,
+                        DeserializationOptions.defaults().withMaxErrors(3)
+                    )
+            );
+
+            assertEquals(3, ex.getErrors().size());
+            assertEquals(1, ex.getOmittedErrorCount());
+            assertTrue(ex.isIncomplete());
+        }
+
+        @Test
+        void failFast_stopsAtFirstError() {
+            ConfigDeserializationException ex = assertThrows(
+                ConfigDeserializationException.class,
+                () ->
+                    LuaDeserializer.deserialize(
+                        "return { a = '', b = 0 }",
+                        CfgCollectAllErrors.class,
+                        DeserializationOptions.defaults().withFailFast(true)
+                    )
+            );
+
+            assertEquals(1, ex.getErrors().size());
+            assertTrue(ex.isIncomplete());
+        }
+
+        @Test
+        void errors_exposeStructuredCodeAndArguments() {
+            ConfigDeserializationException ex = fails(
+                "return { tags = 'a,b' }",
+                CfgListOfLeaf.class
+            );
+
+            ConfigDeserializationException.ConfigError e = ex
+                .getErrors()
+                .get(0);
+            assertEquals(ConfigErrorCode.COLLECTION_EXPECTED, e.getCode());
+            assertEquals(List.of(List.class, "string"), e.getArguments());
+            assertEquals(
+                "Expected table/array for List, got: string",
+                e.getMessage()
+            );
+            assertTrue(
+                ex.getMessage().contains("$.tags: Expected table/array")
+            );
+        }
     }
 
     @Nested
@@ -997,4 +1168,3761 @@ public class LuaDeserializerTest {
             assertSingleError(ex, "$.bad", "No no-arg constructor");
         }
     }
+
+    @Nested
+    class Instrumentation {
+
+        final class RecordingListener implements DeserializationListener {
+
+            final List<String> calls = new ArrayList<>();
+            final Map<Class<?>, int[]> classes = new HashMap<>();
+            Boolean success;
+
+            @Override
+            public void onCompile(Class<?> configClass, long nanos) {
+                calls.add("compile");
+            }
+
+            @Override
+            public void onExecute(Class<?> configClass, long nanos) {
+                calls.add("execute");
+            }
+
+            @Override
+            public void onBind(Class<?> configClass, long nanos) {
+                calls.add("bind");
+            }
+
+            @Override
+            public void onClassBound(
+                Class<?> configClass,
+                Class<?> boundClass,
+                int instances,
+                int errors
+            ) {
+                classes.put(boundClass, new int[] { instances, errors });
+            }
+
+            @Override
+            public void onComplete(
+                Class<?> configClass,
+                long nanos,
+                boolean success,
+                List<ConfigDeserializationException.ConfigError> errors
+            ) {
+                calls.add("complete");
+                this.success = success;
+            }
+        }
+
+        @Test
+        void listener_seesPhasesInOrder_andPerClassCounts() {
+            RecordingListener l = new RecordingListener();
+            CfgListOfComplex cfg = LuaDeserializer.deserialize(
+                "return { items = { { name = 'a' }, { name = 'b' } } }",
+                CfgListOfComplex.class,
+                DeserializationOptions.defaults().withListener(l)
+            );
+
+            assertEquals(2, cfg.items.size());
+            assertEquals(
+                List.of("compile", "execute", "bind", "complete"),
+                l.calls
+            );
+            assertEquals(Boolean.TRUE, l.success);
+            assertEquals(1, l.classes.get(CfgListOfComplex.class)[0]);
+            assertEquals(2, l.classes.get(ItemName.class)[0]);
+            assertEquals(0, l.classes.get(ItemName.class)[1]);
+        }
+
+        @Test
+        void listener_attributesErrorsToOwningClass() {
+            RecordingListener l = new RecordingListener();
+            assertThrows(ConfigDeserializationException.class, () ->
+                LuaDeserializer.deserialize(
+                    "return { items = { { name = 'a' }, { name = '' } } }",
+                    CfgListOfComplex.class,
+                    DeserializationOptions.defaults().withListener(l)
+                )
+            );
+
+            assertEquals(Boolean.FALSE, l.success);
+            assertEquals(1, l.classes.get(ItemName.class)[1]);
+            assertEquals(0, l.classes.get(CfgListOfComplex.class)[1]);
+        }
+
+        @Test
+        void failingListener_doesNotBreakDeserialization() {
+            DeserializationListener boom = new DeserializationListener() {
+                @Override
+                public void onBind(Class<?> configClass, long nanos) {
+                    throw new IllegalStateException("boom");
+                }
+            };
+
+            CfgIntLeaf cfg = LuaDeserializer.deserialize(
+                "return { n = 3 }",
+                CfgIntLeaf.class,
+                DeserializationOptions.defaults().withListener(boom)
+            );
+            assertEquals(Integer.valueOf(3), cfg.n.value);
+        }
+    }
+
+    @Nested
+    class ExecutionBudgets {
+
+        private ConfigDeserializationException exceeds(
+            String lua,
+            DeserializationOptions options
+        ) {
+            return assertThrows(ConfigDeserializationException.class, () ->
+                LuaDeserializer.deserialize(lua, CfgIntLeaf.class, options)
+            );
+        }
+
+        @Test
+        void instructionLimit_stopsInfiniteLoop() {
+            ConfigDeserializationException ex = exceeds(
+                "while true do end return { n = 1 }",
+                DeserializationOptions.defaults().withMaxInstructions(100_000)
+            );
+            assertEquals(
+                ConfigErrorCode.INSTRUCTION_LIMIT_EXCEEDED,
+                ex.getErrors().get(0).getCode()
+            );
+            assertEquals("$", ex.getErrors().get(0).getPath());
+        }
+
+        @Test
+        void timeout_stopsInfiniteLoop_evenInsidePcall() {
+            ConfigDeserializationException ex = exceeds(
+                "pcall(function() while true do end end) return { n = 1 }",
+                DeserializationOptions.defaults()
+                    .withTimeout(java.time.Duration.ofMillis(50))
+            );
+            assertEquals(
+                ConfigErrorCode.TIMEOUT_EXCEEDED,
+                ex.getErrors().get(0).getCode()
+            );
+        }
+
+        @Test
+        void metamethodsRunWhileBinding_areUnderTheBudgetToo() {
+            String lua =
+                "return setmetatable({}, " +
+                "{ __index = function() while true do end end })";
+            for (DeserializationOptions options : List.of(
+                DeserializationOptions.defaults().withMaxInstructions(100_000),
+                DeserializationOptions.defaults()
+                    .withTimeout(java.time.Duration.ofMillis(200))
+            )) {
+                ConfigDeserializationException ex = exceeds(lua, options);
+                assertEquals("$", ex.getErrors().get(0).getPath());
+            }
+        }
+
+        @Test
+        void allocationLimit_stopsRunawayTableGrowth() {
+            ConfigDeserializationException ex = exceeds(
+                "local t = {} for i = 1, 1e9 do t[i] = 'x' .. i end " +
+                "return { n = 1 }",
+                DeserializationOptions.defaults()
+                    .withMaxAllocatedBytes(16L * 1024 * 1024)
+            );
+            assertEquals(
+                ConfigErrorCode.ALLOCATION_LIMIT_EXCEEDED,
+                ex.getErrors().get(0).getCode()
+            );
+        }
+
+        @Test
+        void withinBudget_loadsNormally_andDebugLibIsHidden() {
+            CfgIntLeaf cfg = LuaDeserializer.deserialize(
+                "local n = 0 for i = 1, 10 do n = n + 1 end " +
+                "return { n = debug == nil and n or 0 }",
+                CfgIntLeaf.class,
+                DeserializationOptions.defaults().withMaxInstructions(10_000)
+            );
+            assertEquals(Integer.valueOf(10), cfg.n.value);
+        }
+    }
+
+    @Nested
+    class LibraryProfiles {
+
+        private CfgStringLeaf load(String expr, LuaLibraryProfile profile) {
+            return LuaDeserializer.deserialize(
+                "return { name = " + expr + " }",
+                CfgStringLeaf.class,
+                DeserializationOptions.defaults().withLibraryProfile(profile)
+            );
+        }
+
+        @Test
+        void minimal_hasStringTableMath_butNoOsOrIo() {
+            LuaLibraryProfile p = LuaLibraryProfile.MINIMAL;
+            assertEquals("AB", load("('ab'):upper()", p).name.value);
+            assertEquals(
+                "a,b",
+                load("table.concat({'a','b'}, ',')", p).name.value
+            );
+            assertEquals("3", load("tostring(math.max(1, 3))", p).name.value);
+            assertEquals("nil", load("tostring(os) .. ''", p).name.value);
+            assertEquals("nil", load("tostring(io) .. ''", p).name.value);
+        }
+
+        @Test
+        void envOnly_exposesOnlyGetenv() {
+            LuaLibraryProfile p = LuaLibraryProfile.ENV_ONLY;
+            assertEquals("function", load("type(os.getenv)", p).name.value);
+            assertEquals("nil", load("tostring(os.exit)", p).name.value);
+        }
+
+        @Test
+        void minimal_cannotReadFiles() throws Exception {
+            java.nio.file.Path dir = Files.createTempDirectory("lua");
+            Files.writeString(dir.resolve("side.lua"), "return 'side'");
+            String lua =
+                "(function() package.path = '" +
+                dir.toString().replace("\\", "/") +
+                "/?.lua' return require('side') end)()";
+
+            assertEquals("side", load(lua, LuaLibraryProfile.FULL).name.value);
+            LuaLibraryProfile p = LuaLibraryProfile.MINIMAL;
+            assertThrows(LuaError.class, () -> load(lua, p));
+            assertEquals(
+                "nil nil",
+                load("tostring(dofile) .. ' ' .. tostring(loadfile)", p)
+                    .name.value
+            );
+        }
+
+        @Test
+        void globalsMetatable_isProtected() {
+            assertEquals(
+                "false false 3",
+                load(
+                    "tostring(getmetatable(_G)) .. ' ' .. " +
+                    "tostring(pcall(setmetatable, _G, {})) .. ' ' .. " +
+                    "tostring(math.max(1, 3))",
+                    LuaLibraryProfile.MINIMAL
+                ).name.value
+            );
+        }
+
+        @Test
+        void lazyLibraries_areReachableThroughRequire() {
+            assertEquals(
+                "true",
+                load(
+                    "tostring(require('math') == math)",
+                    LuaLibraryProfile.MINIMAL
+                ).name.value
+            );
+            assertEquals(
+                "table",
+                load("type(require('io'))", LuaLibraryProfile.FULL).name.value
+            );
+        }
+    }
+
+    @Nested
+    class Bytecode {
+
+        private byte[] compile(String lua) throws Exception {
+            Prototype p = LuaC.instance.compile(
+                new ByteArrayInputStream(lua.getBytes(StandardCharsets.UTF_8)),
+                "@test.lua"
+            );
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DumpState.dump(p, out, false);
+            return out.toByteArray();
+        }
+
+        @Test
+        void stream_acceptsBytecodeAndSource() throws Exception {
+            byte[] luac = compile("return { name = 'from' .. 'bytes' }");
+            CfgStringLeaf a = LuaDeserializer.deserialize(
+                new ByteArrayInputStream(luac),
+                "test.luac",
+                CfgStringLeaf.class,
+                DeserializationOptions.defaults()
+            );
+            assertEquals("frombytes", a.name.value);
+
+            CfgStringLeaf b = LuaDeserializer.deserialize(
+                new ByteArrayInputStream(
+                    "return { name = 'src' }".getBytes(StandardCharsets.UTF_8)
+                ),
+                "test.lua",
+                CfgStringLeaf.class,
+                DeserializationOptions.defaults()
+            );
+            assertEquals("src", b.name.value);
+        }
+
+        @Test
+        void file_detectsBytecode() throws Exception {
+            java.nio.file.Path f = Files.createTempFile("cfg", ".luac");
+            try {
+                Files.write(f, compile("return { n = 6 * 7 }"));
+                CfgIntLeaf cfg = LuaDeserializer.deserialize(
+                    f,
+                    CfgIntLeaf.class
+                );
+                assertEquals(Integer.valueOf(42), cfg.n.value);
+            } finally {
+                Files.delete(f);
+            }
+        }
+
+        @Test
+        void resource_prefersPrecompiledSibling() throws Exception {
+            // Only the .luac produced by compileTestLua is on the classpath
+            CfgStringLeaf cfg = LuaDeserializer.deserializeResource(
+                "fixtures/precompiled.lua",
+                CfgStringLeaf.class
+            );
+            assertEquals("precompiled", cfg.name.value);
+        }
+
+        @Test
+        void stream_source_keepsChunkName() {
+            LuaError e = assertThrows(LuaError.class, () ->
+                LuaDeserializer.deserialize(
+                    new ByteArrayInputStream(
+                        "\nerror('boom')".getBytes(StandardCharsets.UTF_8)
+                    ),
+                    "cfg/app.lua",
+                    CfgStringLeaf.class,
+                    DeserializationOptions.defaults()
+                )
+            );
+            assertTrue(e.getMessage().contains("app.lua:2"), e.getMessage());
+        }
+
+        @Test
+        void resource_withoutLoader_usesSystemClassLoader()
+            throws Exception {
+            // As for bootstrap classes, which have no loader of their own
+            CfgStringLeaf cfg = LuaDeserializer.deserializeResource(
+                null,
+                "fixtures/precompiled.lua",
+                CfgStringLeaf.class,
+                DeserializationOptions.defaults()
+            );
+            assertEquals("precompiled", cfg.name.value);
+        }
+
+        @Test
+        void resource_missing_throwsFileNotFound() {
+            assertThrows(FileNotFoundException.class, () ->
+                LuaDeserializer.deserializeResource(
+                    "fixtures/missing.lua",
+                    CfgStringLeaf.class
+                )
+            );
+        }
+    }
+
+    @Nested
+    class Async {
+
+        @Test
+        void completesWithBoundConfig() throws Exception {
+            CfgIntLeaf cfg = LuaDeserializer
+                .deserializeAsync("return { n = 5 }", CfgIntLeaf.class)
+                .get(10, TimeUnit.SECONDS);
+            assertEquals(Integer.valueOf(5), cfg.n.value);
+        }
+
+        @Test
+        void bindErrors_failTheFuture() {
+            ExecutionException e = assertThrows(ExecutionException.class, () ->
+                LuaDeserializer
+                    .deserializeAsync("return { n = -1 }", CfgIntLeaf.class)
+                    .get(10, TimeUnit.SECONDS)
+            );
+            assertInstanceOf(
+                ConfigDeserializationException.class,
+                e.getCause()
+            );
+        }
+
+        @Test
+        void cancel_stopsRunningScript() throws Exception {
+            CountDownLatch compiled = new CountDownLatch(1);
+            CompletableFuture<Boolean> outcome = new CompletableFuture<>();
+            // A budget installs the instruction checks that see the interrupt
+            DeserializationOptions options = DeserializationOptions
+                .defaults()
+                .withTimeout(java.time.Duration.ofMinutes(1))
+                .withListener(
+                    new DeserializationListener() {
+                        @Override
+                        public void onCompile(Class<?> c, long nanos) {
+                            compiled.countDown();
+                        }
+
+                        @Override
+                        public void onComplete(
+                            Class<?> c,
+                            long nanos,
+                            boolean success,
+                            List<ConfigDeserializationException.ConfigError> e
+                        ) {
+                            outcome.complete(success);
+                        }
+                    }
+                );
+
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                CompletableFuture<CfgIntLeaf> f =
+                    LuaDeserializer.deserializeAsync(
+                        "while true do end",
+                        CfgIntLeaf.class,
+                        options,
+                        executor
+                    );
+                assertTrue(compiled.await(10, TimeUnit.SECONDS));
+                assertTrue(f.cancel(true));
+
+                assertFalse(outcome.get(10, TimeUnit.SECONDS));
+                // The worker is free again and not left interrupted
+                assertEquals(
+                    Boolean.FALSE,
+                    executor
+                        .submit(() -> Thread.currentThread().isInterrupted())
+                        .get(10, TimeUnit.SECONDS)
+                );
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        @Test
+        void interruptNotSentByCancel_isKept() throws Exception {
+            ExecutorService pool = Executors.newSingleThreadExecutor();
+            CompletableFuture<Boolean> keptInterrupt =
+                new CompletableFuture<>();
+            Executor interrupting = task ->
+                pool.execute(() -> {
+                    Thread.currentThread().interrupt();
+                    task.run();
+                    keptInterrupt.complete(Thread.interrupted());
+                });
+            try {
+                CfgIntLeaf cfg = LuaDeserializer
+                    .deserializeAsync(
+                        "return { n = 1 }",
+                        CfgIntLeaf.class,
+                        DeserializationOptions.defaults(),
+                        interrupting
+                    )
+                    .get(10, TimeUnit.SECONDS);
+
+                assertEquals(Integer.valueOf(1), cfg.n.value);
+                assertTrue(keptInterrupt.get(10, TimeUnit.SECONDS));
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    @Nested
+    class ModuleLoader {
+
+        private java.nio.file.Path dir;
+
+        private void write(String file, String lua) throws Exception {
+            java.nio.file.Path f = dir.resolve(file);
+            Files.createDirectories(f.getParent());
+            Files.writeString(f, lua);
+        }
+
+        private String load(String expr, LuaModuleLoader loader) {
+            return LuaDeserializer.deserialize(
+                "return { name = " + expr + " }",
+                CfgStringLeaf.class,
+                DeserializationOptions.defaults().withModuleLoader(loader)
+            ).name.value;
+        }
+
+        @Test
+        void modulesAreEvaluatedOnce_andReevaluatedWithDependents()
+            throws Exception {
+            dir = Files.createTempDirectory("modules");
+            write("common/regions.lua", "return { name = 'eu' }");
+            write(
+                "app.lua",
+                "local r = require('common.regions') " +
+                "return { name = r.name .. '-app' }"
+            );
+            write("other.lua", "return {}");
+            LuaModuleLoader loader = LuaModuleLoader.forDirectory(dir);
+
+            assertEquals("eu-app", load("require('app').name", loader));
+            String other = load("tostring(require('other'))", loader);
+            String app = load("tostring(require('app'))", loader);
+            assertEquals(app, load("tostring(require('app'))", loader));
+            assertEquals(Set.of("common.regions"), loader.dependencies("app"));
+            assertEquals(Set.of("app"), loader.dependents("common.regions"));
+
+            assertEquals(Set.of(), loader.refresh());
+            write("common/regions.lua", "return { name = 'us-east' }");
+            assertEquals(Set.of("app", "common.regions"), loader.refresh());
+
+            assertEquals("us-east-app", load("require('app').name", loader));
+            assertNotEquals(app, load("tostring(require('app'))", loader));
+            assertEquals(other, load("tostring(require('other'))", loader));
+        }
+
+        @Test
+        void moduleValues_areReadOnly_butIterateAndBind() throws Exception {
+            dir = Files.createTempDirectory("modules");
+            write(
+                "shared.lua",
+                "return { name = 'eu', list = { 'a', 'b' }, nested = {} }"
+            );
+            LuaModuleLoader loader = LuaModuleLoader.forDirectory(dir);
+
+            for (String write : List.of(
+                "require('shared').name = 'us'",
+                "require('shared').nested.x = 1",
+                "table.insert(require('shared').list, 'c')",
+                "rawset(require('shared'), 'name', 'us')",
+                "setmetatable(require('shared'), {})"
+            )) {
+                LuaError e = assertThrows(
+                    LuaError.class,
+                    () -> load("(function() " + write + " end)()", loader)
+                );
+                assertTrue(e.getMessage().contains("shared table"), write);
+            }
+            assertEquals(
+                "2 a,b true",
+                load(
+                    "(function() local m, n = require('shared'), 0 " +
+                    "for _ in pairs(m) do n = n + 1 end " +
+                    "return #m.list .. ' ' .. table.concat(m.list, ',') " +
+                    ".. ' ' .. tostring(m.nested == m.nested) end)()",
+                    loader
+                )
+            );
+            CfgStringLeaf cfg = LuaDeserializer.deserialize(
+                "return require('shared')",
+                CfgStringLeaf.class,
+                DeserializationOptions.defaults().withModuleLoader(loader)
+            );
+            assertEquals("eu", cfg.name.value);
+        }
+
+        @Test
+        void moduleCode_isChargedToTheCallingConfig() throws Exception {
+            dir = Files.createTempDirectory("modules");
+            write("spin.lua", "return function() while true do end end");
+            LuaModuleLoader loader = LuaModuleLoader.forDirectory(dir);
+            DeserializationOptions options = DeserializationOptions.defaults()
+                .withModuleLoader(loader);
+
+            assertEquals(
+                "function",
+                LuaDeserializer.deserialize(
+                    "return { name = type(require('spin')) }",
+                    CfgStringLeaf.class,
+                    options
+                ).name.value
+            );
+            ConfigDeserializationException e = assertThrows(
+                ConfigDeserializationException.class,
+                () ->
+                    LuaDeserializer.deserialize(
+                        "require('spin')() return { name = 'x' }",
+                        CfgStringLeaf.class,
+                        options.withMaxInstructions(100_000)
+                    )
+            );
+            assertEquals(
+                ConfigErrorCode.INSTRUCTION_LIMIT_EXCEEDED,
+                e.getErrors().get(0).getCode()
+            );
+        }
+
+        @Test
+        void evaluation_doesNotHoldTheLoaderLock() throws Exception {
+            dir = Files.createTempDirectory("modules");
+            write("marker.lua", "return {}");
+            write("slow.lua", "require('marker') while true do end");
+            LuaModuleLoader loader = LuaModuleLoader.forDirectory(dir);
+            CompletableFuture<CfgStringLeaf> slow =
+                CompletableFuture.supplyAsync(() ->
+                    LuaDeserializer.deserialize(
+                        "return require('slow')",
+                        CfgStringLeaf.class,
+                        DeserializationOptions.defaults()
+                            .withModuleLoader(loader)
+                            .withTimeout(java.time.Duration.ofSeconds(3))
+                    )
+                );
+
+            while (!loader.loadedModules().contains("marker")) {
+                Thread.sleep(5);
+            }
+            assertEquals(Set.of("marker"), loader.dependencies("slow"));
+            assertFalse(slow.isDone());
+            ExecutionException e = assertThrows(
+                ExecutionException.class,
+                () -> slow.get(10, TimeUnit.SECONDS)
+            );
+            assertEquals(
+                ConfigErrorCode.TIMEOUT_EXCEEDED,
+                ((ConfigDeserializationException) e.getCause()).getErrors()
+                    .get(0)
+                    .getCode()
+            );
+        }
+
+        @Test
+        void standardLibrariesAndUnknownNames_useRegularRequire()
+            throws Exception {
+            dir = Files.createTempDirectory("modules");
+            LuaModuleLoader loader = LuaModuleLoader.forDirectory(dir);
+
+            assertEquals(
+                "true",
+                load("tostring(require('math') == math)", loader)
+            );
+            LuaError e = assertThrows(
+                LuaError.class,
+                () -> load("require('nope')", loader)
+            );
+            assertTrue(e.getMessage().contains("module 'nope' not found"));
+        }
+    }
+
+    static final class BrokenLeaf {
+
+        public Integer port;
+        public int retries;
+        @SuppressWarnings("rawtypes")
+        public List raw;
+    }
+
+    static final class CfgWithBrokenParts {
+
+        public NonEmptyString name;
+        public List<BrokenLeaf> routes;
+        public Map<NonEmptyString, BrokenLeaf> byName;
+        public Optional<Map<String, ?>> extra;
+    }
+
+    static final class CfgSharingBrokenLeaf {
+
+        public List<BrokenLeaf> legs;
+    }
+
+    @Nested
+    class Prepare {
+
+        @Test
+        void validRoots_prepareCleanly() {
+            assertDoesNotThrow(() ->
+                LuaDeserializer.prepare(
+                    CfgListOfComplex.class,
+                    CfgMapOfComplex.class,
+                    CfgStringLeaf.class
+                )
+            );
+        }
+
+        @Test
+        void reportsAllProblemsOnce_withWildcardPaths() {
+            ConfigDeserializationException e = assertThrows(
+                ConfigDeserializationException.class,
+                () ->
+                    LuaDeserializer.prepare(
+                        List.of(CfgWithBrokenParts.class, CfgStringLeaf.class),
+                        true
+                    )
+            );
+
+            List<String> found = new ArrayList<>();
+            e
+                .getErrors()
+                .forEach(err -> found.add(err.getPath() + " " + err.getCode()));
+            assertEquals(
+                List.of(
+                    "CfgWithBrokenParts.extra MAP_VALUE_NOT_CONCRETE",
+                    "CfgWithBrokenParts.routes[*].raw UNSUPPORTED_TYPE",
+                    "CfgWithBrokenParts.routes[*].retries " +
+                    "PRIMITIVE_NOT_SUPPORTED"
+                ),
+                found
+            );
+        }
+
+        @Test
+        void sharedTypes_areReportedUnderEveryRoot_inParallelToo() {
+            List<String> expected = List.of(
+                "CfgSharingBrokenLeaf.legs[*].raw",
+                "CfgSharingBrokenLeaf.legs[*].retries",
+                "CfgWithBrokenParts.extra",
+                "CfgWithBrokenParts.routes[*].raw",
+                "CfgWithBrokenParts.routes[*].retries"
+            );
+            for (int i = 0; i < 20; i++) {
+                ConfigDeserializationException e = assertThrows(
+                    ConfigDeserializationException.class,
+                    () ->
+                        LuaDeserializer.prepare(
+                            List.of(
+                                CfgWithBrokenParts.class,
+                                CfgSharingBrokenLeaf.class
+                            ),
+                            true
+                        )
+                );
+                List<String> found = new ArrayList<>();
+                e.getErrors().forEach(err -> found.add(err.getPath()));
+                assertEquals(expected, found);
+            }
+        }
+
+        @Test
+        void preparePackage_appliesFilter() throws Exception {
+            List<Class<?>> prepared = LuaDeserializer.preparePackage(
+                "org.msuo.lua2java",
+                c -> c.getSimpleName().startsWith("CfgListOfC"),
+                false
+            );
+            assertEquals(List.of(CfgListOfComplex.class), prepared);
+        }
+    }
+
+    static class Page<T> {
+
+        public List<T> items;
+        public Optional<T> first;
+    }
+
+    static class Box<V> {
+
+        public V value;
+    }
+
+    static final class NameBox extends Box<NonEmptyString> {}
+
+    static final class CfgGenerics {
+
+        public Map<String, List<ItemName>> groups;
+        public List<Set<NonEmptyString>> matrix;
+        public Optional<List<ItemN>> counts;
+        public Page<ItemName> page;
+        public NameBox box;
+        public List<? extends ItemN> bounded;
+    }
+
+    static final class CfgRawGeneric {
+
+        @SuppressWarnings("rawtypes")
+        public Box box;
+    }
+
+    @Nested
+    class Generics {
+
+        @Test
+        void nestedAndClassGenerics_bind() {
+            CfgGenerics cfg = ok(
+                "return {" +
+                "  groups = { a = { { name = 'x' }, { name = 'y' } } }," +
+                "  matrix = { { 'p', 'q' }, { 'r' } }," +
+                "  counts = { { n = 1 }, { n = 2 } }," +
+                "  page = {" +
+                "    items = { { name = 'i' } }," +
+                "    first = { name = 'f' }," +
+                "  }," +
+                "  box = { value = 'boxed' }," +
+                "  bounded = { { n = 3 } }," +
+                "}",
+                CfgGenerics.class
+            );
+
+            assertEquals("y", cfg.groups.get("a").get(1).name.value);
+            assertEquals(2, cfg.matrix.get(0).size());
+            assertEquals(
+                Integer.valueOf(2),
+                cfg.counts.orElseThrow().get(1).n.value
+            );
+            assertEquals("i", cfg.page.items.get(0).name.value);
+            assertEquals("f", cfg.page.first.orElseThrow().name.value);
+            assertEquals("boxed", cfg.box.value.value);
+            assertEquals(Integer.valueOf(3), cfg.bounded.get(0).n.value);
+        }
+
+        @Test
+        void typeRefRoot_bindsAndSharesCachedAdapter() throws Exception {
+            TypeRef<Map<String, List<ItemName>>> ref =
+                new TypeRef<Map<String, List<ItemName>>>() {};
+            Map<String, List<ItemName>> m = LuaDeserializer.deserialize(
+                "return { a = { { name = 'x' } } }",
+                ref
+            );
+            assertEquals("x", m.get("a").get(0).name.value);
+
+            java.lang.reflect.Type declared = CfgGenerics.class
+                .getField("groups")
+                .getGenericType();
+            assertSame(
+                LuaDeserializer.adapterFor(ref.getType()),
+                LuaDeserializer.adapterFor(declared)
+            );
+        }
+
+        @Test
+        void genericAdapters_doNotPinClassLoaders() throws Exception {
+            ClassLoader loader = compile(
+                Map.of(
+                    "Item",
+                    "package plug; public class Item { public String name; }",
+                    "Cfg",
+                    "package plug; public class Cfg {\n" +
+                    "  public java.util.List<Item> items;\n" +
+                    "  public java.util.Map<String, Item> byName;\n" +
+                    "}"
+                )
+            );
+            LuaDeserializer.deserialize(
+                "return { items = { { name = 'a' } }, byName = {} }",
+                loader.loadClass("plug.Cfg")
+            );
+            java.lang.ref.WeakReference<ClassLoader> ref =
+                new java.lang.ref.WeakReference<>(loader);
+            loader = null;
+
+            for (int i = 0; i < 50 && ref.get() != null; i++) {
+                System.gc();
+                Thread.sleep(20);
+            }
+            assertNull(ref.get());
+        }
+
+        @Test
+        void unboundTypeVariable_isReported() {
+            ConfigDeserializationException ex = fails(
+                "return { box = { value = 'v' } }",
+                CfgRawGeneric.class
+            );
+            assertSingleError(ex, "$.box.value", "Unsupported Type: V");
+        }
+    }
+
+    @Nested
+    class Projection {
+
+        private static final String DOC =
+            "return {" +
+            "  services = {" +
+            "    billing = { name = 'bill', n = 0 }," +
+            "    ['eu.west'] = { name = 'eu' }," +
+            "    list = { { name = 'first' }, { name = 'second' } }," +
+            "  }," +
+            "  other = { huge = 'ignored' }," +
+            "}";
+
+        @Test
+        void bindsOnlySelectedSubtree() {
+            ItemName billing = LuaDeserializer.deserializeAt(
+                DOC,
+                "$.services.billing",
+                ItemName.class
+            );
+            assertEquals("bill", billing.name.value);
+
+            assertEquals(
+                "second",
+                LuaDeserializer.deserializeAt(
+                    DOC,
+                    "services.list[2]",
+                    ItemName.class
+                ).name.value
+            );
+            assertEquals(
+                "eu",
+                LuaDeserializer.deserializeAt(
+                    DOC,
+                    "$.services[\"eu.west\"]",
+                    ItemName.class
+                ).name.value
+            );
+        }
+
+        @Test
+        void errorPaths_areRelativeToWholeDocument() {
+            ConfigDeserializationException ex = assertThrows(
+                ConfigDeserializationException.class,
+                () ->
+                    LuaDeserializer.deserializeAt(
+                        DOC,
+                        "$.services.billing",
+                        ItemN.class
+                    )
+            );
+            assertSingleError(ex, "$.services.billing.n", "must be > 0");
+        }
+
+        @Test
+        void missingSubtree_isReportedWhereNavigationStopped() {
+            ConfigDeserializationException ex = assertThrows(
+                ConfigDeserializationException.class,
+                () ->
+                    LuaDeserializer.deserializeAt(
+                        DOC,
+                        "$.other.huge.deeper",
+                        ItemName.class
+                    )
+            );
+            assertEquals(
+                ConfigErrorCode.PATH_NOT_FOUND,
+                ex.getErrors().get(0).getCode()
+            );
+            assertSingleError(ex, "$.other.huge", "got string");
+
+            assertThrows(IllegalArgumentException.class, () ->
+                LuaDeserializer.deserializeAt(DOC, "$.a..b", ItemName.class)
+            );
+        }
+    }
+
+    interface ServerView {
+        String getHost();
+
+        int port();
+
+        default int getTimeout() {
+            return 30;
+        }
+
+        DbView db();
+
+        List<RouteView> routes();
+
+        Map<String, PositiveInteger> limits();
+    }
+
+    interface DbView {
+        NonEmptyString url();
+    }
+
+    interface RouteView {
+        String path();
+
+        PositiveInteger weight();
+    }
+
+    interface PortView {
+        int port();
+
+        default String host() {
+            return "none";
+        }
+    }
+
+    @Nested
+    class Views {
+
+        private static final String LUA =
+            "return {" +
+            "  host = 'localhost', port = 8080," +
+            "  db = { url = 'jdbc:x' }," +
+            "  routes = {" +
+            "    { path = '/a', weight = 1 }," +
+            "    { path = '/b', weight = 0 }," +
+            "  }," +
+            "  limits = { eu = 5, us = -1 }," +
+            "}";
+
+        @Test
+        void gettersBindOnFirstAccess_andMemoize() {
+            ServerView v = LuaDeserializer.view(LUA, ServerView.class);
+
+            assertEquals("localhost", v.getHost());
+            assertEquals(8080, v.port());
+            assertEquals(30, v.getTimeout());
+            assertSame(v.db(), v.db());
+            assertEquals("jdbc:x", v.db().url().value);
+            assertEquals(2, v.routes().size());
+            assertEquals("/b", v.routes().get(1).path());
+            assertSame(v.routes().get(0), v.routes().get(0));
+            assertEquals(Integer.valueOf(5), v.limits().get("eu").value);
+            assertEquals(Set.of("eu", "us"), v.limits().keySet());
+        }
+
+        @Test
+        void errorsSurfaceOnlyFromTheGetterThatTouchesThem() {
+            ServerView v = LuaDeserializer.view(LUA, ServerView.class);
+            assertEquals(
+                Integer.valueOf(1),
+                v.routes().get(0).weight().value
+            );
+
+            ConfigDeserializationException ex = assertThrows(
+                ConfigDeserializationException.class,
+                () -> v.routes().get(1).weight()
+            );
+            assertSingleError(ex, "$.routes[2].weight", "must be > 0");
+        }
+
+        @Test
+        void validate_reportsEverything_andBackgroundModeFailsFuture() {
+            ServerView v = LuaDeserializer.view(LUA, ServerView.class);
+            ConfigDeserializationException ex = assertThrows(
+                ConfigDeserializationException.class,
+                () -> ((ConfigView) v).validate()
+            );
+            List<String> paths = new ArrayList<>();
+            ex.getErrors().forEach(e -> paths.add(e.getPath()));
+            assertEquals(List.of("$.limits[us]", "$.routes[2].weight"), paths);
+
+            ServerView bg = LuaDeserializer.view(
+                LUA,
+                ServerView.class,
+                DeserializationOptions
+                    .defaults()
+                    .withViewValidation(ViewValidation.BACKGROUND)
+            );
+            ExecutionException failed = assertThrows(
+                ExecutionException.class,
+                () -> ((ConfigView) bg).validation().get(10, TimeUnit.SECONDS)
+            );
+            assertInstanceOf(
+                ConfigDeserializationException.class,
+                failed.getCause()
+            );
+        }
+
+        @Test
+        void view_isASnapshot_ofTheValue() {
+            LuaValue t = JsePlatform.standardGlobals().load(LUA).call();
+            ServerView v = LuaDeserializer.view(t, ServerView.class);
+
+            t.set("host", LuaValue.valueOf("changed"));
+            t.get("db").set("url", LuaValue.valueOf("jdbc:changed"));
+            t.get("routes").set(3, t.get("routes").get(1));
+            t.get("limits").set("ap", LuaValue.valueOf(7));
+
+            assertEquals("localhost", v.getHost());
+            assertEquals("jdbc:x", v.db().url().value);
+            assertEquals(2, v.routes().size());
+            assertEquals(Set.of("eu", "us"), v.limits().keySet());
+        }
+
+        @Test
+        void gettersNeverRunMetamethods() throws Exception {
+            PortView v = LuaDeserializer.view(
+                "local n = 0\n" +
+                "return setmetatable({ port = 1 }, { __index = function()\n" +
+                "  n = n + 1 while true do end\n" +
+                "end })",
+                PortView.class,
+                DeserializationOptions.defaults().withMaxInstructions(1000)
+            );
+
+            CompletableFuture<String> other = CompletableFuture.supplyAsync(
+                v::host
+            );
+            assertEquals("none", other.get(10, TimeUnit.SECONDS));
+            assertEquals("none", v.host());
+            assertEquals(1, v.port());
+        }
+
+        @Test
+        void view_readsFiles() throws Exception {
+            java.nio.file.Path f = Files.createTempFile("view", ".lua");
+            try {
+                Files.writeString(f, LUA);
+                ServerView v = LuaDeserializer.view(f, ServerView.class);
+
+                assertEquals(8080, v.port());
+                assertEquals("/a", v.routes().get(0).path());
+            } finally {
+                Files.delete(f);
+            }
+        }
+    }
+
+    /** Type, exact bytes and table iteration order, for VM parity checks. */
+    private static String dumpLua(LuaValue v) {
+        if (v.istable()) {
+            StringBuilder sb = new StringBuilder("{#" + v.length());
+            LuaValue k = LuaValue.NIL;
+            while (true) {
+                Varargs n = v.next(k);
+                k = n.arg1();
+                if (k.isnil()) break;
+                sb.append(' ').append(dumpLua(k)).append('=');
+                sb.append(dumpLua(n.arg(2)));
+            }
+            return sb.append('}').toString();
+        }
+        if (v instanceof LuaString) {
+            LuaString s = (LuaString) v;
+            StringBuilder sb = new StringBuilder("'");
+            for (int i = 0; i < s.length(); i++) {
+                sb.append(Integer.toHexString(s.luaByte(i))).append(' ');
+            }
+            return sb.append('\'').toString();
+        }
+        return v.getClass().getSimpleName() + ":" + v.tojstring();
+    }
+
+    @Nested
+    class LiteralFastPath {
+
+        private void assertSameAsVm(String lua) {
+            LuaValue fast = LiteralParser.parse(lua);
+            assertNotNull(fast, () -> "not read as literal: " + lua);
+            LuaValue vm = JsePlatform.standardGlobals().load(lua).call();
+            assertEquals(dumpLua(vm), dumpLua(fast));
+        }
+
+        @Test
+        void numbers_matchTheVm() {
+            assertSameAsVm(
+                "return { a = 1, b = -2, c = 1.5, d = .5, e = 5., f = 1e3," +
+                " g = -0, h = 0x1F, i = 2147483648, j = -2147483648," +
+                " k = 1e400, l = - 7, m = 2.5E-3, n = 123456789012 }"
+            );
+        }
+
+        @Test
+        void nonFiniteNumbers_matchTheVm() {
+            assertSameAsVm(
+                "return { a = 1/0, b = -1/0, c = 0/0, d = 2.5 / 0x0, e = 3 }"
+            );
+            assertNull(LiteralParser.parse("return { a = 1/2 }"));
+        }
+
+        @Test
+        void strings_matchTheVm_includingEscapesAndNonAscii() {
+            assertSameAsVm(
+                "return { 'a\\tb\\n', \"q\\\"'\", '\\65\\066x\\0', " +
+                "'\\x41\\xfF', 'café € 😀', " +
+                "'a\\z   \n  b', 'line\\\ncont', '\\q\\\\', " +
+                "[[\nlong\r\nstring]], [==[a]]b]=]c]==], [=[x[[y]=] }"
+            );
+        }
+
+        @Test
+        void tables_matchTheVm_includingOrderAndFlushBatches() {
+            StringBuilder lua = new StringBuilder("return {");
+            for (int i = 0; i < 130; i++) {
+                lua.append(" 'v").append(i).append("',");
+                if (i % 7 == 0) lua.append(" k").append(i).append(" = 'x',");
+            }
+            lua.append(" map = {");
+            for (int i = 0; i < 300; i++) {
+                lua.append(" key").append(i).append(" = ").append(i).append(';');
+            }
+            lua.append(" }, ['with space'] = true, [true] = false,");
+            lua.append(" dup = 1, dup = 2, gone = 1, gone = nil,");
+            lua.append(" nested = { { {} }, { x = { y = 'z' } } } }");
+
+            assertSameAsVm(lua.toString());
+        }
+
+        @Test
+        void commentsAndSeparators_areAccepted() {
+            assertSameAsVm(
+                "-- header\nreturn --[[ a\n b ]] { a = 1 --[==[ x ]==]\n" +
+                "; b = 2, -- trailing\n 'c'; } ;  -- done"
+            );
+            assertSameAsVm("return 'just a string'");
+        }
+
+        @Test
+        void anythingNonLiteral_fallsBackToTheVm() {
+            List<String> scripts = List.of(
+                "return { a = os.getenv('HOME') }",
+                "return { a = 1 + 2 }",
+                "return { a = 'x' .. 'y' }",
+                "local t = { a = 1 } return t",
+                "return { [1] = 'a' }",
+                "return { 'a', nil, 'c' }",
+                "return { x }",
+                "return { end = 1 }",
+                "return { a = 5f }",
+                "return { a = 0x1p4 }",
+                "return { a = ('x') }",
+                "return",
+                "return { a = 'unterminated }",
+                "return { a = 1 } x = 2",
+                "return [[a [[nested]] b]]"
+            );
+            for (String lua : scripts) {
+                assertNull(LiteralParser.parse(lua), lua);
+            }
+        }
+
+        @Test
+        void deserialize_bindsTheSameWithAndWithoutFastPath() {
+            String lua =
+                "return { items = { b = { n = 2 }, a = { n = 1 }," +
+                " c = { n = 3 }, d = { n = 4 }, e = { n = 5 } } }";
+            DeserializationOptions vm = DeserializationOptions
+                .defaults()
+                .withLiteralFastPath(false);
+
+            CfgMapOfComplex fast = ok(lua, CfgMapOfComplex.class);
+            CfgMapOfComplex slow = LuaDeserializer.deserialize(
+                lua,
+                CfgMapOfComplex.class,
+                vm
+            );
+            assertEquals(
+                new ArrayList<>(slow.items.keySet()),
+                new ArrayList<>(fast.items.keySet())
+            );
+            assertEquals(
+                Integer.valueOf(3),
+                fast.items.get(new NonEmptyString("c")).n.value
+            );
+        }
+
+        @Test
+        void errors_areTheSameOnBothPaths() {
+            ConfigDeserializationException ex = fails(
+                "return { items = { { name = 'a' }, { name = '' } } }",
+                CfgListOfComplex.class
+            );
+            assertSingleError(ex, "$.items[2].name", "must be non-empty");
+
+            assertThrows(LuaError.class, () ->
+                ok("return { name = 'x' ", CfgStringLeaf.class)
+            );
+            CfgIntLeaf computed = ok("return { n = 1 + 2 }", CfgIntLeaf.class);
+            assertEquals(Integer.valueOf(3), computed.n.value);
+        }
+    }
+
+    /**
+     * Throughput and allocation of literal-only configs on the fast path
+     * against compile and execute on the VM. Run with
+     * {@code gradle benchmark}.
+     */
+    @Nested
+    @Tag("benchmark")
+    class LiteralFastPathBenchmark {
+
+        private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        @Test
+        void literalConfig_fastPathVersusVm() {
+            StringBuilder sb = new StringBuilder("return { items = {\n");
+            for (int i = 0; i < 5_000; i++) {
+                sb.append("  { name = 'item-").append(i).append("' },\n");
+            }
+            sb.append("} }\n");
+            String lua = sb.toString();
+
+            DeserializationOptions fast = DeserializationOptions.defaults();
+            DeserializationOptions vm = fast.withLiteralFastPath(false);
+
+            run("vm", lua, vm, 20);
+            run("fast path", lua, fast, 20);
+            double vmRate = run("vm", lua, vm, 50);
+            double fastRate = run("fast path", lua, fast, 50);
+            System.out.printf(
+                "literal fast path speedup: %.1fx (%d bytes of source)%n",
+                fastRate / vmRate,
+                lua.length()
+            );
+        }
+
+        private double run(
+            String label,
+            String lua,
+            DeserializationOptions options,
+            int loads
+        ) {
+            long tid = Thread.currentThread().getId();
+            long bytes = threads.getThreadAllocatedBytes(tid);
+            long start = System.nanoTime();
+            for (int i = 0; i < loads; i++) {
+                CfgListOfComplex cfg = LuaDeserializer.deserialize(
+                    lua,
+                    CfgListOfComplex.class,
+                    options
+                );
+                assertEquals(5_000, cfg.items.size());
+            }
+            long nanos = System.nanoTime() - start;
+            bytes = threads.getThreadAllocatedBytes(tid) - bytes;
+
+            double perSecond = loads * 1e9 / nanos;
+            System.out.printf(
+                "%-10s %8.1f loads/s %8.2f ms/load %10d KiB allocated/load%n",
+                label,
+                perSecond,
+                nanos / 1e6 / loads,
+                bytes / 1024 / loads
+            );
+            return perSecond;
+        }
+    }
+
+    @Nested
+    class EventStreaming {
+
+        private List<String> events(String lua) throws Exception {
+            List<String> out = new ArrayList<>();
+            try (
+                LuaEventReader r = new LuaEventReader(
+                    new StringReader(lua),
+                    "test"
+                )
+            ) {
+                while (r.hasNext()) {
+                    LuaEventReader.Event e = r.next();
+                    if (e == LuaEventReader.Event.KEY) {
+                        out.add("KEY " + r.getKey());
+                    } else if (e == LuaEventReader.Event.VALUE) {
+                        out.add("VALUE " + r.getValue());
+                    } else {
+                        out.add(e.name());
+                    }
+                }
+            }
+            return out;
+        }
+
+        @Test
+        void reader_emitsEventsInSourceOrder() throws Exception {
+            assertEquals(
+                List.of(
+                    "START_TABLE",
+                    "KEY a",
+                    "VALUE 1",
+                    "KEY 1",
+                    "START_TABLE",
+                    "KEY 1",
+                    "VALUE true",
+                    "KEY x y",
+                    "VALUE -2.5",
+                    "END_TABLE",
+                    "KEY 2",
+                    "VALUE s",
+                    "END_TABLE",
+                    "END_DOCUMENT"
+                ),
+                events(
+                    "-- data\nreturn { a = 1, { true, ['x y'] = -2.5 }; " +
+                    "[[s]], }"
+                )
+            );
+        }
+
+        @Test
+        void reader_rejectsCode_withLine() {
+            LuaError e = assertThrows(LuaError.class, () ->
+                events("return {\n  a = 1,\n  b = os.getenv('X'),\n}")
+            );
+            assertTrue(e.getMessage().contains("test:3:"), e.getMessage());
+            assertTrue(e.getMessage().contains("'os'"), e.getMessage());
+        }
+
+        @Test
+        void readValue_andSkipValue() throws Exception {
+            LuaEventReader r = new LuaEventReader(
+                new StringReader("{ skip = { { 1 }, 2 }, keep = { n = 3 } }"),
+                "test"
+            );
+            assertEquals(LuaEventReader.Event.START_TABLE, r.next());
+            assertEquals(LuaEventReader.Event.KEY, r.next());
+            r.skipValue();
+            assertEquals(LuaEventReader.Event.KEY, r.next());
+            assertEquals("keep", r.getKey().tojstring());
+            assertEquals(3, r.readValue().get("n").toint());
+            assertEquals(LuaEventReader.Event.END_TABLE, r.next());
+            assertEquals(LuaEventReader.Event.END_DOCUMENT, r.next());
+            assertFalse(r.hasNext());
+        }
+
+        @Test
+        void readValue_deepNesting_isLuaError() {
+            String lua = "return " + "{".repeat(5000) + "}".repeat(5000);
+            LuaError e = assertThrows(LuaError.class, () ->
+                new LuaEventReader(new StringReader(lua), "test").readValue()
+            );
+            assertTrue(e.getMessage().contains("nested deeper"));
+        }
+
+        @Test
+        void readValue_iteratesLikeTheVm() throws Exception {
+            StringBuilder sb = new StringBuilder("return { ");
+            for (int i = 0; i < 120; i++) {
+                sb.append("'v").append(i).append("', ");
+                if (i % 7 == 0) {
+                    sb.append("k").append(i).append(" = ").append(i).append(", ");
+                }
+                if (i % 30 == 0) {
+                    sb.append("[").append(200 + i).append("] = 1, ");
+                }
+            }
+            String lua = sb.append("}").toString();
+            LuaValue vm = JsePlatform.standardGlobals().load(lua).call();
+            LuaValue read = new LuaEventReader(
+                new StringReader(lua),
+                "test"
+            ).readValue();
+
+            assertEquals(keyOrder(vm), keyOrder(read));
+        }
+
+        @Test
+        void readValue_readsNonFiniteNumbers() throws Exception {
+            LuaValue t = new LuaEventReader(
+                new StringReader("return { 1/0, -1/0, 0/0 }"),
+                "test"
+            ).readValue();
+
+            assertEquals(Double.POSITIVE_INFINITY, t.get(1).todouble());
+            assertEquals(Double.NEGATIVE_INFINITY, t.get(2).todouble());
+            assertTrue(Double.isNaN(t.get(3).todouble()));
+            LuaError e = assertThrows(LuaError.class, () ->
+                new LuaEventReader(
+                    new StringReader("return { 1/2 }"),
+                    "test"
+                ).readValue()
+            );
+            assertTrue(e.getMessage().contains("n/0"));
+        }
+
+        private List<String> keyOrder(LuaValue t) {
+            List<String> keys = new ArrayList<>();
+            LuaValue k = LuaValue.NIL;
+            while (!(k = t.next(k).arg1()).isnil()) keys.add(k.tojstring());
+            return keys;
+        }
+
+        @Test
+        void deserializeEach_bindsOneElementAtATime() throws Exception {
+            java.nio.file.Path file = Files.createTempFile("items", ".lua");
+            try {
+                Files.writeString(
+                    file,
+                    "return {\n { name = 'a' },\n { name = 'b' },\n" +
+                    " { name = '' },\n { name = 'd' },\n}\n"
+                );
+                List<String> names = new ArrayList<>();
+                ConfigDeserializationException ex;
+                try (
+                    java.util.stream.Stream<ItemName> items =
+                        LuaDeserializer.deserializeEach(
+                            file,
+                            ItemName.class,
+                            DeserializationOptions.defaults()
+                        )
+                ) {
+                    ex = assertThrows(
+                        ConfigDeserializationException.class,
+                        () -> items.forEach(i -> names.add(i.name.value))
+                    );
+                }
+                assertEquals(List.of("a", "b"), names);
+                assertSingleError(ex, "$[3].name", "must be non-empty");
+            } finally {
+                Files.delete(file);
+            }
+        }
+
+        @Test
+        void deserializeEach_streamsInputNeverHeldWhole() {
+            int count = 200_000;
+            // Generates the document on the fly
+            java.io.Reader generated = new java.io.Reader() {
+                int next;
+                String pending = "return {\n";
+
+                @Override
+                public int read(char[] buf, int off, int len) {
+                    if (pending.isEmpty()) {
+                        if (next > count) return -1;
+                        pending = next++ < count
+                            ? "{ n = " + next + " },\n"
+                            : "}\n";
+                    }
+                    int n = Math.min(len, pending.length());
+                    pending.getChars(0, n, buf, off);
+                    pending = pending.substring(n);
+                    return n;
+                }
+
+                @Override
+                public void close() {}
+            };
+
+            long sum = LuaDeserializer
+                .deserializeEach(
+                    new LuaEventReader(generated, "generated"),
+                    ItemN.class,
+                    DeserializationOptions.defaults()
+                )
+                .mapToLong(i -> i.n.value)
+                .sum();
+            assertEquals((long) count * (count + 1) / 2, sum);
+        }
+    }
+
+    static final class SerNode {
+
+        public NonEmptyString name;
+        public Integer count;
+        public Double ratio;
+        public Double whole;
+        public Boolean enabled;
+        public Mode mode;
+        public String text;
+        public Optional<NonEmptyString> user = Optional.empty();
+        public Optional<PositiveInteger> port = Optional.empty();
+        public List<ItemN> items = new ArrayList<>();
+        public Set<String> tags = new LinkedHashSet<>();
+        public Map<NonEmptyString, PositiveInteger> limits =
+            new HashMap<>();
+        public Map<Integer, String> byId = new HashMap<>();
+        public List<SerNode> children = new ArrayList<>();
+    }
+
+    static final class SerSmall {
+
+        public String name;
+        public Map<String, Integer> m;
+    }
+
+    static final class SerDoubleLeaf {
+
+        public PositiveDouble x;
+    }
+
+    static final class SerDouble {
+
+        public Double x;
+    }
+
+    static final class SerLong {
+
+        public Long x;
+        public Map<Long, String> byId = new HashMap<>();
+    }
+
+    static final class SerDefaults {
+
+        public String host = "localhost";
+        public Optional<String> user = Optional.of("admin");
+    }
+
+    static final class SerSets {
+
+        public Set<String> names;
+        public Set<List<Integer>> pairs;
+    }
+
+    @Nested
+    class Serializer {
+
+        private SerNode node(String name) {
+            SerNode n = new SerNode();
+            n.name = new NonEmptyString(name);
+            n.count = -42;
+            n.ratio = 0.1;
+            n.whole = 3.0;
+            n.enabled = false;
+            n.mode = Mode.PROD;
+            n.text = "";
+            return n;
+        }
+
+        private SerNode sample() {
+            SerNode n = node("root");
+            n.text = "q\"uote\\ \n\t\0end\u007f é 😀 \uD800x 7";
+            n.port = Optional.of(new PositiveInteger(8080));
+            for (int i = 1; i <= 3; i++) {
+                ItemN item = new ItemN();
+                item.n = new PositiveInteger(i);
+                n.items.add(item);
+            }
+            n.tags.addAll(List.of("z", "a", "end"));
+            n.limits.put(new NonEmptyString("b"), new PositiveInteger(2));
+            n.limits.put(new NonEmptyString("a b"), new PositiveInteger(1));
+            n.byId.put(10, "ten");
+            n.byId.put(9, "nine");
+            SerNode child = node("child");
+            child.user = Optional.of(new NonEmptyString("bob"));
+            n.children.add(child);
+            return n;
+        }
+
+        @Test
+        void roundTrip_readsBackTheSameGraph() {
+            String lua = LuaSerializer.serialize(sample());
+            SerNode back = ok(lua, SerNode.class);
+
+            assertEquals(lua, LuaSerializer.serialize(back));
+            assertEquals(Double.valueOf(3.0), back.whole);
+            assertEquals(Double.valueOf(0.1), back.ratio);
+            assertEquals(sample().text, back.text);
+            assertEquals(Mode.PROD, back.mode);
+            assertEquals(Optional.empty(), back.user);
+            assertEquals(8080, back.port.get().value);
+            assertEquals(List.of("a", "end", "z"), List.copyOf(back.tags));
+            assertEquals(sample().limits, back.limits);
+            assertEquals(sample().byId, back.byId);
+            assertEquals("bob", back.children.get(0).user.get().value);
+        }
+
+        @Test
+        void output_isDeterministic_withSortedMapKeys() {
+            SerSmall a = new SerSmall();
+            a.name = "x";
+            a.m = new LinkedHashMap<>();
+            a.m.put("end", 1);
+            a.m.put("b", 2);
+            a.m.put("a b", 3);
+            SerSmall b = new SerSmall();
+            b.name = "x";
+            b.m = new TreeMap<>(Comparator.reverseOrder());
+            b.m.putAll(a.m);
+
+            String expected =
+                "return {\n" +
+                "  name = \"x\",\n" +
+                "  m = {\n" +
+                "    [\"a b\"] = 3,\n" +
+                "    b = 2,\n" +
+                "    [\"end\"] = 1,\n" +
+                "  },\n" +
+                "}\n";
+            assertEquals(expected, LuaSerializer.serialize(a));
+            assertEquals(expected, LuaSerializer.serialize(b));
+        }
+
+        @Test
+        void output_isDeterministic_withSortedSetElements() {
+            SerSets a = new SerSets();
+            a.names = new LinkedHashSet<>(List.of("z", "a b", "end"));
+            a.pairs = new LinkedHashSet<>(List.of(List.of(2), List.of(1, 3)));
+            SerSets b = new SerSets();
+            b.names = new TreeSet<>(Comparator.reverseOrder());
+            b.names.addAll(a.names);
+            b.pairs = new LinkedHashSet<>(List.of(List.of(1, 3), List.of(2)));
+
+            String expected =
+                "return {\n" +
+                "  names = {\n" +
+                "    \"a b\",\n" +
+                "    \"end\",\n" +
+                "    \"z\",\n" +
+                "  },\n" +
+                "  pairs = {\n" +
+                "    {\n" +
+                "      1,\n" +
+                "      3,\n" +
+                "    },\n" +
+                "    {\n" +
+                "      2,\n" +
+                "    },\n" +
+                "  },\n" +
+                "}\n";
+            assertEquals(expected, LuaSerializer.serialize(a));
+            assertEquals(expected, LuaSerializer.serialize(b));
+        }
+
+        @Test
+        void streams_toOutputStreamAndFile() throws Exception {
+            SerNode n = sample();
+            String lua = LuaSerializer.serialize(n);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            LuaSerializer.serialize(n, bytes);
+            assertArrayEquals(
+                lua.getBytes(StandardCharsets.UTF_8),
+                bytes.toByteArray()
+            );
+
+            java.nio.file.Path file = Files.createTempFile("ser", ".lua");
+            try {
+                LuaSerializer.serialize(n, file);
+                SerNode back = LuaDeserializer.deserialize(
+                    file,
+                    SerNode.class
+                );
+                assertEquals(lua, LuaSerializer.serialize(back));
+            } finally {
+                Files.delete(file);
+            }
+        }
+
+        @Test
+        void specialDoubles_roundTripThroughTheVm() {
+            double[] values = { 1e300, -2.5e-7, 1.0 / 0, -1.0 / 0 };
+            for (double d : values) {
+                SerDouble s = new SerDouble();
+                s.x = d;
+                assertEquals(
+                    Double.valueOf(d),
+                    ok(LuaSerializer.serialize(s), SerDouble.class).x
+                );
+            }
+            SerDouble nan = new SerDouble();
+            nan.x = Double.NaN;
+            assertTrue(
+                ok(LuaSerializer.serialize(nan), SerDouble.class).x.isNaN()
+            );
+        }
+
+        @Test
+        void longsBeyond2To53_areRejected_includingMinValue() {
+            SerLong s = new SerLong();
+            s.x = -(1L << 53);
+            assertEquals(s.x, ok(LuaSerializer.serialize(s), SerLong.class).x);
+
+            for (long bad : new long[] { Long.MIN_VALUE, (1L << 53) + 1 }) {
+                s.x = bad;
+                IllegalArgumentException e = assertThrows(
+                    IllegalArgumentException.class,
+                    () -> LuaSerializer.serialize(s)
+                );
+                assertTrue(e.getMessage().contains("$.x"), e.getMessage());
+            }
+            s.x = 1L;
+            s.byId = Map.of(Long.MIN_VALUE, "min");
+            IllegalArgumentException e = assertThrows(
+                IllegalArgumentException.class,
+                () -> LuaSerializer.serialize(s)
+            );
+            assertTrue(e.getMessage().contains("2^53"), e.getMessage());
+        }
+
+        @Test
+        void emptyFields_withAValueByDefault_areRejected() {
+            SerDefaults d = new SerDefaults();
+            assertEquals(
+                "localhost",
+                ok(LuaSerializer.serialize(d), SerDefaults.class).host
+            );
+
+            d.host = null;
+            IllegalArgumentException e = assertThrows(
+                IllegalArgumentException.class,
+                () -> LuaSerializer.serialize(d)
+            );
+            assertTrue(e.getMessage().contains("$.host"), e.getMessage());
+            d.host = "h";
+            d.user = Optional.empty();
+            e = assertThrows(IllegalArgumentException.class, () ->
+                LuaSerializer.serialize(d)
+            );
+            assertTrue(e.getMessage().contains("$.user"), e.getMessage());
+        }
+
+        @Test
+        void integerWritten_intoDoubleField_widens() {
+            assertEquals(
+                Double.valueOf(2.0),
+                ok("return { x = 2 }", SerDouble.class).x
+            );
+        }
+
+        @Test
+        void unrepresentableValues_failWithPath() {
+            SerNode n = sample();
+            n.items.add(1, null);
+            IllegalArgumentException e = assertThrows(
+                IllegalArgumentException.class,
+                () -> LuaSerializer.serialize(n)
+            );
+            assertEquals(
+                "Cannot serialize $.items[2]: null element",
+                e.getMessage()
+            );
+
+            SerNode cyclic = sample();
+            cyclic.children.add(cyclic);
+            e = assertThrows(IllegalArgumentException.class, () ->
+                LuaSerializer.serialize(cyclic)
+            );
+            assertTrue(e.getMessage().contains("cyclic"), e.getMessage());
+
+            // Written as 2, read back through the Double constructor
+            SerDoubleLeaf leaf = new SerDoubleLeaf();
+            leaf.x = new PositiveDouble(2.0);
+            assertEquals(
+                2.0,
+                ok(LuaSerializer.serialize(leaf), SerDoubleLeaf.class).x.value
+            );
+            leaf.x = new PositiveDouble(2.5);
+            assertEquals(
+                2.5,
+                ok(LuaSerializer.serialize(leaf), SerDoubleLeaf.class).x.value
+            );
+        }
+    }
+
+    @Nested
+    @Tag("benchmark")
+    class SerializerBenchmark {
+
+        @Test
+        void multiMegabyteOutput() throws Exception {
+            CfgMapOfComplex cfg = new CfgMapOfComplex();
+            cfg.items = new HashMap<>();
+            for (int i = 1; i <= 200_000; i++) {
+                ItemN item = new ItemN();
+                item.n = new PositiveInteger(i);
+                cfg.items.put(new NonEmptyString("item-" + i), item);
+            }
+
+            String lua = LuaSerializer.serialize(cfg);
+            for (int round = 0; round < 2; round++) {
+                long start = System.nanoTime();
+                int runs = 10;
+                for (int i = 0; i < runs; i++) {
+                    LuaSerializer.serialize(
+                        cfg,
+                        java.io.OutputStream.nullOutputStream()
+                    );
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf(
+                    "serializer: %.1f MB/s (%.1f MB per config, %.1f ms)%n",
+                    lua.length() * (double) runs / seconds / 1e6,
+                    lua.length() / 1e6,
+                    seconds * 1e3 / runs
+                );
+            }
+
+            CfgMapOfComplex back = ok(lua, CfgMapOfComplex.class);
+            assertEquals(cfg.items.size(), back.items.size());
+            assertEquals(lua, LuaSerializer.serialize(back));
+        }
+    }
+
+    public static final class ByteSize {
+
+        public final Long bytes;
+
+        public ByteSize(Long bytes) {
+            if (bytes < 0) throw new IllegalArgumentException("negative");
+            this.bytes = bytes;
+        }
+    }
+
+    static final class CfgWideScalars {
+
+        public Long epochMillis;
+        public Float ratio;
+        public Short port;
+        public Byte level;
+        public Character sep;
+        public Integer small;
+        public Boolean on;
+        public ByteSize limit;
+    }
+
+    @Nested
+    class ScalarCoercion {
+
+        private ConfigDeserializationException.ConfigError error(String lua) {
+            ConfigDeserializationException ex = fails(
+                lua,
+                CfgWideScalars.class
+            );
+            assertEquals(1, ex.getErrors().size(), ex.getMessage());
+            return ex.getErrors().get(0);
+        }
+
+        private static final String VALID =
+            "epochMillis = 1700000000123, ratio = 0.25, port = 8080, " +
+            "level = -3, sep = ':', small = 7, on = true, limit = 4096";
+
+        /** A valid config with some fields replaced. */
+        private String with(String... fields) {
+            Map<String, String> m = new LinkedHashMap<>();
+            for (String f : VALID.split(", ")) m.put(f.split(" = ")[0], f);
+            for (String f : fields) m.put(f.split(" = ")[0], f);
+            return "return { " + String.join(", ", m.values()) + " }";
+        }
+
+        @Test
+        void wideAndNarrowTargets_bindExactly() {
+            CfgWideScalars cfg = ok(with(), CfgWideScalars.class);
+            assertEquals(Long.valueOf(1700000000123L), cfg.epochMillis);
+            assertEquals(Float.valueOf(0.25f), cfg.ratio);
+            assertEquals(Short.valueOf((short) 8080), cfg.port);
+            assertEquals(Byte.valueOf((byte) -3), cfg.level);
+            assertEquals(Character.valueOf(':'), cfg.sep);
+            assertEquals(Long.valueOf(4096), cfg.limit.bytes);
+            // Small values come from the JDK box caches
+            assertSame(Integer.valueOf(7), cfg.small);
+            assertSame(Boolean.TRUE, cfg.on);
+            assertSame(Character.valueOf(':'), cfg.sep);
+        }
+
+        @Test
+        void overflowAndFractions_areRejected() {
+            String[][] cases = {
+                { "small = 3000000000", "$.small", "java.lang.Integer" },
+                { "small = 1.5", "$.small", "java.lang.Integer" },
+                { "port = 40000", "$.port", "java.lang.Short" },
+                { "level = 128", "$.level", "java.lang.Byte" },
+                { "ratio = 1e39", "$.ratio", "java.lang.Float" },
+                { "epochMillis = 2^53 + 2", "$.epochMillis", "java.lang.Long" },
+                { "epochMillis = 1/0", "$.epochMillis", "java.lang.Long" },
+                { "sep = 'ab'", "$.sep", "java.lang.Character" },
+            };
+            for (String[] c : cases) {
+                ConfigDeserializationException.ConfigError e = error(
+                    with(c[0])
+                );
+                assertEquals(ConfigErrorCode.VALUE_OUT_OF_RANGE, e.getCode());
+                assertEquals(c[1], e.getPath());
+                assertTrue(
+                    e.getMessage().endsWith("does not fit " + c[2]),
+                    e.getMessage()
+                );
+            }
+        }
+
+        @Test
+        void limitsOfEachType_areInclusive() {
+            CfgWideScalars cfg = ok(
+                with(
+                    "small = -2147483648",
+                    "port = 32767",
+                    "level = -128",
+                    "epochMillis = -2^53",
+                    "sep = 'é'"
+                ),
+                CfgWideScalars.class
+            );
+            assertEquals(Integer.MIN_VALUE, cfg.small);
+            assertEquals(Short.MAX_VALUE, cfg.port);
+            assertEquals(Byte.MIN_VALUE, cfg.level);
+            assertEquals(-(1L << 53), cfg.epochMillis);
+            assertEquals('é', cfg.sep);
+        }
+
+        @Test
+        void wrongScalarKind_keepsConstructorError() {
+            ConfigDeserializationException.ConfigError e = error(
+                with("epochMillis = '17'")
+            );
+            assertEquals(ConfigErrorCode.NO_ONE_ARG_CTOR, e.getCode());
+            assertTrue(e.getMessage().contains("accepting java.lang.String"));
+        }
+
+        @Test
+        void serializer_roundTripsWideScalars() {
+            CfgWideScalars cfg = ok(with(), CfgWideScalars.class);
+            String lua = LuaSerializer.serialize(cfg);
+            CfgWideScalars back = ok(lua, CfgWideScalars.class);
+            assertEquals(lua, LuaSerializer.serialize(back));
+            assertEquals(cfg.epochMillis, back.epochMillis);
+            assertEquals(cfg.ratio, back.ratio);
+            assertEquals(cfg.limit.bytes, back.limit.bytes);
+
+            cfg.epochMillis = (1L << 53) + 1;
+            assertThrows(IllegalArgumentException.class, () ->
+                LuaSerializer.serialize(cfg)
+            );
+        }
+    }
+
+    static final class TenantCfg {
+
+        public NonEmptyString host;
+        public PositiveInteger port;
+        public List<String> regions;
+    }
+
+    @Nested
+    class Templates {
+
+        private static final String TENANT =
+            "local p = params\n" +
+            "return {\n" +
+            "  host = p.tenant .. '.example.com',\n" +
+            "  port = 8000 + p.n,\n" +
+            "  regions = p.regions,\n" +
+            "}\n";
+
+        private Map<String, Object> tenant(String name, int n) {
+            Map<String, Object> p = new HashMap<>();
+            p.put("tenant", name);
+            p.put("n", n);
+            p.put("regions", List.of("eu", name));
+            return p;
+        }
+
+        @Test
+        void render_bindsEachParameterSet() {
+            LuaTemplate<TenantCfg> t = LuaTemplate.compile(
+                TENANT,
+                TenantCfg.class
+            );
+            TenantCfg a = t.render(tenant("acme", 1));
+            TenantCfg b = t.render(tenant("globex", 2));
+            assertEquals("acme.example.com", a.host.value);
+            assertEquals(8001, a.port.value);
+            assertEquals(List.of("eu", "acme"), a.regions);
+            assertEquals("globex.example.com", b.host.value);
+            assertEquals(8002, b.port.value);
+        }
+
+        @Test
+        void renders_doNotSeeEachOthersGlobals() {
+            LuaTemplate<ItemN> t = LuaTemplate.compile(
+                "local n = 1\n" +
+                "if seen or _G.seenToo then n = 2 end\n" +
+                "seen = true\n" +
+                "_G.seenToo = true\n" +
+                "return { n = n + string.len(params.s) }",
+                ItemN.class
+            );
+            for (int i = 0; i < 3; i++) {
+                assertEquals(2, t.render(Map.of("s", "x")).n.value);
+            }
+        }
+
+        @Test
+        void sharedState_isReadOnly_andLoadUsesRenderGlobals() {
+            for (String patch : List.of(
+                "string.len = nil",
+                "string.x = 1",
+                "package.loaded.x = {}",
+                "require('math').x = 1",
+                "getmetatable(_G).__index.x = 1",
+                "setmetatable(string, {})"
+            )) {
+                LuaTemplate<ItemN> t = LuaTemplate.compile(
+                    patch + "\nreturn { n = 1 }",
+                    ItemN.class
+                );
+                assertThrows(LuaError.class, () -> t.render(Map.of()), patch);
+            }
+
+            LuaTemplate<ItemN> t = LuaTemplate.compile(
+                "local n = leaked and 2 or 1\n" +
+                "load('leaked = true')()\n" +
+                "assert(leaked)\n" +
+                "return { n = n + string.len(params.s) }",
+                ItemN.class
+            );
+            for (int i = 0; i < 3; i++) {
+                assertEquals(2, t.render(Map.of("s", "x")).n.value);
+            }
+        }
+
+        @Test
+        void renderAll_parallel_keepsOrderAndCollectsFailures() {
+            LuaTemplate<TenantCfg> t = LuaTemplate.compile(
+                TENANT,
+                TenantCfg.class
+            );
+            List<Map<String, Object>> params = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                // n = -8000 makes the port invalid
+                params.add(tenant("t" + i, i % 100 == 7 ? -8000 : i));
+            }
+            LuaTemplate.Batch<TenantCfg> batch = t.renderAll(params, true);
+
+            assertEquals(
+                Set.of(7, 107, 207, 307, 407),
+                batch.getFailures().keySet()
+            );
+            assertTrue(
+                batch.getFailures().get(7) instanceof
+                    ConfigDeserializationException
+            );
+            for (int i = 0; i < 500; i++) {
+                TenantCfg cfg = batch.getResults().get(i);
+                if (i % 100 == 7) {
+                    assertNull(cfg);
+                } else {
+                    assertEquals("t" + i + ".example.com", cfg.host.value);
+                }
+            }
+            assertTrue(batch.getRendersPerSecond() > 0);
+        }
+
+        @Test
+        void runtimeIsHeldUntilBindingIsDone() {
+            LuaTemplate<ItemN> t = LuaTemplate.compile(
+                "if params.loop then while true do end end\n" +
+                "return setmetatable({}, { __index = function()\n" +
+                "  if params.nested then params.nested() end\n" +
+                "  return 1\n" +
+                "end })",
+                ItemN.class,
+                DeserializationOptions.defaults().withMaxInstructions(10_000)
+            );
+            // A render started while binding must not reuse, and so stop,
+            // the runtime whose metamethod is still running
+            LuaValue nested = new org.luaj.vm2.lib.ZeroArgFunction() {
+                @Override
+                public LuaValue call() {
+                    assertThrows(
+                        ConfigDeserializationException.class,
+                        () -> t.render(Map.of("loop", true))
+                    );
+                    return NIL;
+                }
+            };
+
+            assertEquals(1, t.render(Map.of("nested", nested)).n.value);
+        }
+
+        @Test
+        void budgets_applyPerRender() {
+            LuaTemplate<ItemN> t = LuaTemplate.compile(
+                "if params.loop then while true do end end\n" +
+                "return { n = 1 }",
+                ItemN.class,
+                DeserializationOptions.defaults().withMaxInstructions(10_000)
+            );
+            ConfigDeserializationException ex = assertThrows(
+                ConfigDeserializationException.class,
+                () -> t.render(Map.of("loop", true))
+            );
+            assertEquals(
+                ConfigErrorCode.INSTRUCTION_LIMIT_EXCEEDED,
+                ex.getErrors().get(0).getCode()
+            );
+            assertEquals(1, t.render(Map.of("loop", false)).n.value);
+        }
+
+        @Test
+        void compileErrors_surfaceAtCompile() {
+            assertThrows(LuaError.class, () ->
+                LuaTemplate.compile("return {", ItemN.class)
+            );
+        }
+    }
+
+    @Nested
+    @Tag("benchmark")
+    class TemplateBenchmark {
+
+        @Test
+        void rendersPerSecond_versusDeserializeFromScratch() {
+            String template =
+                "local p = params\n" +
+                "local regions = {}\n" +
+                "for i = 1, 5 do regions[i] = p.tenant .. '-' .. i end\n" +
+                "return { host = p.tenant .. '.example.com'," +
+                " port = 8000 + p.n, regions = regions }\n";
+            List<Map<String, Object>> params = new ArrayList<>();
+            for (int i = 0; i < 20_000; i++) {
+                params.add(Map.of("tenant", "t" + i, "n", i));
+            }
+            LuaTemplate<TenantCfg> t = LuaTemplate.compile(
+                template,
+                TenantCfg.class
+            );
+
+            for (int round = 0; round < 3; round++) {
+                LuaTemplate.Batch<TenantCfg> seq = t.renderAll(params, false);
+                LuaTemplate.Batch<TenantCfg> par = t.renderAll(params, true);
+                assertTrue(seq.getFailures().isEmpty());
+
+                long start = System.nanoTime();
+                int scratch = 2_000;
+                for (int i = 0; i < scratch; i++) {
+                    LuaDeserializer.deserialize(
+                        "params = { tenant = 't" + i + "', n = " + i + " }\n" +
+                        template,
+                        TenantCfg.class
+                    );
+                }
+                long nanos = System.nanoTime() - start;
+                double scratchRate = scratch * 1e9 / nanos;
+                System.out.printf(
+                    "template: %.0f renders/s, parallel %.0f renders/s, " +
+                    "deserialize from scratch %.0f/s%n",
+                    seq.getRendersPerSecond(),
+                    par.getRendersPerSecond(),
+                    scratchRate
+                );
+            }
+        }
+    }
+
+    @Nested
+    class Memoization {
+
+        private final EvaluationMemo memo = EvaluationMemo.create();
+        private final DeserializationOptions options = DeserializationOptions
+            .defaults()
+            .withEvaluationMemo(memo);
+
+        private String readFile(java.nio.file.Path file) {
+            String path = file.toString().replace("\\", "/");
+            return (
+                "local f = io.open('" + path + "')\n" +
+                "local s = f:read('*a')\n" +
+                "f:close()\n" +
+                "return { name = s }"
+            );
+        }
+
+        @Test
+        void unchangedInputs_returnRememberedResultWithoutRunning() {
+            String lua =
+                "local home = os.getenv('LUA2JAVA_MEMO_UNSET') or 'none'\n" +
+                "return { name = home .. '-' .. os.date('%Y') }";
+            ItemName first = LuaDeserializer.deserialize(
+                lua,
+                ItemName.class,
+                options
+            );
+            ItemName second = LuaDeserializer.deserialize(
+                lua,
+                ItemName.class,
+                options
+            );
+
+            assertSame(first, second);
+            assertEquals(1, memo.getMisses());
+            assertEquals(1, memo.getHits());
+            assertEquals(1, memo.size());
+        }
+
+        @Test
+        void changedFile_runsScriptAgain() throws Exception {
+            java.nio.file.Path file = Files.createTempFile("memo", ".txt");
+            try {
+                Files.writeString(file, "first");
+                String lua = readFile(file);
+                assertEquals(
+                    "first",
+                    LuaDeserializer
+                        .deserialize(lua, ItemName.class, options)
+                        .name.value
+                );
+                assertEquals(
+                    "first",
+                    LuaDeserializer
+                        .deserialize(lua, ItemName.class, options)
+                        .name.value
+                );
+
+                Files.writeString(file, "second one");
+                assertEquals(
+                    "second one",
+                    LuaDeserializer
+                        .deserialize(lua, ItemName.class, options)
+                        .name.value
+                );
+                assertEquals(1, memo.getHits());
+                assertEquals(2, memo.getMisses());
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        @Test
+        void keyIncludesTypeAndSelector() {
+            String lua = "return { name = 'a', n = 1, inner = { n = 2 } }";
+            LuaDeserializer.deserialize(lua, ItemName.class, options);
+            LuaDeserializer.deserialize(lua, ItemN.class, options);
+            ItemN inner = LuaDeserializer.deserializeAt(
+                lua,
+                "inner",
+                ItemN.class,
+                options
+            );
+
+            assertEquals(2, inner.n.value);
+            assertEquals(0, memo.getHits());
+            assertEquals(3, memo.size());
+        }
+
+        @Test
+        void untrackableReads_areNeverRemembered() {
+            for (String expr : List.of(
+                "math.random(1, 5)",
+                "os.clock() * 0 + 1",
+                "#tostring(io.write(''))"
+            )) {
+                String lua = "return { n = " + expr + " }";
+                LuaDeserializer.deserialize(lua, ItemN.class, options);
+                LuaDeserializer.deserialize(lua, ItemN.class, options);
+            }
+            assertEquals(0, memo.getHits());
+            assertEquals(6, memo.getUncacheable());
+            assertEquals(0, memo.size());
+        }
+
+        @Test
+        void refreshedModule_runsScriptAgain() throws Exception {
+            java.nio.file.Path dir = Files.createTempDirectory("modules");
+            java.nio.file.Path module = dir.resolve("common.lua");
+            Files.writeString(module, "return { name = 'eu' }");
+            LuaModuleLoader loader = LuaModuleLoader.forDirectory(dir);
+            DeserializationOptions o = options.withModuleLoader(loader);
+            String lua = "return { name = require('common').name }";
+
+            LuaDeserializer.deserialize(lua, ItemName.class, o);
+            LuaDeserializer.deserialize(lua, ItemName.class, o);
+            Files.writeString(module, "return { name = 'us-east' }");
+            loader.refresh();
+            ItemName after = LuaDeserializer.deserialize(
+                lua,
+                ItemName.class,
+                o
+            );
+
+            assertEquals("us-east", after.name.value);
+            assertEquals(1, memo.getHits());
+            assertEquals(2, memo.getMisses());
+        }
+
+        @Test
+        void readsByModuleFunctions_areRecorded() throws Exception {
+            java.nio.file.Path dir = Files.createTempDirectory("modules");
+            java.nio.file.Path file = dir.resolve("region.txt");
+            Files.writeString(file, "eu");
+            String path = file.toString().replace("\\", "/");
+            Files.writeString(
+                dir.resolve("common.lua"),
+                "return { region = function()\n" +
+                "  local f = io.open('" + path + "')\n" +
+                "  local s = f:read('*a')\n" +
+                "  f:close()\n" +
+                "  return s\n" +
+                "end }"
+            );
+            DeserializationOptions o = options.withModuleLoader(
+                LuaModuleLoader.forDirectory(dir)
+            );
+            String lua = "return { name = require('common').region() }";
+
+            LuaDeserializer.deserialize(lua, ItemName.class, o);
+            Files.writeString(file, "us-east");
+            ItemName after = LuaDeserializer.deserialize(
+                lua,
+                ItemName.class,
+                o
+            );
+
+            assertEquals("us-east", after.name.value);
+            assertEquals(0, memo.getHits());
+        }
+
+        @Test
+        void keyIncludesBudgets() {
+            String lua = "return { n = 1 }";
+            LuaDeserializer.deserialize(lua, ItemN.class, options);
+            LuaDeserializer.deserialize(
+                lua,
+                ItemN.class,
+                options.withMaxInstructions(1_000_000)
+            );
+            LuaDeserializer.deserialize(
+                lua,
+                ItemN.class,
+                options.withTimeout(java.time.Duration.ofMinutes(1))
+            );
+
+            assertEquals(0, memo.getHits());
+            assertEquals(3, memo.size());
+        }
+
+        @Test
+        void leastRecentlyUsed_isEvicted() {
+            EvaluationMemo small = EvaluationMemo.create(2);
+            DeserializationOptions o = options.withEvaluationMemo(small);
+            LuaDeserializer.deserialize("return { n = 1 }", ItemN.class, o);
+            LuaDeserializer.deserialize("return { n = 2 }", ItemN.class, o);
+            LuaDeserializer.deserialize("return { n = 1 }", ItemN.class, o);
+            LuaDeserializer.deserialize("return { n = 3 }", ItemN.class, o);
+            LuaDeserializer.deserialize("return { n = 1 }", ItemN.class, o);
+            LuaDeserializer.deserialize("return { n = 2 }", ItemN.class, o);
+
+            assertEquals(2, small.getHits());
+            assertEquals(2, small.size());
+            assertEquals(2, small.getEvictions());
+        }
+    }
+
+    @Nested
+    class BulkValidation {
+
+        private static final String ITEM =
+            "org.msuo.lua2java.LuaDeserializerTest$ItemName";
+
+        private java.nio.file.Path dir;
+
+        private void write(String name, String lua) throws Exception {
+            java.nio.file.Path file = dir.resolve(name);
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, lua);
+        }
+
+        private int run(ByteArrayOutputStream out, String... args) {
+            PrintStream ps = new PrintStream(out, true, StandardCharsets.UTF_8);
+            return ConfigValidator.run(args, ps, ps);
+        }
+
+        @Test
+        void reportsInvalidFiles_andExitsNonZero() throws Exception {
+            dir = Files.createTempDirectory("configs");
+            write("a/good.lua", "return { name = 'ok' }");
+            write("a/computed.lua", "return { name = string.rep('x', 3) }");
+            write("b/empty.lua", "return { name = '' }");
+            write("b/broken.lua", "return { name = ");
+            write("notes.txt", "not a config");
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int code = run(out, "--threads", "3", ITEM, "", dir.toString());
+            String report = out.toString(StandardCharsets.UTF_8);
+
+            assertEquals(ConfigValidator.INVALID, code);
+            assertTrue(report.contains("FAIL " + dir.resolve("b/empty.lua")));
+            assertTrue(report.contains("$.name: Value rejected by NonEmpty"));
+            assertTrue(report.contains("FAIL " + dir.resolve("b/broken.lua")));
+            assertTrue(report.contains("Lua error"));
+            assertFalse(report.contains("good.lua"));
+            assertTrue(report.contains("4 files, 2 failed"), report);
+            assertTrue(report.contains("files/s"));
+            assertTrue(report.contains("p99"));
+        }
+
+        @Test
+        void globsSelectFiles_andValidRunExitsZero() throws Exception {
+            dir = Files.createTempDirectory("configs");
+            write("eu/app.lua", "return { name = 'eu' }");
+            write("us/app.lua", "return { name = 'us' }");
+            write("us/app.old", "return { name = '' }");
+
+            String glob = dir.toString().replace('\\', '/') + "/**.lua";
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(ConfigValidator.OK, run(out, ITEM, "", glob));
+            String report = out.toString(StandardCharsets.UTF_8);
+            assertTrue(report.contains("2 files, 0 failed"), report);
+        }
+
+        @Test
+        void filesNeverSeeEachOthersState() throws Exception {
+            dir = Files.createTempDirectory("configs");
+            // Sorted: with one thread, a.lua runs first on the same worker
+            write(
+                "a.lua",
+                "string.leak = 1\n" +
+                "package.loaded.shared = {}\n" +
+                "load('leaked = 1')()\n" +
+                "return { name = 'a' }"
+            );
+            write(
+                "b.lua",
+                "assert(string.leak == nil, 'string')\n" +
+                "assert(package.loaded.shared == nil, 'package.loaded')\n" +
+                "assert(leaked == nil, 'load')\n" +
+                "return { name = 'b' }"
+            );
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int code = run(out, "--threads", "1", ITEM, "", dir.toString());
+
+            String report = out.toString(StandardCharsets.UTF_8);
+            assertEquals(ConfigValidator.OK, code, report);
+        }
+
+        @Test
+        void unknownClassOrBadArguments_areUsageErrors() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(
+                ConfigValidator.USAGE,
+                run(out, "com.example.Missing", "", ".")
+            );
+            assertEquals(ConfigValidator.USAGE, run(out, "--threads", "0"));
+            assertTrue(
+                out.toString(StandardCharsets.UTF_8).contains("Usage:")
+            );
+        }
+
+        @Test
+        void argumentsMatchingNoFiles_areUsageErrors() throws Exception {
+            dir = Files.createTempDirectory("configs");
+            write("app.lua", "return { name = 'ok' }");
+            write("notes/readme.txt", "no configs here");
+            String root = dir.toString().replace('\\', '/');
+
+            for (String arg : List.of(
+                root + "/missing/**.lua",
+                root + "/**.lau",
+                dir.resolve("notes").toString()
+            )) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                int code = run(out, ITEM, "", dir.toString(), arg);
+                String report = out.toString(StandardCharsets.UTF_8);
+                assertEquals(ConfigValidator.USAGE, code, report);
+                assertTrue(report.contains("no files match " + arg), report);
+            }
+        }
+    }
+
+    @Nested
+    @Tag("benchmark")
+    class ValidatorBenchmark {
+
+        @Test
+        void bulkValidation_vsDeserializePerFile() throws Exception {
+            java.nio.file.Path dir = Files.createTempDirectory("bulk");
+            int n = 20_000;
+            List<java.nio.file.Path> files = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                java.nio.file.Path f = dir.resolve("cfg" + i + ".lua");
+                // Half literal, half computed so both paths are measured
+                Files.writeString(
+                    f,
+                    i % 2 == 0
+                        ? "return { name = 'n" + i + "' }"
+                        : "local p = 'n' return { name = p .. " + i + " }"
+                );
+                files.add(f);
+            }
+
+            long start = System.nanoTime();
+            for (java.nio.file.Path f : files) {
+                LuaDeserializer.deserialize(f.toFile(), ItemName.class);
+            }
+            double serial = n * 1e9 / (System.nanoTime() - start);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PrintStream ps = new PrintStream(out, true, StandardCharsets.UTF_8);
+            ConfigValidator.run(
+                new String[] {
+                    "org.msuo.lua2java.LuaDeserializerTest$ItemName",
+                    "",
+                    dir.toString(),
+                },
+                ps,
+                ps
+            );
+            System.out.printf(
+                "deserialize per file: %.0f files/s%nvalidator: %s",
+                serial,
+                out.toString(StandardCharsets.UTF_8)
+            );
+        }
+    }
+
+    static final class LiveDb {
+
+        public NonEmptyString host;
+        public PositiveInteger pool;
+    }
+
+    static final class LiveRoute {
+
+        public NonEmptyString path;
+        public PositiveInteger weight;
+    }
+
+    static final class LiveCfg {
+
+        public NonEmptyString name;
+        public PositiveInteger port = new PositiveInteger(8080);
+        public LiveDb db;
+        public List<LiveRoute> routes;
+        public Map<String, LiveRoute> byName;
+        public Optional<LiveDb> replica;
+    }
+
+    @Nested
+    class InPlaceRebinding {
+
+        private String config(int pool, String routes) {
+            return (
+                "return {\n" +
+                "  name = 'live', port = 9000,\n" +
+                "  db = { host = 'db1', pool = " + pool + " },\n" +
+                "  routes = { " + routes + " },\n" +
+                "  byName = { a = { path = '/a', weight = 1 } },\n" +
+                "  replica = { host = 'db2', pool = 2 },\n" +
+                "}"
+            );
+        }
+
+        private static final String ROUTES =
+            "{ path = '/a', weight = 1 }, { path = '/b', weight = 2 }";
+
+        @Test
+        void unchangedConfig_touchesNothing() {
+            LiveCfg cfg = LuaDeserializer.deserialize(
+                config(4, ROUTES),
+                LiveCfg.class
+            );
+            LiveDb db = cfg.db;
+            List<LiveRoute> routes = cfg.routes;
+            Map<String, LiveRoute> byName = cfg.byName;
+            Optional<LiveDb> replica = cfg.replica;
+
+            assertEquals(
+                Set.of(),
+                LuaDeserializer.deserializeInto(config(4, ROUTES), cfg)
+            );
+            assertSame(db, cfg.db);
+            assertSame(routes, cfg.routes);
+            assertSame(byName, cfg.byName);
+            assertSame(replica, cfg.replica);
+        }
+
+        @Test
+        void changedValues_updateNestedObjectsInPlace() {
+            LiveCfg cfg = LuaDeserializer.deserialize(
+                config(4, ROUTES),
+                LiveCfg.class
+            );
+            LiveDb db = cfg.db;
+            List<LiveRoute> routes = cfg.routes;
+            LiveRoute first = routes.get(0);
+
+            Set<String> touched = LuaDeserializer.deserializeInto(
+                config(
+                    8,
+                    "{ path = '/a', weight = 1 }, { path = '/b', weight = 5 }"
+                ),
+                cfg
+            );
+
+            assertEquals(
+                List.of("$.db.pool", "$.routes[2].weight"),
+                new ArrayList<>(touched)
+            );
+            assertSame(db, cfg.db);
+            assertEquals(8, db.pool.value);
+            assertSame(routes, cfg.routes);
+            assertSame(first, cfg.routes.get(0));
+            assertEquals(5, cfg.routes.get(1).weight.value);
+        }
+
+        @Test
+        void resizedList_isReplaced_reusingElements() {
+            LiveCfg cfg = LuaDeserializer.deserialize(
+                config(4, ROUTES),
+                LiveCfg.class
+            );
+            List<LiveRoute> routes = cfg.routes;
+            LiveRoute first = routes.get(0);
+
+            Set<String> touched = LuaDeserializer.deserializeInto(
+                config(4, ROUTES + ", { path = '/c', weight = 3 }"),
+                cfg
+            );
+
+            assertEquals(Set.of("$.routes"), touched);
+            assertNotSame(routes, cfg.routes);
+            assertEquals(3, cfg.routes.size());
+            assertSame(first, cfg.routes.get(0));
+            assertEquals(2, routes.size());
+        }
+
+        @Test
+        void missingKey_resetsToClassDefault() {
+            LiveCfg cfg = LuaDeserializer.deserialize(
+                config(4, ROUTES),
+                LiveCfg.class
+            );
+            Set<String> touched = LuaDeserializer.deserializeInto(
+                config(4, ROUTES).replace("port = 9000,", ""),
+                cfg
+            );
+
+            assertEquals(Set.of("$.port"), touched);
+            assertEquals(8080, cfg.port.value);
+        }
+
+        @Test
+        void invalidConfig_leavesInstanceUnchanged() {
+            LiveCfg cfg = LuaDeserializer.deserialize(
+                config(4, ROUTES),
+                LiveCfg.class
+            );
+            String bad = config(
+                16,
+                "{ path = '/a', weight = 1 }, { path = '', weight = 2 }"
+            );
+
+            ConfigDeserializationException ex = assertThrows(
+                ConfigDeserializationException.class,
+                () -> LuaDeserializer.deserializeInto(bad, cfg)
+            );
+            assertSingleError(ex, "$.routes[2].path", "must be non-empty");
+            assertEquals(4, cfg.db.pool.value);
+        }
+    }
+
+    interface Sink {}
+
+    static final class HttpSink implements Sink {
+
+        public NonEmptyString url;
+        public PositiveInteger timeout = new PositiveInteger(30);
+    }
+
+    static final class FileSink implements Sink {
+
+        // Declares the discriminator itself
+        public String type;
+        public NonEmptyString path;
+    }
+
+    abstract static class AbstractSink implements Sink {}
+
+    static final class SinkCfg {
+
+        public Sink primary;
+        public List<Sink> sinks;
+    }
+
+    interface Route {}
+
+    static final class StaticRoute implements Route {
+
+        public String to;
+    }
+
+    interface Hook {}
+
+    static final class ShellHook implements Hook {
+
+        public String cmd = "true";
+    }
+
+    @Nested
+    class PolymorphicTypes {
+
+        private static final String SINKS =
+            "return {\n" +
+            "  primary = { type = 'file', path = '/var/log/app' },\n" +
+            "  sinks = {\n" +
+            "    { type = 'http', url = 'https://a', timeout = 5 },\n" +
+            "    { type = 'file', path = '/tmp/b' },\n" +
+            "    { type = 'http', url = 'https://c' },\n" +
+            "  },\n" +
+            "}";
+
+        PolymorphicTypes() {
+            LuaDeserializer.registerSubtypes(
+                Sink.class,
+                "type",
+                Map.of("http", HttpSink.class, "file", FileSink.class)
+            );
+        }
+
+        @Test
+        void discriminatorSelectsSubtype() {
+            SinkCfg cfg = LuaDeserializer.deserialize(SINKS, SinkCfg.class);
+
+            FileSink primary = (FileSink) cfg.primary;
+            assertEquals("/var/log/app", primary.path.value);
+            assertEquals("file", primary.type);
+            assertEquals(3, cfg.sinks.size());
+            HttpSink a = (HttpSink) cfg.sinks.get(0);
+            assertEquals("https://a", a.url.value);
+            assertEquals(5, a.timeout.value);
+            assertTrue(cfg.sinks.get(1) instanceof FileSink);
+            assertEquals(30, ((HttpSink) cfg.sinks.get(2)).timeout.value);
+        }
+
+        @Test
+        void missingOrUnknownDiscriminator_isReportedAtItsKey() {
+            ConfigDeserializationException ex = assertThrows(
+                ConfigDeserializationException.class,
+                () ->
+                    LuaDeserializer.deserialize(
+                        "return { primary = { path = '/x' }, sinks = {\n" +
+                        "  { type = 'htp', url = 'https://a' },\n" +
+                        "  { type = 'file', path = '' },\n" +
+                        "  'file',\n" +
+                        "} }",
+                        SinkCfg.class
+                    )
+            );
+
+            Map<String, String> byPath = new HashMap<>();
+            ex.getErrors().forEach(e -> byPath.put(e.getPath(), e.getMessage()));
+            assertEquals(4, byPath.size(), byPath.toString());
+            assertTrue(
+                byPath.get("$.primary.type").startsWith("Missing discriminator")
+            );
+            assertTrue(
+                byPath
+                    .get("$.sinks[1].type")
+                    .startsWith("Unknown Sink subtype 'htp', expected one of")
+            );
+            assertTrue(byPath.get("$.sinks[2].path").contains("non-empty"));
+            assertTrue(byPath.get("$.sinks[3]").startsWith("Expected table"));
+        }
+
+        @Test
+        void registration_isCheckedAndIdempotent() {
+            LuaDeserializer.registerSubtypes(
+                Sink.class,
+                "type",
+                Map.of("file", FileSink.class, "http", HttpSink.class)
+            );
+            assertThrows(
+                IllegalStateException.class,
+                () ->
+                    LuaDeserializer.registerSubtypes(
+                        Sink.class,
+                        "kind",
+                        Map.of("http", HttpSink.class)
+                    )
+            );
+            assertThrows(
+                IllegalArgumentException.class,
+                () ->
+                    LuaDeserializer.registerSubtypes(
+                        Object.class,
+                        "type",
+                        Map.of("abstract", AbstractSink.class)
+                    )
+            );
+            LuaDeserializer.prepare(SinkCfg.class);
+        }
+
+        @Test
+        void registrationAfterAdapterIsBuilt_fails() {
+            LuaDeserializer.adapterFor(Route.class);
+            IllegalStateException e = assertThrows(
+                IllegalStateException.class,
+                () ->
+                    LuaDeserializer.registerSubtypes(
+                        Route.class,
+                        "type",
+                        Map.of("static", StaticRoute.class)
+                    )
+            );
+            assertTrue(e.getMessage().contains(Route.class.getName()));
+
+            // The serializer caches the subtype's missing discriminator
+            LuaSerializer.serialize(new ShellHook());
+            e = assertThrows(
+                IllegalStateException.class,
+                () ->
+                    LuaDeserializer.registerSubtypes(
+                        Hook.class,
+                        "type",
+                        Map.of("shell", ShellHook.class)
+                    )
+            );
+            assertTrue(e.getMessage().contains(ShellHook.class.getName()));
+        }
+
+        @Test
+        void serializer_writesDiscriminator_andRoundTrips() {
+            SinkCfg cfg = LuaDeserializer.deserialize(SINKS, SinkCfg.class);
+            String lua = LuaSerializer.serialize(cfg);
+
+            assertTrue(lua.contains("type = \"http\","), lua);
+            SinkCfg back = LuaDeserializer.deserialize(lua, SinkCfg.class);
+            assertEquals(
+                "https://c",
+                ((HttpSink) back.sinks.get(2)).url.value
+            );
+            assertEquals("file", ((FileSink) back.primary).type);
+        }
+
+        @Test
+        void rebinding_keepsSameSubtype_andReplacesChangedOne() {
+            SinkCfg cfg = LuaDeserializer.deserialize(SINKS, SinkCfg.class);
+            Sink first = cfg.sinks.get(0);
+            Sink second = cfg.sinks.get(1);
+
+            Set<String> touched = LuaDeserializer.deserializeInto(
+                SINKS
+                    .replace("timeout = 5", "timeout = 7")
+                    .replace(
+                        "{ type = 'file', path = '/tmp/b' }",
+                        "{ type = 'http', url = 'https://b' }"
+                    ),
+                cfg
+            );
+
+            assertSame(first, cfg.sinks.get(0));
+            assertEquals(7, ((HttpSink) first).timeout.value);
+            assertNotSame(second, cfg.sinks.get(1));
+            assertTrue(cfg.sinks.get(1) instanceof HttpSink);
+            assertEquals(Set.of("$.sinks[1].timeout", "$.sinks"), touched);
+        }
+    }
+
+    static final class ScaleInner {
+
+        public String region;
+        public Integer level;
+        public Optional<ScaleInner> detail;
+    }
+
+    static final class ScaleItem {
+
+        public NonEmptyString name;
+        public PositiveInteger weight;
+        public Optional<ScaleInner> inner;
+    }
+
+    static final class ScaleCfg {
+
+        public List<ScaleItem> items = List.of();
+        public Map<String, ScaleItem> byName = Map.of();
+        public List<NonEmptyString> tags = List.of();
+    }
+
+    /**
+     * Synthetic configs for {@link ScaleSuite}: one collection of
+     * {@code entries} deterministic entries, so sizes compare like for
+     * like.
+     */
+    static final class ScaleCorpus {
+
+        enum Shape {
+            LIST_OF_OBJECTS,
+            NESTED_OBJECTS,
+            MAP_OF_OBJECTS,
+            DOMAIN_LEAVES,
+            INVALID_ENTRIES,
+        }
+
+        static String generate(Shape shape, int entries) {
+            StringBuilder sb = new StringBuilder(entries * 48 + 64);
+            String field = shape == Shape.MAP_OF_OBJECTS
+                ? "byName"
+                : shape == Shape.DOMAIN_LEAVES ? "tags" : "items";
+            sb.append("return {\n  ").append(field).append(" = {\n");
+            for (int i = 1; i <= entries; i++) {
+                sb.append("    ");
+                entry(sb, shape, i);
+                sb.append(",\n");
+            }
+            return sb.append("  },\n}\n").toString();
+        }
+
+        private static void entry(StringBuilder sb, Shape shape, int i) {
+            switch (shape) {
+                case LIST_OF_OBJECTS:
+                    item(sb, i, i);
+                    return;
+                case NESTED_OBJECTS:
+                    sb
+                        .append("{ name = 'item-")
+                        .append(i)
+                        .append("', weight = ")
+                        .append(i)
+                        .append(", inner = { region = 'eu-")
+                        .append(i % 16)
+                        .append("', level = ")
+                        .append(i % 100)
+                        .append(", detail = { region = 'r', level = 1 } } }");
+                    return;
+                case MAP_OF_OBJECTS:
+                    sb.append("['key-").append(i).append("'] = ");
+                    item(sb, i, i);
+                    return;
+                case DOMAIN_LEAVES:
+                    sb.append("'tag-").append(i).append('\'');
+                    return;
+                default:
+                    // PositiveInteger rejects 0: one error per entry
+                    item(sb, i, 0);
+            }
+        }
+
+        private static void item(StringBuilder sb, int i, int weight) {
+            sb
+                .append("{ name = 'item-")
+                .append(i)
+                .append("', weight = ")
+                .append(weight)
+                .append(" }");
+        }
+    }
+
+    /**
+     * Deserialize time, peak heap and retained size of the bound graph from
+     * 1k entries up to {@code -Dlua2java.scale.max} (1M by default, up to
+     * 10M). Fails when time or retained size per entry grows with size,
+     * which points at superlinear work in the adapters or error collection.
+     * Run with {@code gradle scaleTest [-PscaleMax=10000000]}.
+     */
+    @Nested
+    @Tag("scale")
+    class ScaleSuite {
+
+        private final int max = Integer.getInteger(
+            "lua2java.scale.max",
+            1_000_000
+        );
+        private final DeserializationOptions options = DeserializationOptions
+            .defaults()
+            .withErrorAggregation(true);
+
+        @Test
+        void listOfObjects() {
+            scale(ScaleCorpus.Shape.LIST_OF_OBJECTS);
+        }
+
+        @Test
+        void nestedObjects() {
+            scale(ScaleCorpus.Shape.NESTED_OBJECTS);
+        }
+
+        @Test
+        void mapOfObjects() {
+            scale(ScaleCorpus.Shape.MAP_OF_OBJECTS);
+        }
+
+        @Test
+        void domainLeaves() {
+            scale(ScaleCorpus.Shape.DOMAIN_LEAVES);
+        }
+
+        @Test
+        void invalidEntries() {
+            scale(ScaleCorpus.Shape.INVALID_ENTRIES);
+        }
+
+        private void scale(ScaleCorpus.Shape shape) {
+            // Warms up the JIT on the baseline size
+            measure(shape, 10_000);
+            Sample base = null;
+            for (int n = 1_000; n <= max && n <= 10_000_000; n *= 10) {
+                Sample s = measure(shape, n);
+                System.out.printf(
+                    "%-16s %,11d entries %9.1f ms (%7.1f ms gc) " +
+                    "%7.0f ns/entry %9.1f MiB peak " +
+                    "%7.1f B/entry retained%n",
+                    shape,
+                    n,
+                    s.nanos / 1e6,
+                    s.gcNanos / 1e6,
+                    s.nanosPerEntry(),
+                    s.peakBytes / 1048576.0,
+                    s.retainedPerEntry()
+                );
+                if (n == 10_000) {
+                    base = s;
+                } else if (base != null) {
+                    assertTrue(
+                        s.nanosPerEntry() <= 4 * base.nanosPerEntry(),
+                        shape + ": time per entry grows with size"
+                    );
+                    assertTrue(
+                        s.retainedPerEntry() <=
+                        1.5 * base.retainedPerEntry() + 16,
+                        shape + ": retained size per entry grows with size"
+                    );
+                }
+            }
+        }
+
+        private Sample measure(ScaleCorpus.Shape shape, int n) {
+            String lua = ScaleCorpus.generate(shape, n);
+            settle();
+            long before = usedHeap();
+            resetPeaks();
+
+            long gcStart = gcMillis();
+            long start = System.nanoTime();
+            ScaleCfg cfg = null;
+            try {
+                cfg = LuaDeserializer.deserialize(lua, ScaleCfg.class, options);
+            } catch (ConfigDeserializationException e) {
+                assertEquals(ScaleCorpus.Shape.INVALID_ENTRIES, shape);
+                assertEquals(n, e.getErrors().get(0).getOccurrences());
+            }
+            long nanos = System.nanoTime() - start;
+            long gcNanos = (gcMillis() - gcStart) * 1_000_000;
+            long peak = peakHeap() - before;
+
+            settle();
+            long retained = usedHeap() - before;
+            java.lang.ref.Reference.reachabilityFence(cfg);
+            return new Sample(
+                n,
+                nanos,
+                gcNanos,
+                peak,
+                cfg == null ? 0 : retained
+            );
+        }
+
+        private long gcMillis() {
+            long sum = 0;
+            for (java.lang.management.GarbageCollectorMXBean gc :
+                ManagementFactory.getGarbageCollectorMXBeans()) {
+                sum += Math.max(0, gc.getCollectionTime());
+            }
+            return sum;
+        }
+
+        private void settle() {
+            for (int i = 0; i < 3; i++) System.gc();
+        }
+
+        private long usedHeap() {
+            return ManagementFactory
+                .getMemoryMXBean()
+                .getHeapMemoryUsage()
+                .getUsed();
+        }
+
+        private void resetPeaks() {
+            for (java.lang.management.MemoryPoolMXBean p : ManagementFactory
+                .getMemoryPoolMXBeans()) {
+                p.resetPeakUsage();
+            }
+        }
+
+        /** Sum of per-pool peaks: an upper bound of the real peak. */
+        private long peakHeap() {
+            long sum = 0;
+            for (java.lang.management.MemoryPoolMXBean p : ManagementFactory
+                .getMemoryPoolMXBeans()) {
+                if (p.getType() == java.lang.management.MemoryType.HEAP) {
+                    sum += p.getPeakUsage().getUsed();
+                }
+            }
+            return sum;
+        }
+    }
+
+    static final class Sample {
+
+        final int entries;
+        final long nanos;
+        final long gcNanos;
+        final long peakBytes;
+        final long retainedBytes;
+
+        Sample(
+            int entries,
+            long nanos,
+            long gcNanos,
+            long peakBytes,
+            long retainedBytes
+        ) {
+            this.entries = entries;
+            this.nanos = nanos;
+            this.gcNanos = gcNanos;
+            this.peakBytes = peakBytes;
+            this.retainedBytes = retainedBytes;
+        }
+
+        /**
+         * Excludes collector time, which depends on heap size and pressure
+         * rather than on the adapters.
+         */
+        double nanosPerEntry() {
+            return (double) Math.max(0, nanos - gcNanos) / entries;
+        }
+
+        double retainedPerEntry() {
+            return (double) retainedBytes / entries;
+        }
+    }
+
+    @Nested
+    class ResultCache {
+
+        private java.nio.file.Path dir;
+
+        private java.nio.file.Path write(String name, String lua)
+            throws Exception {
+            if (dir == null) dir = Files.createTempDirectory("cache");
+            return Files.writeString(dir.resolve(name), lua);
+        }
+
+        private DeserializationOptions options(ConfigCache cache) {
+            return DeserializationOptions.defaults().withConfigCache(cache);
+        }
+
+        @Test
+        void sameFileAndType_returnSharedInstance() throws Exception {
+            ConfigCache cache = ConfigCache.create(10);
+            java.nio.file.Path file = write(
+                "a.lua",
+                "return { name = 'a', n = 1 }"
+            );
+
+            ItemName first = LuaDeserializer.deserialize(
+                file,
+                ItemName.class,
+                options(cache)
+            );
+            ItemName second = LuaDeserializer.deserialize(
+                dir.resolve("./a.lua"),
+                ItemName.class,
+                options(cache)
+            );
+            ItemN other = LuaDeserializer.deserialize(
+                file,
+                ItemN.class,
+                options(cache)
+            );
+
+            assertSame(first, second);
+            assertEquals(1, other.n.value);
+            assertEquals(1, cache.getHits());
+            assertEquals(2, cache.getMisses());
+            assertEquals(2, cache.size());
+        }
+
+        @Test
+        void budgetedLoad_doesNotReuseAnUnbudgetedResult() throws Exception {
+            ConfigCache cache = ConfigCache.create(10);
+            java.nio.file.Path file = write(
+                "slow.lua",
+                "for i = 1, 100000 do end return { n = 1 }"
+            );
+            LuaDeserializer.deserialize(file, ItemN.class, options(cache));
+
+            ConfigDeserializationException ex = assertThrows(
+                ConfigDeserializationException.class,
+                () ->
+                    LuaDeserializer.deserialize(
+                        file,
+                        ItemN.class,
+                        options(cache).withMaxInstructions(10_000)
+                    )
+            );
+            assertEquals(
+                ConfigErrorCode.INSTRUCTION_LIMIT_EXCEEDED,
+                ex.getErrors().get(0).getCode()
+            );
+            assertEquals(0, cache.getHits());
+        }
+
+        @Test
+        void changedFile_isLoadedAgain() throws Exception {
+            ConfigCache cache = ConfigCache.create(10);
+            java.nio.file.Path file = write("a.lua", "return { name = 'a' }");
+            FileTime mtime = Files.getLastModifiedTime(file);
+            LuaDeserializer.deserialize(file, ItemName.class, options(cache));
+
+            // Same size and modification time: only the content differs
+            write("a.lua", "return { name = 'b' }");
+            Files.setLastModifiedTime(file, mtime);
+            ItemName b = LuaDeserializer.deserialize(
+                file,
+                ItemName.class,
+                options(cache)
+            );
+            write("a.lua", "return { name = 'longer' }");
+            ItemName longer = LuaDeserializer.deserialize(
+                file,
+                ItemName.class,
+                options(cache)
+            );
+
+            assertEquals("b", b.name.value);
+            assertEquals("longer", longer.name.value);
+            assertEquals(0, cache.getHits());
+            assertEquals(2, cache.getInvalidations());
+        }
+
+        @Test
+        void leastRecentlyUsed_isEvicted() throws Exception {
+            ConfigCache cache = ConfigCache.create(2);
+            java.nio.file.Path a = write("a.lua", "return { name = 'a' }");
+            java.nio.file.Path b = write("b.lua", "return { name = 'b' }");
+            java.nio.file.Path c = write("c.lua", "return { name = 'c' }");
+
+            for (java.nio.file.Path f : List.of(a, b, a, c, a, b)) {
+                LuaDeserializer.deserialize(f, ItemName.class, options(cache));
+            }
+
+            // a, b, (a hit), c evicts b, (a hit), b evicts c
+            assertEquals(2, cache.getHits());
+            assertEquals(4, cache.getMisses());
+            assertEquals(2, cache.getEvictions());
+            assertEquals(2, cache.size());
+        }
+
+        @Test
+        void totalFileSize_isBounded() throws Exception {
+            String lua = "return { name = 'x' }";
+            ConfigCache cache = ConfigCache.create(100, lua.length() * 2);
+
+            for (int i = 0; i < 5; i++) {
+                java.nio.file.Path f = write(i + ".lua", lua);
+                LuaDeserializer.deserialize(f, ItemName.class, options(cache));
+            }
+
+            assertEquals(2, cache.size());
+            assertEquals(3, cache.getEvictions());
+        }
+
+        @Test
+        void untrackableScript_isNotCached() throws Exception {
+            ConfigCache cache = ConfigCache.create(10);
+            java.nio.file.Path file = write(
+                "r.lua",
+                "return { n = math.random(1, 5) }"
+            );
+
+            LuaDeserializer.deserialize(file, ItemN.class, options(cache));
+            LuaDeserializer.deserialize(file, ItemN.class, options(cache));
+            cache.invalidate(file);
+
+            assertEquals(0, cache.getHits());
+            assertEquals(2, cache.getMisses());
+            assertEquals(0, cache.size());
+        }
+
+        @Test
+        void memoHit_keepsInputsOfTheRunThatProducedIt() throws Exception {
+            java.nio.file.Path data = write("data.txt", "first");
+            String lua =
+                "local f = io.open('" +
+                data.toString().replace("\\", "/") +
+                "')\n" +
+                "local s = f:read('*a')\n" +
+                "f:close()\n" +
+                "return { name = s }";
+            java.nio.file.Path a = write("a.lua", lua);
+            java.nio.file.Path b = write("b.lua", lua);
+            ConfigCache cache = ConfigCache.create(10);
+            DeserializationOptions o = options(cache)
+                .withEvaluationMemo(EvaluationMemo.create());
+
+            LuaDeserializer.deserialize(a, ItemName.class, o);
+            // Same text: answered by the memo, then cached under b
+            LuaDeserializer.deserialize(b, ItemName.class, o);
+            Files.writeString(data, "second one");
+            ItemName after = LuaDeserializer.deserialize(
+                b,
+                ItemName.class,
+                o
+            );
+
+            assertEquals("second one", after.name.value);
+            assertEquals(1, cache.getInvalidations());
+        }
+    }
+
+    @Nested
+    class LayeredConfigs {
+
+        private final LiveCfg base = LuaDeserializer.deserialize(
+            "return {\n" +
+            "  name = 'base', port = 9000,\n" +
+            "  db = { host = 'db1', pool = 4 },\n" +
+            "  routes = { { path = '/a', weight = 1 } },\n" +
+            "  byName = {\n" +
+            "    a = { path = '/a', weight = 1 },\n" +
+            "    b = { path = '/b', weight = 2 },\n" +
+            "  },\n" +
+            "  replica = { host = 'db2', pool = 2 },\n" +
+            "}",
+            LiveCfg.class
+        );
+
+        @Test
+        void untouchedSubtrees_areSharedWithBase() {
+            LiveCfg tenant = LuaDeserializer.overlay(
+                base,
+                "return { name = 'tenant-1' }"
+            );
+
+            assertNotSame(base, tenant);
+            assertEquals("tenant-1", tenant.name.value);
+            assertEquals("base", base.name.value);
+            assertSame(base.port, tenant.port);
+            assertSame(base.db, tenant.db);
+            assertSame(base.routes, tenant.routes);
+            assertSame(base.byName, tenant.byName);
+            assertSame(base.replica, tenant.replica);
+        }
+
+        @Test
+        void nestedOverride_copiesOnlyItsPath() {
+            LiveCfg tenant = LuaDeserializer.overlay(
+                base,
+                "return { db = { pool = 20 }, replica = { pool = 3 } }"
+            );
+
+            assertNotSame(base.db, tenant.db);
+            assertSame(base.db.host, tenant.db.host);
+            assertEquals(20, tenant.db.pool.value);
+            assertEquals(4, base.db.pool.value);
+            assertEquals(3, tenant.replica.get().pool.value);
+            assertSame(base.replica.get().host, tenant.replica.get().host);
+            assertSame(base.routes, tenant.routes);
+        }
+
+        @Test
+        void mapEntries_overlayByKey_listsAreReplaced() {
+            LiveCfg tenant = LuaDeserializer.overlay(
+                base,
+                "return {\n" +
+                "  byName = {\n" +
+                "    b = { weight = 7 },\n" +
+                "    c = { path = '/c', weight = 1 },\n" +
+                "  },\n" +
+                "  routes = { { path = '/z', weight = 9 } },\n" +
+                "}"
+            );
+
+            assertEquals(
+                List.of("a", "b", "c"),
+                List.copyOf(tenant.byName.keySet())
+            );
+            assertSame(base.byName.get("a"), tenant.byName.get("a"));
+            assertEquals("/b", tenant.byName.get("b").path.value);
+            assertEquals(7, tenant.byName.get("b").weight.value);
+            assertEquals(2, base.byName.get("b").weight.value);
+            assertEquals(2, base.byName.size());
+            assertEquals(1, tenant.routes.size());
+            assertEquals("/z", tenant.routes.get(0).path.value);
+        }
+
+        @Test
+        void emptyOrEqualOverride_returnsBase() {
+            assertSame(base, LuaDeserializer.overlay(base, "return {}"));
+            assertSame(
+                base,
+                LuaDeserializer.overlay(
+                    base,
+                    "return { port = 9000, db = { host = 'db1' } }"
+                )
+            );
+        }
+
+        @Test
+        void invalidOverride_throwsWithPath() {
+            ConfigDeserializationException e = assertThrows(
+                ConfigDeserializationException.class,
+                () ->
+                    LuaDeserializer.overlay(
+                        base,
+                        "return { db = { pool = 0 } }"
+                    )
+            );
+
+            assertEquals("$.db.pool", e.getErrors().get(0).getPath());
+            assertEquals(4, base.db.pool.value);
+            assertThrows(
+                IllegalArgumentException.class,
+                () -> LuaDeserializer.overlay(base, "return 1")
+            );
+        }
+    }
+
+    static final class MappedCfg {
+
+        // Fields stay mapped to one directory, so it is shared by all tests
+        static final java.nio.file.Path DIR = tempDir("mapped");
+
+        public NonEmptyString name;
+        public List<LiveRoute> routes;
+        public Map<String, LiveRoute> byPath;
+    }
+
+    static final class LateMapped {
+
+        public List<Integer> ids;
+    }
+
+    static java.nio.file.Path tempDir(String prefix) {
+        try {
+            return Files.createTempDirectory(prefix);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Nested
+    class MappedCollections {
+
+        MappedCollections() {
+            LuaDeserializer.registerMappedField(
+                MappedCfg.class,
+                "routes",
+                MappedCfg.DIR
+            );
+            LuaDeserializer.registerMappedField(
+                MappedCfg.class,
+                "byPath",
+                MappedCfg.DIR
+            );
+        }
+
+        private String config(String... paths) {
+            StringBuilder routes = new StringBuilder();
+            StringBuilder byPath = new StringBuilder();
+            for (int i = 0; i < paths.length; i++) {
+                String route =
+                    "{ path = '" + paths[i] + "', weight = " + (i + 1) + " }";
+                routes.append(route).append(", ");
+                byPath
+                    .append("['")
+                    .append(paths[i])
+                    .append("'] = ")
+                    .append(route)
+                    .append(", ");
+            }
+            return (
+                "return { name = 'mapped', routes = { " +
+                routes +
+                "}, byPath = { " +
+                byPath +
+                "} }"
+            );
+        }
+
+        /** The field's only file; files for other entries are pruned. */
+        private java.nio.file.Path file(String field) throws IOException {
+            String prefix = MappedCfg.class.getName() + "." + field + ".";
+            List<java.nio.file.Path> found = new ArrayList<>();
+            try (
+                java.nio.file.DirectoryStream<java.nio.file.Path> files =
+                    Files.newDirectoryStream(MappedCfg.DIR, prefix + "*.l2jm")
+            ) {
+                files.forEach(found::add);
+            }
+            assertEquals(1, found.size(), found::toString);
+            return found.get(0);
+        }
+
+        @Test
+        void listAndMap_bindEntriesFromFile() throws Exception {
+            MappedCfg cfg = LuaDeserializer.deserialize(
+                config("/a", "/b", "/c"),
+                MappedCfg.class
+            );
+
+            assertEquals(3, cfg.routes.size());
+            assertEquals("/b", cfg.routes.get(1).path.value);
+            assertEquals(3, cfg.byPath.get("/c").weight.value);
+            assertTrue(cfg.byPath.containsKey("/a"));
+            assertNull(cfg.byPath.get("/z"));
+            assertEquals(
+                Set.of("/a", "/b", "/c"),
+                new HashSet<>(cfg.byPath.keySet())
+            );
+            assertEquals(3, cfg.byPath.entrySet().size());
+            assertTrue(Files.isRegularFile(file("routes")));
+            assertTrue(Files.isRegularFile(file("byPath")));
+            assertThrows(
+                UnsupportedOperationException.class,
+                () -> cfg.routes.add(null)
+            );
+        }
+
+        @Test
+        void sameEntries_reuseFile_changedEntries_rewriteIt()
+            throws Exception {
+            String lua = config("/a", "/b");
+            MappedCfg first = LuaDeserializer.deserialize(lua, MappedCfg.class);
+            java.nio.file.Path file = file("byPath");
+            FileTime old = FileTime.fromMillis(0);
+            Files.setLastModifiedTime(file, old);
+
+            LuaDeserializer.deserialize(lua, MappedCfg.class);
+            assertEquals(file, file("byPath"));
+            assertEquals(old, Files.getLastModifiedTime(file));
+
+            MappedCfg changed = LuaDeserializer.deserialize(
+                config("/a", "/x"),
+                MappedCfg.class
+            );
+            assertNotEquals(file, file("byPath"));
+            assertEquals(2, changed.byPath.get("/x").weight.value);
+            // Views keep the file they mapped
+            assertEquals(2, first.byPath.get("/b").weight.value);
+            assertNull(first.byPath.get("/x"));
+        }
+
+        @Test
+        void invalidEntries_reportedWithPaths() {
+            ConfigDeserializationException e = assertThrows(
+                ConfigDeserializationException.class,
+                () ->
+                    LuaDeserializer.deserialize(
+                        "return { name = 'x', " +
+                        "routes = { { path = '/a', weight = 1 }, " +
+                        "{ path = '', weight = 2 } }, " +
+                        "byPath = { ['/b'] = { path = '/b', weight = 0 } } }",
+                        MappedCfg.class
+                    )
+            );
+
+            assertEquals(2, e.getErrors().size());
+            assertErrorPaths(e, "$.routes[2].path", "$.byPath[/b].weight");
+        }
+
+        @Test
+        void unchangedEntries_keepViewOnRebind() {
+            String lua = config("/a", "/b");
+            MappedCfg cfg = LuaDeserializer.deserialize(lua, MappedCfg.class);
+            List<LiveRoute> routes = cfg.routes;
+
+            assertEquals(Set.of(), LuaDeserializer.deserializeInto(lua, cfg));
+            assertSame(routes, cfg.routes);
+            assertEquals(
+                Set.of("$.routes", "$.byPath"),
+                LuaDeserializer.deserializeInto(config("/a", "/c"), cfg)
+            );
+            assertEquals("/c", cfg.routes.get(1).path.value);
+        }
+
+        @Test
+        void changedEntryValidation_bindsEntriesAgain() throws Exception {
+            String cfg =
+                "package mapped;\n" +
+                "public class Cfg { public java.util.List<Port> ports; }";
+            String port =
+                "package mapped;\n" +
+                "public class Port {\n" +
+                "  public final Integer value;\n" +
+                "  public Port(Integer v) {\n" +
+                "    if (v < %d) throw new IllegalArgumentException();\n" +
+                "    value = v;\n" +
+                "  }\n" +
+                "}";
+            // Same class names, only the constructor's check differs
+            Class<?> lenient = compile(
+                Map.of("Cfg", cfg, "Port", String.format(port, 0))
+            ).loadClass("mapped.Cfg");
+            Class<?> strict = compile(
+                Map.of("Cfg", cfg, "Port", String.format(port, 10))
+            ).loadClass("mapped.Cfg");
+            for (Class<?> c : List.of(lenient, strict)) {
+                LuaDeserializer.registerMappedField(c, "ports", MappedCfg.DIR);
+            }
+            String lua = "return { ports = { 1, 20 } }";
+
+            LuaDeserializer.deserialize(lua, lenient);
+            ConfigDeserializationException e = assertThrows(
+                ConfigDeserializationException.class,
+                () -> LuaDeserializer.deserialize(lua, strict)
+            );
+            assertErrorPaths(e, "$.ports[1]");
+        }
+
+        @Test
+        void concurrentLoadsOfDifferentEntries_eachReadTheirOwn()
+            throws Exception {
+            ExecutorService pool = Executors.newFixedThreadPool(4);
+            try {
+                List<CompletableFuture<MappedCfg>> loads = new ArrayList<>();
+                for (int i = 0; i < 40; i++) {
+                    String lua = config("/a", i % 2 == 0 ? "/b" : "/c");
+                    loads.add(
+                        CompletableFuture.supplyAsync(
+                            () ->
+                                LuaDeserializer.deserialize(
+                                    lua,
+                                    MappedCfg.class
+                                ),
+                            pool
+                        )
+                    );
+                }
+                for (int i = 0; i < loads.size(); i++) {
+                    MappedCfg cfg = loads.get(i).get();
+                    String second = i % 2 == 0 ? "/b" : "/c";
+                    assertEquals(second, cfg.routes.get(1).path.value);
+                    assertEquals(2, cfg.byPath.get(second).weight.value);
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        @Test
+        void onlyListAndMapFields_canBeMapped() {
+            assertThrows(
+                IllegalArgumentException.class,
+                () ->
+                    LuaDeserializer.registerMappedField(
+                        MappedCfg.class,
+                        "name",
+                        MappedCfg.DIR
+                    )
+            );
+            assertThrows(
+                IllegalArgumentException.class,
+                () ->
+                    LuaDeserializer.registerMappedField(
+                        MappedCfg.class,
+                        "missing",
+                        MappedCfg.DIR
+                    )
+            );
+            assertThrows(
+                IllegalStateException.class,
+                () ->
+                    LuaDeserializer.registerMappedField(
+                        MappedCfg.class,
+                        "routes",
+                        MappedCfg.DIR.resolve("other")
+                    )
+            );
+        }
+
+        @Test
+        void entriesAFileCannotHold_areRejected() {
+            // Binds on the heap: weight is read through __index
+            String lua =
+                "local w = setmetatable({ path = '/w' }, " +
+                "{ __index = { weight = 1 } })\n" +
+                "return { name = 'mapped', routes = { " +
+                "{ path = '/a', weight = 1 }, w }, byPath = {} }";
+            ConfigDeserializationException e = assertThrows(
+                ConfigDeserializationException.class,
+                () -> LuaDeserializer.deserialize(lua, MappedCfg.class)
+            );
+            assertErrorPaths(e, "$.routes[2]");
+            ConfigDeserializationException.ConfigError err =
+                e.getErrors().get(0);
+            assertEquals(ConfigErrorCode.MAPPED_FILE_FAILED, err.getCode());
+            assertTrue(
+                err.getMessage().contains("a table with a metatable"),
+                err.getMessage()
+            );
+
+            // The same entries as plain tables are written
+            MappedCfg cfg = LuaDeserializer.deserialize(
+                config("/a", "/w"),
+                MappedCfg.class
+            );
+            assertEquals(2, cfg.routes.get(1).weight.value);
+        }
+
+        @Test
+        void registeringAfterTheFirstLoad_fails() {
+            LuaDeserializer.deserialize(
+                "return { ids = { 1 } }",
+                LateMapped.class
+            );
+            IllegalStateException e = assertThrows(
+                IllegalStateException.class,
+                () ->
+                    LuaDeserializer.registerMappedField(
+                        LateMapped.class,
+                        "ids",
+                        MappedCfg.DIR
+                    )
+            );
+            assertTrue(e.getMessage().contains("before the first load"));
+        }
+    }
 }
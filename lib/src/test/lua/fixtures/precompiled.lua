@@ -0,0 +1,2 @@
+local parts = { "pre", "compiled" }
+return { name = table.concat(parts) }